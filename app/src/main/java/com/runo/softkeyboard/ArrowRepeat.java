@@ -0,0 +1,156 @@
+package com.runo.softkeyboard;
+
+/**
+ * Cursor movement for held on screen arrow keys.  The first ticks of a hold
+ * move one character each, like a normal key press; after
+ * ACCELERATE_AFTER_MS each tick moves further, doubling every
+ * DOUBLE_EVERY_MS up to MAX_STEP.
+ *
+ * Accelerated moves are worked out here against a snapshot of the editor's
+ * text taken once per hold, so the keyboard only has to send the resulting
+ * selection instead of one DPAD event pair per character.  Works on plain
+ * CharSequences so it runs without the framework.
+ */
+final class ArrowRepeat {
+
+    static final long ACCELERATE_AFTER_MS = 700L; //auto-repeat starts at 400ms
+    static final long DOUBLE_EVERY_MS = 400L;
+    static final int MAX_STEP = 64;
+
+    static final int NO_SNAPSHOT = -1;
+
+    private int mKeyCode;
+    private long mPressTime;
+
+    private CharSequence mText;
+    private int mTextStart; //editor offset of mText's first char
+    private int mAnchor = NO_SNAPSHOT; //editor offsets
+    private int mFocus = NO_SNAPSHOT;
+
+    /**
+     * A key went down, starts a new hold if it is an arrow.
+     */
+    void onPress(int keyCode, long time) {
+        mKeyCode = keyCode;
+        mPressTime = time;
+        clearSnapshot();
+    }
+
+    /**
+     * Returns how many steps the arrow key {@code keyCode} moves on this
+     * tick, 1 until the hold has gone on long enough.
+     */
+    int getStep(int keyCode, long time) {
+        if (keyCode != mKeyCode) {
+            return 1;
+        }
+        long held = time - mPressTime;
+        if (held < ACCELERATE_AFTER_MS) {
+            return 1;
+        }
+        long doublings = (held - ACCELERATE_AFTER_MS) / DOUBLE_EVERY_MS + 1;
+        return doublings >= 6 ? MAX_STEP : (int) Math.min(MAX_STEP, 1L << doublings);
+    }
+
+    boolean hasSnapshot() {
+        return mAnchor != NO_SNAPSHOT;
+    }
+
+    /**
+     * Takes the editor text around the selection, {@code textStart} being
+     * the editor offset of its first char.
+     */
+    void setSnapshot(CharSequence text, int textStart, int selectionStart, int selectionEnd) {
+        mText = text;
+        mTextStart = textStart;
+        mAnchor = selectionStart;
+        mFocus = selectionEnd;
+    }
+
+    void clearSnapshot() {
+        mText = null;
+        mAnchor = NO_SNAPSHOT;
+        mFocus = NO_SNAPSHOT;
+    }
+
+    int getAnchor() {
+        return mAnchor;
+    }
+
+    int getFocus() {
+        return mFocus;
+    }
+
+    /**
+     * Moves the cursor {@code steps} characters, or words if {@code byWord},
+     * in {@code direction} (-1 or 1), stopping at the ends of the snapshot.
+     * With {@code extend} the selection's anchor stays where it is.  Returns
+     * the number of chars the cursor moved.
+     */
+    int move(int direction, int steps, boolean byWord, boolean extend) {
+        int from = mFocus;
+        int offset = from - mTextStart;
+        for (int i = 0; i < steps; i++) {
+            int next = byWord ? nextWordBoundary(mText, offset, direction) : nextChar(mText, offset, direction);
+            if (next == offset) {
+                break;
+            }
+            offset = next;
+        }
+        mFocus = offset + mTextStart;
+        if (!extend) {
+            mAnchor = mFocus;
+        }
+        return Math.abs(mFocus - from);
+    }
+
+    /** Next code point boundary, so surrogate pairs are never split. */
+    static int nextChar(CharSequence text, int offset, int direction) {
+        if (direction < 0) {
+            if (offset <= 0) {
+                return 0;
+            }
+            offset--;
+            if (offset > 0 && Character.isLowSurrogate(text.charAt(offset)) && Character.isHighSurrogate(text.charAt(offset - 1))) {
+                offset--;
+            }
+            return offset;
+        }
+        if (offset >= text.length()) {
+            return text.length();
+        }
+        offset++;
+        if (offset < text.length() && Character.isLowSurrogate(text.charAt(offset)) && Character.isHighSurrogate(text.charAt(offset - 1))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    /**
+     * Ctrl+arrow movement: skips separators and then a word, so right lands
+     * on the end of the next word and left on the start of the previous
+     * one, like TextView.
+     */
+    static int nextWordBoundary(CharSequence text, int offset, int direction) {
+        if (direction < 0) {
+            while (offset > 0 && !isWordChar(text.charAt(offset - 1))) {
+                offset--;
+            }
+            while (offset > 0 && isWordChar(text.charAt(offset - 1))) {
+                offset--;
+            }
+        } else {
+            while (offset < text.length() && !isWordChar(text.charAt(offset))) {
+                offset++;
+            }
+            while (offset < text.length() && isWordChar(text.charAt(offset))) {
+                offset++;
+            }
+        }
+        return offset;
+    }
+
+    static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || Character.isSurrogate(c);
+    }
+}
@@ -0,0 +1,166 @@
+package com.runo.softkeyboard;
+
+/**
+ * Finds the dictionary word a mistyped word was most likely meant to be.
+ *
+ * The trie is walked depth first with one row of a weighted edit distance
+ * table per depth, the rows acting as a Levenshtein automaton over the
+ * typed word: a branch is left as soon as every entry in its row is over
+ * the word's cost limit, or when even its most frequent word can no longer
+ * beat the best one found.  Costs come from {@link KeyProximity}, two
+ * swapped letters costing as little as a neighbouring key.  A word's score
+ * is its frequency less COST_PENALTY per cost unit, so the cheapest edit
+ * wins unless a much more common word is close behind.
+ *
+ * A correction is only a suggestion unless {@link #isConfident} says
+ * otherwise: one near slip in a longer word that keeps its first letter,
+ * against a dictionary big enough that a word missing from it is likely a
+ * typo rather than a word it leaves out.
+ *
+ * The walk checks the clock every CHECK_EVERY nodes and gives up once its
+ * time budget is spent, returning no correction rather than a possibly
+ * worse one.  State is preallocated, an instance is meant for one thread.
+ */
+final class Autocorrector {
+
+    static final int MIN_LENGTH = 3; //shorter words are never corrected
+    static final int COST_PENALTY = 120; //a frequency difference worth one cost unit, tuned on typos.txt
+    static final int CONFIDENT_LENGTH = 4; //shorter words are only ever suggested
+    static final int MIN_DICTIONARY_WORDS = 10_000; //smaller lists miss too many common words to replace what they don't know
+
+    private static final int CHECK_EVERY = 64; //nodes between clock checks, a power of two
+    private static final int ROW = TrieDictionary.MAX_WORD_LENGTH + 1;
+
+    private final TrieDictionary mDictionary;
+    private final int[] mRows = new int[(TrieDictionary.MAX_WORD_LENGTH + 1) * ROW];
+    private final char[] mTyped = new char[TrieDictionary.MAX_WORD_LENGTH];
+    private final char[] mWord = new char[TrieDictionary.MAX_WORD_LENGTH];
+
+    // per search
+    private int mLength;
+    private int mMaxCost;
+    private long mDeadline;
+    private int mVisited;
+    private boolean mAborted;
+    private String mBest;
+    private int mBestScore;
+    private int mBestCost;
+
+    Autocorrector(TrieDictionary dictionary) {
+        mDictionary = dictionary;
+    }
+
+    /**
+     * Returns the best correction for the lower case {@code typed}, or null
+     * if there is none within its cost limit or the search took longer
+     * than {@code budgetNanos}.
+     */
+    String correct(CharSequence typed, long budgetNanos) {
+        mDeadline = System.nanoTime() + budgetNanos;
+        mVisited = 0;
+        mAborted = false;
+        mBest = null;
+        mBestScore = Integer.MIN_VALUE;
+        mBestCost = 0;
+        mLength = typed.length();
+        if (mLength < MIN_LENGTH || mLength > TrieDictionary.MAX_WORD_LENGTH) {
+            return null;
+        }
+        mMaxCost = getMaxCost(mLength);
+        mRows[0] = 0;
+        for (int j = 1; j <= mLength; j++) {
+            mTyped[j - 1] = typed.charAt(j - 1);
+            mRows[j] = mRows[j - 1] + KeyProximity.extraCost(j > 1 ? mTyped[j - 2] : 0, mTyped[j - 1]);
+        }
+        walk(0, 0);
+        return mAborted ? null : mBest;
+    }
+
+    /** Whether the last search ran out of time. */
+    boolean isAborted() {
+        return mAborted;
+    }
+
+    /** Trie nodes the last search looked at. */
+    int getVisited() {
+        return mVisited;
+    }
+
+    /** Edit cost of the last correction found. */
+    int getCost() {
+        return mBestCost;
+    }
+
+    /**
+     * Whether the last correction is sure enough to replace the typed word
+     * without asking: a single neighbouring, doubled or swapped key in a
+     * word of CONFIDENT_LENGTH or more, the first letter as typed, from a
+     * dictionary of MIN_DICTIONARY_WORDS or more.
+     */
+    boolean isConfident() {
+        return mBest != null && mBestCost <= KeyProximity.NEAR && mLength >= CONFIDENT_LENGTH
+                && mBest.charAt(0) == mTyped[0] && mDictionary.getWordCount() >= MIN_DICTIONARY_WORDS;
+    }
+
+    /** One far slip or two near ones for short words, up to four near ones for long words. */
+    static int getMaxCost(int length) {
+        return length <= 4 ? KeyProximity.FAR : length <= 7 ? 3 : 2 * KeyProximity.FAR;
+    }
+
+    private void walk(int node, int depth) {
+        if (depth == TrieDictionary.MAX_WORD_LENGTH) {
+            return;
+        }
+        int previous = depth * ROW;
+        int current = previous + ROW;
+        int edgeCount = mDictionary.getEdgeCount(node);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if ((mVisited++ & (CHECK_EVERY - 1)) == 0 && System.nanoTime() - mDeadline >= 0) {
+                mAborted = true;
+                return;
+            }
+            char c = mDictionary.getEdgeChar(node, edge);
+            mWord[depth] = c;
+            int rowMin = fillRow(previous, current, depth, c);
+            if (rowMin > mMaxCost) {
+                continue;
+            }
+            int child = mDictionary.getEdgeChild(node, edge);
+            if (mDictionary.getBestFrequency(child) - COST_PENALTY * rowMin <= mBestScore) {
+                continue; //nothing below can win
+            }
+            int cost = mRows[current + mLength];
+            int frequency = mDictionary.getNodeFrequency(child);
+            if (frequency > 0 && cost > 0 && cost <= mMaxCost && frequency - COST_PENALTY * cost > mBestScore) {
+                mBest = new String(mWord, 0, depth + 1);
+                mBestScore = frequency - COST_PENALTY * cost;
+                mBestCost = cost;
+            }
+            walk(child, depth + 1);
+            if (mAborted) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fills the row for the word so far plus {@code c}, returning its
+     * smallest entry, which no longer word below it can go under.
+     */
+    private int fillRow(int previous, int current, int depth, char c) {
+        mRows[current] = mRows[previous] + KeyProximity.FAR; //c was missed
+        int rowMin = mRows[current];
+        for (int j = 1; j <= mLength; j++) {
+            char typed = mTyped[j - 1];
+            int cost = mRows[previous + j - 1] + KeyProximity.substitutionCost(typed, c);
+            cost = Math.min(cost, mRows[current + j - 1] + KeyProximity.extraCost(j > 1 ? mTyped[j - 2] : 0, typed));
+            cost = Math.min(cost, mRows[previous + j] + KeyProximity.FAR);
+            if (depth > 0 && j > 1 && typed == mWord[depth - 1] && mTyped[j - 2] == c) {
+                cost = Math.min(cost, mRows[previous - ROW + j - 2] + KeyProximity.NEAR);
+            }
+            mRows[current + j] = cost;
+            rowMin = Math.min(rowMin, cost);
+        }
+        return rowMin;
+    }
+}
@@ -0,0 +1,100 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Strip of word predictions above the keyboard, the slots share the width
+ * evenly and the first one is the most likely word.  Only draws what it is
+ * given; the lookups happen in {@link Predictor}.
+ */
+final class CandidateView extends View {
+
+    interface Listener {
+        void onCandidatePicked(String word);
+    }
+
+    private final Listener mListener;
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int mNormalColor;
+    private final int mRecommendedColor;
+    private final int mOtherColor;
+    private final int mVerticalPadding;
+    private String[] mWords = new String[0];
+    private int mPressed = -1;
+
+    CandidateView(Context context, Listener listener) {
+        super(context);
+        mListener = listener;
+        Resources res = context.getResources();
+        mNormalColor = res.getColor(R.color.candidate_normal, null);
+        mRecommendedColor = res.getColor(R.color.candidate_recommended, null);
+        mOtherColor = res.getColor(R.color.candidate_other, null);
+        mVerticalPadding = res.getDimensionPixelSize(R.dimen.candidate_vertical_padding);
+        setBackgroundColor(res.getColor(R.color.candidate_background, null));
+        mPaint.setTextSize(res.getDimensionPixelSize(R.dimen.candidate_font_height));
+        mPaint.setTextAlign(Paint.Align.CENTER);
+    }
+
+    /** Replaces the candidates shown, none clears the strip. */
+    void setWords(String[] words) {
+        mWords = words;
+        mPressed = -1;
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = (int) (mPaint.getFontSpacing() + 2 * mVerticalPadding);
+        setMeasuredDimension(resolveSize(0, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mWords.length == 0) {
+            return;
+        }
+        float slot = (float) getWidth() / Predictor.MAX_PREDICTIONS;
+        float baseline = (getHeight() - mPaint.ascent() - mPaint.descent()) / 2;
+        for (int i = 0; i < mWords.length; i++) {
+            if (i == mPressed) {
+                mPaint.setColor(mOtherColor);
+            } else {
+                mPaint.setColor(i == 0 ? mRecommendedColor : mNormalColor);
+            }
+            canvas.drawText(mWords[i], slot * i + slot / 2, baseline, mPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int slot = (int) (event.getX() * Predictor.MAX_PREDICTIONS / Math.max(1, getWidth()));
+        int index = slot >= 0 && slot < mWords.length ? slot : -1;
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                if (index != mPressed) {
+                    mPressed = index;
+                    invalidate();
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                mPressed = -1;
+                if (index >= 0) {
+                    mListener.onCandidatePicked(mWords[index]);
+                }
+                invalidate();
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mPressed = -1;
+                invalidate();
+                return true;
+            default:
+                return true;
+        }
+    }
+}
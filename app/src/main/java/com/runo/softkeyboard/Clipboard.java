@@ -0,0 +1,83 @@
+package com.runo.softkeyboard;
+
+import android.content.ClipData;
+import android.content.ClipDescription;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records what is copied into a {@link ClipboardHistory} while the keyboard
+ * is up.  Long clips go to STORE_FILE in the cache dir, memory mapped so
+ * their text is in the page cache rather than on the heap.  The file is
+ * cleared every time the keyboard starts; the history is never kept.
+ */
+final class Clipboard implements ClipboardManager.OnPrimaryClipChangedListener {
+
+    static final String STORE_FILE = "clipboard.store";
+    static final int STORE_CHARS = 256 * 1024;
+
+    private static final String TAG = "Clipboard";
+
+    private final ClipboardManager mManager;
+    private final ClipboardHistory mHistory;
+    private boolean mRecording; //off in password fields
+
+    Clipboard(Context context) {
+        mManager = context.getSystemService(ClipboardManager.class);
+        mHistory = new ClipboardHistory(mapStore(new File(context.getCacheDir(), STORE_FILE)));
+        mManager.addPrimaryClipChangedListener(this);
+    }
+
+    ClipboardHistory getHistory() {
+        return mHistory;
+    }
+
+    /** Whether copies are recorded, on from the start of an input to its finish, except in passwords. */
+    void setRecording(boolean recording) {
+        mRecording = recording;
+    }
+
+    void close() {
+        mManager.removePrimaryClipChangedListener(this);
+        mHistory.clear();
+    }
+
+    @Override
+    public void onPrimaryClipChanged() {
+        if (!mRecording) {
+            return;
+        }
+        ClipData clip = mManager.getPrimaryClip();
+        if (clip == null || clip.getItemCount() == 0) {
+            return;
+        }
+        ClipDescription description = clip.getDescription();
+        if (description.getExtras() != null
+                && description.getExtras().getBoolean(ClipDescription.EXTRA_IS_SENSITIVE)) {
+            return; //the app copying marked it as a password or the like
+        }
+        CharSequence text = clip.getItemAt(0).getText(); //not coerceToText, that may read a uri
+        if (text != null && !mHistory.add(text)) {
+            if (BuildConfig.KEY_LOG) Log.d(TAG, "clip of " + text.length() + " chars not kept");
+        }
+    }
+
+    private static CharBuffer mapStore(File file) {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw");
+             FileChannel channel = out.getChannel()) {
+            channel.truncate(0); //drops the clips of the last run
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, STORE_CHARS * 2L).asCharBuffer();
+        } catch (IOException e) {
+            Log.e(TAG, "can't map " + STORE_FILE + ", keeping short clips only", e);
+            return CharBuffer.allocate(0);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.runo.softkeyboard;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recent clips, most recently copied or pasted first, in bounded memory.
+ *
+ * Clips up to INLINE_CHARS are kept on the heap.  Longer ones are written
+ * to a char store, normally a memory mapped file, and only a preview of
+ * PREVIEW_CHARS stays on the heap; the full text is read back when the clip
+ * is pasted.  The least recently used clips are dropped once there are
+ * more than MAX_CLIPS, once the heap text passes MAX_HEAP_CHARS, or to make
+ * room in the store, which is compacted before anything is dropped for it.
+ *
+ * Not thread safe, SoftKeyboard only uses it from the main thread.
+ */
+final class ClipboardHistory {
+
+    static final int MAX_CLIPS = 50;
+    static final int MAX_HEAP_CHARS = 8 * 1024; //inline text and previews together
+    static final int INLINE_CHARS = 256; //longer clips go to the store
+    static final int PREVIEW_CHARS = 80;
+
+    static final class Clip {
+        final String mPreview;
+        final String mText; //null when the text is in the store
+        final int mLength;
+        final int mHash;
+        int mOffset; //in the store
+
+        Clip(String preview, String text, int length, int hash, int offset) {
+            mPreview = preview;
+            mText = text;
+            mLength = length;
+            mHash = hash;
+            mOffset = offset;
+        }
+
+        boolean isStored() {
+            return mText == null;
+        }
+
+        int getHeapChars() {
+            return isStored() ? mPreview.length() : mLength;
+        }
+    }
+
+    private final CharBuffer mStore;
+    private final ArrayList<Clip> mClips = new ArrayList<>(MAX_CLIPS + 1);
+    private int mHeapChars;
+    private int mStoreEnd; //where the next stored clip goes
+    private int mStoreLive; //chars of stored clips still in the history
+
+    /** @param store where long clips go, its whole capacity is used */
+    ClipboardHistory(CharBuffer store) {
+        mStore = store;
+    }
+
+    int size() {
+        return mClips.size();
+    }
+
+    int getHeapChars() {
+        return mHeapChars;
+    }
+
+    int getStoredChars() {
+        return mStoreLive;
+    }
+
+    String getPreview(int index) {
+        return mClips.get(index).mPreview;
+    }
+
+    /** The clip's full text, read from the store if it is there. */
+    String getText(int index) {
+        Clip clip = mClips.get(index);
+        return clip.isStored() ? readStored(clip) : clip.mText;
+    }
+
+    /**
+     * Adds a copied text in front, or moves it there if it is already in
+     * the history.  Returns false for empty text or text too long for the
+     * store.
+     */
+    boolean add(CharSequence text) {
+        int length = text.length();
+        if (length == 0 || (length > INLINE_CHARS && length > mStore.capacity())) {
+            return false;
+        }
+        int hash = hash(text);
+        for (int i = 0; i < mClips.size(); i++) {
+            Clip clip = mClips.get(i);
+            if (clip.mHash == hash && clip.mLength == length && contentEquals(clip, text)) {
+                use(i);
+                return true;
+            }
+        }
+        Clip clip;
+        if (length <= INLINE_CHARS) {
+            String inline = text.toString();
+            clip = new Clip(preview(inline), inline, length, hash, 0);
+        } else {
+            makeRoom(length);
+            for (int i = 0; i < length; i++) {
+                mStore.put(mStoreEnd + i, text.charAt(i));
+            }
+            clip = new Clip(preview(text), null, length, hash, mStoreEnd);
+            mStoreEnd += length;
+            mStoreLive += length;
+        }
+        mClips.add(0, clip);
+        mHeapChars += clip.getHeapChars();
+        while (mClips.size() > MAX_CLIPS || (mHeapChars > MAX_HEAP_CHARS && mClips.size() > 1)) {
+            remove(mClips.size() - 1);
+        }
+        return true;
+    }
+
+    /** Moves a clip to the front, as it was just pasted. */
+    void use(int index) {
+        mClips.add(0, mClips.remove(index));
+    }
+
+    void remove(int index) {
+        Clip clip = mClips.remove(index);
+        mHeapChars -= clip.getHeapChars();
+        if (clip.isStored()) {
+            mStoreLive -= clip.mLength;
+        }
+    }
+
+    void clear() {
+        mClips.clear();
+        mHeapChars = 0;
+        mStoreEnd = 0;
+        mStoreLive = 0;
+    }
+
+    /** Makes {@code length} chars free at the store's end. */
+    private void makeRoom(int length) {
+        if (mStoreEnd + length <= mStore.capacity()) {
+            return;
+        }
+        // the live chars alone may not leave room, then the oldest stored clips go
+        for (int i = mClips.size() - 1; i >= 0 && mStoreLive + length > mStore.capacity(); i--) {
+            if (mClips.get(i).isStored()) {
+                remove(i);
+            }
+        }
+        compact();
+    }
+
+    /** Moves the stored clips down to the start of the store, in store order. */
+    private void compact() {
+        List<Clip> stored = new ArrayList<>();
+        for (Clip clip : mClips) {
+            if (clip.isStored()) {
+                stored.add(clip);
+            }
+        }
+        Collections.sort(stored, (a, b) -> Integer.compare(a.mOffset, b.mOffset));
+        int end = 0;
+        for (Clip clip : stored) {
+            // only ever moves down, so copying forwards never overwrites what is still to be read
+            for (int i = 0; i < clip.mLength; i++) {
+                mStore.put(end + i, mStore.get(clip.mOffset + i));
+            }
+            clip.mOffset = end;
+            end += clip.mLength;
+        }
+        mStoreEnd = end;
+    }
+
+    private String readStored(Clip clip) {
+        char[] chars = new char[clip.mLength];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = mStore.get(clip.mOffset + i);
+        }
+        return new String(chars);
+    }
+
+    private boolean contentEquals(Clip clip, CharSequence text) {
+        if (!clip.isStored()) {
+            return clip.mText.contentEquals(text);
+        }
+        for (int i = 0; i < clip.mLength; i++) {
+            if (mStore.get(clip.mOffset + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The first line, cut at PREVIEW_CHARS. */
+    private static String preview(CharSequence text) {
+        int end = Math.min(text.length(), PREVIEW_CHARS);
+        for (int i = 0; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end == text.length() && text instanceof String) {
+            return (String) text;
+        }
+        return text.subSequence(0, end) + "\u2026";
+    }
+
+    private static int hash(CharSequence text) {
+        int hash = 0;
+        for (int i = 0; i < text.length(); i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+}
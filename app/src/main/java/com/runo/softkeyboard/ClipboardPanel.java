@@ -0,0 +1,142 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+/**
+ * Scrolling list of the {@link ClipboardHistory} previews, shown in place of
+ * the keyboard as the layer after the shifted symbols.  A row's preview is
+ * only ellipsized to the width when the row is first drawn, so a long
+ * history costs nothing until it is scrolled through.
+ */
+final class ClipboardPanel extends View {
+
+    interface Listener {
+        void onClipPicked(int index);
+    }
+
+    private final Listener mListener;
+    private final TextPaint mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDivider = new Paint();
+    private final int mNormalColor;
+    private final int mPressedColor;
+    private final int mPadding;
+    private final int mRowHeight;
+    private final int mTouchSlop;
+    private ClipboardHistory mHistory;
+    private CharSequence[] mRows = new CharSequence[0]; //ellipsized previews, null until drawn
+    private int mHeight;
+    private int mScroll;
+    private float mDownY;
+    private int mDownScroll;
+    private boolean mDragging;
+    private int mPressed = -1;
+
+    ClipboardPanel(Context context, Listener listener) {
+        super(context);
+        mListener = listener;
+        Resources res = context.getResources();
+        mNormalColor = res.getColor(R.color.candidate_normal, null);
+        mPressedColor = res.getColor(R.color.candidate_other, null);
+        mPadding = res.getDimensionPixelSize(R.dimen.candidate_vertical_padding);
+        mDivider.setColor(res.getColor(R.color.candidate_other, null));
+        setBackgroundColor(res.getColor(R.color.candidate_background, null));
+        mPaint.setTextSize(res.getDimensionPixelSize(R.dimen.candidate_font_height));
+        mRowHeight = (int) (mPaint.getFontSpacing() + 2 * mPadding);
+        mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+    }
+
+    /**
+     * Shows the history from the top, {@code height} tall so the panel
+     * takes the keyboard's place without the app moving.
+     */
+    void show(ClipboardHistory history, int height) {
+        mHistory = history;
+        mRows = new CharSequence[history.size()];
+        mHeight = height;
+        mScroll = 0;
+        mPressed = -1;
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = mHeight > 0 ? mHeight : 4 * mRowHeight;
+        setMeasuredDimension(resolveSize(0, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        mRows = new CharSequence[mRows.length]; //ellipsized for the old width
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mRows.length == 0) {
+            return;
+        }
+        int first = mScroll / mRowHeight;
+        int last = Math.min(mRows.length - 1, (mScroll + getHeight()) / mRowHeight);
+        float width = getWidth() - 2 * mPadding;
+        for (int i = first; i <= last; i++) {
+            if (mRows[i] == null) {
+                mRows[i] = TextUtils.ellipsize(mHistory.getPreview(i), mPaint, width, TextUtils.TruncateAt.END);
+            }
+            int top = i * mRowHeight - mScroll;
+            mPaint.setColor(i == mPressed ? mPressedColor : mNormalColor);
+            canvas.drawText(mRows[i], 0, mRows[i].length(), mPadding, top + mPadding - mPaint.ascent(), mPaint);
+            canvas.drawLine(mPadding, top + mRowHeight - 1, getWidth() - mPadding, top + mRowHeight - 1, mDivider);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mDownY = event.getY();
+                mDownScroll = mScroll;
+                mDragging = false;
+                mPressed = getRow(event.getY());
+                invalidate();
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (!mDragging && Math.abs(event.getY() - mDownY) > mTouchSlop) {
+                    mDragging = true;
+                    mPressed = -1;
+                }
+                if (mDragging) {
+                    int max = Math.max(0, mRows.length * mRowHeight - getHeight());
+                    mScroll = Math.max(0, Math.min(max, mDownScroll + (int) (mDownY - event.getY())));
+                }
+                invalidate();
+                return true;
+            case MotionEvent.ACTION_UP:
+                int picked = mDragging ? -1 : getRow(event.getY());
+                mPressed = -1;
+                invalidate();
+                if (picked >= 0) {
+                    mListener.onClipPicked(picked);
+                }
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mPressed = -1;
+                invalidate();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private int getRow(float y) {
+        int row = (int) (y + mScroll) / mRowHeight;
+        return y >= 0 && row < mRows.length ? row : -1;
+    }
+}
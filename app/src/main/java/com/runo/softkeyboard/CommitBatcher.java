@@ -0,0 +1,139 @@
+package com.runo.softkeyboard;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * Output side of the keyboard.  Text commits are collected and sent as a
+ * single commitText once per frame instead of one IPC per character, and
+ * anything that has to stay ordered with that text (key events, editor
+ * actions, focus changes) flushes it first.  Selection changes are queued
+ * the same way, only the last one in a frame is sent.  Everything sent is
+ * mirrored into the {@link EditorShadow}, and into the {@link Macro} while
+ * one is recorded.  What is held back until a flush is kept in a
+ * {@link CommitQueue}.
+ *
+ * Only used from the main thread.
+ */
+final class CommitBatcher {
+
+    private final CommitQueue mQueue;
+    private final Runnable mScheduleFlush;
+    private final Macro mMacro;
+    private final EditorShadow mShadow;
+    private InputConnection mTarget;
+    private boolean mFlushScheduled;
+
+    /**
+     * @param scheduleFlush asks for {@link #onFrame} to be called on the next frame
+     */
+    CommitBatcher(Runnable scheduleFlush, LatencyStats stats, EditorShadow shadow, Macro macro) {
+        mScheduleFlush = scheduleFlush;
+        mShadow = shadow;
+        mMacro = macro;
+        mQueue = new CommitQueue(new CommitQueue.Sink() {
+            @Override
+            public void setSelection(int anchor, int focus) {
+                mTarget.setSelection(anchor, focus);
+            }
+
+            @Override
+            public void commitText(String text) {
+                mTarget.commitText(text, 1);
+            }
+        }, stats, shadow);
+    }
+
+    /**
+     * Queues a character, invalid code points are dropped.
+     */
+    void commit(InputConnection ic, int codePoint) {
+        if (!Character.isValidCodePoint(codePoint)) {
+            return;
+        }
+        prepare(ic);
+        mQueue.append(codePoint);
+        mMacro.recordCodePoint(codePoint);
+    }
+
+    void commit(InputConnection ic, CharSequence text) {
+        prepare(ic);
+        mQueue.append(text);
+        mMacro.recordText(text);
+    }
+
+    /** See {@link CommitQueue#setKeyTime}. */
+    void setKeyTime(int path, long eventTime) {
+        mQueue.setKeyTime(path, eventTime);
+    }
+
+    /**
+     * Queues moving the selection, replacing a move that is already queued.
+     * Queued text is sent first, the selection is meant for the text as it
+     * is after that.
+     */
+    void setSelection(InputConnection ic, int anchor, int focus) {
+        if (mQueue.hasText()) {
+            flush();
+        }
+        prepare(ic);
+        mQueue.setSelection(anchor, focus);
+    }
+
+    /**
+     * Sends a down/up pair after any queued text.  When there is queued text
+     * both go out inside one batch edit so the editor applies them together.
+     */
+    void sendKeyEvents(InputConnection ic, KeyEvent down, KeyEvent up) {
+        boolean batch = mQueue.hasText() && mTarget == ic;
+        if (batch) {
+            ic.beginBatchEdit();
+        }
+        flush();
+        ic.sendKeyEvent(down);
+        ic.sendKeyEvent(up);
+        mMacro.recordKeyEvents(down, up);
+        if (batch) {
+            ic.endBatchEdit();
+        }
+        mShadow.invalidate(); //what the key does is up to the app
+    }
+
+    /**
+     * Deletes around the selection after any queued output.
+     */
+    void deleteSurroundingText(InputConnection ic, int before, int after) {
+        flush();
+        ic.deleteSurroundingText(before, after);
+        mShadow.deleteSurroundingText(before, after);
+        mMacro.recordDelete(before, after);
+    }
+
+    /**
+     * Sends any queued text or selection now.
+     */
+    void flush() {
+        mQueue.flush();
+        mTarget = null;
+    }
+
+    void onFrame() {
+        mFlushScheduled = false;
+        flush();
+    }
+
+    /**
+     * Points what is queued next at {@code ic}.  Only another connection
+     * flushes, a queued selection is sent ahead of text queued after it.
+     */
+    private void prepare(InputConnection ic) {
+        if (mTarget != ic) {
+            flush();
+            mTarget = ic;
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mScheduleFlush.run();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.runo.softkeyboard;
+
+/**
+ * The text and selection {@link CommitBatcher} holds back until a flush.
+ * Text appended is sent as one commitText, and of the selection moves only
+ * the last one, ahead of the text.  What is sent is mirrored into the
+ * {@link EditorShadow} and counted in {@link LatencyStats}, and text a
+ * hardware key queued is timed once its commitText returns.  Where it goes
+ * is up to the {@link Sink}, so this runs without the framework.
+ *
+ * Only used from the main thread.
+ */
+final class CommitQueue {
+
+    /** Where flushed output goes, an InputConnection for the keyboard. */
+    interface Sink {
+        void setSelection(int anchor, int focus);
+
+        void commitText(String text);
+    }
+
+    static final long NO_KEY_TIME = -1;
+    private static final int NO_SELECTION = -1;
+
+    private final Sink mSink;
+    private final LatencyStats mStats;
+    private final EditorShadow mShadow;
+    private final StringBuilder mPending = new StringBuilder(64);
+    private int mSelectionAnchor = NO_SELECTION;
+    private int mSelectionFocus;
+    private int mKeyPath; //key queueing text now, see setKeyTime
+    private long mKeyTime = NO_KEY_TIME;
+    private int mPendingPath; //oldest key with text in mPending
+    private long mPendingTime = NO_KEY_TIME;
+
+    CommitQueue(Sink sink, LatencyStats stats, EditorShadow shadow) {
+        mSink = sink;
+        mStats = stats;
+        mShadow = shadow;
+    }
+
+    void append(int codePoint) {
+        mPending.appendCodePoint(codePoint);
+        mStats.countCommit();
+        timePending();
+    }
+
+    void append(CharSequence text) {
+        mPending.append(text);
+        mStats.countCommit();
+        timePending();
+    }
+
+    boolean hasText() {
+        return mPending.length() > 0;
+    }
+
+    /**
+     * Queues moving the selection, replacing a move that is already queued.
+     * It is sent ahead of the text.
+     */
+    void setSelection(int anchor, int focus) {
+        mSelectionAnchor = anchor;
+        mSelectionFocus = focus;
+    }
+
+    /**
+     * Times text queued until the next call as latency {@code path} of the
+     * key event at {@code eventTime} (uptime millis), or stops timing with
+     * {@link #NO_KEY_TIME}.
+     */
+    void setKeyTime(int path, long eventTime) {
+        mKeyPath = path;
+        mKeyTime = eventTime;
+    }
+
+    private void timePending() {
+        if (mPendingTime == NO_KEY_TIME && mKeyTime != NO_KEY_TIME) {
+            mPendingPath = mKeyPath;
+            mPendingTime = mKeyTime;
+        }
+    }
+
+    /**
+     * Sends the queued selection and then the queued text.
+     */
+    void flush() {
+        if (mSelectionAnchor != NO_SELECTION) {
+            mSink.setSelection(mSelectionAnchor, mSelectionFocus);
+            mShadow.setSelection(mSelectionAnchor, mSelectionFocus);
+            mStats.countCursorMove(0, 1);
+            mSelectionAnchor = NO_SELECTION;
+        }
+        if (mPending.length() > 0) {
+            //copied, the connection may hold on to the text after the call returns
+            String text = mPending.toString();
+            mSink.commitText(text);
+            if (mPendingTime != NO_KEY_TIME) {
+                mStats.record(mPendingPath, System.nanoTime() / 1000L - mPendingTime * 1000L);
+            }
+            mShadow.commitText(text);
+            mStats.countCommitIpc();
+            mPending.setLength(0);
+        }
+        mPendingTime = NO_KEY_TIME;
+    }
+}
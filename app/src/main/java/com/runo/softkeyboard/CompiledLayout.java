@@ -0,0 +1,80 @@
+package com.runo.softkeyboard;
+
+import android.content.res.Resources;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+/**
+ * A keyboard layout compiled from res/xml at build time, see CompiledLayouts
+ * (generated) and KeyboardLayoutCompiler in buildSrc.  Everything is kept in
+ * flat int arrays so {@link LatinKeyboard} builds its keys in one pass.
+ */
+final class CompiledLayout {
+
+    // header
+    static final int HEADER_KEY_WIDTH = 0;
+    static final int HEADER_KEY_HEIGHT = 1;
+    static final int HEADER_HORIZONTAL_GAP = 2;
+    static final int HEADER_VERTICAL_GAP = 3;
+
+    // rows, ROW_STRIDE ints per row
+    static final int ROW_EDGE_FLAGS = 0;
+    static final int ROW_KEY_COUNT = 1;
+    static final int ROW_STRIDE = 2;
+
+    // keys, KEY_STRIDE ints per key
+    static final int KEY_CODE = 0;
+    static final int KEY_WIDTH = 1;
+    static final int KEY_FLAGS = 2;
+    static final int KEY_EDGE_FLAGS = 3;
+    static final int KEY_ICON = 4; //index into resources, or -1
+    static final int KEY_LABEL = 5; //index into labels, or -1
+    static final int KEY_PHYSICAL = 6; //KeyEvent key code, or -1
+    static final int KEY_OUTPUT = 7; //index into labels, or -1 to type the code
+    static final int KEY_STRIDE = 8;
+
+    static final int FLAG_STICKY = 1;
+    static final int FLAG_MODIFIER = 1 << 1;
+    static final int FLAG_REPEATABLE = 1 << 2;
+
+    // dimensions are (type << DIM_TYPE_SHIFT) | value
+    static final int DIM_TYPE_SHIFT = 28;
+    static final int DIM_VALUE_MASK = (1 << DIM_TYPE_SHIFT) - 1;
+    static final int DIM_PX = 0;
+    static final int DIM_PERCENT_P = 1; //hundredths of a percent of the display size
+    static final int DIM_DP = 2; //hundredths of a dp
+    static final int DIM_RESOURCE = 3; //dimen, index into resources
+
+    final int[] header;
+    final int[] rows;
+    final int[] keys;
+    final String[] labels; //and outputs
+    final int[] resources; //R.drawable / R.dimen ids
+
+    CompiledLayout(int[] header, int[] rows, int[] keys, String[] labels, int[] resources) {
+        this.header = header;
+        this.rows = rows;
+        this.keys = keys;
+        this.labels = labels;
+        this.resources = resources;
+    }
+
+    /**
+     * Resolves an encoded dimension to pixels the way Keyboard does for the
+     * XML attribute, {@code base} being the display width or height.
+     */
+    int toPixels(Resources res, int dimension, int base) {
+        int value = dimension & DIM_VALUE_MASK;
+        switch (dimension >>> DIM_TYPE_SHIFT) {
+            case DIM_PERCENT_P:
+                return Math.round(value * base / 10000f);
+            case DIM_DP:
+                DisplayMetrics dm = res.getDisplayMetrics();
+                return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value / 100f, dm);
+            case DIM_RESOURCE:
+                return res.getDimensionPixelOffset(resources[value]);
+            default:
+                return value;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.runo.softkeyboard;
+
+import static com.runo.softkeyboard.KeyDispatchTable.LAYERS_ALL;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYERS_QWERTY;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYERS_VISIBLE;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYER_NUMERIC;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYER_QWERTY_ALT_LOCK;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYER_QWERTY_SHIFT_LOCK;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYER_SYMBOLS;
+import static com.runo.softkeyboard.KeyDispatchTable.MOD_ALT;
+import static com.runo.softkeyboard.KeyDispatchTable.MOD_CTRL;
+import static com.runo.softkeyboard.KeyDispatchTable.MOD_SHIFT;
+import static com.runo.softkeyboard.KeyDispatchTable.action;
+
+/**
+ * The physical key remaps this keyboard ships with, expressed as
+ * {@link KeyDispatchTable} rules.  Free of the framework like the table,
+ * so both run in the benchmarks module.
+ */
+final class DefaultKeyMap {
+
+    // KeyEvent codes, mirrored so the rules build on a plain JVM
+    private static final int KEYCODE_UNKNOWN = 0; //KeyEvent.KEYCODE_UNKNOWN
+    private static final int KEYCODE_BACK = 4; //KeyEvent.KEYCODE_BACK
+    private static final int KEYCODE_DPAD_LEFT = 21; //KeyEvent.KEYCODE_DPAD_LEFT
+    private static final int KEYCODE_DPAD_RIGHT = 22; //KeyEvent.KEYCODE_DPAD_RIGHT
+    private static final int KEYCODE_P = 44; //KeyEvent.KEYCODE_P
+    private static final int KEYCODE_R = 46; //KeyEvent.KEYCODE_R
+    private static final int KEYCODE_ALT_RIGHT = 58; //KeyEvent.KEYCODE_ALT_RIGHT
+    private static final int KEYCODE_SHIFT_LEFT = 59; //KeyEvent.KEYCODE_SHIFT_LEFT
+    private static final int KEYCODE_SPACE = 62; //KeyEvent.KEYCODE_SPACE
+    private static final int KEYCODE_SYM = 63; //KeyEvent.KEYCODE_SYM
+    private static final int KEYCODE_ENTER = 66; //KeyEvent.KEYCODE_ENTER
+    private static final int KEYCODE_DEL = 67; //KeyEvent.KEYCODE_DEL
+    private static final int KEYCODE_MENU = 82; //KeyEvent.KEYCODE_MENU
+    private static final int KEYCODE_FORWARD_DEL = 112; //KeyEvent.KEYCODE_FORWARD_DEL
+    private static final int KEYCODE_CTRL_LEFT = 113; //KeyEvent.KEYCODE_CTRL_LEFT
+    private static final int META_SHIFT_ON = 0x1; //KeyEvent.META_SHIFT_ON
+    private static final int META_ALT_ON = 0x2; //KeyEvent.META_ALT_ON
+    private static final int META_ALT_RIGHT_ON = 0x20; //KeyEvent.META_ALT_RIGHT_ON
+    private static final int META_CTRL_ON = 0x1000; //KeyEvent.META_CTRL_ON
+
+    private static final int[] CTRL_KEYS = {KEYCODE_UNKNOWN, KEYCODE_CTRL_LEFT};
+    private static final int[] EXCLUDED_FROM_ALT_MODE = {KEYCODE_SPACE, KEYCODE_DEL, KEYCODE_BACK};
+
+    private DefaultKeyMap() {
+    }
+
+    static KeyDispatchTable build() {
+        return newBuilder().build();
+    }
+
+    /** A builder with the default rules in, for a {@link RemapProfile} to go on top of. */
+    static KeyDispatchTable.Builder newBuilder() {
+        KeyDispatchTable.Builder builder = new KeyDispatchTable.Builder();
+        addLayerMaps(builder);
+        addGlobalMaps(builder);
+        addKeyUpMaps(builder);
+        return builder;
+    }
+
+    //on screen keyboard based remaps, the global maps below take precedence
+    private static void addLayerMaps(KeyDispatchTable.Builder builder) {
+        int passthrough = action(KeyDispatchTable.OP_PASSTHROUGH, 0);
+
+        builder.downAll(1 << LAYER_QWERTY_ALT_LOCK, 0, 0,
+                action(KeyDispatchTable.OP_SEND_WITH_META, META_ALT_RIGHT_ON));
+        builder.downAll(1 << LAYER_QWERTY_SHIFT_LOCK, 0, 0,
+                action(KeyDispatchTable.OP_SEND_WITH_META, META_SHIFT_ON));
+        builder.downAll(1 << LAYER_NUMERIC, 0, 0,
+                action(KeyDispatchTable.OP_SEND_WITH_META, META_ALT_RIGHT_ON));
+        for (int keyCode : EXCLUDED_FROM_ALT_MODE) {
+            builder.down((1 << LAYER_QWERTY_ALT_LOCK) | (1 << LAYER_QWERTY_SHIFT_LOCK) | (1 << LAYER_NUMERIC),
+                    0, 0, keyCode, passthrough);
+        }
+
+        //symbol layers, physical keys commit the key the layout declares for them with app:physicalKey
+        builder.downAll(1 << LAYER_SYMBOLS, 0, 0, action(KeyDispatchTable.OP_SYMBOL, 0));
+        builder.down(1 << LAYER_SYMBOLS, 0, 0, KEYCODE_BACK, action(KeyDispatchTable.OP_RESTORE_LAYER, 0));
+    }
+
+    //global key maps, run regardless of keyboard state, even if keyboard is not visible
+    private static void addGlobalMaps(KeyDispatchTable.Builder builder) {
+        //fix for alt+space bug that opens up android default symbol panel
+        builder.down(LAYERS_ALL, MOD_ALT, MOD_ALT, KEYCODE_SPACE, action(KeyDispatchTable.OP_COMMIT_CHAR, '\t'));
+        builder.down(LAYERS_ALL, MOD_ALT, 0, KEYCODE_SPACE, action(KeyDispatchTable.OP_COMMIT_CHAR, ' '));
+
+        //alt+backspace keeps the default action, plain backspace drops any alt state first so it can't eat the line
+        //and undoes an autocorrection made by the key before
+        builder.down(LAYERS_ALL, MOD_ALT, MOD_ALT, KEYCODE_DEL, action(KeyDispatchTable.OP_PASSTHROUGH, 0));
+        builder.down(LAYERS_ALL, MOD_ALT | MOD_SHIFT, MOD_SHIFT, KEYCODE_DEL,
+                action(KeyDispatchTable.OP_SEND_KEY, KEYCODE_FORWARD_DEL));
+        builder.down(LAYERS_ALL, MOD_ALT | MOD_SHIFT, 0, KEYCODE_DEL,
+                action(KeyDispatchTable.OP_BACKSPACE, META_ALT_ON | META_ALT_RIGHT_ON));
+
+        //alt+enter is a fix for apps that don't listen to keyboard enter for the editor action
+        builder.down(LAYERS_ALL, MOD_ALT, MOD_ALT, KEYCODE_ENTER, action(KeyDispatchTable.OP_EDITOR_ACTION, 0));
+        builder.down(LAYERS_ALL, MOD_ALT | MOD_SHIFT, MOD_SHIFT, KEYCODE_ENTER, action(KeyDispatchTable.OP_COMMIT_CHAR, '\n'));
+        builder.down(LAYERS_ALL, MOD_ALT | MOD_SHIFT, 0, KEYCODE_ENTER, action(KeyDispatchTable.OP_PASSTHROUGH, 0));
+
+        //switch keyboard layers, handled on key up
+        builder.down(LAYERS_ALL, 0, 0, KEYCODE_MENU, action(KeyDispatchTable.OP_CONSUME, 0));
+        builder.down(LAYERS_ALL, 0, 0, KEYCODE_SYM, action(KeyDispatchTable.OP_CONSUME, 0));
+
+        //ctrl held or sticky sends everything on with ctrl
+        builder.downAll(LAYERS_ALL, MOD_CTRL, MOD_CTRL, action(KeyDispatchTable.OP_SEND_WITH_META, META_CTRL_ON));
+
+        //word movement and deletion are done by the keyboard, not left to the app
+        int ctrlMods = MOD_CTRL | MOD_SHIFT;
+        builder.down(LAYERS_ALL, ctrlMods, MOD_CTRL, KEYCODE_DPAD_LEFT, wordEdit(KeyDispatchTable.WORD_LEFT));
+        builder.down(LAYERS_ALL, ctrlMods, MOD_CTRL, KEYCODE_DPAD_RIGHT, wordEdit(KeyDispatchTable.WORD_RIGHT));
+        builder.down(LAYERS_ALL, ctrlMods, ctrlMods, KEYCODE_DPAD_LEFT, wordEdit(KeyDispatchTable.WORD_SELECT_LEFT));
+        builder.down(LAYERS_ALL, ctrlMods, ctrlMods, KEYCODE_DPAD_RIGHT, wordEdit(KeyDispatchTable.WORD_SELECT_RIGHT));
+        builder.down(LAYERS_ALL, ctrlMods, MOD_CTRL, KEYCODE_DEL, wordEdit(KeyDispatchTable.WORD_DELETE_LEFT));
+        builder.down(LAYERS_ALL, ctrlMods, ctrlMods, KEYCODE_DEL, wordEdit(KeyDispatchTable.WORD_DELETE_RIGHT));
+        for (int keyCode : CTRL_KEYS) {
+            builder.down(LAYERS_ALL, 0, 0, keyCode, action(KeyDispatchTable.OP_CTRL_DOWN, 0));
+        }
+
+        //ctrl+alt+r records a macro, again to stop, ctrl+alt+p plays it back
+        int macroMods = MOD_CTRL | MOD_ALT;
+        builder.down(LAYERS_ALL, macroMods, macroMods, KEYCODE_R,
+                action(KeyDispatchTable.OP_MACRO, KeyDispatchTable.MACRO_RECORD));
+        builder.down(LAYERS_ALL, macroMods, macroMods, KEYCODE_P,
+                action(KeyDispatchTable.OP_MACRO, KeyDispatchTable.MACRO_PLAY));
+    }
+
+    private static int wordEdit(int operation) {
+        return action(KeyDispatchTable.OP_WORD_EDIT, operation);
+    }
+
+    private static void addKeyUpMaps(KeyDispatchTable.Builder builder) {
+        for (int keyCode : CTRL_KEYS) {
+            builder.up(LAYERS_ALL, 0, 0, keyCode, action(KeyDispatchTable.OP_CTRL_UP, 0));
+        }
+        builder.up(LAYERS_VISIBLE, 0, 0, KEYCODE_MENU, action(KeyDispatchTable.OP_CYCLE_LAYER, 0));
+        builder.up(LAYERS_VISIBLE, 0, 0, KEYCODE_SYM, action(KeyDispatchTable.OP_CYCLE_LAYER, 0));
+
+        //alt+shift, change through layers
+        builder.up(LAYERS_QWERTY, MOD_ALT, MOD_ALT, KEYCODE_SHIFT_LEFT,
+                action(KeyDispatchTable.OP_CYCLE_LAYER, META_ALT_ON | META_SHIFT_ON));
+        builder.up(LAYERS_QWERTY, MOD_ALT, 0, KEYCODE_SHIFT_LEFT,
+                action(KeyDispatchTable.OP_LOCK_TOGGLE, KeyDispatchTable.LOCK_SHIFT));
+        builder.up(LAYERS_QWERTY, 0, 0, KEYCODE_ALT_RIGHT,
+                action(KeyDispatchTable.OP_LOCK_TOGGLE, KeyDispatchTable.LOCK_ALT));
+    }
+}
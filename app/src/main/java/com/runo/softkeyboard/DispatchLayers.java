@@ -0,0 +1,62 @@
+package com.runo.softkeyboard;
+
+/**
+ * Which {@link KeyDispatchTable} layer and modifiers a hardware key is
+ * looked up with: the layer from the keyboard shown and the locks in the
+ * {@link ModifierStateMachine}, the modifiers from what is held.  Kept free
+ * of the framework so the benchmarks dispatch keys the way SoftKeyboard does.
+ */
+final class DispatchLayers {
+
+    static final int NO_KEYBOARD = -1; //no input view
+
+    // keyboard layers
+    static final int QWERTY = 0; //KeyboardLayers.QWERTY
+    static final int SYMBOLS = 1; //KeyboardLayers.SYMBOLS
+    static final int SYMBOLS_SHIFT = 2; //KeyboardLayers.SYMBOLS_SHIFT
+    static final int NUMERIC = 3; //KeyboardLayers.NUMERIC
+
+    private DispatchLayers() {
+    }
+
+    /**
+     * Returns the table layer for keyboard layer {@code keyboard}, or
+     * {@link #NO_KEYBOARD}.
+     */
+    static int getLayer(int keyboard, ModifierStateMachine modifiers) {
+        switch (keyboard) {
+            case QWERTY:
+                if (modifiers.isAltLocked()) {
+                    return KeyDispatchTable.LAYER_QWERTY_ALT_LOCK;
+                } else if (modifiers.isShiftLocked()) {
+                    return KeyDispatchTable.LAYER_QWERTY_SHIFT_LOCK;
+                }
+                return KeyDispatchTable.LAYER_QWERTY;
+            case SYMBOLS:
+            case SYMBOLS_SHIFT:
+                return KeyDispatchTable.LAYER_SYMBOLS;
+            case NUMERIC:
+                return KeyDispatchTable.LAYER_NUMERIC;
+            default:
+                return KeyDispatchTable.LAYER_NONE;
+        }
+    }
+
+    /**
+     * Returns the KeyDispatchTable.MOD_ bits, {@code ctrl} being the physical
+     * ctrl held or the on screen one on.
+     */
+    static int getModifiers(boolean alt, boolean shift, boolean ctrl) {
+        int modifiers = 0;
+        if (alt) {
+            modifiers |= KeyDispatchTable.MOD_ALT;
+        }
+        if (shift) {
+            modifiers |= KeyDispatchTable.MOD_SHIFT;
+        }
+        if (ctrl) {
+            modifiers |= KeyDispatchTable.MOD_CTRL;
+        }
+        return modifiers;
+    }
+}
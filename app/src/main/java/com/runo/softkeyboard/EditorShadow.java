@@ -0,0 +1,333 @@
+package com.runo.softkeyboard;
+
+/**
+ * Local copy of the editor's text around the cursor, so word movement and
+ * word deletion can be worked out here and sent as one setSelection or
+ * deleteSurroundingText instead of leaving the word boundaries to the app.
+ *
+ * It is seeded with the text either side of the cursor, then kept up to
+ * date from what the keyboard itself sends and from plain typing and
+ * backspaces passed through to the app.  A selection update that isn't one
+ * this produced means the app or some other key changed the editor; the
+ * copy is then dropped and fetched again the next time it is needed.
+ * Offsets are editor offsets throughout.
+ */
+final class EditorShadow {
+
+    static final int WINDOW = 1024; //chars fetched either side of the cursor
+    static final int MAX_LENGTH = 4 * WINDOW; //trimmed back to WINDOW around the cursor past this
+    static final int UNKNOWN = -1;
+
+    /** Selections this produced that the editor may still report. */
+    private static final int RECENT = 8;
+
+    private final StringBuilder mText = new StringBuilder(2 * WINDOW);
+    private int mStart; //editor offset of mText's first char
+    private boolean mAtDocStart;
+    private boolean mAtDocEnd;
+    private int mAnchor = UNKNOWN;
+    private int mFocus = UNKNOWN;
+    private final int[] mRecent = new int[RECENT * 2];
+    private int mRecentCount;
+    private int mRecentNext;
+    // last selection the editor reported, where a resync starts from
+    private int mReportedStart = UNKNOWN;
+    private int mReportedEnd = UNKNOWN;
+
+    boolean isValid() {
+        return mAnchor != UNKNOWN;
+    }
+
+    void invalidate() {
+        mAnchor = UNKNOWN;
+        mFocus = UNKNOWN;
+        mRecentCount = 0;
+    }
+
+    /**
+     * Forgets everything, including the reported selection, for a new editor.
+     */
+    void reset(int selectionStart, int selectionEnd) {
+        invalidate();
+        mReportedStart = selectionStart;
+        mReportedEnd = selectionEnd;
+    }
+
+    int getReportedStart() {
+        return mReportedStart;
+    }
+
+    int getReportedEnd() {
+        return mReportedEnd;
+    }
+
+    int getSelectionStart() {
+        return Math.min(mAnchor, mFocus);
+    }
+
+    int getSelectionEnd() {
+        return Math.max(mAnchor, mFocus);
+    }
+
+    int getAnchor() {
+        return mAnchor;
+    }
+
+    int getFocus() {
+        return mFocus;
+    }
+
+    /**
+     * Takes the text around a selection as getTextBeforeCursor,
+     * getSelectedText and getTextAfterCursor returned it for
+     * {@code requested} chars each side.
+     */
+    void seed(CharSequence before, CharSequence selected, CharSequence after,
+            int selectionStart, int selectionEnd, int requested) {
+        mText.setLength(0);
+        mText.append(before);
+        if (selected != null) {
+            mText.append(selected);
+        }
+        mText.append(after);
+        mStart = selectionStart - before.length();
+        mAtDocStart = before.length() < requested || mStart == 0;
+        mAtDocEnd = after.length() < requested;
+        mRecentCount = 0;
+        mReportedStart = selectionStart;
+        mReportedEnd = selectionEnd;
+        select(selectionStart, selectionEnd);
+    }
+
+    /**
+     * Takes the text around a selection as getSurroundingText returned it
+     * for {@code requested} chars each side, starting at editor offset
+     * {@code startOffset} and with the selection relative to it.  At most
+     * WINDOW chars either side of the selection are kept.
+     */
+    void seedSurrounding(CharSequence text, int startOffset, int anchor, int focus, int requested) {
+        int start = Math.min(anchor, focus);
+        int end = Math.max(anchor, focus);
+        int from = Math.max(0, start - WINDOW);
+        int to = Math.min(text.length(), end + WINDOW);
+        mText.setLength(0);
+        mText.append(text, from, to);
+        mStart = startOffset + from;
+        mAtDocStart = mStart == 0;
+        mAtDocEnd = to == text.length() && text.length() - end < requested;
+        mRecentCount = 0;
+        mReportedStart = startOffset + start;
+        mReportedEnd = startOffset + end;
+        select(startOffset + anchor, startOffset + focus);
+    }
+
+    /** Mirrors InputConnection.commitText with the cursor after the text. */
+    void commitText(CharSequence text) {
+        if (!isValid()) {
+            return;
+        }
+        int start = getSelectionStart();
+        mText.replace(start - mStart, getSelectionEnd() - mStart, text.toString());
+        select(start + text.length(), start + text.length());
+        trim();
+    }
+
+    /** Mirrors InputConnection.deleteSurroundingText. */
+    void deleteSurroundingText(int before, int after) {
+        if (!isValid()) {
+            return;
+        }
+        int start = getSelectionStart();
+        int end = getSelectionEnd();
+        after = Math.min(after, mStart + mText.length() - end);
+        before = Math.min(before, start - mStart);
+        mText.delete(end - mStart, end - mStart + after);
+        mText.delete(start - mStart - before, start - mStart);
+        boolean reversed = mAnchor > mFocus;
+        start -= before;
+        end -= before;
+        select(reversed ? end : start, reversed ? start : end);
+    }
+
+    /** Mirrors a key the app typed {@code c} for, without allocating. */
+    void typeChar(char c) {
+        if (!isValid()) {
+            return;
+        }
+        int start = getSelectionStart();
+        mText.delete(start - mStart, getSelectionEnd() - mStart);
+        mText.insert(start - mStart, c);
+        select(start + 1, start + 1);
+        trim();
+    }
+
+    /**
+     * Mirrors a backspace the app handles: the selection goes, or the char
+     * before the cursor.  Where the app may delete more than that char, a
+     * surrogate pair, a combining mark or an emoji sequence, or what it
+     * deletes isn't in the copy, the copy is dropped.
+     */
+    void backspace() {
+        if (!isValid()) {
+            return;
+        }
+        if (mAnchor != mFocus) {
+            int start = getSelectionStart();
+            mText.delete(start - mStart, getSelectionEnd() - mStart);
+            select(start, start);
+            return;
+        }
+        int index = mFocus - mStart;
+        if (index == 0) {
+            if (!mAtDocStart) {
+                invalidate();
+            }
+            return;
+        }
+        if (!isPlainChar(mText.charAt(index - 1))) {
+            invalidate();
+            return;
+        }
+        deleteSurroundingText(1, 0);
+    }
+
+    /** Whether a backspace after {@code c} deletes just it. */
+    private static boolean isPlainChar(char c) {
+        if (Character.isSurrogate(c) || c == '\u200d' || (c >= '\ufe00' && c <= '\ufe0f')) { //ZWJ, variation selectors
+            return false;
+        }
+        int type = Character.getType(c);
+        return type != Character.NON_SPACING_MARK && type != Character.ENCLOSING_MARK
+                && type != Character.COMBINING_SPACING_MARK;
+    }
+
+    /** Mirrors InputConnection.setSelection. */
+    void setSelection(int anchor, int focus) {
+        if (isValid()) {
+            select(anchor, focus);
+        }
+    }
+
+    private void select(int anchor, int focus) {
+        int min = mStart;
+        int max = mStart + mText.length();
+        mAnchor = Math.max(min, Math.min(max, anchor));
+        mFocus = Math.max(min, Math.min(max, focus));
+        mRecent[mRecentNext * 2] = getSelectionStart();
+        mRecent[mRecentNext * 2 + 1] = getSelectionEnd();
+        mRecentNext = (mRecentNext + 1) % RECENT;
+        mRecentCount = Math.min(RECENT, mRecentCount + 1);
+    }
+
+    /**
+     * The editor reported a selection.  Returns false, and drops the copy, if
+     * it isn't one this produced.
+     */
+    boolean onUpdateSelection(int selectionStart, int selectionEnd) {
+        mReportedStart = selectionStart;
+        mReportedEnd = selectionEnd;
+        if (!isValid()) {
+            return false;
+        }
+        for (int i = 0; i < mRecentCount; i++) {
+            if (mRecent[i * 2] == selectionStart && mRecent[i * 2 + 1] == selectionEnd) {
+                return true;
+            }
+        }
+        invalidate();
+        return false;
+    }
+
+    /**
+     * Returns the offset the next word boundary from the cursor in
+     * {@code direction} (-1 or 1) is at, or {@link #UNKNOWN} if it lies
+     * beyond the copied text.
+     */
+    int findWordBoundary(int direction) {
+        if (!isValid()) {
+            return UNKNOWN;
+        }
+        int offset = ArrowRepeat.nextWordBoundary(mText, mFocus - mStart, direction);
+        if ((offset == 0 && !mAtDocStart) || (offset == mText.length() && !mAtDocEnd)) {
+            return UNKNOWN;
+        }
+        return offset + mStart;
+    }
+
+    /**
+     * Returns the part of a word right before the cursor, empty if the
+     * cursor isn't after a word char, or null if there is a selection or the
+     * word may go on beyond the copied text.
+     */
+    String getWordBeforeCursor() {
+        if (!isValid() || mAnchor != mFocus) {
+            return null;
+        }
+        return getWordEndingAt(mFocus - mStart);
+    }
+
+    /**
+     * Returns the word before the one at the cursor if a single space
+     * separates them, otherwise null.
+     */
+    String getPreviousWord() {
+        String word = getWordBeforeCursor();
+        if (word == null) {
+            return null;
+        }
+        int space = mFocus - mStart - word.length() - 1;
+        if (space < 0 || mText.charAt(space) != ' ') {
+            return null;
+        }
+        String previous = getWordEndingAt(space);
+        return previous == null || previous.isEmpty() ? null : previous;
+    }
+
+    /** Whether {@code text} is right before the cursor, with nothing selected. */
+    boolean isBeforeCursor(CharSequence text) {
+        if (!isValid() || mAnchor != mFocus) {
+            return false;
+        }
+        int start = mFocus - mStart - text.length();
+        if (start < 0) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (mText.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The word ending at an index into mText, null if it may start before the copy. */
+    private String getWordEndingAt(int end) {
+        int start = end;
+        //apostrophes count too, for "don't"
+        while (start > 0 && (ArrowRepeat.isWordChar(mText.charAt(start - 1)) || mText.charAt(start - 1) == '\'')) {
+            start--;
+        }
+        if (start == 0 && end > 0 && !mAtDocStart) {
+            return null;
+        }
+        return mText.substring(start, end);
+    }
+
+    /** Keeps the copy from growing without bound while typing. */
+    private void trim() {
+        if (mText.length() <= MAX_LENGTH) {
+            return;
+        }
+        int keepFrom = Math.max(0, getSelectionStart() - mStart - WINDOW);
+        int keepTo = Math.min(mText.length(), getSelectionEnd() - mStart + WINDOW);
+        if (keepTo < mText.length()) {
+            mText.setLength(keepTo);
+            mAtDocEnd = false;
+        }
+        if (keepFrom > 0) {
+            mText.delete(0, keepFrom);
+            mStart += keepFrom;
+            mAtDocStart = false;
+        }
+    }
+}
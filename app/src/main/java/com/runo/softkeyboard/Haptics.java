@@ -0,0 +1,77 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Haptic feedback off the input thread.  The effects are built once and
+ * handed to a background thread that makes the vibrator service call, so a
+ * key press never waits on the binder.  {@link HapticsThrottle} decides
+ * which pulses are sent at all.
+ */
+final class Haptics {
+
+    private static Haptics sInstance;
+
+    private final Vibrator mVibrator;
+    private final VibrationEffect[] mEffects = new VibrationEffect[HapticsThrottle.EFFECT_COUNT];
+    private final HapticsThrottle mThrottle = new HapticsThrottle();
+    private final Handler mHandler;
+    private final AtomicLong mDelivered = new AtomicLong(); //written by the haptics thread
+
+    static Haptics get(Context context) {
+        if (sInstance == null) {
+            sInstance = new Haptics(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private Haptics(Context context) {
+        mVibrator = context.getSystemService(Vibrator.class);
+        mEffects[HapticsThrottle.EFFECT_KEY] = VibrationEffect.createOneShot(20, VibrationEffect.DEFAULT_AMPLITUDE);
+        mEffects[HapticsThrottle.EFFECT_SINGLE] = VibrationEffect.createOneShot(20, VibrationEffect.DEFAULT_AMPLITUDE);
+        mEffects[HapticsThrottle.EFFECT_DOUBLE] = VibrationEffect.createWaveform(new long[]{30L, 65L, 30L}, new int[]{1, 0, 1}, -1);
+        HandlerThread thread = new HandlerThread("haptics", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        mHandler = new Handler(thread.getLooper(), this::deliver);
+    }
+
+    /**
+     * Queues one of the HapticsThrottle.EFFECT_ pulses, unless the throttle
+     * drops it.  Called from the input thread.
+     */
+    void perform(int effect) {
+        if (mThrottle.offer(effect, SystemClock.uptimeMillis(), mHandler.hasMessages(effect))) {
+            mHandler.sendEmptyMessage(effect);
+        }
+    }
+
+    private boolean deliver(Message msg) {
+        if (mVibrator != null && mVibrator.hasVibrator()) {
+            mVibrator.vibrate(mEffects[msg.what]);
+            mDelivered.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Appends the delivered and dropped pulse counts, if haptics were used
+     * in this process.
+     */
+    static void dump(StringBuilder out) {
+        Haptics haptics = sInstance;
+        if (haptics == null) {
+            return;
+        }
+        out.append("haptics delivered=").append(haptics.mDelivered.get())
+                .append(" dropped=").append(haptics.mThrottle.getDropped()).append('\n');
+    }
+}
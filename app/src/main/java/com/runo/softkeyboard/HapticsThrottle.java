@@ -0,0 +1,46 @@
+package com.runo.softkeyboard;
+
+/**
+ * Decides which haptic pulses are worth sending.  Key feedback closer
+ * together than KEY_PULSE_INTERVAL_MS is dropped, which thins out the
+ * pulse KeyboardView's auto-repeat would otherwise ask for on every repeat,
+ * and a pulse is dropped while the same effect is still queued, so a
+ * stalled vibrator service never builds a backlog.
+ *
+ * Runs on the input thread only; whether an effect is queued comes in from
+ * the caller, like the event time.
+ */
+final class HapticsThrottle {
+
+    static final int EFFECT_KEY = 0; //on screen key feedback
+    static final int EFFECT_SINGLE = 1; //lock change notification
+    static final int EFFECT_DOUBLE = 2; //lock engaged notification
+    static final int EFFECT_COUNT = 3;
+
+    static final long KEY_PULSE_INTERVAL_MS = 70L; //auto-repeat fires every 50ms
+
+    private static final long NEVER = Long.MIN_VALUE / 2;
+
+    private long mLastKeyPulse = NEVER;
+    private long mDropped;
+
+    /**
+     * Returns true if {@code effect} should be sent now.
+     *
+     * @param queued whether the same effect is still waiting to be delivered
+     */
+    boolean offer(int effect, long now, boolean queued) {
+        if (queued || (effect == EFFECT_KEY && now - mLastKeyPulse < KEY_PULSE_INTERVAL_MS)) {
+            mDropped++;
+            return false;
+        }
+        if (effect == EFFECT_KEY) {
+            mLastKeyPulse = now;
+        }
+        return true;
+    }
+
+    long getDropped() {
+        return mDropped;
+    }
+}
@@ -0,0 +1,165 @@
+package com.runo.softkeyboard;
+
+/**
+ * Dense lookup table that resolves a physical key event to the action the
+ * keyboard should take for it.  Cells are keyed by (active layer, modifier
+ * mask, keyCode) and hold a packed action: an opcode in the low byte and an
+ * opcode specific argument in the remaining bits.
+ *
+ * The table is built once and never changes afterwards, so the key path is
+ * a single array read instead of an if/else ladder, and remaps are data
+ * handed to the {@link Builder} rather than code.
+ */
+final class KeyDispatchTable {
+
+    // layers, the qwerty lock states get their own layer since they remap every key
+    static final int LAYER_NONE = 0; //no input view, only global maps apply
+    static final int LAYER_QWERTY = 1;
+    static final int LAYER_QWERTY_ALT_LOCK = 2;
+    static final int LAYER_QWERTY_SHIFT_LOCK = 3;
+    static final int LAYER_SYMBOLS = 4;
+    static final int LAYER_NUMERIC = 5;
+    static final int LAYER_COUNT = 6;
+
+    // layer bit masks, used by the builder to address several layers at once
+    static final int LAYERS_QWERTY = (1 << LAYER_QWERTY) | (1 << LAYER_QWERTY_ALT_LOCK) | (1 << LAYER_QWERTY_SHIFT_LOCK);
+    static final int LAYERS_VISIBLE = LAYERS_QWERTY | (1 << LAYER_SYMBOLS) | (1 << LAYER_NUMERIC);
+    static final int LAYERS_ALL = LAYERS_VISIBLE | (1 << LAYER_NONE);
+
+    // modifier mask
+    static final int MOD_ALT = 1;
+    static final int MOD_SHIFT = 1 << 1;
+    static final int MOD_CTRL = 1 << 2; //physical ctrl held or on screen ctrl sticky
+    static final int MOD_COUNT = 8;
+
+    /** Key codes at or above this are never remapped and always pass through. */
+    static final int KEYCODE_LIMIT = 320;
+
+    // opcodes
+    static final int OP_PASSTHROUGH = 0; //let InputMethodService handle it
+    static final int OP_CONSUME = 1;
+    static final int OP_COMMIT_CHAR = 2; //arg: code point
+    static final int OP_SEND_WITH_META = 3; //arg: meta state to send the event with
+    static final int OP_SEND_KEY = 4; //arg: key code to send as a down/up pair
+    static final int OP_EDITOR_ACTION = 5;
+    static final int OP_CYCLE_LAYER = 6; //arg: meta states to clear afterwards, 0 for none
+    static final int OP_LOCK_TOGGLE = 7; //arg: LOCK_ALT or LOCK_SHIFT
+    static final int OP_CLEAR_META = 8; //arg: meta states to clear, then pass through
+    static final int OP_CTRL_DOWN = 9;
+    static final int OP_CTRL_UP = 10; //releases ctrl, then passes through
+    static final int OP_SYMBOL = 11; //commit the key the current layer maps to this physical key
+    static final int OP_RESTORE_LAYER = 12; //go back to the layer picked for the editor
+    static final int OP_WORD_EDIT = 13; //arg: WORD_ operation, worked out against the EditorShadow
+    static final int OP_BACKSPACE = 14; //arg: meta states to clear, then undo an autocorrection or pass through
+    static final int OP_MACRO = 15; //arg: MACRO_ command
+
+    static final int LOCK_ALT = 0;
+    static final int LOCK_SHIFT = 1;
+
+    static final int WORD_LEFT = 0;
+    static final int WORD_RIGHT = 1;
+    static final int WORD_SELECT_LEFT = 2; //extend the selection by a word
+    static final int WORD_SELECT_RIGHT = 3;
+    static final int WORD_DELETE_LEFT = 4;
+    static final int WORD_DELETE_RIGHT = 5;
+
+    static final int MACRO_RECORD = 0; //starts recording, or stops it
+    static final int MACRO_PLAY = 1;
+
+    private static final int OP_BITS = 8;
+    private static final int OP_MASK = (1 << OP_BITS) - 1;
+
+    private final int[] mDown;
+    private final int[] mUp;
+
+    private KeyDispatchTable(int[] down, int[] up) {
+        mDown = down;
+        mUp = up;
+    }
+
+    static int action(int opcode, int arg) {
+        return opcode | (arg << OP_BITS);
+    }
+
+    static int opcode(int action) {
+        return action & OP_MASK;
+    }
+
+    static int arg(int action) {
+        return action >>> OP_BITS;
+    }
+
+    int lookupDown(int layer, int modifiers, int keyCode) {
+        return lookup(mDown, layer, modifiers, keyCode);
+    }
+
+    int lookupUp(int layer, int modifiers, int keyCode) {
+        return lookup(mUp, layer, modifiers, keyCode);
+    }
+
+    private static int lookup(int[] table, int layer, int modifiers, int keyCode) {
+        if (keyCode < 0 || keyCode >= KEYCODE_LIMIT) {
+            return OP_PASSTHROUGH;
+        }
+        return table[index(layer, modifiers, keyCode)];
+    }
+
+    private static int index(int layer, int modifiers, int keyCode) {
+        return (layer * MOD_COUNT + modifiers) * KEYCODE_LIMIT + keyCode;
+    }
+
+    /**
+     * Collects remap rules.  Rules are applied in call order and a later rule
+     * overwrites whatever an earlier one put in the same cell, so add the
+     * broad defaults first and the overriding global maps last.
+     */
+    static final class Builder {
+        private final int[] mDown = new int[LAYER_COUNT * MOD_COUNT * KEYCODE_LIMIT];
+        private final int[] mUp = new int[LAYER_COUNT * MOD_COUNT * KEYCODE_LIMIT];
+
+        /**
+         * Maps a key down in every layer of {@code layers} whose modifier mask
+         * matches {@code modValue} on the bits in {@code modMask}.
+         */
+        Builder down(int layers, int modMask, int modValue, int keyCode, int action) {
+            put(mDown, layers, modMask, modValue, keyCode, keyCode + 1, action);
+            return this;
+        }
+
+        /** Same as {@link #down} but for every key code. */
+        Builder downAll(int layers, int modMask, int modValue, int action) {
+            put(mDown, layers, modMask, modValue, 0, KEYCODE_LIMIT, action);
+            return this;
+        }
+
+        Builder up(int layers, int modMask, int modValue, int keyCode, int action) {
+            put(mUp, layers, modMask, modValue, keyCode, keyCode + 1, action);
+            return this;
+        }
+
+        KeyDispatchTable build() {
+            return new KeyDispatchTable(mDown.clone(), mUp.clone());
+        }
+
+        private static void put(int[] table, int layers, int modMask, int modValue,
+                                int fromKeyCode, int toKeyCode, int action) {
+            if (fromKeyCode < 0 || toKeyCode > KEYCODE_LIMIT) {
+                throw new IllegalArgumentException("key code out of range: " + fromKeyCode);
+            }
+            for (int layer = 0; layer < LAYER_COUNT; layer++) {
+                if ((layers & (1 << layer)) == 0) {
+                    continue;
+                }
+                for (int modifiers = 0; modifiers < MOD_COUNT; modifiers++) {
+                    if ((modifiers & modMask) != modValue) {
+                        continue;
+                    }
+                    int base = index(layer, modifiers, 0);
+                    for (int keyCode = fromKeyCode; keyCode < toKeyCode; keyCode++) {
+                        table[base + keyCode] = action;
+                    }
+                }
+            }
+        }
+    }
+}
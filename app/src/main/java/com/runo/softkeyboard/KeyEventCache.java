@@ -0,0 +1,80 @@
+package com.runo.softkeyboard;
+
+/**
+ * Reusable down/up event pairs for the on screen ctrl+arrow keys.  A pair
+ * is created the first time an arrow is sent with a meta state and handed
+ * out again afterwards, so holding ctrl+arrow produces no garbage.
+ *
+ * A shared event can't carry the time of each press, so the pairs have zero
+ * down/event times, which ctrl+arrow was always sent with.  Plain arrows and
+ * the other keys sent for the user get new events timed at the press.  The
+ * event type is generic so the cache can be exercised without the framework.
+ */
+final class KeyEventCache<E> {
+
+    interface Factory<E> {
+        E create(int action, int keyCode, int metaState);
+    }
+
+    static final int ACTION_DOWN = 0; //KeyEvent.ACTION_DOWN
+    static final int ACTION_UP = 1; //KeyEvent.ACTION_UP
+    static final int FIRST_ARROW = 19; //KeyEvent.KEYCODE_DPAD_UP, then DOWN, LEFT and RIGHT
+    static final int ARROW_COUNT = 4;
+
+    /** Different meta states cached, ctrl with and without shift are all that's sent. */
+    static final int META_SLOTS = 4;
+
+    private final Factory<E> mFactory;
+    private final int[] mMetas = new int[META_SLOTS];
+    private int mMetaCount;
+    private final Object[] mEvents = new Object[META_SLOTS * ARROW_COUNT * 2];
+
+    KeyEventCache(Factory<E> factory) {
+        mFactory = factory;
+    }
+
+    /**
+     * Returns the index of the pair for these values, creating it if needed,
+     * or -1 when the combination can't be cached and the caller has to
+     * create its own events.
+     */
+    int obtain(int keyCode, int metaState) {
+        int arrow = keyCode - FIRST_ARROW;
+        if (arrow < 0 || arrow >= ARROW_COUNT) {
+            return -1;
+        }
+        int slot = metaSlot(metaState);
+        if (slot < 0) {
+            return -1;
+        }
+        int index = slot * ARROW_COUNT + arrow;
+        if (mEvents[index * 2] == null) {
+            mEvents[index * 2] = mFactory.create(ACTION_DOWN, keyCode, metaState);
+            mEvents[index * 2 + 1] = mFactory.create(ACTION_UP, keyCode, metaState);
+        }
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    E down(int index) {
+        return (E) mEvents[index * 2];
+    }
+
+    @SuppressWarnings("unchecked")
+    E up(int index) {
+        return (E) mEvents[index * 2 + 1];
+    }
+
+    private int metaSlot(int metaState) {
+        for (int i = 0; i < mMetaCount; i++) {
+            if (mMetas[i] == metaState) {
+                return i;
+            }
+        }
+        if (mMetaCount == META_SLOTS) {
+            return -1;
+        }
+        mMetas[mMetaCount] = metaState;
+        return mMetaCount++;
+    }
+}
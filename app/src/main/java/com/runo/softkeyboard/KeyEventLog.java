@@ -0,0 +1,98 @@
+package com.runo.softkeyboard;
+
+/**
+ * Fixed size ring buffer of key path events, kept as primitive records so
+ * recording never allocates.  The oldest records are overwritten once the
+ * buffer is full, which leaves a trail of the last few hundred events for
+ * chasing stuck modifiers.
+ *
+ * Calls are meant to sit behind {@code if (BuildConfig.KEY_LOG)}, which is a
+ * compile time constant, so release builds compile them out entirely.  The
+ * log is only touched from the main thread, by the keyboard service and by
+ * {@link KeyboardSettings} which runs in the same process.
+ */
+final class KeyEventLog {
+
+    static final int KIND_KEY_DOWN = 0;
+    static final int KIND_KEY_UP = 1;
+    static final int KIND_KEY = 2; //on screen key, code is the key code
+    static final int KIND_PRESS = 3;
+    static final int KIND_RELEASE = 4;
+    static final int KIND_CHARACTER = 5;
+    static final int KIND_MODIFIER = 6; //code is the ModifierStateMachine commands
+    static final int KIND_START_INPUT = 7; //code is the editor input type
+    static final int KIND_FINISH_INPUT = 8;
+    static final int KIND_RESET = 9;
+    static final int KIND_SELECTION = 10; //code is the new selection start, meta the end
+
+    private static final String[] KIND_NAMES = {
+            "down", "up", "key", "press", "release", "char", "modifier", "start", "finish", "reset", "selection"
+    };
+
+    static final int DEFAULT_CAPACITY = 512;
+
+    private static KeyEventLog sInstance;
+
+    private final long[] mTimes;
+    private final int[] mKinds;
+    private final int[] mCodes;
+    private final int[] mMetas;
+    private int mNext;
+    private int mSize;
+
+    KeyEventLog(int capacity) {
+        mTimes = new long[capacity];
+        mKinds = new int[capacity];
+        mCodes = new int[capacity];
+        mMetas = new int[capacity];
+    }
+
+    static KeyEventLog get() {
+        if (sInstance == null) {
+            sInstance = new KeyEventLog(DEFAULT_CAPACITY);
+        }
+        return sInstance;
+    }
+
+    void record(long time, int kind, int code, int meta) {
+        int i = mNext;
+        mTimes[i] = time;
+        mKinds[i] = kind;
+        mCodes[i] = code;
+        mMetas[i] = meta;
+        mNext = i + 1 == mTimes.length ? 0 : i + 1;
+        if (mSize < mTimes.length) {
+            mSize++;
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        mNext = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Appends one line per record to {@code out}, oldest first, with times
+     * relative to the newest record.
+     */
+    void dump(StringBuilder out) {
+        if (mSize == 0) {
+            return;
+        }
+        int capacity = mTimes.length;
+        int first = (mNext - mSize + capacity) % capacity;
+        long newest = mTimes[(mNext - 1 + capacity) % capacity];
+        for (int n = 0; n < mSize; n++) {
+            int i = (first + n) % capacity;
+            out.append(mTimes[i] - newest).append("ms ")
+                    .append(KIND_NAMES[mKinds[i]])
+                    .append(" code=").append(mCodes[i])
+                    .append(" meta=0x").append(Integer.toHexString(mMetas[i]))
+                    .append('\n');
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.runo.softkeyboard;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps a touch position to the keys that can be under it with one array
+ * read.  The keyboard is cut into CELL_SIZE square cells and each cell holds
+ * every key whose target area covers any pixel of it, worked out once with
+ * the keys' own isInside so target area overrides are honoured.  Where two
+ * keys meet a cell holds both, usually two and at most four of them, and
+ * the exact key is picked from those.  Cells with the same keys share one
+ * array, so lookups hand it out without allocating.  When target areas
+ * overlap the last key wins, the same as KeyboardView.
+ */
+final class KeyHitGrid {
+
+    interface Keys {
+        int count();
+
+        int left(int key);
+
+        int top(int key);
+
+        int width(int key);
+
+        int height(int key);
+
+        boolean isInside(int key, int x, int y);
+    }
+
+    static final int NO_KEY = -1;
+    static final int CELL_SIZE = 4; //px
+
+    /** How far outside its bounds a key's target area is looked for. */
+    static final int TARGET_SLOP = 16; //px
+
+    private static final int[] NO_KEYS = new int[0];
+
+    private final Keys mKeys;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+    private final short[] mCells; //index into mCandidates
+    private final int[][] mCandidates;
+
+    KeyHitGrid(Keys keys, int width, int height) {
+        mKeys = keys;
+        mWidth = width;
+        mHeight = height;
+        mColumns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        //each cell's keys as a bit mask while building
+        long[][] masks = new long[mColumns * rows][];
+        for (int key = 0; key < keys.count(); key++) {
+            int firstColumn = Math.max(0, (keys.left(key) - TARGET_SLOP) / CELL_SIZE);
+            int lastColumn = Math.min(mColumns - 1, (keys.left(key) + keys.width(key) + TARGET_SLOP) / CELL_SIZE);
+            int firstRow = Math.max(0, (keys.top(key) - TARGET_SLOP) / CELL_SIZE);
+            int lastRow = Math.min(rows - 1, (keys.top(key) + keys.height(key) + TARGET_SLOP) / CELL_SIZE);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    if (covers(keys, key, column * CELL_SIZE, row * CELL_SIZE)) {
+                        int cell = row * mColumns + column;
+                        if (masks[cell] == null) {
+                            masks[cell] = new long[(keys.count() + 63) / 64];
+                        }
+                        masks[cell][key / 64] |= 1L << key;
+                    }
+                }
+            }
+        }
+        mCells = new short[masks.length];
+        List<int[]> candidates = new ArrayList<>();
+        candidates.add(NO_KEYS);
+        Map<LongBuffer, Short> shared = new HashMap<>();
+        for (int cell = 0; cell < masks.length; cell++) {
+            if (masks[cell] == null) {
+                continue;
+            }
+            LongBuffer mask = LongBuffer.wrap(masks[cell]);
+            Short index = shared.get(mask);
+            if (index == null) {
+                index = (short) candidates.size();
+                candidates.add(toKeys(masks[cell]));
+                shared.put(mask, index);
+            }
+            mCells[cell] = index;
+        }
+        mCandidates = candidates.toArray(new int[0][]);
+    }
+
+    /** Whether the key's target area takes in any pixel of the cell at x, y. */
+    private static boolean covers(Keys keys, int key, int x, int y) {
+        for (int dy = 0; dy < CELL_SIZE; dy++) {
+            for (int dx = 0; dx < CELL_SIZE; dx++) {
+                if (keys.isInside(key, x + dx, y + dy)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int[] toKeys(long[] mask) {
+        int count = 0;
+        for (long word : mask) {
+            count += Long.bitCount(word);
+        }
+        int[] keys = new int[count];
+        int i = 0;
+        for (int word = 0; word < mask.length; word++) {
+            for (long bits = mask[word]; bits != 0; bits &= bits - 1) {
+                keys[i++] = word * 64 + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return keys;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns true if the position is covered by the grid, positions
+     * outside it have to be resolved by the caller.
+     */
+    boolean contains(int x, int y) {
+        return x >= 0 && x < mWidth && y >= 0 && y < mHeight;
+    }
+
+    /**
+     * Returns the indexes of the keys that can be at a position inside the
+     * grid, in key order.  The array is shared, it must not be changed.
+     */
+    int[] getCandidates(int x, int y) {
+        return mCandidates[mCells[(y / CELL_SIZE) * mColumns + x / CELL_SIZE]];
+    }
+
+    /**
+     * Returns the index of the key at a position inside the grid, or
+     * {@link #NO_KEY}.
+     */
+    int getKey(int x, int y) {
+        int[] candidates = getCandidates(x, y);
+        for (int i = candidates.length - 1; i >= 0; i--) {
+            if (mKeys.isInside(candidates[i], x, y)) {
+                return candidates[i];
+            }
+        }
+        return NO_KEY;
+    }
+}
@@ -0,0 +1,76 @@
+package com.runo.softkeyboard;
+
+import java.util.Arrays;
+
+/**
+ * What the keys of one layer type, by key code.  Built once when the layer
+ * is loaded, the text is interned so layers typing the same symbol share
+ * it, and a lookup is a binary search that returns the same instance every
+ * time, so committing a key allocates nothing.
+ *
+ * Immutable once built.
+ */
+final class KeyOutputs {
+
+    static final KeyOutputs EMPTY = new Builder(0).build();
+
+    private final int[] mCodes; //sorted
+    private final CharSequence[] mOutputs;
+
+    private KeyOutputs(int[] codes, CharSequence[] outputs) {
+        mCodes = codes;
+        mOutputs = outputs;
+    }
+
+    /**
+     * Returns the text the key with {@code code} types, or null if no key
+     * has the code.
+     */
+    CharSequence get(int code) {
+        int i = Arrays.binarySearch(mCodes, code);
+        return i >= 0 ? mOutputs[i] : null;
+    }
+
+    int size() {
+        return mCodes.length;
+    }
+
+    static final class Builder {
+
+        private final int[] mCodes;
+        private final CharSequence[] mOutputs;
+        private int mCount;
+
+        Builder(int keyCount) {
+            mCodes = new int[keyCount];
+            mOutputs = new CharSequence[keyCount];
+        }
+
+        /**
+         * Adds a key, {@code output} being its declared text or null to type
+         * the code.  Keys without either, like the ones with negative codes,
+         * are left out.
+         */
+        Builder add(int code, String output) {
+            if (output == null && code > 0 && Character.isValidCodePoint(code)) {
+                output = new String(Character.toChars(code));
+            }
+            if (output == null) {
+                return this;
+            }
+            //insertion sort, a layer has a few dozen keys
+            int i = mCount++;
+            for (; i > 0 && mCodes[i - 1] > code; i--) {
+                mCodes[i] = mCodes[i - 1];
+                mOutputs[i] = mOutputs[i - 1];
+            }
+            mCodes[i] = code;
+            mOutputs[i] = output.intern();
+            return this;
+        }
+
+        KeyOutputs build() {
+            return new KeyOutputs(Arrays.copyOf(mCodes, mCount), Arrays.copyOf(mOutputs, mCount));
+        }
+    }
+}
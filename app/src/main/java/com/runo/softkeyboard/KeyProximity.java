@@ -0,0 +1,74 @@
+package com.runo.softkeyboard;
+
+/**
+ * Edit costs for autocorrect, from where the letters sit on the Titan's
+ * physical keyboard.  Pressing a key next to the intended one is the
+ * commonest slip, so it costs less than any other substitution.
+ *
+ * The rows are the ones the physical keys were indexed by before the
+ * layouts declared them: q-p, a-l with backspace after l, and z-m with the
+ * space bar between v and b.  Keys are in columns, not staggered, so the
+ * neighbours of a key are the up to eight around it.
+ */
+final class KeyProximity {
+
+    static final int NEAR = 1; //a neighbouring key, a key pressed twice, two keys swapped
+    static final int FAR = 2; //any other substitution, a missed or extra key
+
+    private static final String[] ROWS = {
+            "qwertyuiop",
+            "asdfghjkl",
+            "zxcv bnm",
+    };
+
+    private static final int LETTERS = 26;
+    private static final boolean[] ADJACENT = new boolean[LETTERS * LETTERS];
+
+    static {
+        for (int row = 0; row < ROWS.length; row++) {
+            for (int column = 0; column < ROWS[row].length(); column++) {
+                char c = ROWS[row].charAt(column);
+                if (c == ' ') {
+                    continue;
+                }
+                for (int other = Math.max(0, row - 1); other <= Math.min(ROWS.length - 1, row + 1); other++) {
+                    for (int near = column - 1; near <= column + 1; near++) {
+                        if (near >= 0 && near < ROWS[other].length() && ROWS[other].charAt(near) != ' ') {
+                            ADJACENT[(c - 'a') * LETTERS + ROWS[other].charAt(near) - 'a'] = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private KeyProximity() {
+    }
+
+    /** Whether two lower case letters are the same or neighbouring keys. */
+    static boolean isNear(char a, char b) {
+        if (a == b) {
+            return true;
+        }
+        int i = a - 'a';
+        int j = b - 'a';
+        return i >= 0 && i < LETTERS && j >= 0 && j < LETTERS && ADJACENT[i * LETTERS + j];
+    }
+
+    /** Cost of typing {@code typed} where {@code intended} was meant. */
+    static int substitutionCost(char typed, char intended) {
+        if (typed == intended) {
+            return 0;
+        }
+        return isNear(typed, intended) ? NEAR : FAR;
+    }
+
+    /**
+     * Cost of an extra {@code typed} char after {@code previous}, cheap when
+     * the same key was hit twice.  {@code previous} is 0 at the start of
+     * the word.
+     */
+    static int extraCost(char previous, char typed) {
+        return previous == typed ? NEAR : FAR;
+    }
+}
@@ -0,0 +1,89 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.util.DisplayMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the keyboard layers on first use and keeps them per display
+ * configuration (width, density, orientation, night mode), so going back to
+ * a configuration that was already seen, like rotating back, reuses the
+ * keyboards instead of building them again.
+ */
+final class KeyboardLayers {
+
+    static final int QWERTY = 0;
+    static final int SYMBOLS = 1;
+    static final int SYMBOLS_SHIFT = 2;
+    static final int NUMERIC = 3;
+    static final int COUNT = 4;
+
+    // compiled from res/xml at build time
+    private static final CompiledLayout[] LAYOUTS = {
+            CompiledLayouts.QWERTY, CompiledLayouts.SYMBOLS, CompiledLayouts.SYMBOLS_SHIFT, CompiledLayouts.NUMPAD};
+
+    /** Configurations kept around, oldest used is dropped first. */
+    private static final int MAX_CONFIGURATIONS = 3;
+
+    private final Context mContext;
+    private final Map<Long, LatinKeyboard[]> mConfigurations =
+            new LinkedHashMap<Long, LatinKeyboard[]>(MAX_CONFIGURATIONS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, LatinKeyboard[]> eldest) {
+                    return size() > MAX_CONFIGURATIONS;
+                }
+            };
+    private long mConfiguration;
+    private LatinKeyboard[] mLayers;
+
+    KeyboardLayers(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Switches to the layers for the context's current configuration.
+     * Returns true if it differs from the previous one.
+     */
+    boolean updateConfiguration() {
+        long configuration = getConfigurationKey(mContext.getResources());
+        if (mLayers != null && configuration == mConfiguration) {
+            return false;
+        }
+        mConfiguration = configuration;
+        mLayers = mConfigurations.get(configuration);
+        if (mLayers == null) {
+            mLayers = new LatinKeyboard[COUNT];
+            mConfigurations.put(configuration, mLayers);
+        }
+        return true;
+    }
+
+    long getConfiguration() {
+        return mConfiguration;
+    }
+
+    LatinKeyboard get(int layer) {
+        if (mLayers == null) {
+            updateConfiguration();
+        }
+        LatinKeyboard keyboard = mLayers[layer];
+        if (keyboard == null) {
+            keyboard = new LatinKeyboard(mContext, LAYOUTS[layer], layer);
+            mLayers[layer] = keyboard;
+        }
+        return keyboard;
+    }
+
+    static long getConfigurationKey(Resources res) {
+        DisplayMetrics dm = res.getDisplayMetrics();
+        Configuration config = res.getConfiguration();
+        return ((long) dm.widthPixels << 32)
+                | ((long) dm.densityDpi << 12)
+                | ((long) config.orientation << 8)
+                | (config.uiMode & Configuration.UI_MODE_NIGHT_MASK);
+    }
+}
@@ -3,9 +3,13 @@ package com.runo.softkeyboard;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.TextView;
 
 public class KeyboardSettings extends AppCompatActivity {
 
@@ -21,5 +25,40 @@ public class KeyboardSettings extends AppCompatActivity {
         inputPicker.setOnClickListener(view -> {
             mImm.showInputMethodPicker();
         });
+
+        //the keyboard service runs in this process, so its stats can be read directly
+        TextView debugText = findViewById(R.id.debugText);
+
+        //key log only exists in builds with KEY_LOG on
+        Button dumpKeyLog = findViewById(R.id.dumpKeyLog);
+        dumpKeyLog.setVisibility(BuildConfig.KEY_LOG ? View.VISIBLE : View.GONE);
+        dumpKeyLog.setOnClickListener(view -> {
+            StringBuilder out = new StringBuilder();
+            KeyEventLog.get().dump(out);
+            debugText.setText(out);
+        });
+
+        Button showLatency = findViewById(R.id.showLatency);
+        showLatency.setOnClickListener(view -> {
+            StringBuilder out = new StringBuilder();
+            Haptics.dump(out);
+            LatinKeyboardView.dumpSnapshots(out);
+            LatencyStats.get().dump(out);
+            debugText.setText(out);
+        });
+
+        //read by TraceRecorder when the next input starts
+        SharedPreferences traces = getSharedPreferences(TraceRecorder.PREFS, MODE_PRIVATE);
+        CheckBox recordTraces = findViewById(R.id.recordTraces);
+        CheckBox traceText = findViewById(R.id.traceText);
+        recordTraces.setChecked(traces.getBoolean(TraceRecorder.PREF_RECORD, false));
+        traceText.setChecked(traces.getBoolean(TraceRecorder.PREF_KEEP_TEXT, false));
+        traceText.setEnabled(recordTraces.isChecked());
+        recordTraces.setOnCheckedChangeListener((view, checked) -> {
+            traces.edit().putBoolean(TraceRecorder.PREF_RECORD, checked).apply();
+            traceText.setEnabled(checked);
+        });
+        traceText.setOnCheckedChangeListener((view, checked) ->
+                traces.edit().putBoolean(TraceRecorder.PREF_KEEP_TEXT, checked).apply());
     }
 }
\ No newline at end of file
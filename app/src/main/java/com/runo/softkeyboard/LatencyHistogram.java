@@ -0,0 +1,90 @@
+package com.runo.softkeyboard;
+
+import java.util.Arrays;
+
+/**
+ * Log scale histogram of latencies in microseconds.  Each power of two is
+ * split into four buckets, so any value is off by at most 25%, and the
+ * bucket array is fixed, so recording a sample is a few shifts and an
+ * increment with no allocation.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 32; //~71 minutes, anything above lands in the last bucket
+    static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mTotal;
+    private long mMax;
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mCounts[bucketOf(micros)]++;
+        mTotal++;
+        if (micros > mMax) {
+            mMax = micros;
+        }
+    }
+
+    long count() {
+        return mTotal;
+    }
+
+    long max() {
+        return mMax;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile
+     * (0-100), capped at the largest recorded value, or 0 when empty.
+     */
+    long percentile(double percent) {
+        if (mTotal == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(mTotal * percent / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    void clear() {
+        Arrays.fill(mCounts, 0);
+        mTotal = 0;
+        mMax = 0;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
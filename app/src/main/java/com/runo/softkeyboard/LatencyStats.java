@@ -0,0 +1,157 @@
+package com.runo.softkeyboard;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Key event to InputConnection latency, one {@link LatencyHistogram} per
+ * handling path, kept for all apps together and per target app package.
+ *
+ * The package's histograms are looked up once when an editor starts, so
+ * recording a sample only touches preallocated arrays.  Only used from the
+ * main thread, like {@link KeyEventLog}.
+ */
+final class LatencyStats {
+
+    static final int PATH_COMMIT = 0; //plain character commit
+    static final int PATH_SEND_MODIFIED = 1; //key event resent with ctrl/alt/shift meta
+    static final int PATH_SYMBOL = 2; //symbol layer lookup and commit
+    static final int PATH_CYCLE_LAYER = 3;
+    static final int PATH_EDITOR_ACTION = 4;
+    static final int PATH_COUNT = 5;
+
+    private static final String[] PATH_NAMES = {"commit", "modified", "symbol", "layer", "action"};
+
+    static final int MAX_PACKAGES = 32; //later packages are counted under OTHER_PACKAGE
+    static final String OTHER_PACKAGE = "(other)";
+
+    private static LatencyStats sInstance;
+
+    private final LatencyHistogram[] mAll = newPaths();
+    private final Map<String, LatencyHistogram[]> mPackages = new LinkedHashMap<>();
+    private LatencyHistogram[] mCurrent;
+    private long mCommits; //text commits asked for by the keyboard
+    private long mCommitIpcs; //commitText calls actually made
+    private long mCursorChars; //chars the on screen arrows moved the cursor
+    private long mCursorIpcs; //key events and setSelection calls that took
+    private final LatencyHistogram mPredictions = new LatencyHistogram(); //dictionary lookup times
+
+    static LatencyStats get() {
+        if (sInstance == null) {
+            sInstance = new LatencyStats();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Points following samples at {@code packageName}, null for none.
+     */
+    void setPackage(String packageName) {
+        if (packageName == null) {
+            mCurrent = null;
+            return;
+        }
+        LatencyHistogram[] paths = mPackages.get(packageName);
+        if (paths == null) {
+            if (mPackages.size() >= MAX_PACKAGES) {
+                packageName = OTHER_PACKAGE;
+                paths = mPackages.get(packageName);
+            }
+            if (paths == null) {
+                paths = newPaths();
+                mPackages.put(packageName, paths);
+            }
+        }
+        mCurrent = paths;
+    }
+
+    void record(int path, long micros) {
+        mAll[path].record(micros);
+        if (mCurrent != null) {
+            mCurrent[path].record(micros);
+        }
+    }
+
+    void countCommit() {
+        mCommits++;
+    }
+
+    void countCommitIpc() {
+        mCommitIpcs++;
+    }
+
+    void countCursorMove(int chars, int ipcs) {
+        mCursorChars += chars;
+        mCursorIpcs += ipcs;
+    }
+
+    /** Time a prediction lookup took on the prediction thread. */
+    void recordPrediction(long micros) {
+        mPredictions.record(micros);
+    }
+
+    LatencyHistogram getAll(int path) {
+        return mAll[path];
+    }
+
+    void clear() {
+        for (LatencyHistogram histogram : mAll) {
+            histogram.clear();
+        }
+        mPackages.clear();
+        mCurrent = null;
+        mCommits = 0;
+        mCommitIpcs = 0;
+        mCursorChars = 0;
+        mCursorIpcs = 0;
+        mPredictions.clear();
+    }
+
+    /**
+     * Appends the commit batching and cursor movement counters, then p50/p99/max per path, first
+     * for all apps and then per package.
+     */
+    void dump(StringBuilder out) {
+        out.append("commits=").append(mCommits)
+                .append(" commitText calls=").append(mCommitIpcs)
+                .append(" saved=").append(mCommits - mCommitIpcs).append('\n');
+        out.append("cursor chars=").append(mCursorChars)
+                .append(" calls=").append(mCursorIpcs).append('\n');
+        if (mPredictions.count() > 0) {
+            out.append(String.format(Locale.US, "prediction n=%d p50=%dus p99=%dus max=%dus\n", mPredictions.count(),
+                    mPredictions.percentile(50), mPredictions.percentile(99), mPredictions.max()));
+        }
+        out.append('\n');
+        out.append("all apps\n");
+        dumpPaths(out, mAll);
+        for (Map.Entry<String, LatencyHistogram[]> entry : mPackages.entrySet()) {
+            out.append('\n').append(entry.getKey()).append('\n');
+            dumpPaths(out, entry.getValue());
+        }
+    }
+
+    private static void dumpPaths(StringBuilder out, LatencyHistogram[] paths) {
+        for (int path = 0; path < PATH_COUNT; path++) {
+            LatencyHistogram histogram = paths[path];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            out.append(String.format(Locale.US, "  %-9s n=%-6d p50=%s p99=%s max=%s\n",
+                    PATH_NAMES[path], histogram.count(),
+                    millis(histogram.percentile(50)), millis(histogram.percentile(99)), millis(histogram.max())));
+        }
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.US, "%.1fms", micros / 1000.0);
+    }
+
+    private static LatencyHistogram[] newPaths() {
+        LatencyHistogram[] paths = new LatencyHistogram[PATH_COUNT];
+        for (int i = 0; i < PATH_COUNT; i++) {
+            paths[i] = new LatencyHistogram();
+        }
+        return paths;
+    }
+}
@@ -20,30 +20,139 @@ import static com.runo.softkeyboard.LatinKeyboardView.KEYCODE_CTRL;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
 import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
+import android.util.DisplayMetrics;
+import android.util.Xml;
 import android.view.inputmethod.EditorInfo;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class LatinKeyboard extends Keyboard {
 
+    /** Returned by {@link #getPhysicalKeyCode} for hardware keys this layer doesn't remap. */
+    static final int NO_PHYSICAL_KEY = Integer.MIN_VALUE;
+
     private Key mEnterKey;
     private Key mCtrlKey;
     private Key mSpaceKey;
-    
+    // hardware key code -> code of the key declared with app:physicalKey, filled while parsing
+    private int[] mPhysicalKeyCodes;
+    // key code -> the text the key types, see getOutput
+    private KeyOutputs mOutputs = KeyOutputs.EMPTY;
+    private int mLayer = -1;
+    // size of a keyboard loaded from a CompiledLayout, Keyboard only tracks it for XML
+    private int mCompiledWidth = -1;
+    private int mCompiledHeight = -1;
+    // touch position -> keys, built with the keys and again when they are resized, see getNearestKeys
+    private KeyHitGrid mHitGrid;
+
     public LatinKeyboard(Context context, int xmlLayoutResId) {
         super(context, xmlLayoutResId);
+        buildOutputs();
+        updateHitGrid();
+    }
+
+    public LatinKeyboard(Context context, int xmlLayoutResId, int layer) {
+        super(context, xmlLayoutResId);
+        mLayer = layer;
+        buildOutputs();
+        updateHitGrid();
+    }
+
+    /**
+     * Builds the keyboard from a layout compiled at build time instead of
+     * parsing its XML, only the empty template keyboard is inflated.
+     */
+    LatinKeyboard(Context context, CompiledLayout layout, int layer) {
+        super(context, R.xml.compiled_template);
+        mLayer = layer;
+        loadCompiledLayout(context, layout);
+        buildOutputs();
+        updateHitGrid();
     }
 
     public LatinKeyboard(Context context, int layoutTemplateResId, 
             CharSequence characters, int columns, int horizontalPadding) {
         super(context, layoutTemplateResId, characters, columns, horizontalPadding);
+        updateHitGrid();
     }
 
     @Override
     protected Key createKeyFromXml(Resources res, Row parent, int x, int y, 
             XmlResourceParser parser) {
-        Key key = new LatinKey(res, parent, x, y, parser);
+        LatinKey key = new LatinKey(res, parent, x, y, parser);
+        TypedArray a = res.obtainAttributes(Xml.asAttributeSet(parser), R.styleable.LatinKey);
+        int physicalKey = a.getInt(R.styleable.LatinKey_physicalKey, -1);
+        key.output = a.getString(R.styleable.LatinKey_output);
+        a.recycle();
+        registerKey(key, physicalKey);
+        return key;
+    }
+
+    private void loadCompiledLayout(Context context, CompiledLayout layout) {
+        Resources res = context.getResources();
+        DisplayMetrics dm = res.getDisplayMetrics();
+        int[] header = layout.header;
+        int[] rows = layout.rows;
+        int[] keys = layout.keys;
+        int keyWidth = layout.toPixels(res, header[CompiledLayout.HEADER_KEY_WIDTH], dm.widthPixels);
+        int keyHeight = layout.toPixels(res, header[CompiledLayout.HEADER_KEY_HEIGHT], dm.heightPixels);
+        int horizontalGap = layout.toPixels(res, header[CompiledLayout.HEADER_HORIZONTAL_GAP], dm.widthPixels);
+        int verticalGap = layout.toPixels(res, header[CompiledLayout.HEADER_VERTICAL_GAP], dm.heightPixels);
+        List<Key> keyList = getKeys();
+
+        int width = 0;
+        int y = 0;
+        int k = 0;
+        for (int r = 0; r < rows.length; r += CompiledLayout.ROW_STRIDE) {
+            Row row = new Row(this);
+            row.defaultWidth = keyWidth;
+            row.defaultHeight = keyHeight;
+            row.defaultHorizontalGap = horizontalGap;
+            row.verticalGap = verticalGap;
+            row.rowEdgeFlags = rows[r + CompiledLayout.ROW_EDGE_FLAGS];
+            int x = 0;
+            int end = k + rows[r + CompiledLayout.ROW_KEY_COUNT] * CompiledLayout.KEY_STRIDE;
+            for (; k < end; k += CompiledLayout.KEY_STRIDE) {
+                LatinKey key = new LatinKey(row);
+                key.codes = new int[] {keys[k + CompiledLayout.KEY_CODE]};
+                key.width = layout.toPixels(res, keys[k + CompiledLayout.KEY_WIDTH], dm.widthPixels);
+                key.x = x + key.gap;
+                key.y = y;
+                key.edgeFlags |= keys[k + CompiledLayout.KEY_EDGE_FLAGS];
+                int flags = keys[k + CompiledLayout.KEY_FLAGS];
+                key.sticky = (flags & CompiledLayout.FLAG_STICKY) != 0;
+                key.modifier = (flags & CompiledLayout.FLAG_MODIFIER) != 0;
+                key.repeatable = (flags & CompiledLayout.FLAG_REPEATABLE) != 0;
+                int icon = keys[k + CompiledLayout.KEY_ICON];
+                if (icon >= 0) {
+                    key.icon = context.getDrawable(layout.resources[icon]);
+                    key.icon.setBounds(0, 0, key.icon.getIntrinsicWidth(), key.icon.getIntrinsicHeight());
+                }
+                int label = keys[k + CompiledLayout.KEY_LABEL];
+                if (label >= 0) {
+                    key.label = layout.labels[label];
+                }
+                int output = keys[k + CompiledLayout.KEY_OUTPUT];
+                if (output >= 0) {
+                    key.output = layout.labels[output];
+                }
+                registerKey(key, keys[k + CompiledLayout.KEY_PHYSICAL]);
+                keyList.add(key);
+                x += key.gap + key.width;
+            }
+            width = Math.max(width, x);
+            y += verticalGap + keyHeight;
+        }
+        mCompiledWidth = width;
+        mCompiledHeight = y - verticalGap;
+    }
+
+    private void registerKey(Key key, int physicalKey) {
         if (key.codes[0] == 10) {
             mEnterKey = key;
         } else if (key.codes[0] == KEYCODE_CTRL) {
@@ -52,7 +161,119 @@ public class LatinKeyboard extends Keyboard {
         else if (key.codes[0] == ' ') {
             mSpaceKey = key;
         }
-        return key;
+
+        if (physicalKey >= 0 && physicalKey < KeyDispatchTable.KEYCODE_LIMIT) {
+            if (mPhysicalKeyCodes == null) {
+                mPhysicalKeyCodes = new int[KeyDispatchTable.KEYCODE_LIMIT];
+                Arrays.fill(mPhysicalKeyCodes, NO_PHYSICAL_KEY);
+            }
+            mPhysicalKeyCodes[physicalKey] = key.codes[0];
+        }
+    }
+
+    /** Builds the table getOutput reads, once the keys are loaded. */
+    private void buildOutputs() {
+        List<Key> keys = getKeys();
+        KeyOutputs.Builder builder = new KeyOutputs.Builder(keys.size());
+        for (Key key : keys) {
+            builder.add(key.codes[0], key instanceof LatinKey ? ((LatinKey) key).output : null);
+        }
+        mOutputs = builder.build();
+    }
+
+    @Override
+    public int getMinWidth() {
+        return mCompiledWidth >= 0 ? mCompiledWidth : super.getMinWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mCompiledHeight >= 0 ? mCompiledHeight : super.getHeight();
+    }
+
+    /**
+     * Returns just the keys that can be under the touch, looked up in a
+     * precomputed grid, so KeyboardView checks the one or two keys meeting
+     * there instead of a cell's worth of neighbours.  Touches outside the
+     * keyboard's bounds still get the framework's neighbour list.
+     */
+    @Override
+    public int[] getNearestKeys(int x, int y) {
+        updateHitGrid(); //only builds if the view missed telling us about a resize
+        if (!mHitGrid.contains(x, y)) {
+            return super.getNearestKeys(x, y);
+        }
+        return mHitGrid.getCandidates(x, y);
+    }
+
+    /**
+     * Builds the grid getNearestKeys reads if the keys were resized since it
+     * was last built.  Called once the keys are loaded and by
+     * LatinKeyboardView after a resize, so no touch has to wait for it.
+     */
+    void updateHitGrid() {
+        if (mHitGrid == null || mHitGrid.getWidth() != getMinWidth() || mHitGrid.getHeight() != getHeight()) {
+            final List<Key> keys = getKeys();
+            mHitGrid = new KeyHitGrid(new KeyHitGrid.Keys() {
+                @Override
+                public int count() {
+                    return keys.size();
+                }
+
+                @Override
+                public int left(int key) {
+                    return keys.get(key).x;
+                }
+
+                @Override
+                public int top(int key) {
+                    return keys.get(key).y;
+                }
+
+                @Override
+                public int width(int key) {
+                    return keys.get(key).width;
+                }
+
+                @Override
+                public int height(int key) {
+                    return keys.get(key).height;
+                }
+
+                @Override
+                public boolean isInside(int key, int x, int y) {
+                    return keys.get(key).isInside(x, y);
+                }
+            }, getMinWidth(), getHeight());
+        }
+    }
+
+    /**
+     * Returns the code of the key that the hardware key {@code keyCode} types
+     * on this layer, or {@link #NO_PHYSICAL_KEY}.
+     */
+    int getPhysicalKeyCode(int keyCode) {
+        if (mPhysicalKeyCodes == null || keyCode < 0 || keyCode >= mPhysicalKeyCodes.length) {
+            return NO_PHYSICAL_KEY;
+        }
+        return mPhysicalKeyCodes[keyCode];
+    }
+
+    /**
+     * Returns the text the key with {@code code} types, the same instance
+     * every time, or null if no key on this layer has the code.  That
+     * includes code points above U+FFFF and the app:output of keys typing
+     * more than one.
+     */
+    CharSequence getOutput(int code) {
+        return mOutputs.get(code);
+    }
+
+    /**
+     * Returns which of the {@link KeyboardLayers} this is, or -1.
+     */
+    int getLayer() {
+        return mLayer;
     }
 
     public Key getCtrlKey() {
@@ -115,10 +336,17 @@ public class LatinKeyboard extends Keyboard {
     }
 
     static class LatinKey extends Keyboard.Key {
+
+        /** What the key types instead of its code, from app:output, or null. */
+        String output;
         
         public LatinKey(Resources res, Keyboard.Row parent, int x, int y, XmlResourceParser parser) {
             super(res, parent, x, y, parser);
         }
+
+        LatinKey(Keyboard.Row parent) {
+            super(parent);
+        }
         
         /**
          * Overriding this method so that we can reduce the target area for the key that
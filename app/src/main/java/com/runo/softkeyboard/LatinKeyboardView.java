@@ -17,12 +17,41 @@
 package com.runo.softkeyboard;
 
 import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.Keyboard.Key;
 import android.inputmethodservice.KeyboardView;
 import android.util.AttributeSet;
+import android.util.TypedValue;
 import android.view.inputmethod.InputMethodSubtype;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Draws the keys itself instead of through KeyboardView, which repaints its
+ * whole buffer whenever more than one key changes and never notices a
+ * sticky key being switched from code.  Each key's drawn state (pressed,
+ * on, label, icon) is remembered, and a frame only repaints the keys whose
+ * state differs, with their label and icon positions kept from last time.
+ *
+ * Every keyboard shown gets its own buffer, a {@link Snapshot}, kept when
+ * another keyboard is set, so switching layers back and forth repaints only
+ * the keys whose state changed meanwhile.  The layers set with
+ * setSnapshotKeyboards are drawn ahead, one per message once the view has
+ * its size, so even the first switch to them is a swap.  The buffers go
+ * when the width changes and on releaseSnapshots.
+ */
 public class LatinKeyboardView extends KeyboardView {
 
     static final int KEYCODE_OPTIONS = -100;
@@ -34,14 +63,91 @@ public class LatinKeyboardView extends KeyboardView {
     static final int KEYCODE_EDITOR_ACTION = -106;
     static final int NOT_A_KEY = -1;
 
+    // KeyboardView's public attributes, sorted by id for obtainStyledAttributes
+    private static final int[] KEY_STYLE = {
+            android.R.attr.shadowColor, android.R.attr.shadowRadius, android.R.attr.keyBackground,
+            android.R.attr.keyTextSize, android.R.attr.keyTextColor, android.R.attr.labelTextSize};
+    static {
+        Arrays.sort(KEY_STYLE);
+    }
+
+    private Drawable mKeyBackground;
+    private int mKeyTextSize;
+    private int mLabelTextSize;
+    private int mKeyTextColor;
+    private float mShadowRadius;
+    private int mShadowColor;
+    private final Paint mPaint = new Paint();
+    private final Rect mPadding = new Rect();
+
+    /** Bytes held by snapshot buffers in this process, for the settings screen. */
+    private static final AtomicLong sSnapshotBytes = new AtomicLong();
+
+    /** A keyboard's keys as drawn into its buffer. */
+    private static final class Snapshot {
+        final Keyboard mKeyboard;
+        final Key[] mKeys;
+        Bitmap mBuffer; //null until first drawn
+        Canvas mCanvas;
+        boolean mAllDirty = true;
+        // per key, what is in the buffer and where its label/icon go
+        final boolean[] mDirty;
+        final boolean[] mDrawnPressed;
+        final boolean[] mDrawnOn;
+        final CharSequence[] mDrawnLabel;
+        final Drawable[] mDrawnIcon;
+        final float[] mContentX;
+        final float[] mContentY;
+
+        Snapshot(Keyboard keyboard) {
+            mKeyboard = keyboard;
+            List<Key> keys = keyboard.getKeys();
+            int count = keys.size();
+            mKeys = keys.toArray(new Key[count]);
+            mDirty = new boolean[count];
+            mDrawnPressed = new boolean[count];
+            mDrawnOn = new boolean[count];
+            mDrawnLabel = new CharSequence[count];
+            mDrawnIcon = new Drawable[count];
+            mContentX = new float[count];
+            mContentY = new float[count];
+        }
+
+        void release() {
+            if (mBuffer != null) {
+                sSnapshotBytes.addAndGet(-mBuffer.getAllocationByteCount());
+                mBuffer = null;
+                mCanvas = null;
+            }
+            mAllDirty = true;
+        }
+    }
+
+    private final List<Snapshot> mSnapshots = new ArrayList<>(KeyboardLayers.COUNT); //current first
+    private Snapshot mCurrent; //null before the first setKeyboard
+    private Keyboard[] mAheadKeyboards = new Keyboard[0];
+    private final Runnable mDrawAhead = this::drawAhead;
+    private long mKeysDrawn; //total, for tests
 
     public LatinKeyboardView(Context context, AttributeSet attrs) {
-        super(context, attrs);
-        setOptions();
+        this(context, attrs, getKeyboardViewStyle(context));
     }
 
     public LatinKeyboardView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        TypedArray a = context.obtainStyledAttributes(attrs, KEY_STYLE, defStyle, 0);
+        mKeyBackground = a.getDrawable(styleIndex(android.R.attr.keyBackground));
+        mKeyTextSize = a.getDimensionPixelSize(styleIndex(android.R.attr.keyTextSize), spToPx(context, 18));
+        mLabelTextSize = a.getDimensionPixelSize(styleIndex(android.R.attr.labelTextSize), spToPx(context, 14));
+        mKeyTextColor = a.getColor(styleIndex(android.R.attr.keyTextColor), Color.WHITE);
+        mShadowRadius = a.getFloat(styleIndex(android.R.attr.shadowRadius), 0f);
+        mShadowColor = a.getColor(styleIndex(android.R.attr.shadowColor), 0);
+        a.recycle();
+        if (mKeyBackground != null) {
+            mKeyBackground.getPadding(mPadding);
+        }
+        mPaint.setAntiAlias(true);
+        mPaint.setTextAlign(Paint.Align.CENTER);
         setOptions();
     }
 
@@ -55,6 +161,254 @@ public class LatinKeyboardView extends KeyboardView {
         }
     }
 
+    @Override
+    public void setKeyboard(Keyboard keyboard) {
+        super.setKeyboard(keyboard); //calls invalidateAllKeys, which leaves the snapshots alone
+        mCurrent = getSnapshot(keyboard);
+        mSnapshots.remove(mCurrent);
+        mSnapshots.add(0, mCurrent);
+        if (mSnapshots.size() > KeyboardLayers.COUNT) {
+            mSnapshots.remove(mSnapshots.size() - 1).release();
+        }
+    }
+
+    /**
+     * Keyboards to draw into their snapshots ahead of being shown, like the
+     * layers the SYM key cycles through.
+     */
+    void setSnapshotKeyboards(Keyboard... keyboards) {
+        mAheadKeyboards = keyboards;
+        removeCallbacks(mDrawAhead);
+        post(mDrawAhead);
+    }
+
+    /**
+     * Drops the snapshot buffers, all of them or all but the keyboard
+     * shown.  They are drawn again when needed.
+     */
+    void releaseSnapshots(boolean keepCurrent) {
+        removeCallbacks(mDrawAhead);
+        for (Snapshot snapshot : mSnapshots) {
+            if (!keepCurrent || snapshot != mCurrent) {
+                snapshot.release();
+            }
+        }
+    }
+
+    /** Bytes held by snapshot buffers in this process. */
+    static long getSnapshotBytes() {
+        return sSnapshotBytes.get();
+    }
+
+    static void dumpSnapshots(StringBuilder out) {
+        out.append("layer snapshots ").append(getSnapshotBytes() / 1024).append("KB\n");
+    }
+
+    /** Called by KeyboardView for presses and releases. */
+    @Override
+    public void invalidateKey(int keyIndex) {
+        if (mCurrent == null || keyIndex < 0 || keyIndex >= mCurrent.mKeys.length) {
+            return;
+        }
+        mCurrent.mDirty[keyIndex] = true;
+        Key key = mCurrent.mKeys[keyIndex];
+        invalidate(key.x + getPaddingLeft(), key.y + getPaddingTop(),
+                key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
+    }
+
+    /**
+     * KeyboardView calls this for a new keyboard too, which the snapshot
+     * already has right or works out by itself, so the buffer is kept.
+     */
+    @Override
+    public void invalidateAllKeys() {
+        invalidate();
+    }
+
+    /**
+     * Repaints the keys whose pressed/on state, label or icon was changed
+     * from code since they were drawn, like the ctrl key by
+     * {@link LatinKeyboard#setCtrlState}.
+     */
+    void invalidateChangedKeys() {
+        if (mCurrent == null) {
+            return;
+        }
+        for (int i = 0; i < mCurrent.mKeys.length; i++) {
+            if (!mCurrent.mDirty[i] && hasChanged(mCurrent, i)) {
+                invalidateKey(i);
+            }
+        }
+    }
+
+    long getKeysDrawn() {
+        return mKeysDrawn;
+    }
+
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh); //resizes the keyboard's keys
+        if (getKeyboard() instanceof LatinKeyboard) {
+            ((LatinKeyboard) getKeyboard()).updateHitGrid();
+        }
+        if (w != oldw) {
+            for (Snapshot snapshot : mSnapshots) {
+                snapshot.release();
+            }
+            removeCallbacks(mDrawAhead);
+            post(mDrawAhead);
+        }
+    }
+
+    @Override
+    public void onDraw(Canvas canvas) {
+        if (mCurrent == null || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        Snapshot snapshot = mCurrent;
+        updateSnapshot(snapshot);
+        canvas.drawBitmap(snapshot.mBuffer, 0, 0, null);
+    }
+
+    /** Draws the keys the snapshot doesn't have as they are now. */
+    private void updateSnapshot(Snapshot snapshot) {
+        int height = snapshot.mKeyboard.getHeight() + getPaddingTop() + getPaddingBottom();
+        if (snapshot.mBuffer == null || snapshot.mBuffer.getWidth() != getWidth()
+                || snapshot.mBuffer.getHeight() != height) {
+            snapshot.release();
+            snapshot.mBuffer = Bitmap.createBitmap(getWidth(), height, Bitmap.Config.ARGB_8888);
+            snapshot.mCanvas = new Canvas(snapshot.mBuffer);
+            sSnapshotBytes.addAndGet(snapshot.mBuffer.getAllocationByteCount());
+        }
+        boolean all = snapshot.mAllDirty;
+        if (all) {
+            snapshot.mCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        }
+        for (int i = 0; i < snapshot.mKeys.length; i++) {
+            if (all || snapshot.mDirty[i] || hasChanged(snapshot, i)) {
+                drawKey(snapshot, i, !all);
+            }
+        }
+        snapshot.mAllDirty = false;
+    }
+
+    /** Draws the next ahead keyboard without a buffer, then posts itself for the one after. */
+    private void drawAhead() {
+        if (getWidth() <= 0) {
+            return; //again from onSizeChanged
+        }
+        for (Keyboard keyboard : mAheadKeyboards) {
+            Snapshot snapshot = getSnapshot(keyboard);
+            if (snapshot.mBuffer == null) {
+                if (!mSnapshots.contains(snapshot)) {
+                    mSnapshots.add(snapshot);
+                }
+                updateSnapshot(snapshot);
+                post(mDrawAhead);
+                return;
+            }
+        }
+    }
+
+    private Snapshot getSnapshot(Keyboard keyboard) {
+        for (Snapshot snapshot : mSnapshots) {
+            if (snapshot.mKeyboard == keyboard) {
+                return snapshot;
+            }
+        }
+        return new Snapshot(keyboard);
+    }
+
+    private static boolean hasChanged(Snapshot snapshot, int index) {
+        Key key = snapshot.mKeys[index];
+        return key.pressed != snapshot.mDrawnPressed[index] || key.on != snapshot.mDrawnOn[index]
+                || key.label != snapshot.mDrawnLabel[index] || key.icon != snapshot.mDrawnIcon[index];
+    }
+
+    private void drawKey(Snapshot snapshot, int index, boolean clear) {
+        Key key = snapshot.mKeys[index];
+        Canvas canvas = snapshot.mCanvas;
+        int left = key.x + getPaddingLeft();
+        int top = key.y + getPaddingTop();
+        if (key.label != snapshot.mDrawnLabel[index] || key.icon != snapshot.mDrawnIcon[index]) {
+            measureContent(snapshot, index);
+        }
+        canvas.save();
+        canvas.translate(left, top);
+        if (clear) {
+            canvas.clipRect(0, 0, key.width, key.height);
+            canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        }
+        if (mKeyBackground != null) {
+            mKeyBackground.setState(key.getCurrentDrawableState());
+            mKeyBackground.setBounds(0, 0, key.width, key.height);
+            mKeyBackground.draw(canvas);
+        }
+        if (key.label != null) {
+            setLabelStyle(key.label);
+            canvas.drawText(key.label, 0, key.label.length(), snapshot.mContentX[index], snapshot.mContentY[index], mPaint);
+            mPaint.setShadowLayer(0, 0, 0, 0);
+        } else if (key.icon != null) {
+            canvas.translate(snapshot.mContentX[index], snapshot.mContentY[index]);
+            key.icon.setBounds(0, 0, key.icon.getIntrinsicWidth(), key.icon.getIntrinsicHeight());
+            key.icon.draw(canvas);
+        }
+        canvas.restore();
+
+        snapshot.mDirty[index] = false;
+        snapshot.mDrawnPressed[index] = key.pressed;
+        snapshot.mDrawnOn[index] = key.on;
+        snapshot.mDrawnLabel[index] = key.label;
+        snapshot.mDrawnIcon[index] = key.icon;
+        mKeysDrawn++;
+    }
+
+    /**
+     * Works out where the key's label baseline or icon origin goes, only
+     * redone when the label or icon itself is replaced.
+     */
+    private void measureContent(Snapshot snapshot, int index) {
+        Key key = snapshot.mKeys[index];
+        int contentWidth = key.width - mPadding.left - mPadding.right;
+        int contentHeight = key.height - mPadding.top - mPadding.bottom;
+        if (key.label != null) {
+            setLabelStyle(key.label);
+            snapshot.mContentX[index] = contentWidth / 2f + mPadding.left;
+            snapshot.mContentY[index] = contentHeight / 2f + (mPaint.getTextSize() - mPaint.descent()) / 2 + mPadding.top;
+        } else if (key.icon != null) {
+            snapshot.mContentX[index] = (contentWidth - key.icon.getIntrinsicWidth()) / 2 + mPadding.left;
+            snapshot.mContentY[index] = (contentHeight - key.icon.getIntrinsicHeight()) / 2 + mPadding.top;
+        }
+    }
+
+    private void setLabelStyle(CharSequence label) {
+        //words get the smaller bold label size, single characters the key size, as in KeyboardView
+        if (label.length() > 1) {
+            mPaint.setTextSize(mLabelTextSize);
+            mPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        } else {
+            mPaint.setTextSize(mKeyTextSize);
+            mPaint.setTypeface(Typeface.DEFAULT);
+        }
+        mPaint.setColor(mKeyTextColor);
+        mPaint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
+    }
+
+    private static int styleIndex(int attr) {
+        return Arrays.binarySearch(KEY_STYLE, attr);
+    }
+
+    /**
+     * The platform's default KeyboardView style, so keys look the same as
+     * when KeyboardView drew them. The attribute isn't in the public SDK.
+     */
+    private static int getKeyboardViewStyle(Context context) {
+        return context.getResources().getIdentifier("keyboardViewStyle", "attr", "android");
+    }
+
+    private static int spToPx(Context context, int sp) {
+        return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, sp, context.getResources().getDisplayMetrics());
+    }
 
 
 //    void setSubtypeOnSpaceKey(final InputMethodSubtype subtype) {
@@ -0,0 +1,168 @@
+package com.runo.softkeyboard;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+
+import java.util.ArrayList;
+
+/**
+ * A recorded sequence of what the keyboard sent to the editor: text, key
+ * events, deletes and editor actions, resolved already so playback doesn't
+ * go through the key maps again.
+ *
+ * Text is merged while recording, a run of typed chars is one step, and a
+ * plain backspace right after text takes its last char back instead of
+ * adding a step.  Playback is one batch edit with one call per step, so a
+ * macro costs IPCs per text run and key sent rather than per keystroke.
+ *
+ * Only used from the main thread.
+ */
+final class Macro {
+
+    static final int MAX_STEPS = 4096;
+    static final int MAX_TEXT = 64 * 1024;
+
+    private static final int STEP_TEXT = 0; //a: end of the step's text in mText
+    private static final int STEP_KEY = 1; //a: index of the down event in mEvents, the up follows
+    private static final int STEP_DELETE = 2; //a, b: chars before and after the cursor
+    private static final int STEP_EDITOR_ACTION = 3; //a: action id
+
+    private final int[] mKinds = new int[MAX_STEPS];
+    private final int[] mA = new int[MAX_STEPS];
+    private final int[] mB = new int[MAX_STEPS];
+    private final StringBuilder mText = new StringBuilder();
+    private final ArrayList<KeyEvent> mEvents = new ArrayList<>(); //immutable, shared with KeyEventCache
+    private int mStepCount;
+    private boolean mRecording;
+
+    /** Drops the macro there is and starts recording a new one. */
+    void start() {
+        mStepCount = 0;
+        mText.setLength(0);
+        mEvents.clear();
+        mRecording = true;
+    }
+
+    void stop() {
+        mRecording = false;
+    }
+
+    boolean isRecording() {
+        return mRecording;
+    }
+
+    int getStepCount() {
+        return mStepCount;
+    }
+
+    void recordText(CharSequence text) {
+        if (!mRecording || text.length() == 0) {
+            return;
+        }
+        if (mText.length() + text.length() > MAX_TEXT) {
+            mRecording = false; //full, keep what fits as a whole
+            return;
+        }
+        if (mStepCount > 0 && mKinds[mStepCount - 1] == STEP_TEXT) {
+            mText.append(text);
+            mA[mStepCount - 1] = mText.length();
+            return;
+        }
+        mText.append(text);
+        addStep(STEP_TEXT, mText.length(), 0);
+    }
+
+    void recordCodePoint(int codePoint) {
+        if (mRecording && Character.isValidCodePoint(codePoint)) {
+            recordText(new String(Character.toChars(codePoint)));
+        }
+    }
+
+    /** A down/up pair; a plain backspace after text removes its last char instead. */
+    void recordKeyEvents(KeyEvent down, KeyEvent up) {
+        if (!mRecording) {
+            return;
+        }
+        if (down.getKeyCode() == KeyEvent.KEYCODE_DEL && down.getMetaState() == 0
+                && mStepCount > 0 && mKinds[mStepCount - 1] == STEP_TEXT) {
+            removeLastChar();
+            return;
+        }
+        if (addStep(STEP_KEY, mEvents.size(), 0)) {
+            mEvents.add(down);
+            mEvents.add(up);
+        }
+    }
+
+    void recordDelete(int before, int after) {
+        if (mRecording) {
+            addStep(STEP_DELETE, before, after);
+        }
+    }
+
+    void recordEditorAction(int actionId) {
+        if (mRecording) {
+            addStep(STEP_EDITOR_ACTION, actionId, 0);
+        }
+    }
+
+    /** Sends the whole macro as one batch edit. */
+    void play(InputConnection ic) {
+        ic.beginBatchEdit();
+        int textStart = 0;
+        for (int i = 0; i < mStepCount; i++) {
+            switch (mKinds[i]) {
+                case STEP_TEXT:
+                    ic.commitText(mText.substring(textStart, mA[i]), 1);
+                    textStart = mA[i];
+                    break;
+                case STEP_KEY:
+                    ic.sendKeyEvent(mEvents.get(mA[i]));
+                    ic.sendKeyEvent(mEvents.get(mA[i] + 1));
+                    break;
+                case STEP_DELETE:
+                    ic.deleteSurroundingText(mA[i], mB[i]);
+                    break;
+                case STEP_EDITOR_ACTION:
+                    ic.performEditorAction(mA[i]);
+                    break;
+            }
+        }
+        ic.endBatchEdit();
+    }
+
+    private boolean addStep(int kind, int a, int b) {
+        if (mStepCount == MAX_STEPS) {
+            mRecording = false;
+            return false;
+        }
+        mKinds[mStepCount] = kind;
+        mA[mStepCount] = a;
+        mB[mStepCount] = b;
+        mStepCount++;
+        return true;
+    }
+
+    private void removeLastChar() {
+        int end = mA[mStepCount - 1];
+        int start = getTextEndBefore(mStepCount - 1);
+        int length = Character.isLowSurrogate(mText.charAt(end - 1)) && end - 2 >= start
+                && Character.isHighSurrogate(mText.charAt(end - 2)) ? 2 : 1;
+        mText.setLength(end - length);
+        if (end - length == start) {
+            mStepCount--; //nothing left of the step
+        } else {
+            mA[mStepCount - 1] = end - length;
+        }
+    }
+
+    /** Where the text of the text steps before {@code step} ends. */
+    private int getTextEndBefore(int step) {
+        for (int i = step - 1; i >= 0; i--) {
+            if (mKinds[i] == STEP_TEXT) {
+                return mA[i];
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,98 @@
+package com.runo.softkeyboard;
+
+/**
+ * Shift/alt lock state for the physical keyboard.  Double tapping alt or
+ * shift locks it, tapping it again unlocks, and tapping the other modifier
+ * drops an active lock.
+ *
+ * Time comes in with each event (KeyEvent.getEventTime) instead of being
+ * read from a clock, and the side effects the keyboard has to perform are
+ * returned as a bitmask of CMD_ flags, so a transition never allocates and
+ * the whole thing runs on a plain JVM.
+ */
+final class ModifierStateMachine {
+
+    static final long DOUBLE_TAP_WINDOW_MS = 800L;
+    static final long UNLOCK_GUARD_MS = 300L; //ignore taps right after locking
+
+    // commands, the caller applies them in this order
+    static final int CMD_CLEAR_ALT_META = 1;
+    static final int CMD_CLEAR_SHIFT_META = 1 << 1;
+    static final int CMD_HIDE_ICON = 1 << 2;
+    static final int CMD_SHOW_ALT_ICON = 1 << 3;
+    static final int CMD_SHOW_SHIFT_ICON = 1 << 4;
+    static final int CMD_VIBRATE_SINGLE = 1 << 5;
+    static final int CMD_VIBRATE_DOUBLE = 1 << 6;
+    static final int CMD_CONSUMED = 1 << 7; //the key up should not reach the app
+
+    private static final long NEVER = Long.MIN_VALUE / 2;
+
+    private long mLastAltTime = NEVER;
+    private long mLastShiftTime = NEVER;
+    private boolean mAltLock;
+    private boolean mShiftLock;
+
+    boolean isAltLocked() {
+        return mAltLock;
+    }
+
+    boolean isShiftLocked() {
+        return mShiftLock;
+    }
+
+    /**
+     * Alt key released at {@code eventTime}.
+     */
+    int onAltUp(long eventTime) {
+        int commands = CMD_CLEAR_SHIFT_META;
+        if (mShiftLock) {
+            mShiftLock = false;
+            return commands | CMD_HIDE_ICON | CMD_VIBRATE_SINGLE;
+        }
+        if (mAltLock) {
+            if (eventTime - mLastAltTime > UNLOCK_GUARD_MS) {
+                mAltLock = false;
+                commands |= CMD_HIDE_ICON | CMD_CLEAR_ALT_META | CMD_VIBRATE_SINGLE;
+            }
+            return commands | CMD_CONSUMED;
+        }
+        if (eventTime - mLastAltTime < DOUBLE_TAP_WINDOW_MS) {
+            mAltLock = true;
+            return commands | CMD_SHOW_ALT_ICON | CMD_VIBRATE_DOUBLE | CMD_CONSUMED;
+        }
+        mLastAltTime = eventTime;
+        return commands;
+    }
+
+    /**
+     * Shift key released at {@code eventTime}, mirrors {@link #onAltUp}.
+     */
+    int onShiftUp(long eventTime) {
+        int commands = CMD_CLEAR_ALT_META;
+        if (mAltLock) {
+            mAltLock = false;
+            return commands | CMD_HIDE_ICON | CMD_VIBRATE_SINGLE;
+        }
+        if (mShiftLock) {
+            if (eventTime - mLastShiftTime > UNLOCK_GUARD_MS) {
+                mShiftLock = false;
+                commands |= CMD_HIDE_ICON | CMD_CLEAR_SHIFT_META | CMD_VIBRATE_SINGLE;
+            }
+            return commands | CMD_CONSUMED;
+        }
+        if (eventTime - mLastShiftTime < DOUBLE_TAP_WINDOW_MS) {
+            mShiftLock = true;
+            return commands | CMD_SHOW_SHIFT_ICON | CMD_VIBRATE_DOUBLE | CMD_CONSUMED;
+        }
+        mLastShiftTime = eventTime;
+        return commands;
+    }
+
+    /**
+     * Drops both locks, used when the editor changes.
+     */
+    void reset() {
+        mAltLock = false;
+        mShiftLock = false;
+    }
+}
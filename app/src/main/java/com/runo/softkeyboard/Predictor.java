@@ -0,0 +1,353 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Word predictions off the main thread.  The dictionary asset is memory
+ * mapped on the prediction thread the first time it is needed, and lookups
+ * run there too, ranked together with the {@link UserVocabulary} of words
+ * the user has typed, which is replayed from and appended to its
+ * {@link VocabularyLog} on the same thread.  Every request gets a
+ * generation number; a lookup whose prefix has been replaced by a newer
+ * request is skipped, and a result arriving for an outdated request is
+ * dropped, so the candidates never show words for a prefix the user has
+ * typed past.
+ *
+ * A word that is neither in the dictionary nor learned also gets an
+ * {@link Autocorrector} search, limited to CORRECTION_BUDGET_NS so a slow
+ * one can't hold up the next keystroke's lookup; the correction found is
+ * shown first, and passed on for the keyboard to apply at the next space
+ * only when the Autocorrector is confident of it.
+ */
+final class Predictor {
+
+    interface Listener {
+        /**
+         * Called on the main thread, {@code words} is empty for no
+         * predictions, {@code correction} null unless the prefix is surely a
+         * typo of it.
+         */
+        void onPredictions(String prefix, String[] words, String correction, long lookupMicros);
+    }
+
+    static final String DICTIONARY_ASSET = "en.dict"; //compiled from src/main/dictionaries
+    static final int MAX_PREDICTIONS = 3;
+    static final String VOCABULARY_FILE = "vocabulary.log"; //in the files dir
+    static final long FLUSH_DELAY_MS = 10_000L; //pending learned words are written after this at the latest
+    static final long CORRECTION_BUDGET_NS = 2_000_000L; //per keystroke, a search running over gives no correction
+
+    /** Candidates looked at from each source before ranking. */
+    private static final int CANDIDATES = 8;
+
+    private static final String TAG = "Predictor";
+    private static final int MSG_LOOKUP = 1;
+    private static final int MSG_RESULT = 2;
+    private static final int MSG_LEARN = 3;
+    private static final int MSG_FLUSH = 4;
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mWorker;
+    private final Handler mMain;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    // prediction thread only
+    private TrieDictionary mDictionary;
+    private Autocorrector mCorrector;
+    private boolean mOpenFailed;
+    private UserVocabulary mVocabulary;
+    private VocabularyLog mLog;
+    private final String[] mWords = new String[CANDIDATES];
+    private final int[] mFrequencies = new int[CANDIDATES];
+    private final String[] mLearned = new String[CANDIDATES];
+    private final int[] mLearnedCounts = new int[CANDIDATES];
+    private final String[] mRanked = new String[MAX_PREDICTIONS];
+    private final int[] mScores = new int[MAX_PREDICTIONS];
+
+    Predictor(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mThread = new HandlerThread("prediction", Process.THREAD_PRIORITY_FOREGROUND);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper(), this::handleWorkerMessage);
+        mMain = new Handler(Looper.getMainLooper(), this::deliver);
+    }
+
+    /**
+     * Asks for the predictions for the word being typed, replacing any
+     * request still pending.  Main thread.
+     */
+    void request(String prefix, String previous) {
+        int generation = mGeneration.incrementAndGet();
+        mWorker.removeMessages(MSG_LOOKUP);
+        mWorker.obtainMessage(MSG_LOOKUP, generation, 0, new String[]{prefix, previous}).sendToTarget();
+    }
+
+    /**
+     * Adds a word the user finished typing, after {@code previous} or null,
+     * to the learned vocabulary.  Main thread.
+     */
+    void learn(String previous, String word) {
+        mWorker.obtainMessage(MSG_LEARN, new String[]{previous, word}).sendToTarget();
+    }
+
+    /** Writes the learned words that are still pending.  Main thread. */
+    void flushLearned() {
+        mWorker.removeMessages(MSG_FLUSH);
+        mWorker.sendEmptyMessage(MSG_FLUSH);
+    }
+
+    /** Drops pending requests and results.  Main thread. */
+    void cancel() {
+        mGeneration.incrementAndGet();
+        mWorker.removeMessages(MSG_LOOKUP);
+        mMain.removeMessages(MSG_RESULT);
+    }
+
+    void close() {
+        cancel();
+        flushLearned(); //quitSafely still runs it, it is due now
+        mThread.quitSafely();
+    }
+
+    private boolean handleWorkerMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_LOOKUP:
+                lookup(msg);
+                break;
+            case MSG_LEARN:
+                String[] words = (String[]) msg.obj;
+                learnWord(words[0], words[1]);
+                break;
+            case MSG_FLUSH:
+                flushLog();
+                break;
+        }
+        return true;
+    }
+
+    private void lookup(Message msg) {
+        if (msg.arg1 != mGeneration.get()) {
+            return; //typed past already
+        }
+        String[] request = (String[]) msg.obj;
+        String prefix = request[0];
+        long start = System.nanoTime();
+        String[] words = new String[0];
+        String correction = null;
+        TrieDictionary dictionary = getDictionary();
+        if (dictionary != null && !prefix.isEmpty()) {
+            String lower = prefix.toLowerCase(Locale.ROOT);
+            String previous = request[1] != null ? request[1].toLowerCase(Locale.ROOT) : null;
+            UserVocabulary vocabulary = getVocabulary();
+            int count = rank(dictionary, vocabulary, lower, previous);
+            if (dictionary.getFrequency(lower) == 0 && vocabulary.getCount(lower) == 0) {
+                correction = mCorrector.correct(lower, CORRECTION_BUDGET_NS);
+            }
+            if (correction != null) {
+                count = putFirst(correction, count);
+                correction = mCorrector.isConfident() ? matchCase(prefix, correction) : null; //otherwise just suggested
+            }
+            words = new String[count];
+            for (int i = 0; i < count; i++) {
+                words[i] = matchCase(prefix, mRanked[i]);
+            }
+        }
+        long micros = (System.nanoTime() - start) / 1000L;
+        mMain.obtainMessage(MSG_RESULT, msg.arg1, 0, new Result(prefix, words, correction, micros)).sendToTarget();
+    }
+
+    /**
+     * Merges the dictionary's and the learned vocabulary's completions into
+     * mRanked, best first.  Returns how many there are.
+     */
+    private int rank(TrieDictionary dictionary, UserVocabulary vocabulary, String prefix, String previous) {
+        int ranked = 0;
+        int fromDictionary = dictionary.complete(prefix, mWords, mFrequencies);
+        for (int i = 0; i < fromDictionary; i++) {
+            ranked = insert(ranked, mWords[i], score(mFrequencies[i], vocabulary, previous, mWords[i]));
+        }
+        int learned = vocabulary.complete(prefix, mLearned, mLearnedCounts);
+        for (int i = 0; i < learned; i++) {
+            if (dictionary.getFrequency(mLearned[i]) == 0) { //dictionary words were scored above
+                ranked = insert(ranked, mLearned[i], score(0, vocabulary, previous, mLearned[i]));
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * A word's dictionary frequency (1-255), raised by how often the user
+     * typed it and how often after {@code previous}.
+     */
+    static int score(int frequency, UserVocabulary vocabulary, String previous, String word) {
+        int score = frequency;
+        int typed = vocabulary.getCount(word);
+        if (typed > 0) {
+            score = Math.max(score, 100) + 24 * log2(typed + 1);
+        }
+        if (previous != null) {
+            int after = vocabulary.getBigramCount(previous, word);
+            if (after > 0) {
+                score += 48 * log2(after + 1);
+            }
+        }
+        return score;
+    }
+
+    private static int log2(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+
+    private int insert(int ranked, String word, int score) {
+        if (ranked == MAX_PREDICTIONS && score <= mScores[ranked - 1]) {
+            return ranked;
+        }
+        int at = ranked < MAX_PREDICTIONS ? ranked++ : MAX_PREDICTIONS - 1;
+        while (at > 0 && mScores[at - 1] < score) {
+            mRanked[at] = mRanked[at - 1];
+            mScores[at] = mScores[at - 1];
+            at--;
+        }
+        mRanked[at] = word;
+        mScores[at] = score;
+        return ranked;
+    }
+
+    /** Moves or inserts {@code word} at the front of mRanked. */
+    private int putFirst(String word, int ranked) {
+        int at = 0;
+        while (at < ranked && !mRanked[at].equals(word)) {
+            at++;
+        }
+        if (at == ranked) {
+            at = ranked < MAX_PREDICTIONS ? ranked++ : MAX_PREDICTIONS - 1;
+        }
+        System.arraycopy(mRanked, 0, mRanked, 1, at);
+        mRanked[0] = word;
+        return ranked;
+    }
+
+    private void learnWord(String previous, String word) {
+        UserVocabulary vocabulary = getVocabulary();
+        word = word.toLowerCase(Locale.ROOT);
+        previous = previous != null ? previous.toLowerCase(Locale.ROOT) : null;
+        vocabulary.learn(previous, word);
+        try {
+            mLog.add(previous, word);
+        } catch (IOException e) {
+            Log.e(TAG, "can't log learned word", e);
+        }
+        if (mLog.getPendingWords() >= VocabularyLog.BATCH_WORDS) {
+            flushLog();
+        } else if (!mWorker.hasMessages(MSG_FLUSH)) {
+            mWorker.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY_MS);
+        }
+    }
+
+    private void flushLog() {
+        mWorker.removeMessages(MSG_FLUSH);
+        if (mLog == null) {
+            return;
+        }
+        try {
+            mLog.flush(mVocabulary);
+        } catch (IOException e) {
+            Log.e(TAG, "can't write " + VOCABULARY_FILE, e);
+        }
+    }
+
+    /** Replays the log the first time the vocabulary is needed. */
+    private UserVocabulary getVocabulary() {
+        if (mVocabulary == null) {
+            mVocabulary = new UserVocabulary();
+            mLog = new VocabularyLog(new File(mContext.getFilesDir(), VOCABULARY_FILE));
+            try {
+                mLog.replay(mVocabulary);
+            } catch (IOException e) {
+                Log.e(TAG, "can't read " + VOCABULARY_FILE + ", starting over", e);
+                mVocabulary.clear();
+                try {
+                    mLog.compact(mVocabulary);
+                } catch (IOException again) {
+                    Log.e(TAG, "can't reset " + VOCABULARY_FILE, again);
+                }
+            }
+        }
+        return mVocabulary;
+    }
+
+    private boolean deliver(Message msg) {
+        if (msg.arg1 != mGeneration.get()) {
+            return true; //a newer request is on its way
+        }
+        Result result = (Result) msg.obj;
+        mListener.onPredictions(result.mPrefix, result.mWords, result.mCorrection, result.mLookupMicros);
+        return true;
+    }
+
+    private TrieDictionary getDictionary() {
+        if (mDictionary == null && !mOpenFailed) {
+            try {
+                mDictionary = new TrieDictionary(map(mContext, DICTIONARY_ASSET));
+                mCorrector = new Autocorrector(mDictionary);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "can't open " + DICTIONARY_ASSET, e);
+                mOpenFailed = true;
+            }
+        }
+        return mDictionary;
+    }
+
+    /**
+     * Maps an asset stored uncompressed in the APK (see noCompress in
+     * build.gradle), the mapping stays valid after the file is closed.
+     */
+    static ByteBuffer map(Context context, String asset) throws IOException {
+        try (AssetFileDescriptor fd = context.getAssets().openFd(asset);
+             FileInputStream in = fd.createInputStream();
+             FileChannel channel = in.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        }
+    }
+
+    /** Capitalises the word like the prefix was typed: first letter or all caps. */
+    static String matchCase(String prefix, String word) {
+        if (prefix.isEmpty() || !Character.isUpperCase(prefix.charAt(0))) {
+            return word;
+        }
+        if (prefix.length() > 1 && prefix.equals(prefix.toUpperCase(Locale.ROOT))) {
+            return word.toUpperCase(Locale.ROOT);
+        }
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static final class Result {
+        final String mPrefix;
+        final String[] mWords;
+        final String mCorrection;
+        final long mLookupMicros;
+
+        Result(String prefix, String[] words, String correction, long lookupMicros) {
+            mPrefix = prefix;
+            mWords = words;
+            mCorrection = correction;
+            mLookupMicros = lookupMicros;
+        }
+    }
+}
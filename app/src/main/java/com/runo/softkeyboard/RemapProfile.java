@@ -0,0 +1,323 @@
+package com.runo.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Key down remaps the user declares in a text file, added to a
+ * {@link KeyDispatchTable.Builder} after the {@link DefaultKeyMap} rules so
+ * they override them.  One rule per line, blank lines and lines starting
+ * with # are skipped:
+ *
+ * <pre>
+ * # layers  modifiers  key  action [argument]
+ * all       alt        SPACE  char \t
+ * all       shift,!alt DEL    key FORWARD_DEL
+ * qwerty    -          SYM    consume
+ * </pre>
+ *
+ * Layers are a comma separated list of all, visible, hidden, qwerty,
+ * qwerty_alt_lock, qwerty_shift_lock, symbols and numeric.  Modifiers are
+ * alt, shift and ctrl that must be held, or not with a !, the rest don't
+ * matter; - for no condition.  Keys are KeyEvent names without KEYCODE_,
+ * or numbers.  The actions are passthrough, consume, char, key, meta,
+ * editor_action, backspace, word, restore_layer and macro; see parseAction.
+ *
+ * Immutable once read, so it can be read on a background thread.
+ */
+final class RemapProfile {
+
+    interface KeyNames {
+        /** The key code for a name like SPACE, or a negative number if there is none. */
+        int getKeyCode(String name);
+    }
+
+    static final RemapProfile EMPTY = new RemapProfile(new int[0], 0);
+
+    // the meta states a meta action can send, as in KeyEvent
+    static final int META_SHIFT_ON = 0x1; //KeyEvent.META_SHIFT_ON
+    static final int META_ALT_ON = 0x2; //KeyEvent.META_ALT_ON
+    static final int META_ALT_RIGHT_ON = 0x20; //KeyEvent.META_ALT_RIGHT_ON
+    static final int META_CTRL_ON = 0x1000; //KeyEvent.META_CTRL_ON
+
+    private static final int RULE_INTS = 5; //layers, modifier mask, modifier value, key code, action
+
+    private final int[] mRules;
+    private final int mRuleCount;
+
+    private RemapProfile(int[] rules, int ruleCount) {
+        mRules = rules;
+        mRuleCount = ruleCount;
+    }
+
+    int getRuleCount() {
+        return mRuleCount;
+    }
+
+    /** Adds the rules in file order, so a later line wins over an earlier one. */
+    void applyTo(KeyDispatchTable.Builder builder) {
+        for (int i = 0; i < mRuleCount * RULE_INTS; i += RULE_INTS) {
+            builder.down(mRules[i], mRules[i + 1], mRules[i + 2], mRules[i + 3], mRules[i + 4]);
+        }
+    }
+
+    /**
+     * Reads a whole profile.
+     *
+     * @throws IOException naming the line of the first bad rule, nothing
+     * of the file is used then
+     */
+    static RemapProfile read(Reader in, KeyNames names) throws IOException {
+        int[] rules = new int[16 * RULE_INTS];
+        int count = 0;
+        BufferedReader lines = new BufferedReader(in);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length < 4 || fields.length > 5) {
+                throw new IOException("line " + lineNumber + ": expected layers, modifiers, key, action [argument]");
+            }
+            if (count * RULE_INTS == rules.length) {
+                rules = Arrays.copyOf(rules, 2 * rules.length);
+            }
+            int rule = count++ * RULE_INTS;
+            try {
+                rules[rule] = parseLayers(fields[0]);
+                parseModifiers(fields[1], rules, rule + 1);
+                rules[rule + 3] = parseKey(fields[2], names);
+                rules[rule + 4] = parseAction(fields[3], fields.length == 5 ? fields[4] : null, names);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return new RemapProfile(rules, count);
+    }
+
+    private static int parseLayers(String field) {
+        int layers = 0;
+        for (String name : field.split(",")) {
+            switch (name) {
+                case "all":
+                    layers |= KeyDispatchTable.LAYERS_ALL;
+                    break;
+                case "visible":
+                    layers |= KeyDispatchTable.LAYERS_VISIBLE;
+                    break;
+                case "hidden":
+                    layers |= 1 << KeyDispatchTable.LAYER_NONE;
+                    break;
+                case "qwerty":
+                    layers |= KeyDispatchTable.LAYERS_QWERTY;
+                    break;
+                case "qwerty_alt_lock":
+                    layers |= 1 << KeyDispatchTable.LAYER_QWERTY_ALT_LOCK;
+                    break;
+                case "qwerty_shift_lock":
+                    layers |= 1 << KeyDispatchTable.LAYER_QWERTY_SHIFT_LOCK;
+                    break;
+                case "symbols":
+                    layers |= 1 << KeyDispatchTable.LAYER_SYMBOLS;
+                    break;
+                case "numeric":
+                    layers |= 1 << KeyDispatchTable.LAYER_NUMERIC;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown layer \"" + name + "\"");
+            }
+        }
+        return layers;
+    }
+
+    /** Puts the modifier mask and value at {@code rules[at]} and the int after. */
+    private static void parseModifiers(String field, int[] rules, int at) {
+        int mask = 0;
+        int value = 0;
+        if (!field.equals("-")) {
+            for (String name : field.split(",")) {
+                boolean held = !name.startsWith("!");
+                int modifier;
+                switch (held ? name : name.substring(1)) {
+                    case "alt":
+                        modifier = KeyDispatchTable.MOD_ALT;
+                        break;
+                    case "shift":
+                        modifier = KeyDispatchTable.MOD_SHIFT;
+                        break;
+                    case "ctrl":
+                        modifier = KeyDispatchTable.MOD_CTRL;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown modifier \"" + name + "\"");
+                }
+                mask |= modifier;
+                value |= held ? modifier : 0;
+            }
+        }
+        rules[at] = mask;
+        rules[at + 1] = value;
+    }
+
+    private static int parseKey(String field, KeyNames names) {
+        int keyCode;
+        if (Character.isDigit(field.charAt(0))) {
+            try {
+                keyCode = Integer.parseInt(field);
+            } catch (NumberFormatException e) {
+                keyCode = -1;
+            }
+        } else {
+            keyCode = names.getKeyCode(field);
+        }
+        if (keyCode < 0 || keyCode >= KeyDispatchTable.KEYCODE_LIMIT) {
+            throw new IllegalArgumentException("unknown key \"" + field + "\"");
+        }
+        return keyCode;
+    }
+
+    /**
+     * The action and its argument:
+     * passthrough and consume;
+     * char and the char to type, one char, \t, \n, \s for space or U+hex;
+     * key and the key to send instead;
+     * meta and the modifiers, comma separated, to send the key with;
+     * editor_action;
+     * backspace, which undoes an autocorrection first;
+     * word and left, right, select_left, select_right, delete_left or delete_right;
+     * restore_layer;
+     * macro and record, which also stops recording, or play.
+     */
+    private static int parseAction(String name, String argument, KeyNames names) {
+        int opcode;
+        switch (name) {
+            case "passthrough":
+                opcode = KeyDispatchTable.OP_PASSTHROUGH;
+                break;
+            case "consume":
+                opcode = KeyDispatchTable.OP_CONSUME;
+                break;
+            case "editor_action":
+                opcode = KeyDispatchTable.OP_EDITOR_ACTION;
+                break;
+            case "restore_layer":
+                opcode = KeyDispatchTable.OP_RESTORE_LAYER;
+                break;
+            case "backspace":
+                opcode = KeyDispatchTable.OP_BACKSPACE;
+                break;
+            case "char":
+            case "key":
+            case "meta":
+            case "word":
+            case "macro":
+                if (argument == null) {
+                    throw new IllegalArgumentException(name + " needs an argument");
+                }
+                return parseArgumentAction(name, argument, names);
+            default:
+                throw new IllegalArgumentException("unknown action \"" + name + "\"");
+        }
+        if (argument != null) {
+            throw new IllegalArgumentException(name + " takes no argument");
+        }
+        return KeyDispatchTable.action(opcode,
+                opcode == KeyDispatchTable.OP_BACKSPACE ? META_ALT_ON | META_ALT_RIGHT_ON : 0);
+    }
+
+    private static int parseArgumentAction(String name, String argument, KeyNames names) {
+        switch (name) {
+            case "char":
+                return KeyDispatchTable.action(KeyDispatchTable.OP_COMMIT_CHAR, parseChar(argument));
+            case "key":
+                return KeyDispatchTable.action(KeyDispatchTable.OP_SEND_KEY, parseKey(argument, names));
+            case "meta":
+                return KeyDispatchTable.action(KeyDispatchTable.OP_SEND_WITH_META, parseMeta(argument));
+            case "macro":
+                return KeyDispatchTable.action(KeyDispatchTable.OP_MACRO, parseMacroCommand(argument));
+            default:
+                return KeyDispatchTable.action(KeyDispatchTable.OP_WORD_EDIT, parseWordEdit(argument));
+        }
+    }
+
+    private static int parseChar(String argument) {
+        switch (argument) {
+            case "\\t":
+                return '\t';
+            case "\\n":
+                return '\n';
+            case "\\s":
+                return ' ';
+            default:
+                break;
+        }
+        if (argument.startsWith("U+") && argument.length() > 2) {
+            try {
+                int codePoint = Integer.parseInt(argument.substring(2), 16);
+                if (Character.isValidCodePoint(codePoint)) {
+                    return codePoint;
+                }
+            } catch (NumberFormatException e) {
+                //reported below
+            }
+        } else if (argument.codePointCount(0, argument.length()) == 1) {
+            return argument.codePointAt(0);
+        }
+        throw new IllegalArgumentException("bad char \"" + argument + "\"");
+    }
+
+    private static int parseMeta(String argument) {
+        int meta = 0;
+        for (String name : argument.split(",")) {
+            switch (name) {
+                case "alt":
+                    meta |= META_ALT_ON;
+                    break;
+                case "shift":
+                    meta |= META_SHIFT_ON;
+                    break;
+                case "ctrl":
+                    meta |= META_CTRL_ON;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown modifier \"" + name + "\"");
+            }
+        }
+        return meta;
+    }
+
+    private static int parseWordEdit(String argument) {
+        switch (argument) {
+            case "left":
+                return KeyDispatchTable.WORD_LEFT;
+            case "right":
+                return KeyDispatchTable.WORD_RIGHT;
+            case "select_left":
+                return KeyDispatchTable.WORD_SELECT_LEFT;
+            case "select_right":
+                return KeyDispatchTable.WORD_SELECT_RIGHT;
+            case "delete_left":
+                return KeyDispatchTable.WORD_DELETE_LEFT;
+            case "delete_right":
+                return KeyDispatchTable.WORD_DELETE_RIGHT;
+            default:
+                throw new IllegalArgumentException("unknown word edit \"" + argument + "\"");
+        }
+    }
+
+    private static int parseMacroCommand(String argument) {
+        switch (argument) {
+            case "record":
+                return KeyDispatchTable.MACRO_RECORD;
+            case "play":
+                return KeyDispatchTable.MACRO_PLAY;
+            default:
+                throw new IllegalArgumentException("unknown macro command \"" + argument + "\"");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the user's key remaps from REMAP_FILE in the files dir and builds
+ * the {@link KeyDispatchTable} with them on a background thread.  The new
+ * table is handed over on the main thread, between two key events, so the
+ * key path keeps reading one immutable table.  A file with a bad rule is
+ * reported and the table there is stays; without the file it is the
+ * defaults.  See RemapProfile for the format.
+ */
+final class Remaps {
+
+    interface Listener {
+        /** Called on the main thread with a newly built table. */
+        void onKeyMap(KeyDispatchTable table);
+    }
+
+    static final String REMAP_FILE = "remap.txt";
+
+    private static final String TAG = "Remaps";
+    private static final int MSG_LOAD = 1;
+
+    private final Context mContext;
+    private final File mFile;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mWorker;
+    private final Handler mMain;
+    private long mLoadedModified; //remap thread only, 0 is no file so the defaults
+
+    Remaps(Context context, Listener listener) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), REMAP_FILE);
+        mListener = listener;
+        mThread = new HandlerThread("remaps", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper(), this::load);
+        mMain = new Handler(Looper.getMainLooper());
+    }
+
+    /** Rebuilds the table if the file changed since it was last read.  Main thread. */
+    void reloadIfChanged() {
+        if (!mWorker.hasMessages(MSG_LOAD)) {
+            mWorker.sendEmptyMessage(MSG_LOAD);
+        }
+    }
+
+    void close() {
+        mThread.quitSafely();
+    }
+
+    private boolean load(Message msg) {
+        long modified = mFile.lastModified(); //0 if there is no file
+        if (modified == mLoadedModified) {
+            return true;
+        }
+        mLoadedModified = modified;
+        RemapProfile profile = RemapProfile.EMPTY;
+        if (modified != 0) {
+            try (Reader in = new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8)) {
+                profile = RemapProfile.read(in, Remaps::getKeyCode);
+            } catch (IOException e) {
+                Log.e(TAG, "can't load " + REMAP_FILE, e);
+                String message = REMAP_FILE + " not loaded, " + e.getMessage();
+                mMain.post(() -> Toast.makeText(mContext, message, Toast.LENGTH_LONG).show());
+                return true; //keep the table there is
+            }
+            if (BuildConfig.KEY_LOG) Log.d(TAG, "loaded " + profile.getRuleCount() + " remaps");
+        }
+        KeyDispatchTable.Builder builder = DefaultKeyMap.newBuilder();
+        profile.applyTo(builder);
+        KeyDispatchTable table = builder.build();
+        mMain.post(() -> mListener.onKeyMap(table));
+        return true;
+    }
+
+    private static int getKeyCode(String name) {
+        int keyCode = KeyEvent.keyCodeFromString("KEYCODE_" + name);
+        //an unknown name comes back as KEYCODE_UNKNOWN too
+        return keyCode == KeyEvent.KEYCODE_UNKNOWN && !name.equals("UNKNOWN") ? -1 : keyCode;
+    }
+}
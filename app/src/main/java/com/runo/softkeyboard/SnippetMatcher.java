@@ -0,0 +1,236 @@
+package com.runo.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over the abbreviations of the user's snippets, so
+ * typed text can be matched against all of them one char at a time, the
+ * cost per char not depending on how many snippets there are.
+ *
+ * States are numbered breadth first, root 0.  Each has its goto edges,
+ * sorted by char for a binary search, a failure link to the state for its
+ * longest proper suffix, and an output link to the nearest state on the
+ * failure chain that ends an abbreviation.  Immutable once built, so it can
+ * be built on a background thread and handed over.
+ */
+final class SnippetMatcher {
+
+    static final int MAX_ABBREVIATION_LENGTH = 32;
+    static final int NO_SNIPPET = -1;
+    static final int NO_STATE = -1;
+
+    static final SnippetMatcher EMPTY = new SnippetMatcher(new ArrayList<>(), new ArrayList<>());
+
+    private final String[] mAbbreviations;
+    private final String[] mExpansions;
+
+    private final int[] mFirstEdge; //per state
+    private final char[] mEdgeCount;
+    private final int[] mFail;
+    private final int[] mSnippet; //abbreviation ending at the state, NO_SNIPPET if none
+    private final int[] mOutputLink; //next state on the failure chain with a snippet
+    private final char[] mEdgeChars;
+    private final int[] mEdgeTargets;
+
+    /**
+     * @throws IllegalArgumentException for an empty or too long abbreviation
+     */
+    SnippetMatcher(List<String> abbreviations, List<String> expansions) {
+        mAbbreviations = abbreviations.toArray(new String[0]);
+        mExpansions = expansions.toArray(new String[0]);
+
+        // plain trie first, children in maps while building
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> snippets = new ArrayList<>();
+        children.add(new HashMap<>());
+        snippets.add(NO_SNIPPET);
+        int edgeTotal = 0;
+        for (int i = 0; i < mAbbreviations.length; i++) {
+            String abbreviation = mAbbreviations[i];
+            if (abbreviation.isEmpty() || abbreviation.length() > MAX_ABBREVIATION_LENGTH) {
+                throw new IllegalArgumentException("bad abbreviation \"" + abbreviation + "\"");
+            }
+            int state = 0;
+            for (int j = 0; j < abbreviation.length(); j++) {
+                Integer next = children.get(state).get(abbreviation.charAt(j));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new HashMap<>());
+                    snippets.add(NO_SNIPPET);
+                    children.get(state).put(abbreviation.charAt(j), next);
+                    edgeTotal++;
+                }
+                state = next;
+            }
+            snippets.set(state, i); //a repeated abbreviation keeps the last expansion
+        }
+
+        // renumber breadth first so failure links always point at numbered states
+        int stateCount = children.size();
+        int[] order = new int[stateCount];
+        int[] number = new int[stateCount];
+        int numbered = 1;
+        for (int i = 0; i < numbered; i++) {
+            int state = order[i];
+            char[] chars = sortedChars(children.get(state));
+            for (char c : chars) {
+                int child = children.get(state).get(c);
+                number[child] = numbered;
+                order[numbered++] = child;
+            }
+        }
+        mFirstEdge = new int[stateCount];
+        mEdgeCount = new char[stateCount];
+        mFail = new int[stateCount];
+        mSnippet = new int[stateCount];
+        mOutputLink = new int[stateCount];
+        mEdgeChars = new char[edgeTotal];
+        mEdgeTargets = new int[edgeTotal];
+        int edge = 0;
+        for (int i = 0; i < stateCount; i++) {
+            Map<Character, Integer> edges = children.get(order[i]);
+            mFirstEdge[i] = edge;
+            mEdgeCount[i] = (char) edges.size();
+            mSnippet[i] = snippets.get(order[i]);
+            for (char c : sortedChars(edges)) {
+                mEdgeChars[edge] = c;
+                mEdgeTargets[edge++] = number[edges.get(c)];
+            }
+        }
+
+        // failure and output links, breadth first
+        mFail[0] = 0;
+        mOutputLink[0] = NO_STATE;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int e = mFirstEdge[state]; e < mFirstEdge[state] + mEdgeCount[state]; e++) {
+                int child = mEdgeTargets[e];
+                int fail = state == 0 ? 0 : step(mFail[state], mEdgeChars[e]);
+                mFail[child] = fail;
+                mOutputLink[child] = mSnippet[fail] != NO_SNIPPET ? fail : mOutputLink[fail];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Reads snippets, one per line as the abbreviation, a tab and the
+     * expansion.  Lines starting with # are comments, and \n, \t and \\ in
+     * an expansion stand for a new line, a tab and a backslash.
+     */
+    static SnippetMatcher read(Reader in) throws IOException {
+        List<String> abbreviations = new ArrayList<>();
+        List<String> expansions = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(in);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if (tab <= 0 || tab > MAX_ABBREVIATION_LENGTH) {
+                throw new IOException("line " + lineNumber + ": expected abbreviation, tab, expansion");
+            }
+            abbreviations.add(line.substring(0, tab));
+            expansions.add(unescape(line.substring(tab + 1)));
+        }
+        return new SnippetMatcher(abbreviations, expansions);
+    }
+
+    int getSnippetCount() {
+        return mAbbreviations.length;
+    }
+
+    int getStateCount() {
+        return mFirstEdge.length;
+    }
+
+    String getAbbreviation(int snippet) {
+        return mAbbreviations[snippet];
+    }
+
+    String getExpansion(int snippet) {
+        return mExpansions[snippet];
+    }
+
+    /** The state after {@code c} from {@code state}, following failure links. */
+    int step(int state, char c) {
+        while (true) {
+            int next = findEdge(state, c);
+            if (next != NO_STATE) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = mFail[state];
+        }
+    }
+
+    /** Snippet whose abbreviation ends at {@code state}, NO_SNIPPET if none. */
+    int getSnippet(int state) {
+        return mSnippet[state];
+    }
+
+    /**
+     * The next state down the failure chain where an abbreviation ends,
+     * shorter than the one at {@code state}, NO_STATE if there is none.
+     */
+    int getOutputLink(int state) {
+        return mOutputLink[state];
+    }
+
+    private int findEdge(int state, char c) {
+        int low = mFirstEdge[state];
+        int high = low + mEdgeCount[state] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mEdgeChars[mid] < c) {
+                low = mid + 1;
+            } else if (mEdgeChars[mid] > c) {
+                high = mid - 1;
+            } else {
+                return mEdgeTargets[mid];
+            }
+        }
+        return NO_STATE;
+    }
+
+    private static char[] sortedChars(Map<Character, Integer> edges) {
+        char[] chars = new char[edges.size()];
+        int i = 0;
+        for (char c : edges.keySet()) {
+            chars[i++] = c;
+        }
+        Arrays.sort(chars);
+        return chars;
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder out = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                out.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,141 @@
+package com.runo.softkeyboard;
+
+/**
+ * Runs a {@link SnippetMatcher} over the text as it is typed, so whether
+ * the word before the cursor is an abbreviation is known without asking
+ * the editor.
+ *
+ * The last RING chars are kept with the automaton state after each and the
+ * editor offset it leaves the cursor at, so a backspace steps back instead
+ * of losing the match, and a selection update the typing itself caused can
+ * be told apart from the cursor being moved.  Anything else starts over
+ * from the cursor, which then counts as the start of a word.
+ */
+final class SnippetStream {
+
+    static final int UNKNOWN = -1;
+
+    private static final int RING = 2 * SnippetMatcher.MAX_ABBREVIATION_LENGTH; //a power of two
+
+    private SnippetMatcher mMatcher = SnippetMatcher.EMPTY;
+    private final char[] mChars = new char[RING];
+    private final int[] mStates = new int[RING];
+    private final int[] mOffsets = new int[RING];
+    private int mEnd; //ring index after the newest char
+    private int mCount; //chars in the ring
+    private int mUndone; //chars backspaced since the last one typed, still in the array
+    private int mBaseState; //state before the oldest char in the ring
+    private int mBaseOffset = UNKNOWN;
+    private boolean mAtStart; //nothing has dropped out of the ring since the reset
+
+    SnippetMatcher getMatcher() {
+        return mMatcher;
+    }
+
+    /** Swaps in new snippets, matching starts over. */
+    void setMatcher(SnippetMatcher matcher) {
+        mMatcher = matcher;
+        reset(getCursor());
+    }
+
+    /** Starts over with the cursor at {@code offset}, or UNKNOWN. */
+    void reset(int offset) {
+        mCount = 0;
+        mUndone = 0;
+        mBaseState = 0;
+        mBaseOffset = offset;
+        mAtStart = true;
+    }
+
+    /** The editor offset the typed text leaves the cursor at, UNKNOWN if not known. */
+    int getCursor() {
+        if (mCount == 0) {
+            return mBaseOffset;
+        }
+        return mOffsets[(mEnd - 1) & (RING - 1)];
+    }
+
+    /** A char was typed at the cursor. */
+    void feed(char c) {
+        int cursor = getCursor();
+        int state = mMatcher.step(getState(), c);
+        if (mCount == RING) {
+            int oldest = (mEnd - RING) & (RING - 1);
+            mBaseState = mStates[oldest];
+            mBaseOffset = mOffsets[oldest];
+            mAtStart = false;
+            mCount--;
+        }
+        mUndone = 0;
+        mChars[mEnd] = c;
+        mStates[mEnd] = state;
+        mOffsets[mEnd] = cursor == UNKNOWN ? UNKNOWN : cursor + 1;
+        mEnd = (mEnd + 1) & (RING - 1);
+        mCount++;
+    }
+
+    /** The char before the cursor was deleted. */
+    void backspace() {
+        if (mCount == 0) {
+            reset(mBaseOffset > 0 ? mBaseOffset - 1 : mBaseOffset);
+            return;
+        }
+        mEnd = (mEnd - 1) & (RING - 1);
+        mCount--;
+        mUndone++;
+    }
+
+    /**
+     * The editor reported a selection.  Starts over unless it is the cursor
+     * after a char typed or backspaced since, as typing produces while the
+     * updates trail behind.
+     */
+    void onSelection(int start, int end) {
+        if (start == end && start != UNKNOWN) {
+            if (start == mBaseOffset) {
+                return;
+            }
+            for (int i = -mUndone; i < mCount; i++) {
+                if (mOffsets[(mEnd - 1 - i) & (RING - 1)] == start) {
+                    return;
+                }
+            }
+        }
+        reset(start == end ? start : UNKNOWN);
+    }
+
+    /**
+     * The snippet whose abbreviation is the whole word before the cursor,
+     * the longest if several end there, or NO_SNIPPET.
+     */
+    int getMatch() {
+        int state = getState();
+        if (mMatcher.getSnippet(state) == SnippetMatcher.NO_SNIPPET) {
+            state = mMatcher.getOutputLink(state);
+        }
+        while (state != SnippetMatcher.NO_STATE) {
+            int snippet = mMatcher.getSnippet(state);
+            if (startsWord(mMatcher.getAbbreviation(snippet).length())) {
+                return snippet;
+            }
+            state = mMatcher.getOutputLink(state);
+        }
+        return SnippetMatcher.NO_SNIPPET;
+    }
+
+    /** Whether the last {@code length} chars follow a non word char or the start. */
+    private boolean startsWord(int length) {
+        if (length > mCount) {
+            return false; //part of it went by before a reset
+        }
+        if (length == mCount) {
+            return mAtStart;
+        }
+        char before = mChars[(mEnd - length - 1) & (RING - 1)];
+        return !ArrowRepeat.isWordChar(before) && before != '\'';
+    }
+
+    private int getState() {
+        return mCount == 0 ? mBaseState : mStates[(mEnd - 1) & (RING - 1)];
+    }
+}
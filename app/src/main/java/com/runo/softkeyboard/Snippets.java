@@ -0,0 +1,87 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the user's text expansion snippets from SNIPPETS_FILE in the files
+ * dir and builds their {@link SnippetMatcher} on a background thread, so a
+ * list of thousands never holds up the keyboard.  The file is read again
+ * only when it has changed since the last load.  See SnippetMatcher.read
+ * for the format.
+ */
+final class Snippets {
+
+    interface Listener {
+        /** Called on the main thread with newly loaded snippets. */
+        void onSnippets(SnippetMatcher matcher);
+    }
+
+    static final String SNIPPETS_FILE = "snippets.txt";
+
+    private static final String TAG = "Snippets";
+    private static final int MSG_LOAD = 1;
+
+    private final File mFile;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mWorker;
+    private final Handler mMain;
+    private long mLoadedModified = -1; //snippets thread only
+
+    Snippets(Context context, Listener listener) {
+        mFile = new File(context.getFilesDir(), SNIPPETS_FILE);
+        mListener = listener;
+        mThread = new HandlerThread("snippets", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper(), this::load);
+        mMain = new Handler(Looper.getMainLooper());
+    }
+
+    /** Loads the snippets if the file changed since they were last loaded.  Main thread. */
+    void reloadIfChanged() {
+        if (!mWorker.hasMessages(MSG_LOAD)) {
+            mWorker.sendEmptyMessage(MSG_LOAD);
+        }
+    }
+
+    void close() {
+        mThread.quitSafely();
+    }
+
+    private boolean load(Message msg) {
+        long modified = mFile.lastModified(); //0 if there is no file
+        if (modified == mLoadedModified) {
+            return true;
+        }
+        mLoadedModified = modified;
+        SnippetMatcher matcher = SnippetMatcher.EMPTY;
+        if (modified != 0) {
+            long start = SystemClock.elapsedRealtime();
+            try (Reader in = new InputStreamReader(new FileInputStream(mFile), StandardCharsets.UTF_8)) {
+                matcher = SnippetMatcher.read(in);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "can't load " + SNIPPETS_FILE, e);
+                return true; //keep the snippets there are
+            }
+            if (BuildConfig.KEY_LOG) Log.d(TAG, "loaded " + matcher.getSnippetCount() + " snippets, "
+                    + matcher.getStateCount() + " states in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+        SnippetMatcher loaded = matcher;
+        mMain.post(() -> mListener.onSnippets(loaded));
+        return true;
+    }
+}
@@ -19,18 +19,24 @@ package com.runo.softkeyboard;
 import static com.runo.softkeyboard.LatinKeyboardView.KEYCODE_CTRL;
 import static com.runo.softkeyboard.LatinKeyboardView.NOT_A_KEY;
 
-import android.content.Context;
+import android.content.ComponentCallbacks2;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
-import android.os.VibrationEffect;
-import android.os.Vibrator;
+import android.os.Build;
+import android.os.SystemClock;
 import android.text.InputType;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
 import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.SurroundingText;
 
 /**
  * Example of writing an input method for a soft keyboard.  This code is
@@ -42,20 +48,44 @@ import android.view.inputmethod.InputConnection;
 public class SoftKeyboard extends InputMethodService implements KeyboardView.OnKeyboardActionListener {
 
     private static final String TAG = "titan keyboard";
+    private static final String[] NO_WORDS = new String[0];
     private LatinKeyboardView mInputView;
-    private LatinKeyboard mSymbolsKeyboard;
-    private LatinKeyboard mSymbolsShiftedKeyboard;
-    private LatinKeyboard mQwertyKeyboard;
-    private LatinKeyboard mNumericKeyboard;
-    private LatinKeyboard mCurKeyboard;
-    private long lastShiftTime = 0L;
-    private long lastAltTime = 0L;
-    private boolean altLock = false;
-    private boolean shiftLock = false;
-    private boolean altShortcut = false;
-    private boolean shiftShortcut = false;
+    private long mInputViewConfiguration;
+    private KeyboardLayers mLayers;
+    private int mCurLayer = KeyboardLayers.QWERTY;
+    private final ModifierStateMachine mModifiers = new ModifierStateMachine();
     private boolean mIsCtrlPressed = false;
-    private Vibrator vibrationService;
+    private Haptics mHaptics;
+    private KeyDispatchTable mDispatchTable; //swapped whole by Remaps, never changed in place
+    private Remaps mRemaps;
+    private final LatencyStats mLatency = LatencyStats.get();
+    private final EditorShadow mShadow = new EditorShadow();
+    private final Macro mMacro = new Macro();
+    private final CommitBatcher mOutput = new CommitBatcher(this::scheduleOutputFlush, mLatency, mShadow, mMacro);
+    private final Choreographer.FrameCallback mOutputFrame = frameTimeNanos -> mOutput.onFrame();
+    private final KeyEventCache<KeyEvent> mKeyEvents = new KeyEventCache<>((action, keyCode, metaState) ->
+            createKeyEvent(0, 0, action, keyCode, metaState));
+    private final ArrowRepeat mArrowRepeat = new ArrowRepeat();
+    private final ExtractedTextRequest mExtractRequest = new ExtractedTextRequest();
+    private Predictor mPredictor;
+    private CandidateView mCandidateView;
+    private boolean mPredictionOn;
+    private boolean mLearningOn; //words typed are added to the UserVocabulary
+    private boolean mAutoCorrectOn; //typos are replaced by the Predictor's correction at a separator
+    private String mCorrectionFor; //the word the last correction is for
+    private String mCorrection;
+    // the autocorrection the previous key made, undone by a backspace
+    private String mUndoTyped;
+    private String mUndoText;
+    private Snippets mSnippetLoader;
+    private final SnippetStream mSnippets = new SnippetStream(); //typed text run through the snippet abbreviations
+    private boolean mExpansionOn;
+    private Clipboard mClipboard;
+    private ClipboardPanel mClipboardPanel;
+    private boolean mClipboardOn; //off in password fields
+    private boolean mShadowOn; //off in password fields, their text isn't copied into mShadow
+    private boolean mClipboardShown; //the panel is the input view
+    private TraceRecorder mTraces; //records only while opted in from KeyboardSettings
 
     /**
      * Use this to monitor key events being delivered to the application.
@@ -65,201 +95,273 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         //note: this method is a bit spammy due to key repetition
-        Log.d(TAG, "onKeyDown: " + keyCode);
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(event.getEventTime(), KeyEventLog.KIND_KEY_DOWN, keyCode, event.getMetaState());
+        if (mTraces.isRecording()) recordTrace(TypingTrace.KIND_KEY_DOWN, event.getEventTime(), keyCode, event);
+        mArrowRepeat.clearSnapshot(); //typing may change the text under a held arrow
+        if (mClipboardShown && keyCode == KeyEvent.KEYCODE_BACK) {
+            hideClipboard();
+            return true;
+        }
 
         InputConnection ic = getCurrentInputConnection();
-        //new
-        if (ic != null) {
+        if (ic != null && mDispatchTable != null) {
             LatinKeyboard current = null;
             if (mInputView != null) {
                 current = (LatinKeyboard) mInputView.getKeyboard();
             }
-
-            //global key maps, run regardless of keyboard state, even if keyboard is not visible
-            if(mIsCtrlPressed && !(keyCode == KeyEvent.KEYCODE_UNKNOWN || keyCode == KeyEvent.KEYCODE_CTRL_LEFT)){
-                sendDownUpKeyEventsWithModifier(ic, event, KeyEvent.META_CTRL_ON); //TODO, move this down somehow so it can intercept other softkeyboard events
-                return true;
-            }else if ((current != null && current.isCtrlOn())) {
-                sendDownUpKeyEventsWithModifier(ic, event, KeyEvent.META_CTRL_ON); //TODO, move this down somehow so it can intercept other softkeyboard events
-                return true;
-            } else if (keyCode == KeyEvent.KEYCODE_SPACE) { //fix for alt+space bug that opens up android default symbol panel, not a fan, especially randomly
-                if (event.isAltPressed()) {
-                    handleCharacter('\t', null); //seems very helpful for now
+            int action = mDispatchTable.lookupDown(getDispatchLayer(current), getDispatchModifiers(event, current), keyCode);
+            int arg = KeyDispatchTable.arg(action);
+            switch (KeyDispatchTable.opcode(action)) {
+                case KeyDispatchTable.OP_CONSUME:
                     return true;
-                } else {
-                    handleCharacter(' ', null); //seems very helpful for now
+                case KeyDispatchTable.OP_COMMIT_CHAR:
+                    mOutput.setKeyTime(LatencyStats.PATH_COMMIT, event.getEventTime()); //recorded once sent
+                    handleCharacter(arg, null);
+                    mOutput.setKeyTime(0, CommitQueue.NO_KEY_TIME);
                     return true;
-                }
-            } else if (keyCode == KeyEvent.KEYCODE_DEL) {//I have decided that I fucking hate the default alt+backspace action, no I will not elaborate
-                if (event.isAltPressed()) { //if you really wanna delete the entire line/whatever the fuck alt+backspace feels like, here you go
-                    return super.onKeyDown(keyCode, event);
-                } else if (event.isShiftPressed()) {
-                    sendDownUpKeyEvents(KeyEvent.KEYCODE_FORWARD_DEL);
+                case KeyDispatchTable.OP_SEND_WITH_META:
+                    mSnippets.reset(SnippetStream.UNKNOWN); //what the app makes of it isn't known here
+                    sendDownUpKeyEventsWithModifier(ic, event, arg);
+                    recordLatency(LatencyStats.PATH_SEND_MODIFIED, event);
                     return true;
-                } else {
-                    ic.clearMetaKeyStates(KeyEvent.META_ALT_ON);//I cannot count the amount of text I've accidentally deleted with this, if you want it back, recompile the keyboard
-                    ic.clearMetaKeyStates(KeyEvent.META_ALT_RIGHT_ON);
-                    return super.onKeyDown(keyCode, event);
-                }
-            } else if (keyCode == KeyEvent.KEYCODE_ENTER) {
-                if (event.isAltPressed()) { //fix for apps that don't listen to keyboard enter for the editor action
-                    sendDefaultEditorAction(true);
+                case KeyDispatchTable.OP_SEND_KEY:
+                    sendDownUpKeyEvents(arg);
                     return true;
-                } else if (event.isShiftPressed()) {
-                    handleCharacter('\n', null);
+                case KeyDispatchTable.OP_EDITOR_ACTION:
+                    sendDefaultEditorAction(true);
+                    recordLatency(LatencyStats.PATH_EDITOR_ACTION, event);
                     return true;
-                } else {
-                    return super.onKeyDown(keyCode, event);
-                }
-            } else if (keyCode == KeyEvent.KEYCODE_MENU || keyCode == KeyEvent.KEYCODE_SYM) { // switch keyboard layers, handle on key up
-                return true;
-            } else if ((keyCode == KeyEvent.KEYCODE_UNKNOWN || keyCode == KeyEvent.KEYCODE_CTRL_LEFT) && !mIsCtrlPressed) {
-                mIsCtrlPressed = true;
-//                current.setCtrlState(true); //doesnt turn on ctrl indicator, think the keyboard needs to call repaint?
-                return true;
-            }
-            //on screen keyboard based remaps
-            else if (current == mQwertyKeyboard) {//global/default maps
-                if (altLock) {
-                    if(isExcludedFromAltMode(keyCode)){
-                        return super.onKeyDown(keyCode, event);
+                case KeyDispatchTable.OP_CLEAR_META:
+                    ic.clearMetaKeyStates(arg);
+                    break;
+                case KeyDispatchTable.OP_BACKSPACE:
+                    ic.clearMetaKeyStates(arg);
+                    mOutput.setKeyTime(LatencyStats.PATH_COMMIT, event.getEventTime());
+                    boolean undone = undoCorrection(ic);
+                    mOutput.setKeyTime(0, CommitQueue.NO_KEY_TIME);
+                    if (undone) {
+                        mSnippets.reset(SnippetStream.UNKNOWN);
+                        return true;
                     }
-                    sendDownUpKeyEventsWithModifier(ic, event, KeyEvent.META_ALT_RIGHT_ON);
+                    break;
+                case KeyDispatchTable.OP_CTRL_DOWN:
+                    mIsCtrlPressed = true;
+                    setCtrlState(current, true);
                     return true;
-                } else if (shiftLock) {
-                    if(isExcludedFromAltMode(keyCode)){
-                        return super.onKeyDown(keyCode, event);
-                    }
-                    sendDownUpKeyEventsWithModifier(ic, event, KeyEvent.META_SHIFT_ON);
+                case KeyDispatchTable.OP_RESTORE_LAYER:
+                    hideClipboard();
+                    mInputView.setKeyboard(mLayers.get(mCurLayer));
                     return true;
-                }
-            } else if (current == mSymbolsKeyboard || current == mSymbolsShiftedKeyboard) {//symbol layer remaps
-                if (keyCode == KeyEvent.KEYCODE_BACK) {
-                    mInputView.setKeyboard(mCurKeyboard);
+                case KeyDispatchTable.OP_WORD_EDIT:
+                    if (!editWord(ic, arg)) {
+                        //boundary not known locally, leave it to the app
+                        int meta = KeyEvent.META_CTRL_ON | (event.isShiftPressed() ? KeyEvent.META_SHIFT_ON : 0);
+                        sendDownUpKeyEventsWithModifier(ic, event, meta);
+                    }
+                    recordLatency(LatencyStats.PATH_SEND_MODIFIED, event);
                     return true;
-                }
-                int pressedKey = translateKeyToIndex(keyCode);
-                if (pressedKey != NOT_A_KEY) {
-                    Keyboard.Key key = current.getKeys().get(pressedKey);
-                    int code = key.codes[0];
-                    handleCharacter(code, null);
+                case KeyDispatchTable.OP_MACRO:
+                    if (event.getRepeatCount() == 0) {
+                        runMacroCommand(ic, arg);
+                    }
                     return true;
-                }
-            } else if (current == mNumericKeyboard) {//numeric keyboard remaps
-                if(isExcludedFromAltMode(keyCode)){
-                    return super.onKeyDown(keyCode, event);
-                }
-                sendDownUpKeyEventsWithModifier(ic, event, KeyEvent.META_ALT_RIGHT_ON);
-                return true;
+                case KeyDispatchTable.OP_SYMBOL:
+                    int code = current.getPhysicalKeyCode(keyCode);
+                    if (code != LatinKeyboard.NO_PHYSICAL_KEY) {
+                        mOutput.setKeyTime(LatencyStats.PATH_SYMBOL, event.getEventTime());
+                        handleCharacter(code, null);
+                        mOutput.setKeyTime(0, CommitQueue.NO_KEY_TIME);
+                        return true;
+                    }
+                    break;
             }
-            //return with default
         }
+        if (ic != null && keyCode == KeyEvent.KEYCODE_ENTER) {
+            expandSnippet(ic);
+        }
+        trackPassedThrough(keyCode, event);
+        recordPassedThrough(keyCode, event);
+        mOutput.flush(); //the app handles the key itself, so queued text has to get there first
+        mirrorPassedThrough(keyCode, event);
         return super.onKeyDown(keyCode, event);
     }
 
+    /**
+     * Keeps the EditorShadow up with a key the app is left to handle: what
+     * plain typing and backspace do is mirrored, anything else drops it.
+     */
+    private void mirrorPassedThrough(int keyCode, KeyEvent event) {
+        if (KeyEvent.isModifierKey(keyCode)) {
+            return;
+        }
+        if (!event.isCtrlPressed() && !event.isMetaPressed()) {
+            if (keyCode == KeyEvent.KEYCODE_DEL && !event.isAltPressed()) { //alt+backspace deletes the line
+                mShadow.backspace();
+                return;
+            }
+            int c = event.getUnicodeChar();
+            if (c >= ' ' && c != 0x7f && c <= Character.MAX_VALUE) { //enter and tab are left to the app
+                mShadow.typeChar((char) c);
+                return;
+            }
+        }
+        mShadow.invalidate();
+    }
+
+    /**
+     * Keeps the snippet matcher up with a key the app is left to handle:
+     * plain typing on the physical keyboard goes this way.
+     */
+    private void trackPassedThrough(int keyCode, KeyEvent event) {
+        if (!mExpansionOn || KeyEvent.isModifierKey(keyCode)) {
+            return;
+        }
+        if (keyCode == KeyEvent.KEYCODE_DEL) {
+            mSnippets.backspace();
+            return;
+        }
+        int c = event.getUnicodeChar();
+        if (c > 0 && c <= Character.MAX_VALUE) { //a dead key's accent comes negative
+            mSnippets.feed((char) c);
+        } else {
+            mSnippets.reset(SnippetStream.UNKNOWN);
+        }
+    }
+
+    /**
+     * Records a key the app is left to handle into the macro: what it types
+     * as text, anything else as the key itself.
+     */
+    private void recordPassedThrough(int keyCode, KeyEvent event) {
+        if (!mMacro.isRecording() || KeyEvent.isModifierKey(keyCode)) {
+            return;
+        }
+        int c = event.getUnicodeChar();
+        if (c >= ' ' && c != 0x7f) { //enter and tab stay keys, apps treat them specially
+            mMacro.recordCodePoint(c);
+            return;
+        }
+        KeyEvent down = new KeyEvent(event); //the framework recycles the event once it is handled
+        mMacro.recordKeyEvents(down, KeyEvent.changeAction(down, KeyEvent.ACTION_UP));
+    }
+
+    /**
+     * Starts or stops recording the macro, or plays it back as one batch
+     * edit.  The EditorShadow can't follow the keys in it, so it is dropped.
+     */
+    private void runMacroCommand(InputConnection ic, int command) {
+        mOutput.flush(); //queued text is before the recording, or the playback
+        if (command == KeyDispatchTable.MACRO_RECORD) {
+            if (mMacro.isRecording()) {
+                mMacro.stop();
+                mHaptics.perform(HapticsThrottle.EFFECT_DOUBLE);
+                if (BuildConfig.KEY_LOG) Log.d(TAG, "macro recorded, " + mMacro.getStepCount() + " steps");
+            } else {
+                mMacro.start();
+                mHaptics.perform(HapticsThrottle.EFFECT_SINGLE);
+            }
+        } else if (!mMacro.isRecording() && mMacro.getStepCount() > 0) {
+            mMacro.play(ic);
+            mShadow.invalidate();
+            mSnippets.reset(SnippetStream.UNKNOWN);
+            mUndoTyped = null;
+        }
+    }
+
     /**
      * Use this to monitor key events being delivered to the application.
      * We get first crack at them, and can either resume them or let them
      * continue to the app.
      */
-    //TODO clean this up like keydown
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) { //pkb key up
-        Log.d(TAG, "onKeyUp: " + keyCode);
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(event.getEventTime(), KeyEventLog.KIND_KEY_UP, keyCode, event.getMetaState());
+        if (mTraces.isRecording()) recordTrace(TypingTrace.KIND_KEY_UP, event.getEventTime(), keyCode, event);
         InputConnection ic = getCurrentInputConnection();
-        if (ic != null) {
-            //new
+        if (ic != null && mDispatchTable != null) {
             LatinKeyboard current = null;
             if (mInputView != null) {
                 current = (LatinKeyboard) mInputView.getKeyboard();
             }
-            //global key maps, run regardless of keyboard state, even if keyboard is not visible
-            if ((keyCode == KeyEvent.KEYCODE_UNKNOWN || keyCode == KeyEvent.KEYCODE_CTRL_LEFT) && mIsCtrlPressed) {
-                mIsCtrlPressed = false;
-//                current.setCtrlState(false);
-            }
-            //on screen keyboard based remaps
-            if (current != null) {
-                if (keyCode == KeyEvent.KEYCODE_MENU || keyCode == KeyEvent.KEYCODE_SYM) {
-                    cycleThroughKeyboardsLayers();
-                    return true;
-                }
-            }
-
-            if (current == mQwertyKeyboard) {//global/default maps
-                if (keyCode == KeyEvent.KEYCODE_SHIFT_LEFT && event.isAltPressed()) { //alt+space, change through layers
+            int action = mDispatchTable.lookupUp(getDispatchLayer(current), getDispatchModifiers(event, current), keyCode);
+            int arg = KeyDispatchTable.arg(action);
+            switch (KeyDispatchTable.opcode(action)) {
+                case KeyDispatchTable.OP_CTRL_UP:
+                    mIsCtrlPressed = false;
+                    setCtrlState(current, false);
+                    break;
+                case KeyDispatchTable.OP_CYCLE_LAYER:
                     cycleThroughKeyboardsLayers();
-                    ic.clearMetaKeyStates(KeyEvent.META_ALT_ON);
-                    ic.clearMetaKeyStates(KeyEvent.META_SHIFT_ON);
-                    return true;
-                } else if (keyCode == KeyEvent.KEYCODE_ALT_RIGHT) {//alt lock
-                    ic.clearMetaKeyStates(KeyEvent.META_SHIFT_ON);
-                    if (shiftLock) {
-                        vibrate(1);
-                        shiftLock = false;
-                        hideStatusIcon();
-                    }else if (altShortcut) {//key up was called after an alt shortcut ie alt + shift, alt + space
-                        altShortcut = false;
-                        hideStatusIcon();
-                    } else {
-                        if (altLock) {
-                            if ((System.currentTimeMillis() - lastAltTime) > 300L) {
-                                Log.d(TAG, "onKeyUp: alt lock off");
-                                altLock = false;
-                                hideStatusIcon();
-                                ic.clearMetaKeyStates(KeyEvent.META_ALT_ON);
-                                vibrate(1);
-                            }
-                            return true;
-                        } else {//check for double tap
-                            if ((System.currentTimeMillis() - lastAltTime) < 800L) {
-                                Log.d(TAG, "onKeyUp: alt lock on");
-                                altLock = true;
-                                vibrate(2);
-                                showStatusIcon(R.drawable.alt_indicator);
-                                return true;
-                            } else {
-                                lastAltTime = System.currentTimeMillis();
-                            }
-                        }
+                    if (arg != 0) {
+                        ic.clearMetaKeyStates(arg);
                     }
-                }else if (keyCode == KeyEvent.KEYCODE_SHIFT_LEFT) {
-                    ic.clearMetaKeyStates(KeyEvent.META_ALT_ON);
-                    if (altLock){
-                        vibrate(1);
-                        altLock = false;
-                        hideStatusIcon();
-                    } else if (shiftShortcut) {
-                        shiftShortcut = false;
-                        hideStatusIcon();
-                    } else {
-                        if (shiftLock) {
-                            if ((System.currentTimeMillis() - lastShiftTime) > 300L) {
-                                Log.d(TAG, "onKeyUp: shift lock off");
-                                shiftLock = false;
-                                hideStatusIcon();
-                                ic.clearMetaKeyStates(KeyEvent.META_SHIFT_ON);
-                                vibrate(1);
-                            }
-                            return true;
-                        } else {//check for double tap
-                            if ((System.currentTimeMillis() - lastShiftTime) < 800L) {
-                                Log.d(TAG, "onKeyUp: shift lock on");
-                                vibrate(2);
-                                shiftLock = true;
-                                showStatusIcon(R.drawable.shift_indicator);
-                                return true;
-                            } else {
-                                lastShiftTime = System.currentTimeMillis();
-                            }
-                        }
+                    recordLatency(LatencyStats.PATH_CYCLE_LAYER, event);
+                    return true;
+                case KeyDispatchTable.OP_LOCK_TOGGLE:
+                    int commands = arg == KeyDispatchTable.LOCK_ALT
+                            ? mModifiers.onAltUp(event.getEventTime())
+                            : mModifiers.onShiftUp(event.getEventTime());
+                    if (BuildConfig.KEY_LOG) KeyEventLog.get().record(event.getEventTime(), KeyEventLog.KIND_MODIFIER, commands, event.getMetaState());
+                    if (applyModifierCommands(ic, commands)) {
+                        return true;
                     }
-                }
+                    break;
             }
         }
         return super.onKeyUp(keyCode, event);
     }
 
+    /**
+     * Performs the side effects a {@link ModifierStateMachine} transition asked for.
+     * Returns true if the key up was consumed.
+     */
+    private boolean applyModifierCommands(InputConnection ic, int commands) {
+        int clearMeta = 0;
+        if ((commands & ModifierStateMachine.CMD_CLEAR_ALT_META) != 0) {
+            clearMeta |= KeyEvent.META_ALT_ON;
+        }
+        if ((commands & ModifierStateMachine.CMD_CLEAR_SHIFT_META) != 0) {
+            clearMeta |= KeyEvent.META_SHIFT_ON;
+        }
+        if (clearMeta != 0) {
+            ic.clearMetaKeyStates(clearMeta);
+        }
+        if ((commands & ModifierStateMachine.CMD_HIDE_ICON) != 0) {
+            hideStatusIcon();
+        }
+        if ((commands & ModifierStateMachine.CMD_SHOW_ALT_ICON) != 0) {
+            showStatusIcon(R.drawable.alt_indicator);
+        } else if ((commands & ModifierStateMachine.CMD_SHOW_SHIFT_ICON) != 0) {
+            showStatusIcon(R.drawable.shift_indicator);
+        }
+        if ((commands & ModifierStateMachine.CMD_VIBRATE_SINGLE) != 0) {
+            mHaptics.perform(HapticsThrottle.EFFECT_SINGLE);
+        } else if ((commands & ModifierStateMachine.CMD_VIBRATE_DOUBLE) != 0) {
+            mHaptics.perform(HapticsThrottle.EFFECT_DOUBLE);
+        }
+        return (commands & ModifierStateMachine.CMD_CONSUMED) != 0;
+    }
+
+    /**
+     * Records the time from the hardware key event to now, called once the
+     * InputConnection call handling it has returned.  Event times are
+     * uptimeMillis, which shares its clock with System.nanoTime.
+     */
+    private void recordLatency(int path, KeyEvent event) {
+        mLatency.record(path, System.nanoTime() / 1000L - event.getEventTime() * 1000L);
+    }
+
+    /**
+     * Picks the dispatch table layer for the keyboard currently shown.
+     */
+    private int getDispatchLayer(LatinKeyboard current) {
+        return DispatchLayers.getLayer(current != null ? current.getLayer() : DispatchLayers.NO_KEYBOARD, mModifiers);
+    }
+
+    private int getDispatchModifiers(KeyEvent event, LatinKeyboard current) {
+        return DispatchLayers.getModifiers(event.isAltPressed(), event.isShiftPressed(),
+                mIsCtrlPressed || (current != null && current.isCtrlOn()));
+    }
 
 
 
@@ -273,10 +375,18 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
     // Implementation of KeyboardViewListener
     @Override
     public void onKey(int primaryCode, int[] keyCodes) {
-        Log.d(TAG, "onKey: " + primaryCode);
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_KEY, primaryCode, 0);
+        if (mTraces.isRecording()) recordTrace(TypingTrace.KIND_KEY, SystemClock.uptimeMillis(), primaryCode, null);
         handleCharacter(primaryCode, keyCodes);
     }
 
+    /** Adds an event to the typing trace with the layer it was dispatched on. */
+    private void recordTrace(int kind, long time, int code, KeyEvent event) {
+        LatinKeyboard current = mInputView != null ? (LatinKeyboard) mInputView.getKeyboard() : null;
+        mTraces.record(kind, time, code, event != null ? event.getMetaState() : 0,
+                event != null ? event.getRepeatCount() : 0, getDispatchLayer(current));
+    }
+
 
     /**
      * Main initialization of the input method component.  Be sure to call
@@ -284,10 +394,42 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      */
     @Override
     public void onCreate() {
-        Log.d(TAG, "onCreate: ");
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "onCreate: ");
         super.onCreate();
 //        mInputMethodManager = (InputMethodManager)getSystemService(INPUT_METHOD_SERVICE);
-        vibrationService = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
+        mHaptics = Haptics.get(this);
+        mLayers = new KeyboardLayers(this);
+        mPredictor = new Predictor(this, this::showPredictions);
+        mSnippetLoader = new Snippets(this, mSnippets::setMatcher);
+        mClipboard = new Clipboard(this);
+        mRemaps = new Remaps(this, table -> mDispatchTable = table);
+        mTraces = new TraceRecorder(this);
+    }
+
+    /**
+     * Gives back the layer snapshots: all of them once the keyboard is
+     * hidden, all but the one on screen when memory runs low while it shows.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mInputView == null || level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+        long before = LatinKeyboardView.getSnapshotBytes();
+        mInputView.releaseSnapshots(level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        Log.i(TAG, "onTrimMemory " + level + ": layer snapshots " + before / 1024 + "KB -> "
+                + LatinKeyboardView.getSnapshotBytes() / 1024 + "KB");
+    }
+
+    @Override
+    public void onDestroy() {
+        mPredictor.close();
+        mSnippetLoader.close();
+        mClipboard.close();
+        mRemaps.close();
+        mTraces.close();
+        super.onDestroy();
     }
 
     /**
@@ -296,20 +438,14 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      */
     @Override
     public void onInitializeInterface() {
-        Log.d(TAG, "onInitializeInterface: ");
-//        if (mQwertyKeyboard != null) {
-//            // Configuration changes can happen after the keyboard gets recreated,
-//            // so we need to be able to re-build the keyboards if the available
-//            // space has changed.
-//            int displayWidth = getMaxWidth();
-//            if (displayWidth == mLastDisplayWidth) return;
-//            mLastDisplayWidth = displayWidth;
-//        }
-
-        mQwertyKeyboard = new LatinKeyboard(this, R.xml.qwerty);
-        mSymbolsKeyboard = new LatinKeyboard(this, R.xml.symbols);
-        mSymbolsShiftedKeyboard = new LatinKeyboard(this, R.xml.symbols_shift);
-        mNumericKeyboard = new LatinKeyboard(this, R.xml.numpad);
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "onInitializeInterface: ");
+        if (mDispatchTable == null) {
+            mDispatchTable = DefaultKeyMap.build();
+        }
+        // Configuration changes can happen after the keyboard gets recreated,
+        // so the layers are picked again for the new display; they are only
+        // parsed when first shown and kept for configurations seen before.
+        mLayers.updateConfiguration();
     }
 
     /**
@@ -320,10 +456,22 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      */
     @Override
     public View onCreateInputView() {
-        Log.d(TAG, "onCreateInputView: ");
-        mInputView = (LatinKeyboardView) getLayoutInflater().inflate(R.layout.input, null);
-        mInputView.setOnKeyboardActionListener(this);
-        mInputView.setKeyboard(mQwertyKeyboard);
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "onCreateInputView: ");
+        if (mInputView != null && mInputViewConfiguration == mLayers.getConfiguration()) {
+            //same display as the view was inflated for, reuse it
+            if (mInputView.getParent() instanceof ViewGroup) {
+                ((ViewGroup) mInputView.getParent()).removeView(mInputView);
+            }
+        } else {
+            if (mInputView != null) {
+                mInputView.releaseSnapshots(false); //drawn for the old display, and counted until released
+            }
+            mInputView = (LatinKeyboardView) getLayoutInflater().inflate(R.layout.input, null);
+            mInputView.setOnKeyboardActionListener(this);
+            mInputViewConfiguration = mLayers.getConfiguration();
+        }
+        mClipboardShown = false; //the framework puts the new view in
+        mInputView.setKeyboard(mLayers.get(KeyboardLayers.QWERTY));
         return mInputView;
     }
 
@@ -333,8 +481,9 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      */
     @Override
     public View onCreateCandidatesView() {
-        Log.d(TAG, "onCreateCandidatesView: ");
-        return null;
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "onCreateCandidatesView: ");
+        mCandidateView = new CandidateView(this, this::pickCandidate);
+        return mCandidateView;
     }
 
     /**
@@ -345,15 +494,28 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      */
     @Override
     public void onStartInput(EditorInfo attribute, boolean restarting) {
-        Log.d(TAG, "onStartInput: "+isShowInputRequested());
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_START_INPUT, attribute.inputType, 0);
+        mOutput.flush();
         super.onStartInput(attribute, restarting);
+        mLatency.setPackage(attribute.packageName);
+        mShadow.reset(attribute.initialSelStart, attribute.initialSelEnd);
+        mShadowOn = !isPassword(attribute.inputType);
+        mSnippets.reset(attribute.initialSelStart == attribute.initialSelEnd
+                ? attribute.initialSelStart : SnippetStream.UNKNOWN);
+        mSnippetLoader.reloadIfChanged(); //edits to the file show up in the next field
+        mRemaps.reloadIfChanged();
+        mTraces.onStartInput(!isPassword(attribute.inputType)); //nothing typed in a password field is kept
+        mPredictionOn = false;
+        mLearningOn = false;
+        mCorrection = null;
+        mUndoTyped = null;
 
         switch (attribute.inputType & InputType.TYPE_MASK_CLASS) {
             case InputType.TYPE_CLASS_NUMBER:
             case InputType.TYPE_CLASS_DATETIME:
             case InputType.TYPE_CLASS_PHONE:
-                mCurKeyboard = mNumericKeyboard;
-//                mCurKeyboard = mSymbolsKeyboard;
+                mCurLayer = KeyboardLayers.NUMERIC;
+//                mCurLayer = KeyboardLayers.SYMBOLS;
                 break;
 
             case InputType.TYPE_CLASS_TEXT:
@@ -361,26 +523,29 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
                 // normal alphabetic keyboard, and assume that we should
                 // be doing predictive text (showing candidates as the
                 // user types).
-                mCurKeyboard = mQwertyKeyboard;
-
+                mCurLayer = KeyboardLayers.QWERTY;
+                mPredictionOn = true;
 
                 // We now look for a few special variations of text that will
                 // modify our behavior.
-//                int variation = attribute.inputType & InputType.TYPE_MASK_VARIATION;
-//                if (variation == InputType.TYPE_TEXT_VARIATION_PASSWORD ||
-//                        variation == InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD) {
-                // Do not display predictions / what the user is typing
-                // when they are entering a password.
-//                    mPredictionOn = false;
-//                }
+                int variation = attribute.inputType & InputType.TYPE_MASK_VARIATION;
+                if (isPassword(attribute.inputType)) {
+                    // Do not display predictions / what the user is typing
+                    // when they are entering a password.
+                    mPredictionOn = false;
+                }
 
-//                if (variation == InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS
-//                        || variation == InputType.TYPE_TEXT_VARIATION_URI
-//                        || variation == InputType.TYPE_TEXT_VARIATION_FILTER) {
-                // Our predictions are not useful for e-mail addresses
-                // or URIs.
-//                    mPredictionOn = false;
-//                }
+                if (variation == InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS
+                        || variation == InputType.TYPE_TEXT_VARIATION_URI
+                        || variation == InputType.TYPE_TEXT_VARIATION_FILTER) {
+                    // Our predictions are not useful for e-mail addresses
+                    // or URIs.
+                    mPredictionOn = false;
+                }
+
+                if ((attribute.inputType & InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS) != 0) {
+                    mPredictionOn = false;
+                }
 
 //                if ((attribute.inputType & InputType.TYPE_TEXT_FLAG_AUTO_COMPLETE) != 0) {
                 // If this is an auto-complete text view, then our predictions
@@ -401,9 +566,24 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
             default:
                 // For all unknown input types, default to the alphabetic
                 // keyboard with no special features.
-                mCurKeyboard = mQwertyKeyboard;
+                mCurLayer = KeyboardLayers.QWERTY;
 //                updateShiftKeyState(attribute);
         }
+        // Nothing typed in a password field is learned, and apps can opt out
+        // like for incognito tabs.
+        mLearningOn = mPredictionOn && !isPassword(attribute.inputType)
+                && (attribute.imeOptions & EditorInfo.IME_FLAG_NO_PERSONALIZED_LEARNING) == 0;
+        // Autocorrect only where the app asks for it.
+        mAutoCorrectOn = mPredictionOn && (attribute.inputType & InputType.TYPE_TEXT_FLAG_AUTO_CORRECT) != 0;
+        mExpansionOn = (attribute.inputType & InputType.TYPE_MASK_CLASS) == InputType.TYPE_CLASS_TEXT
+                && !isPassword(attribute.inputType);
+        // Clips are neither recorded nor offered while a password is typed.
+        mClipboardOn = !isPassword(attribute.inputType);
+        mClipboard.setRecording(mClipboardOn);
+        if (!mClipboardOn) {
+            hideClipboard();
+        }
+
         // Update the label on the enter key, depending on what the application
         // says it will do.
 //        mCurKeyboard.setImeOptions(getResources(), attribute.imeOptions); //my eyes have been opened
@@ -416,10 +596,20 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      */
     @Override
     public void onFinishInput() {
-        Log.d(TAG, "onFinishInput: ");
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_FINISH_INPUT, 0, 0);
+        mOutput.flush();
+        mArrowRepeat.clearSnapshot();
+        mPredictor.cancel();
+        mPredictor.flushLearned();
+        mTraces.flush();
+        mClipboard.setRecording(false); //copies made while no field has the keyboard aren't kept
+        if (mCandidateView != null) {
+            mCandidateView.setWords(NO_WORDS);
+        }
         super.onFinishInput();
 
         resetKeyboardState();
+        hideClipboard();
 
         if (mInputView != null) {
             mInputView.closing();
@@ -428,13 +618,23 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
 
     @Override
     public void onStartInputView(EditorInfo attribute, boolean restarting) {
-        Log.d(TAG, "onStartInputView: ");
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "onStartInputView: ");
 //        keyboardViewRequested = true;
         super.onStartInputView(attribute, restarting);
         resetKeyboardState();
+        InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            syncShadow(ic);
+        }
+        setCandidatesViewShown(mPredictionOn);
+        updatePredictions(ic);
         // Apply the selected keyboard to the input view.
-        if (mInputView != null)
-            mInputView.setKeyboard(mCurKeyboard);
+        if (mInputView != null) {
+            mInputView.setKeyboard(mLayers.get(mCurLayer));
+            //the layers the SYM key cycles through, drawn ahead so switching is a swap
+            mInputView.setSnapshotKeyboards(mLayers.get(mCurLayer),
+                    mLayers.get(KeyboardLayers.SYMBOLS), mLayers.get(KeyboardLayers.SYMBOLS_SHIFT));
+        }
 //        mInputView.closing();
     }
 
@@ -449,18 +649,233 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      */
     @Override
     public void onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
-        Log.d(TAG, "onUpdateSelection: ");
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_SELECTION, newSelStart, newSelEnd);
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd, candidatesStart, candidatesEnd);
+        if (!mShadow.onUpdateSelection(newSelStart, newSelEnd)) { //drops the copy if someone else edited
+            mUndoTyped = null;
+        }
+        mSnippets.onSelection(newSelStart, newSelEnd);
+        updatePredictions(getCurrentInputConnection());
+    }
+
+    /**
+     * Asks for predictions for the word before the cursor, or clears them
+     * when the cursor isn't at the end of a word.
+     */
+    private void updatePredictions(InputConnection ic) {
+        if (!mPredictionOn || mCandidateView == null || ic == null) {
+            return;
+        }
+        String word = getWordBeforeCursor(ic);
+        if (word == null || word.isEmpty()) {
+            mPredictor.cancel();
+            mCandidateView.setWords(NO_WORDS);
+            mCorrection = null;
+        } else {
+            mPredictor.request(word, mShadow.getPreviousWord());
+        }
+    }
+
+    /**
+     * The word being typed, from the EditorShadow, synced first if the
+     * editor was changed from elsewhere.  Null if there is a selection.
+     */
+    private String getWordBeforeCursor(InputConnection ic) {
+        if (!mShadow.isValid() && (mShadow.getReportedStart() != mShadow.getReportedEnd() || !syncShadow(ic))) {
+            return null;
+        }
+        return mShadow.getWordBeforeCursor();
+    }
+
+    private void showPredictions(String prefix, String[] words, String correction, long lookupMicros) {
+        mLatency.recordPrediction(lookupMicros);
+        mCorrectionFor = prefix;
+        mCorrection = correction;
+        if (mCandidateView != null) {
+            mCandidateView.setWords(words);
+        }
+    }
+
+    /**
+     * Replaces the word being typed by the picked one and a space, in one
+     * batch edit.
+     */
+    private void pickCandidate(String word) {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return;
+        }
+        mOutput.flush(); //so the typed word is all in the editor
+        String typed = getWordBeforeCursor(ic);
+        ic.beginBatchEdit();
+        if (typed != null && !typed.isEmpty()) {
+            mOutput.deleteSurroundingText(ic, typed.length(), 0);
+        }
+        mOutput.commit(ic, word);
+        learnWordBeforeCursor(ic);
+        mOutput.commit(ic, " ");
+        mOutput.flush();
+        ic.endBatchEdit();
+    }
+
+    /**
+     * A word ends: adds the word before the cursor, and the one before it
+     * if only a space separates them, to the learned vocabulary.  Flushes
+     * queued text so the word is read from the EditorShadow complete.
+     */
+    private void learnWordBeforeCursor(InputConnection ic) {
+        if (!mLearningOn) {
+            return;
+        }
+        mOutput.flush();
+        if (!mShadow.isValid() && !syncShadow(ic)) {
+            return;
+        }
+        String word = mShadow.getWordBeforeCursor();
+        if (word != null && !word.isEmpty()) {
+            mPredictor.learn(mShadow.getPreviousWord(), word);
+        }
+    }
+
+    /**
+     * Replaces the word before the cursor by the Predictor's correction for
+     * it, if it has one for exactly that word.  The separator about to be
+     * typed is kept so a backspace after it can undo the correction.
+     */
+    private void correctWordBeforeCursor(InputConnection ic, int separator) {
+        if (!mAutoCorrectOn || mCorrection == null) {
+            return;
+        }
+        mOutput.flush();
+        String typed = getWordBeforeCursor(ic);
+        if (!mCorrectionFor.equals(typed)) {
+            return; //typed past the lookup, no correction is better than a stale one
+        }
+        ic.beginBatchEdit();
+        mOutput.deleteSurroundingText(ic, typed.length(), 0);
+        mOutput.commit(ic, mCorrection);
+        mOutput.flush();
+        ic.endBatchEdit();
+        mUndoTyped = typed;
+        mUndoText = mCorrection + new String(Character.toChars(separator));
+        mCorrection = null;
+    }
+
+    /**
+     * Replaces the word before the cursor by its snippet's expansion, if the
+     * SnippetStream has it ending in an abbreviation, with one
+     * deleteSurroundingText and commitText in a batch edit.  Returns false
+     * if there is no match.
+     */
+    private boolean expandSnippet(InputConnection ic) {
+        if (!mExpansionOn) {
+            return false;
+        }
+        int snippet = mSnippets.getMatch();
+        if (snippet == SnippetMatcher.NO_SNIPPET) {
+            return false;
+        }
+        String abbreviation = mSnippets.getMatcher().getAbbreviation(snippet);
+        String expansion = mSnippets.getMatcher().getExpansion(snippet);
+        mOutput.flush();
+        if (mShadow.isValid() && !mShadow.isBeforeCursor(abbreviation)) {
+            mSnippets.reset(SnippetStream.UNKNOWN); //out of step with the editor
+            return false;
+        }
+        int cursor = mSnippets.getCursor();
+        ic.beginBatchEdit();
+        mOutput.deleteSurroundingText(ic, abbreviation.length(), 0);
+        mOutput.commit(ic, expansion);
+        mOutput.flush();
+        ic.endBatchEdit();
+        mSnippets.reset(cursor == SnippetStream.UNKNOWN
+                ? SnippetStream.UNKNOWN : cursor - abbreviation.length() + expansion.length());
+        return true;
+    }
+
+    private void feedSnippets(CharSequence text) {
+        if (!mExpansionOn) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            mSnippets.feed(text.charAt(i));
+        }
+    }
+
+    private void feedSnippets(int codePoint) {
+        if (!mExpansionOn) {
+            return; //nothing typed in a password field is kept
+        }
+        if (Character.isBmpCodePoint(codePoint)) {
+            mSnippets.feed((char) codePoint);
+        } else if (Character.isValidCodePoint(codePoint)) {
+            mSnippets.feed(Character.highSurrogate(codePoint));
+            mSnippets.feed(Character.lowSurrogate(codePoint));
+        } else {
+            mSnippets.reset(SnippetStream.UNKNOWN);
+        }
+    }
+
+    /**
+     * Backspace right after an autocorrection puts back the word as typed,
+     * with its separator, and learns it so it isn't corrected again.
+     * Returns false if there is nothing to undo.
+     */
+    private boolean undoCorrection(InputConnection ic) {
+        String typed = mUndoTyped;
+        mUndoTyped = null;
+        if (typed == null) {
+            return false;
+        }
+        mOutput.flush();
+        if (!mShadow.isValid()) {
+            syncShadow(ic);
+        }
+        if (!mShadow.isBeforeCursor(mUndoText)) {
+            return false;
+        }
+        ic.beginBatchEdit();
+        mOutput.deleteSurroundingText(ic, mUndoText.length(), 0);
+        mOutput.commit(ic, typed + mUndoText.substring(mUndoText.length() - 1));
+        mOutput.flush();
+        ic.endBatchEdit();
+        if (mLearningOn) {
+            mPredictor.learn(null, typed);
+        }
+        return true;
+    }
+
+    /**
+     * Space and sentence punctuation end a word for autocorrect, other
+     * symbols may be part of a name or an address.
+     */
+    private static boolean isCorrectionSeparator(int codePoint) {
+        return codePoint == ' ' || codePoint == '.' || codePoint == ',' || codePoint == '!' || codePoint == '?'
+                || codePoint == ';' || codePoint == ':';
+    }
+
+    private static boolean isWordCodePoint(int codePoint) {
+        return Character.isLetterOrDigit(codePoint) || codePoint == '_' || codePoint == '\'';
+    }
+
+    private static boolean isPassword(int inputType) {
+        int variation = inputType & (InputType.TYPE_MASK_CLASS | InputType.TYPE_MASK_VARIATION);
+        return variation == (InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD)
+                || variation == (InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD)
+                || variation == (InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_WEB_PASSWORD)
+                || variation == (InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_VARIATION_PASSWORD);
     }
 
     @Override
     public void onText(CharSequence text) {
-        Log.d(TAG, "onText: " + text);
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "onText: " + text);
     }
 
     private void handleCharacter(int primaryCode, int[] keyCodes) {
         if (primaryCode == NOT_A_KEY || primaryCode == KEYCODE_CTRL)
             return;
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_CHARACTER, primaryCode, 0);
+        mUndoTyped = null; //only the key right after a correction undoes it
 
         InputConnection ic = getCurrentInputConnection();
         if (ic != null) {
@@ -469,41 +884,50 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
                 if (current != null) {
                     switch (primaryCode) {
                         case LatinKeyboardView.KEYCODE_EDITOR_ACTION:
+                            learnWordBeforeCursor(ic);
                             sendDefaultEditorAction(true);
                             break;
                         case Keyboard.KEYCODE_MODE_CHANGE:
                             cycleThroughKeyboardsLayers();
                             break;
                         case LatinKeyboardView.KEYCODE_LEFT:
-                            if (current.isCtrlOn() || mIsCtrlPressed) {
-                                sendDownUpKeyEventsWithModifier(ic,new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_LEFT), KeyEvent.META_CTRL_ON);
-                            } else {
-                                sendDownUpKeyEvents(KeyEvent.KEYCODE_DPAD_LEFT);
-                            }
-                            break;
                         case LatinKeyboardView.KEYCODE_RIGHT:
-                            if (current.isCtrlOn() || mIsCtrlPressed) {
-                                sendDownUpKeyEventsWithModifier(ic,new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_RIGHT), KeyEvent.META_CTRL_ON);
-                            } else {
-                                sendDownUpKeyEvents(KeyEvent.KEYCODE_DPAD_RIGHT);
-                            }
-                            break;
                         case LatinKeyboardView.KEYCODE_UP:
-                            if (current.isCtrlOn()|| mIsCtrlPressed) {
-                                sendDownUpKeyEventsWithModifier(ic,new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_UP), KeyEvent.META_CTRL_ON);
-                            } else {
-                                sendDownUpKeyEvents(KeyEvent.KEYCODE_DPAD_UP);
-                            }
-                            break;
                         case LatinKeyboardView.KEYCODE_DOWN:
-                            if (current.isCtrlOn()|| mIsCtrlPressed) {
-                                sendDownUpKeyEventsWithModifier(ic,new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_DOWN), KeyEvent.META_CTRL_ON);
+                            boolean ctrl = current.isCtrlOn() || mIsCtrlPressed;
+                            boolean shift = mModifiers.isShiftLocked(); //extends the selection
+                            if (moveCursor(ic, primaryCode, ctrl, shift)) {
+                                break;
+                            }
+                            if (ctrl && editWord(ic, getWordOperation(primaryCode, shift))) {
+                                break;
+                            }
+                            int meta = (ctrl ? KeyEvent.META_CTRL_ON : 0) | (shift ? KeyEvent.META_SHIFT_ON : 0);
+                            if (ctrl) {
+                                sendCachedKeyEvents(ic, getArrowKeyCode(primaryCode), meta);
                             } else {
-                                sendDownUpKeyEvents(KeyEvent.KEYCODE_DPAD_DOWN);
+                                sendTimedKeyEvents(ic, getArrowKeyCode(primaryCode), meta);
                             }
+                            mLatency.countCursorMove(1, 2);
                             break;
                         default:
-                            ic.commitText(String.valueOf((char) primaryCode), 1);
+                            //the layer's prebuilt text, codes no key has (remapped chars) are typed as they are
+                            CharSequence output = current.getOutput(primaryCode);
+                            int codePoint = output != null ? Character.codePointAt(output, 0) : primaryCode;
+                            boolean expanded = (codePoint == ' ' || codePoint == '\n') && expandSnippet(ic);
+                            if (!expanded && !isWordCodePoint(codePoint)) {
+                                if (isCorrectionSeparator(codePoint)) {
+                                    correctWordBeforeCursor(ic, codePoint);
+                                }
+                                learnWordBeforeCursor(ic);
+                            }
+                            if (output != null) {
+                                mOutput.commit(ic, output);
+                                feedSnippets(output);
+                            } else {
+                                mOutput.commit(ic, primaryCode);
+                                feedSnippets(primaryCode);
+                            }
                             break;
                     }
                 }
@@ -511,183 +935,302 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
         }
     }
 
+    /**
+     * Moves the cursor for an accelerated left/right repeat by setting the
+     * selection directly, computed against a snapshot of the text taken
+     * once per hold.  Returns false if the key should be sent as a DPAD
+     * event instead: not accelerated yet, up/down, or no extracted text.
+     */
+    private boolean moveCursor(InputConnection ic, int primaryCode, boolean byWord, boolean extend) {
+        if (primaryCode != LatinKeyboardView.KEYCODE_LEFT && primaryCode != LatinKeyboardView.KEYCODE_RIGHT) {
+            return false;
+        }
+        int steps = mArrowRepeat.getStep(primaryCode, SystemClock.uptimeMillis());
+        if (steps == 1 || mMacro.isRecording()) {
+            return false;
+        }
+        if (!mArrowRepeat.hasSnapshot()) {
+            mOutput.flush(); //the snapshot has to include anything queued
+            ExtractedText text = ic.getExtractedText(mExtractRequest, 0);
+            if (text == null || text.text == null || text.selectionStart < 0) {
+                return false;
+            }
+            mArrowRepeat.setSnapshot(text.text, text.startOffset,
+                    text.startOffset + text.selectionStart, text.startOffset + text.selectionEnd);
+            mLatency.countCursorMove(0, 1);
+        }
+        int direction = primaryCode == LatinKeyboardView.KEYCODE_LEFT ? -1 : 1;
+        int moved = mArrowRepeat.move(direction, steps, byWord, extend);
+        if (moved > 0) {
+            mOutput.setSelection(ic, mArrowRepeat.getAnchor(), mArrowRepeat.getFocus());
+            mLatency.countCursorMove(moved, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Does one of the KeyDispatchTable.WORD_ operations with a single
+     * setSelection or deleteSurroundingText, the word boundary coming from
+     * the EditorShadow.  Returns false if the boundary isn't known locally.
+     */
+    private boolean editWord(InputConnection ic, int operation) {
+        mOutput.flush();
+        if (mMacro.isRecording()) {
+            return false; //the ctrl+arrow keys replay anywhere, offsets into this text don't
+        }
+        if (!mShadow.isValid() && !syncShadow(ic)) {
+            return false;
+        }
+        int boundary = mShadow.findWordBoundary((operation & 1) == 0 ? -1 : 1); //left ops are even
+        if (boundary == EditorShadow.UNKNOWN) {
+            return false;
+        }
+        int focus = mShadow.getFocus();
+        switch (operation) {
+            case KeyDispatchTable.WORD_LEFT:
+            case KeyDispatchTable.WORD_RIGHT:
+                mOutput.setSelection(ic, boundary, boundary);
+                return true;
+            case KeyDispatchTable.WORD_SELECT_LEFT:
+            case KeyDispatchTable.WORD_SELECT_RIGHT:
+                mOutput.setSelection(ic, mShadow.getAnchor(), boundary);
+                return true;
+            case KeyDispatchTable.WORD_DELETE_LEFT:
+            case KeyDispatchTable.WORD_DELETE_RIGHT:
+                if (mShadow.getSelectionStart() != mShadow.getSelectionEnd()) {
+                    return false; //deleting a selection is the app's normal delete
+                }
+                if (boundary < focus) {
+                    mOutput.deleteSurroundingText(ic, focus - boundary, 0);
+                } else {
+                    mOutput.deleteSurroundingText(ic, 0, boundary - focus);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Fetches up to EditorShadow.WINDOW chars either side of the selection
+     * into the EditorShadow.  From API 31 that is one getSurroundingText,
+     * which has the selection's offsets as well, so the copy doesn't rest on
+     * a selection report that may be out of date.  Before that, or if the
+     * editor doesn't give the offsets, the text around the last reported
+     * selection is asked for instead.  Returns false if the editor can't
+     * provide it, or in a password field.
+     */
+    private boolean syncShadow(InputConnection ic) {
+        if (!mShadowOn) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            SurroundingText text = ic.getSurroundingText(EditorShadow.WINDOW, EditorShadow.WINDOW, 0);
+            if (text != null && text.getOffset() >= 0 && text.getSelectionStart() >= 0 && text.getSelectionEnd() >= 0) {
+                mShadow.seedSurrounding(text.getText(), text.getOffset(), text.getSelectionStart(),
+                        text.getSelectionEnd(), EditorShadow.WINDOW);
+                return true;
+            }
+        }
+        int start = mShadow.getReportedStart();
+        int end = mShadow.getReportedEnd();
+        if (start < 0 || end < start) {
+            return false;
+        }
+        CharSequence before = ic.getTextBeforeCursor(EditorShadow.WINDOW, 0);
+        CharSequence after = ic.getTextAfterCursor(EditorShadow.WINDOW, 0);
+        CharSequence selected = start != end ? ic.getSelectedText(0) : null;
+        if (before == null || after == null || (start != end && selected == null)) {
+            return false;
+        }
+        mShadow.seed(before, selected, after, start, end, EditorShadow.WINDOW);
+        return true;
+    }
+
+    private static int getWordOperation(int arrowCode, boolean extend) {
+        if (arrowCode == LatinKeyboardView.KEYCODE_LEFT) {
+            return extend ? KeyDispatchTable.WORD_SELECT_LEFT : KeyDispatchTable.WORD_LEFT;
+        }
+        return extend ? KeyDispatchTable.WORD_SELECT_RIGHT : KeyDispatchTable.WORD_RIGHT;
+    }
+
     public void swipeRight() {
-        Log.d(TAG, "swipeRight: ");
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "swipeRight: ");
     }
 
     public void swipeLeft() {
-        Log.d(TAG, "swipeLeft: ");
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "swipeLeft: ");
     }
 
     public void swipeDown() {
-        Log.d(TAG, "swipeDown: ");
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "swipeDown: ");
     }
 
     public void swipeUp() {
-        Log.d(TAG, "swipeUp: ");
+        if (BuildConfig.KEY_LOG) Log.d(TAG, "swipeUp: ");
     }
 
     public void onPress(int primaryCode) {
-        Log.d(TAG, "onPress: ");
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_PRESS, primaryCode, 0);
+        mArrowRepeat.onPress(primaryCode, SystemClock.uptimeMillis());
     }
 
     public void onRelease(int primaryCode) {
-        Log.d(TAG, "onRelease: ");
-        vibrate(0);
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_RELEASE, primaryCode, 0);
+        mHaptics.perform(HapticsThrottle.EFFECT_KEY); //also called for every auto-repeat
     }
 
-    public static int translateKeyToIndex(int keyCode) {
-        Log.d(TAG, "translateKeyToIndex: " + keyCode);
-        int index = NOT_A_KEY; //used for bcksp alt etc, keys I dont wanna remap
-        switch (keyCode) {
-            case KeyEvent.KEYCODE_Q://row 1
-                index = 0;
-                break;
-            case KeyEvent.KEYCODE_W:
-                index = 1;
-                break;
-            case KeyEvent.KEYCODE_E:
-                index = 2;
-                break;
-            case KeyEvent.KEYCODE_R:
-                index = 3;
-                break;
-            case KeyEvent.KEYCODE_T:
-                index = 4;
-                break;
-            case KeyEvent.KEYCODE_Y:
-                index = 5;
-                break;
-            case KeyEvent.KEYCODE_U:
-                index = 6;
-                break;
-            case KeyEvent.KEYCODE_I:
-                index = 7;
-                break;
-            case KeyEvent.KEYCODE_O:
-                index = 8;
-                break;
-            case KeyEvent.KEYCODE_P:
-                index = 9;
-                break;
-            case KeyEvent.KEYCODE_A://row 2
-                index = 10;
-                break;
-            case KeyEvent.KEYCODE_S:
-                index = 11;
-                break;
-            case KeyEvent.KEYCODE_D:
-                index = 12;
-                break;
-            case KeyEvent.KEYCODE_F:
-                index = 13;
-                break;
-            case KeyEvent.KEYCODE_G:
-                index = 14;
-                break;
-            case KeyEvent.KEYCODE_H:
-                index = 15;
-                break;
-            case KeyEvent.KEYCODE_J:
-                index = 16;
-                break;
-            case KeyEvent.KEYCODE_K:
-                index = 17;
-                break;
-            case KeyEvent.KEYCODE_L:
-                index = 18;
-                break;
-//            case KeyEvent.KEYCODE_DEL:
-//                index = 19;
-//                break;
-            case KeyEvent.KEYCODE_Z://row 3
-                index = 20;
-                break;
-            case KeyEvent.KEYCODE_X:
-                index = 21;
-                break;
-            case KeyEvent.KEYCODE_C:
-                index = 22;
-                break;
-            case KeyEvent.KEYCODE_V:
-                index = 23;
-                break;
-//            case KeyEvent.KEYCODE_SPACE:
-//                index = 24;
-//                break;
-            case KeyEvent.KEYCODE_B:
-                index = 25;
-                break;
-            case KeyEvent.KEYCODE_N:
-                index = 26;
-                break;
-            case KeyEvent.KEYCODE_M:
-                index = 27;
-                break;
-            case KeyEvent.KEYCODE_ENTER:
-                index = 28;
-                break;
+    private void cycleThroughKeyboardsLayers() {
+        if (mClipboardShown) {
+            hideClipboard();
+            return;
+        }
+        if (mInputView != null) {
+            LatinKeyboard current = (LatinKeyboard) mInputView.getKeyboard();
+            if (current != null) {
+                setCtrlState(current, false);
+                int layer = current.getLayer();
+                if (layer == mCurLayer) {
+                    mInputView.setKeyboard(mLayers.get(KeyboardLayers.SYMBOLS));
+                } else if (layer == KeyboardLayers.SYMBOLS) {
+                    mInputView.setKeyboard(mLayers.get(KeyboardLayers.SYMBOLS_SHIFT));
+                } else if (layer == KeyboardLayers.SYMBOLS_SHIFT) {
+                    mInputView.setKeyboard(mLayers.get(mCurLayer));
+                    if (mClipboardOn && mClipboard.getHistory().size() > 0) {
+                        showClipboard(); //physical keys type on the base layer meanwhile
+                    }
+                }
+            }
         }
-        return index;
     }
 
-    private void vibrate(int type) {
-        switch (type) {
-            case 0://key feedback
-                vibrationService.vibrate(VibrationEffect.createOneShot(20, VibrationEffect.DEFAULT_AMPLITUDE));
-                break;
-            case 1://notification single
-                vibrationService.vibrate(VibrationEffect.createOneShot(20, VibrationEffect.DEFAULT_AMPLITUDE));
-                break;
-            case 2://notification double
-                vibrationService.vibrate(VibrationEffect.createWaveform(new long[]{30L, 65L, 30L}, new int[]{1, 0, 1}, -1));
-                break;
+    /** Puts the clipboard history in the keyboard's place. */
+    private void showClipboard() {
+        if (mClipboardPanel == null) {
+            mClipboardPanel = new ClipboardPanel(this, this::pasteClip);
+        }
+        mClipboardPanel.show(mClipboard.getHistory(), mInputView.getHeight());
+        setInputView(mClipboardPanel);
+        mClipboardShown = true;
+    }
 
+    private void hideClipboard() {
+        if (mClipboardShown) {
+            mClipboardShown = false;
+            setInputView(mInputView);
         }
     }
 
-    private void cycleThroughKeyboardsLayers() {
-        if (mInputView != null) {
-            LatinKeyboard current = (LatinKeyboard) mInputView.getKeyboard();
-            if (current != null) {
-                current.setCtrlState(false);
-                if (current == mCurKeyboard) {
-                    mInputView.setKeyboard(mSymbolsKeyboard);
-                } else if (current == mSymbolsKeyboard) {
-                    mInputView.setKeyboard(mSymbolsShiftedKeyboard);
-                } else if (current == mSymbolsShiftedKeyboard) {
-                    mInputView.setKeyboard(mCurKeyboard);
-                }
-            }
+    /** Pastes a clip from the history with a single commitText. */
+    private void pasteClip(int index) {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return;
         }
+        ClipboardHistory history = mClipboard.getHistory();
+        String text = history.getText(index);
+        history.use(index);
+        mUndoTyped = null;
+        mSnippets.reset(SnippetStream.UNKNOWN);
+        mOutput.commit(ic, text);
+        mOutput.flush();
+        hideClipboard();
     }
 
+    /**
+     * Resends a hardware key with other meta state.  The times and repeat
+     * count stay the key's own, apps tell a held key from presses by them.
+     */
     private void sendDownUpKeyEventsWithModifier(InputConnection ic, KeyEvent event, int MetaKey) {
-        KeyEvent ke = new KeyEvent(event.getDownTime(), event.getEventTime(), event.getAction(), event.getKeyCode(), event.getRepeatCount(), MetaKey, event.getDeviceId(), event.getScanCode());
-        ic.sendKeyEvent(ke);
-        ke = KeyEvent.changeAction(ke, KeyEvent.ACTION_UP);
-        ic.sendKeyEvent(ke);
-    }
-    private boolean isExcludedFromAltMode(int keyCode){
-        switch(keyCode){
-            case KeyEvent.KEYCODE_SPACE:
-            case KeyEvent.KEYCODE_DEL:
-            case KeyEvent.KEYCODE_BACK:
-                return true;
+        KeyEvent ke = new KeyEvent(event.getDownTime(), event.getEventTime(), KeyEvent.ACTION_DOWN, event.getKeyCode(),
+                event.getRepeatCount(), MetaKey, event.getDeviceId(), event.getScanCode());
+        mOutput.sendKeyEvents(ic, ke, KeyEvent.changeAction(ke, KeyEvent.ACTION_UP));
+    }
+
+    /**
+     * Sends an on screen ctrl+arrow as a down/up pair from {@link #mKeyEvents},
+     * only allocating the first time a combination is used.
+     */
+    private void sendCachedKeyEvents(InputConnection ic, int keyCode, int metaState) {
+        int index = mKeyEvents.obtain(keyCode, metaState);
+        if (index >= 0) {
+            mOutput.sendKeyEvents(ic, mKeyEvents.down(index), mKeyEvents.up(index));
+        } else {
+            sendTimedKeyEvents(ic, keyCode, metaState);
+        }
+    }
+
+    /**
+     * Sends an on screen key as a new down/up pair, timed like
+     * InputMethodService's own.
+     */
+    private void sendTimedKeyEvents(InputConnection ic, int keyCode, int metaState) {
+        long downTime = SystemClock.uptimeMillis();
+        mOutput.sendKeyEvents(ic,
+                createKeyEvent(downTime, downTime, KeyEvent.ACTION_DOWN, keyCode, metaState),
+                createKeyEvent(downTime, SystemClock.uptimeMillis(), KeyEvent.ACTION_UP, keyCode, metaState));
+    }
+
+    private static KeyEvent createKeyEvent(long downTime, long eventTime, int action, int keyCode, int metaState) {
+        //same device and flags InputMethodService uses for its own soft keyboard events
+        return new KeyEvent(downTime, eventTime, action, keyCode, 0, metaState, KeyCharacterMap.VIRTUAL_KEYBOARD, 0,
+                KeyEvent.FLAG_SOFT_KEYBOARD | KeyEvent.FLAG_KEEP_TOUCH_MODE);
+    }
+
+    private static int getArrowKeyCode(int primaryCode) {
+        switch (primaryCode) {
+            case LatinKeyboardView.KEYCODE_LEFT:
+                return KeyEvent.KEYCODE_DPAD_LEFT;
+            case LatinKeyboardView.KEYCODE_RIGHT:
+                return KeyEvent.KEYCODE_DPAD_RIGHT;
+            case LatinKeyboardView.KEYCODE_UP:
+                return KeyEvent.KEYCODE_DPAD_UP;
             default:
-                return false;
+                return KeyEvent.KEYCODE_DPAD_DOWN;
         }
     }
 
+    // key events and editor actions have to land after any text still queued in mOutput
+
+    @Override
+    public void sendDownUpKeyEvents(int keyEventCode) {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            sendTimedKeyEvents(ic, keyEventCode, 0);
+        }
+    }
+
+    @Override
+    public boolean sendDefaultEditorAction(boolean fromEnterKey) {
+        mOutput.flush();
+        if (!super.sendDefaultEditorAction(fromEnterKey)) {
+            return false;
+        }
+        mMacro.recordEditorAction(getCurrentInputEditorInfo().imeOptions & EditorInfo.IME_MASK_ACTION);
+        return true;
+    }
+
+    private void scheduleOutputFlush() {
+        Choreographer.getInstance().postFrameCallback(mOutputFrame);
+    }
+
     private void resetKeyboardState(){
-        Log.d(TAG, "resetKeyboardState: ");
-        altLock = false;
-        shiftLock = false;
-        altShortcut = false;
+        if (BuildConfig.KEY_LOG) KeyEventLog.get().record(SystemClock.uptimeMillis(), KeyEventLog.KIND_RESET, 0, 0);
+        mModifiers.reset();
         hideStatusIcon();
         if (mInputView != null) {
-            LatinKeyboard current = (LatinKeyboard) mInputView.getKeyboard();
-            current.setCtrlState(false);
+            setCtrlState((LatinKeyboard) mInputView.getKeyboard(), false);
+        }
+    }
+
+    /**
+     * Sets the on screen ctrl key and repaints it, the keyboard view doesn't
+     * see the change by itself.
+     */
+    private void setCtrlState(LatinKeyboard current, boolean on) {
+        if (current != null) {
+            current.setCtrlState(on);
+            mInputView.invalidateChangedKeys();
         }
     }
 }
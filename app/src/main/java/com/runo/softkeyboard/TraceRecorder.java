@@ -0,0 +1,141 @@
+package com.runo.softkeyboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records {@link TypingTrace}s while the user has opted in from
+ * KeyboardSettings, never in password fields, and writes one to TRACE_DIR
+ * in the files dir each time an input finishes.  Two traces take turns, one
+ * recorded into while the other is written on a background thread, so the
+ * key path neither allocates nor waits on the disk.  The last MAX_TRACES files are kept;
+ * pull them with adb run-as to replay them in TypingTraceReplayTest.
+ *
+ * Only used from the main thread.
+ */
+final class TraceRecorder {
+
+    static final String PREFS = "traces";
+    static final String PREF_RECORD = "record";
+    static final String PREF_KEEP_TEXT = "keep_text";
+    static final String TRACE_DIR = "traces";
+    static final int MAX_TRACES = 20;
+
+    private static final String TAG = "TraceRecorder";
+
+    private final SharedPreferences mPrefs;
+    private final File mDir;
+    private final Handler mMain;
+    private HandlerThread mThread; //started the first time a trace is recorded
+    private Handler mWorker;
+    private TypingTrace mTrace; //recorded into, null while off
+    private TypingTrace mSpare; //null while it is being written
+
+    TraceRecorder(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE); //read in the background from here
+        mDir = new File(context.getFilesDir(), TRACE_DIR);
+        mMain = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Picks up the settings at the start of an input, {@code allowed} false
+     * for fields that are never recorded, like passwords.
+     */
+    void onStartInput(boolean allowed) {
+        if (!allowed || !mPrefs.getBoolean(PREF_RECORD, false)) {
+            mTrace = null;
+            mSpare = null;
+            return;
+        }
+        if (mTrace == null) {
+            mTrace = new TypingTrace(TypingTrace.DEFAULT_CAPACITY);
+            mSpare = new TypingTrace(TypingTrace.DEFAULT_CAPACITY);
+        }
+        if (mThread == null) {
+            mThread = new HandlerThread("traces", Process.THREAD_PRIORITY_BACKGROUND);
+            mThread.start();
+            mWorker = new Handler(mThread.getLooper());
+        }
+        if (mTrace.size() == 0) {
+            mTrace.setKeepText(mPrefs.getBoolean(PREF_KEEP_TEXT, false));
+        }
+    }
+
+    boolean isRecording() {
+        return mTrace != null;
+    }
+
+    void record(int kind, long time, int keyCode, int metaState, int repeatCount, int layer) {
+        if (mTrace != null) {
+            mTrace.record(kind, time, keyCode, metaState, repeatCount, layer);
+        }
+    }
+
+    /**
+     * Hands what was recorded over to be written, at the end of an input.
+     * With the last one still being written it stays and goes with the next.
+     */
+    void flush() {
+        if (mTrace == null || mTrace.size() == 0 || mSpare == null) {
+            return;
+        }
+        TypingTrace full = mTrace;
+        mTrace = mSpare;
+        mTrace.setKeepText(full.isKeepText());
+        mSpare = null;
+        long now = System.currentTimeMillis();
+        mWorker.post(() -> {
+            write(full, now);
+            full.clear();
+            mMain.post(() -> {
+                if (mTrace != null) {
+                    mSpare = full;
+                }
+            });
+        });
+    }
+
+    void close() {
+        if (mThread != null) {
+            mThread.quitSafely();
+        }
+    }
+
+    private void write(TypingTrace trace, long wallTime) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.e(TAG, "can't create " + mDir);
+            return;
+        }
+        File file = new File(mDir, String.format(Locale.US, "%tY%<tm%<td-%<tH%<tM%<tS-%<tL.trace", wallTime));
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            trace.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "can't write " + file, e);
+            return;
+        }
+        if (trace.getDropped() > 0) {
+            Log.w(TAG, file.getName() + " is full, " + trace.getDropped() + " events dropped");
+        }
+        //names sort by time, the oldest go first
+        String[] names = mDir.list();
+        if (names != null && names.length > MAX_TRACES) {
+            Arrays.sort(names);
+            for (int i = 0; i < names.length - MAX_TRACES; i++) {
+                new File(mDir, names[i]).delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.runo.softkeyboard;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Word completion over the trie compiled by the build's DictionaryCompiler,
+ * read in place from a ByteBuffer, normally a memory mapped asset, so the
+ * dictionary is never copied onto the heap.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   header  magic, version, node count, edge count          4 ints
+ *   nodes   first edge int, edge count u16, frequency u8,
+ *           best frequency in the subtree u8                  8 bytes each
+ *   edges   char u16, child node int, sorted by char per node 6 bytes each
+ * </pre>
+ * Node 0 is the root.  Identical subtrees are shared, so a node can have
+ * more than one parent.
+ *
+ * Completions are found best first on the subtree frequencies, so only the
+ * branches that can still beat what was found are opened.  The search
+ * state is preallocated, an instance is meant for one thread.
+ */
+final class TrieDictionary {
+
+    static final int MAGIC = 0x54444943; //"TDIC"
+    static final int VERSION = 1;
+    static final int MAX_WORD_LENGTH = 48;
+    static final int NO_NODE = -1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int NODE_SIZE = 8;
+    private static final int EDGE_SIZE = 6;
+
+    /** Search entries, the search stops opening branches when they run out. */
+    private static final int MAX_ENTRIES = 4096;
+
+    private final ByteBuffer mBuffer;
+    private final int mNodeCount;
+    private final int mEdgesStart;
+    private int mWordCount = -1; //counted on first use
+
+    // search entries: a branch to open, or a word found (negative node)
+    private final int[] mEntryNode = new int[MAX_ENTRIES];
+    private final int[] mEntryParent = new int[MAX_ENTRIES];
+    private final char[] mEntryChar = new char[MAX_ENTRIES];
+    private final int[] mEntryKey = new int[MAX_ENTRIES];
+    private final int[] mHeap = new int[MAX_ENTRIES];
+    private final char[] mWord = new char[MAX_WORD_LENGTH];
+
+    /**
+     * @throws IllegalArgumentException if the buffer doesn't hold a dictionary
+     */
+    TrieDictionary(ByteBuffer buffer) {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a version " + VERSION + " dictionary");
+        }
+        mNodeCount = buffer.getInt(8);
+        int edgeCount = buffer.getInt(12);
+        mEdgesStart = HEADER_SIZE + mNodeCount * NODE_SIZE;
+        if (mNodeCount <= 0 || edgeCount < 0 || mEdgesStart + (long) edgeCount * EDGE_SIZE != buffer.capacity()) {
+            throw new IllegalArgumentException("truncated dictionary");
+        }
+    }
+
+    int getNodeCount() {
+        return mNodeCount;
+    }
+
+    /** Words in the dictionary, counted the first time this is called. */
+    int getWordCount() {
+        if (mWordCount < 0) {
+            int[] counts = new int[mNodeCount];
+            Arrays.fill(counts, -1);
+            mWordCount = countWords(0, counts);
+        }
+        return mWordCount;
+    }
+
+    /** Words below {@code node}, once per node as subtrees are shared. */
+    private int countWords(int node, int[] counts) {
+        if (counts[node] < 0) {
+            int count = frequency(node) > 0 ? 1 : 0;
+            for (int edge = 0; edge < edgeCount(node); edge++) {
+                count += countWords(getEdgeChild(node, edge), counts);
+            }
+            counts[node] = count;
+        }
+        return counts[node];
+    }
+
+    /**
+     * Returns the node {@code prefix} leads to, or {@link #NO_NODE} if no word
+     * starts with it.
+     */
+    int findNode(CharSequence prefix) {
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node != NO_NODE; i++) {
+            node = findChild(node, prefix.charAt(i));
+        }
+        return node;
+    }
+
+    // node level access, for searches walking the trie themselves
+
+    int getEdgeCount(int node) {
+        return edgeCount(node);
+    }
+
+    char getEdgeChar(int node, int edge) {
+        return mBuffer.getChar(mEdgesStart + (firstEdge(node) + edge) * EDGE_SIZE);
+    }
+
+    int getEdgeChild(int node, int edge) {
+        return mBuffer.getInt(mEdgesStart + (firstEdge(node) + edge) * EDGE_SIZE + 2);
+    }
+
+    /** Frequency of the word ending at the node, 0 if none does. */
+    int getNodeFrequency(int node) {
+        return frequency(node);
+    }
+
+    /** Highest frequency of any word in the node's subtree. */
+    int getBestFrequency(int node) {
+        return best(node);
+    }
+
+    /** Frequency of the word, 0 if it isn't in the dictionary. */
+    int getFrequency(CharSequence word) {
+        int node = findNode(word);
+        return node == NO_NODE ? 0 : frequency(node);
+    }
+
+    /**
+     * Fills {@code words} and {@code frequencies} with the most frequent
+     * words starting with {@code prefix}, the prefix itself included, most
+     * frequent first.  Returns how many were found.
+     */
+    int complete(CharSequence prefix, String[] words, int[] frequencies) {
+        int start = findNode(prefix);
+        if (start == NO_NODE || prefix.length() >= MAX_WORD_LENGTH) {
+            return 0;
+        }
+        int entries = 0;
+        int heapSize = 0;
+        mEntryNode[0] = start;
+        mEntryParent[0] = -1;
+        mEntryKey[0] = best(start);
+        mHeap[heapSize++] = entries++;
+        int found = 0;
+        while (heapSize > 0 && found < words.length) {
+            int entry = mHeap[0];
+            mHeap[0] = mHeap[--heapSize];
+            siftDown(heapSize);
+            int node = mEntryNode[entry];
+            if (node < 0) {
+                words[found] = spell(prefix, entry);
+                frequencies[found++] = mEntryKey[entry];
+                continue;
+            }
+            int edgeCount = edgeCount(node);
+            if (entries + edgeCount + 1 > MAX_ENTRIES) {
+                break;
+            }
+            // the word ending here goes in ahead of the branches, so it wins ties
+            if (frequency(node) > 0) {
+                mEntryNode[entries] = ~node;
+                mEntryParent[entries] = entry;
+                mEntryKey[entries] = frequency(node);
+                siftUp(heapSize++, entries++);
+            }
+            int edge = mEdgesStart + firstEdge(node) * EDGE_SIZE;
+            for (int i = 0; i < edgeCount; i++, edge += EDGE_SIZE) {
+                int child = mBuffer.getInt(edge + 2);
+                mEntryNode[entries] = child;
+                mEntryParent[entries] = entry;
+                mEntryChar[entries] = mBuffer.getChar(edge);
+                mEntryKey[entries] = best(child);
+                siftUp(heapSize++, entries++);
+            }
+        }
+        return found;
+    }
+
+    /** Prefix plus the chars on the way from the start entry to a word entry. */
+    private String spell(CharSequence prefix, int wordEntry) {
+        int length = 0;
+        for (int entry = mEntryParent[wordEntry]; mEntryParent[entry] >= 0; entry = mEntryParent[entry]) {
+            length++;
+        }
+        int end = prefix.length() + length; //the compiler keeps words within MAX_WORD_LENGTH
+        int i = end;
+        for (int entry = mEntryParent[wordEntry]; mEntryParent[entry] >= 0; entry = mEntryParent[entry]) {
+            mWord[--i] = mEntryChar[entry];
+        }
+        for (int j = prefix.length() - 1; j >= 0; j--) {
+            mWord[--i] = prefix.charAt(j);
+        }
+        return new String(mWord, 0, end);
+    }
+
+    /** Higher key first, then the entry added first. */
+    private boolean before(int a, int b) {
+        return mEntryKey[a] > mEntryKey[b] || (mEntryKey[a] == mEntryKey[b] && a < b);
+    }
+
+    private void siftUp(int index, int entry) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!before(entry, mHeap[parent])) {
+                break;
+            }
+            mHeap[index] = mHeap[parent];
+            index = parent;
+        }
+        mHeap[index] = entry;
+    }
+
+    private void siftDown(int size) {
+        if (size == 0) {
+            return;
+        }
+        int entry = mHeap[0];
+        int index = 0;
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(mHeap[child + 1], mHeap[child])) {
+                child++;
+            }
+            if (!before(mHeap[child], entry)) {
+                break;
+            }
+            mHeap[index] = mHeap[child];
+            index = child;
+        }
+        mHeap[index] = entry;
+    }
+
+    /** Binary search of the node's edges, which are sorted by char. */
+    private int findChild(int node, char c) {
+        int base = mEdgesStart + firstEdge(node) * EDGE_SIZE;
+        int low = 0;
+        int high = edgeCount(node) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = mBuffer.getChar(base + mid * EDGE_SIZE);
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mBuffer.getInt(base + mid * EDGE_SIZE + 2);
+            }
+        }
+        return NO_NODE;
+    }
+
+    private int firstEdge(int node) {
+        return mBuffer.getInt(HEADER_SIZE + node * NODE_SIZE);
+    }
+
+    private int edgeCount(int node) {
+        return mBuffer.getChar(HEADER_SIZE + node * NODE_SIZE + 4);
+    }
+
+    private int frequency(int node) {
+        return mBuffer.get(HEADER_SIZE + node * NODE_SIZE + 6) & 0xff;
+    }
+
+    private int best(int node) {
+        return mBuffer.get(HEADER_SIZE + node * NODE_SIZE + 7) & 0xff;
+    }
+}
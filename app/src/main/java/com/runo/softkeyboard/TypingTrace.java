@@ -0,0 +1,164 @@
+package com.runo.softkeyboard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A typing session as the service got it, every onKeyDown, onKeyUp and
+ * onKey, for reproducing slow keys and stuck modifiers off the device.
+ * Records are fixed width and go into a buffer allocated up front, so
+ * recording never allocates; once it is full later events are counted
+ * and dropped.  See TraceRecorder for where traces are written and
+ * TypingTraceReplayTest for playing one back.
+ *
+ * Unless text is kept, keys that type letters and digits are recorded as
+ * a and 0, on screen ones too, so a trace has the rhythm, modifiers and
+ * layers of a session but not what was typed.
+ *
+ * The file is big endian: MAGIC, VERSION, flags, the record count, then
+ * RECORD_BYTES per record: event time in ms (long), kind (byte), the
+ * KeyDispatchTable layer or -1 (byte), repeat count (short, clamped), key
+ * code (int) and meta state (int).  For KIND_KEY the key code is the code
+ * of the on screen key.
+ */
+final class TypingTrace {
+
+    static final int MAGIC = 0x54545243; //"TTRC"
+    static final int VERSION = 1;
+    static final int FLAG_TEXT = 1; //letters and digits are as typed
+
+    static final int KIND_KEY_DOWN = 0;
+    static final int KIND_KEY_UP = 1;
+    static final int KIND_KEY = 2; //on screen key
+
+    static final int RECORD_BYTES = 20;
+    static final int DEFAULT_CAPACITY = 8192; //records
+
+    // KeyEvent codes the redaction folds together
+    private static final int KEYCODE_0 = 7; //KeyEvent.KEYCODE_0
+    private static final int KEYCODE_9 = 16; //KeyEvent.KEYCODE_9
+    private static final int KEYCODE_A = 29; //KeyEvent.KEYCODE_A
+    private static final int KEYCODE_Z = 54; //KeyEvent.KEYCODE_Z
+    private static final int KEYCODE_NUMPAD_0 = 144; //KeyEvent.KEYCODE_NUMPAD_0
+    private static final int KEYCODE_NUMPAD_9 = 153; //KeyEvent.KEYCODE_NUMPAD_9
+
+    private final ByteBuffer mRecords;
+    private boolean mKeepText;
+    private int mDropped;
+
+    TypingTrace(int capacity) {
+        mRecords = ByteBuffer.allocate(capacity * RECORD_BYTES);
+    }
+
+    /** Whether letters and digits are kept, only set while the trace is empty. */
+    void setKeepText(boolean keepText) {
+        mKeepText = keepText;
+    }
+
+    boolean isKeepText() {
+        return mKeepText;
+    }
+
+    void record(int kind, long time, int keyCode, int metaState, int repeatCount, int layer) {
+        if (mRecords.remaining() < RECORD_BYTES) {
+            mDropped++;
+            return;
+        }
+        mRecords.putLong(time)
+                .put((byte) kind)
+                .put((byte) layer)
+                .putShort((short) Math.min(repeatCount, Short.MAX_VALUE))
+                .putInt(mKeepText ? keyCode : redact(kind, keyCode))
+                .putInt(metaState);
+    }
+
+    int size() {
+        return mRecords.position() / RECORD_BYTES;
+    }
+
+    /** Events that came after the buffer was full. */
+    int getDropped() {
+        return mDropped;
+    }
+
+    void clear() {
+        mRecords.clear();
+        mDropped = 0;
+    }
+
+    long getTime(int record) {
+        return mRecords.getLong(record * RECORD_BYTES);
+    }
+
+    int getKind(int record) {
+        return mRecords.get(record * RECORD_BYTES + 8);
+    }
+
+    int getLayer(int record) {
+        return mRecords.get(record * RECORD_BYTES + 9);
+    }
+
+    int getRepeatCount(int record) {
+        return mRecords.getShort(record * RECORD_BYTES + 10);
+    }
+
+    int getKeyCode(int record) {
+        return mRecords.getInt(record * RECORD_BYTES + 12);
+    }
+
+    int getMetaState(int record) {
+        return mRecords.getInt(record * RECORD_BYTES + 16);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(mKeepText ? FLAG_TEXT : 0);
+        data.writeInt(size());
+        data.write(mRecords.array(), 0, mRecords.position());
+        data.flush();
+    }
+
+    static TypingTrace read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a typing trace");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("trace version " + version + ", expected " + VERSION);
+        }
+        int flags = data.readInt();
+        int count = data.readInt();
+        if (count < 0 || count > Integer.MAX_VALUE / RECORD_BYTES) {
+            throw new IOException("bad record count " + count);
+        }
+        TypingTrace trace = new TypingTrace(count);
+        trace.mKeepText = (flags & FLAG_TEXT) != 0;
+        data.readFully(trace.mRecords.array(), 0, count * RECORD_BYTES);
+        trace.mRecords.position(count * RECORD_BYTES);
+        return trace;
+    }
+
+    private static int redact(int kind, int code) {
+        if (kind == KIND_KEY) {
+            if (Character.isLetter(code)) {
+                return 'a';
+            }
+            return Character.isDigit(code) ? '0' : code;
+        }
+        if (code >= KEYCODE_A && code <= KEYCODE_Z) {
+            return KEYCODE_A;
+        } else if (code >= KEYCODE_0 && code <= KEYCODE_9) {
+            return KEYCODE_0;
+        } else if (code >= KEYCODE_NUMPAD_0 && code <= KEYCODE_NUMPAD_9) {
+            return KEYCODE_NUMPAD_0;
+        }
+        return code;
+    }
+}
@@ -0,0 +1,185 @@
+package com.runo.softkeyboard;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Words and word pairs the user has typed, in fixed memory however much is
+ * typed.  Counts live in two count-min sketches, one for words and one for
+ * bigrams, which can only over-estimate; the MAX_WORDS most typed words are
+ * also kept by name, Space-Saving style, since a sketch can't be searched
+ * by prefix.  Words are expected in lower case.
+ *
+ * Not thread safe, Predictor only uses it from the prediction thread.
+ */
+final class UserVocabulary {
+
+    static final int SKETCH_DEPTH = 4;
+    static final int SKETCH_WIDTH = 1 << 12; //per row, a power of two
+    static final int MAX_WORDS = 256;
+
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+    private final int[] mWordCounts = new int[SKETCH_DEPTH * SKETCH_WIDTH];
+    private final int[] mBigramCounts = new int[SKETCH_DEPTH * SKETCH_WIDTH];
+    private final String[] mWords = new String[MAX_WORDS];
+    private final int[] mCounts = new int[MAX_WORDS];
+    private int mWordCount;
+
+    /** Counts {@code word} typed after {@code previous}, which may be null. */
+    void learn(String previous, String word) {
+        int estimate = add(mWordCounts, word.hashCode());
+        if (previous != null) {
+            add(mBigramCounts, bigramHash(previous, word));
+        }
+        int index = indexOf(word);
+        if (index >= 0) {
+            mCounts[index] = estimate;
+            return;
+        }
+        if (mWordCount < MAX_WORDS) {
+            mWords[mWordCount] = word;
+            mCounts[mWordCount++] = estimate;
+            return;
+        }
+        int least = 0;
+        for (int i = 1; i < mWordCount; i++) {
+            if (mCounts[i] < mCounts[least]) {
+                least = i;
+            }
+        }
+        if (estimate > mCounts[least]) {
+            mWords[least] = word;
+            mCounts[least] = estimate;
+        }
+    }
+
+    /** How often the word was typed, possibly more but never less. */
+    int getCount(String word) {
+        return estimate(mWordCounts, word.hashCode());
+    }
+
+    int getBigramCount(String previous, String word) {
+        return estimate(mBigramCounts, bigramHash(previous, word));
+    }
+
+    /**
+     * Fills {@code words} with the most typed kept words starting with
+     * {@code prefix}, most typed first.  Returns how many were found.
+     */
+    int complete(String prefix, String[] words, int[] counts) {
+        int found = 0;
+        for (int i = 0; i < mWordCount; i++) {
+            if (!mWords[i].startsWith(prefix)) {
+                continue;
+            }
+            if (found == words.length && (found == 0 || mCounts[i] <= counts[found - 1])) {
+                continue;
+            }
+            // insertion into the short sorted result, the last one drops out when full
+            int at = found < words.length ? found++ : words.length - 1;
+            while (at > 0 && counts[at - 1] < mCounts[i]) {
+                words[at] = words[at - 1];
+                counts[at] = counts[at - 1];
+                at--;
+            }
+            words[at] = mWords[i];
+            counts[at] = mCounts[i];
+        }
+        return found;
+    }
+
+    int getWordCount() {
+        return mWordCount;
+    }
+
+    void clear() {
+        Arrays.fill(mWordCounts, 0);
+        Arrays.fill(mBigramCounts, 0);
+        Arrays.fill(mWords, null);
+        mWordCount = 0;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_VERSION);
+        for (int count : mWordCounts) {
+            out.writeInt(count);
+        }
+        for (int count : mBigramCounts) {
+            out.writeInt(count);
+        }
+        out.writeShort(mWordCount);
+        for (int i = 0; i < mWordCount; i++) {
+            out.writeUTF(mWords[i]);
+            out.writeInt(mCounts[i]);
+        }
+    }
+
+    /** Replaces everything with a snapshot from {@link #writeTo}. */
+    void readFrom(DataInput in) throws IOException {
+        if (in.readInt() != SNAPSHOT_VERSION) {
+            throw new IOException("unknown vocabulary snapshot");
+        }
+        clear();
+        for (int i = 0; i < mWordCounts.length; i++) {
+            mWordCounts[i] = in.readInt();
+        }
+        for (int i = 0; i < mBigramCounts.length; i++) {
+            mBigramCounts[i] = in.readInt();
+        }
+        int count = in.readShort();
+        if (count < 0 || count > MAX_WORDS) {
+            throw new IOException("bad vocabulary snapshot");
+        }
+        for (int i = 0; i < count; i++) {
+            mWords[i] = in.readUTF();
+            mCounts[i] = in.readInt();
+        }
+        mWordCount = count;
+    }
+
+    private int indexOf(String word) {
+        for (int i = 0; i < mWordCount; i++) {
+            if (mWords[i].equals(word)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Adds one in every row, returning the new estimate. */
+    private static int add(int[] sketch, int hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int cell = row * SKETCH_WIDTH + slot(hash, row);
+            if (sketch[cell] < Integer.MAX_VALUE) {
+                sketch[cell]++;
+            }
+            estimate = Math.min(estimate, sketch[cell]);
+        }
+        return estimate;
+    }
+
+    private static int estimate(int[] sketch, int hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            estimate = Math.min(estimate, sketch[row * SKETCH_WIDTH + slot(hash, row)]);
+        }
+        return estimate;
+    }
+
+    private static int slot(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & (SKETCH_WIDTH - 1);
+    }
+
+    private static int bigramHash(String previous, String word) {
+        return previous.hashCode() * 0x01000193 ^ word.hashCode();
+    }
+}
@@ -0,0 +1,163 @@
+package com.runo.softkeyboard;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store for a {@link UserVocabulary}.  Learned words are
+ * collected and appended in batches, each framed with its length and a
+ * CRC32, so a batch cut short by a crash is recognised on replay and cut
+ * off, never read as data.  Once the log passes MAX_LOG_BYTES it is
+ * compacted: a snapshot of the vocabulary goes to a new file, which then
+ * atomically replaces the log.
+ *
+ * Does file IO, Predictor only uses it from the prediction thread.
+ */
+final class VocabularyLog {
+
+    static final int MAX_LOG_BYTES = 256 * 1024; //compacted past this
+    static final int BATCH_WORDS = 32; //appended once this many are pending
+
+    private static final byte RECORD_WORD = 1;
+    private static final byte RECORD_SNAPSHOT = 2;
+    private static final int MAX_BATCH_BYTES = 1 << 20;
+
+    private final File mFile;
+    private final ByteArrayOutputStream mPending = new ByteArrayOutputStream(1024);
+    private final DataOutputStream mPendingOut = new DataOutputStream(mPending);
+    private int mPendingWords;
+
+    VocabularyLog(File file) {
+        mFile = file;
+    }
+
+    int getPendingWords() {
+        return mPendingWords;
+    }
+
+    /**
+     * Reads the log into {@code vocabulary}.  A damaged or unfinished batch
+     * and anything after it is dropped from the file.
+     */
+    void replay(UserVocabulary vocabulary) throws IOException {
+        if (!mFile.exists()) {
+            return;
+        }
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            while (true) {
+                byte[] batch = readBatch(in);
+                if (batch == null) {
+                    break;
+                }
+                apply(batch, vocabulary);
+                good += 8 + batch.length;
+            }
+        }
+        if (good < mFile.length()) {
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+                file.setLength(good);
+            }
+        }
+    }
+
+    /** Queues a learned word, {@code previous} may be null. */
+    void add(String previous, String word) throws IOException {
+        mPendingOut.writeByte(RECORD_WORD);
+        mPendingOut.writeUTF(previous != null ? previous : "");
+        mPendingOut.writeUTF(word);
+        mPendingWords++;
+    }
+
+    /**
+     * Appends the pending words as one batch and syncs it, compacting the
+     * log afterwards if it has grown past MAX_LOG_BYTES.
+     */
+    void flush(UserVocabulary vocabulary) throws IOException {
+        if (mPendingWords == 0) {
+            return;
+        }
+        byte[] batch = mPending.toByteArray();
+        mPending.reset();
+        mPendingWords = 0;
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            writeBatch(out, batch);
+            out.getFD().sync();
+        }
+        if (mFile.length() > MAX_LOG_BYTES) {
+            compact(vocabulary);
+        }
+    }
+
+    /** Replaces the log by a single snapshot of {@code vocabulary}. */
+    void compact(UserVocabulary vocabulary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(160 * 1024);
+        DataOutputStream snapshot = new DataOutputStream(bytes);
+        snapshot.writeByte(RECORD_SNAPSHOT);
+        vocabulary.writeTo(snapshot);
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            writeBatch(out, bytes.toByteArray());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("can't replace " + mFile);
+        }
+    }
+
+    private static void writeBatch(FileOutputStream out, byte[] batch) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(batch, 0, batch.length);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(batch.length);
+        data.writeInt((int) crc.getValue());
+        data.write(batch);
+        data.flush();
+    }
+
+    /** Returns the next batch, or null at the end or at a damaged one. */
+    private static byte[] readBatch(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int expected = in.readInt();
+            if (length <= 0 || length > MAX_BATCH_BYTES) {
+                return null;
+            }
+            byte[] batch = new byte[length];
+            in.readFully(batch);
+            CRC32 crc = new CRC32();
+            crc.update(batch, 0, length);
+            return (int) crc.getValue() == expected ? batch : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void apply(byte[] batch, UserVocabulary vocabulary) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+        while (in.available() > 0) {
+            switch (in.readByte()) {
+                case RECORD_WORD:
+                    String previous = in.readUTF();
+                    vocabulary.learn(previous.isEmpty() ? null : previous, in.readUTF());
+                    break;
+                case RECORD_SNAPSHOT:
+                    vocabulary.readFrom(in);
+                    break;
+                default:
+                    throw new IOException("unknown vocabulary record");
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ArrowRepeatTest {
+
+    private static final int LEFT = LatinKeyboardView.KEYCODE_LEFT;
+    private static final int RIGHT = LatinKeyboardView.KEYCODE_RIGHT;
+
+    private final ArrowRepeat mRepeat = new ArrowRepeat();
+
+    @Test
+    public void rampsUpWithHoldTime() {
+        mRepeat.onPress(RIGHT, 1000);
+        assertEquals(1, mRepeat.getStep(RIGHT, 1000));
+        assertEquals(1, mRepeat.getStep(RIGHT, 1000 + ArrowRepeat.ACCELERATE_AFTER_MS - 1));
+        assertEquals(2, mRepeat.getStep(RIGHT, 1000 + ArrowRepeat.ACCELERATE_AFTER_MS));
+        assertEquals(4, mRepeat.getStep(RIGHT, 1000 + ArrowRepeat.ACCELERATE_AFTER_MS + ArrowRepeat.DOUBLE_EVERY_MS));
+        assertEquals(ArrowRepeat.MAX_STEP, mRepeat.getStep(RIGHT, 60_000));
+        assertEquals(1, mRepeat.getStep(LEFT, 60_000));
+    }
+
+    @Test
+    public void movesWithinSnapshotAndStopsAtEnds() {
+        mRepeat.onPress(LEFT, 0);
+        assertFalse(mRepeat.hasSnapshot());
+        mRepeat.setSnapshot("hello world", 100, 105, 105);
+        assertTrue(mRepeat.hasSnapshot());
+        assertEquals(3, mRepeat.move(-1, 3, false, false));
+        assertEquals(102, mRepeat.getFocus());
+        assertEquals(102, mRepeat.getAnchor());
+        assertEquals(2, mRepeat.move(-1, 64, false, false));
+        assertEquals(100, mRepeat.getFocus());
+        assertEquals(11, mRepeat.move(1, 64, false, false));
+        assertEquals(111, mRepeat.getFocus());
+    }
+
+    @Test
+    public void extendKeepsAnchor() {
+        mRepeat.setSnapshot("hello world", 0, 2, 2);
+        mRepeat.move(1, 4, false, true);
+        assertEquals(2, mRepeat.getAnchor());
+        assertEquals(6, mRepeat.getFocus());
+    }
+
+    @Test
+    public void jumpsByWord() {
+        mRepeat.setSnapshot("one, two three", 0, 0, 0);
+        mRepeat.move(1, 1, true, false);
+        assertEquals(3, mRepeat.getFocus());
+        mRepeat.move(1, 2, true, false);
+        assertEquals(14, mRepeat.getFocus());
+        mRepeat.move(-1, 1, true, false);
+        assertEquals(9, mRepeat.getFocus());
+    }
+
+    @Test
+    public void neverSplitsSurrogatePairs() {
+        String text = "a\ud83d\ude00b";
+        assertEquals(3, ArrowRepeat.nextChar(text, 1, 1));
+        assertEquals(1, ArrowRepeat.nextChar(text, 3, -1));
+    }
+}
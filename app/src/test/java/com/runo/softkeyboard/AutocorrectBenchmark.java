@@ -0,0 +1,85 @@
+package com.runo.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Corrections per second over the typo corpus, on the JVM against the
+ * real word list.  Run with {@code ./gradlew :app:autocorrectBenchmark}.
+ * Every correction gets Predictor's per keystroke budget, so aborted
+ * searches show up here before they show up on the device.
+ */
+public final class AutocorrectBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    private AutocorrectBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String wordList = args.length > 0 ? args[0] : "src/main/dictionaries/en.txt";
+        TrieDictionary dictionary;
+        try (FileReader in = new FileReader(wordList)) {
+            dictionary = new TrieDictionary(TestDictionaries.fromWordList(in));
+        }
+        List<String[]> typos = readTypos();
+        Autocorrector corrector = new Autocorrector(dictionary);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(corrector, typos);
+        }
+        int correct = 0;
+        int aborted = 0;
+        long visited = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (String[] typo : typos) {
+                String correction = corrector.correct(typo[0], Predictor.CORRECTION_BUDGET_NS);
+                if (typo[1].equals(correction)) {
+                    correct++;
+                }
+                if (corrector.isAborted()) {
+                    aborted++;
+                }
+                visited += corrector.getVisited();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        int corrections = ROUNDS * typos.size();
+        System.out.println(String.format(Locale.US,
+                "%d typos x %d rounds: %.0f corrections/s, %.1fus each, %.0f nodes each, %.1f%% right, %d aborted",
+                typos.size(), ROUNDS, corrections * 1e9 / nanos, nanos / 1e3 / corrections,
+                (double) visited / corrections, 100.0 * correct / corrections, aborted));
+    }
+
+    private static int run(Autocorrector corrector, List<String[]> typos) {
+        int found = 0;
+        for (String[] typo : typos) {
+            if (corrector.correct(typo[0], Predictor.CORRECTION_BUDGET_NS) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /** Typed, intended pairs from typos.txt on the test classpath. */
+    static List<String[]> readTypos() throws IOException {
+        List<String[]> typos = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                AutocorrectBenchmark.class.getResourceAsStream("/typos.txt"), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    typos.add(line.split(" "));
+                }
+            }
+        }
+        return typos;
+    }
+}
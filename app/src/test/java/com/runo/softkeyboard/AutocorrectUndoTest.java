@@ -0,0 +1,103 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.InputType;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
+import android.view.inputmethod.EditorInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SoftKeyboard replacing a typo the Predictor is sure of at a separator,
+ * and backspace putting the typed word back.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AutocorrectUndoTest {
+
+    private BaseInputConnection mEditor;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        mEditor = new BaseInputConnection(new View(context), true);
+    }
+
+    private SoftKeyboard start(boolean autoCorrect) {
+        EditorInfo info = TestKeyboards.textField();
+        if (autoCorrect) {
+            info.inputType |= InputType.TYPE_TEXT_FLAG_AUTO_CORRECT;
+        }
+        return TestKeyboards.start(mEditor, info);
+    }
+
+    /** What the Predictor hands back for a word its Autocorrector is confident about. */
+    private static void correct(SoftKeyboard keyboard, String typed, String correction) {
+        Predictor predictor = ReflectionHelpers.getField(keyboard, "mPredictor");
+        Predictor.Listener listener = ReflectionHelpers.getField(predictor, "mListener");
+        listener.onPredictions(typed, new String[]{correction}, correction, 0);
+    }
+
+    private static void keyDown(SoftKeyboard keyboard, int keyCode) {
+        long now = SystemClock.uptimeMillis();
+        keyboard.onKeyDown(keyCode, new KeyEvent(now, now, KeyEvent.ACTION_DOWN, keyCode, 0));
+    }
+
+    private String getText() {
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS); //a frame
+        return mEditor.getEditable().toString();
+    }
+
+    @Test
+    public void separatorAppliesAndBackspaceUndoes() {
+        SoftKeyboard keyboard = start(true);
+        TestKeyboards.type(keyboard, "thsi");
+        correct(keyboard, "thsi", "this");
+        keyDown(keyboard, KeyEvent.KEYCODE_SPACE);
+        assertEquals("this ", getText());
+        keyDown(keyboard, KeyEvent.KEYCODE_DEL);
+        assertEquals("thsi ", getText());
+    }
+
+    @Test
+    public void onlyTheKeyRightAfterUndoes() {
+        SoftKeyboard keyboard = start(true);
+        TestKeyboards.type(keyboard, "thsi");
+        correct(keyboard, "thsi", "this");
+        keyDown(keyboard, KeyEvent.KEYCODE_SPACE);
+        TestKeyboards.type(keyboard, "a");
+        keyDown(keyboard, KeyEvent.KEYCODE_DEL); //left to the app
+        assertEquals("this a", getText());
+    }
+
+    @Test
+    public void staleCorrectionIsNotApplied() {
+        SoftKeyboard keyboard = start(true);
+        TestKeyboards.type(keyboard, "thsi");
+        correct(keyboard, "thsi", "this");
+        TestKeyboards.type(keyboard, "s");
+        keyDown(keyboard, KeyEvent.KEYCODE_SPACE);
+        assertEquals("thsis ", getText());
+    }
+
+    @Test
+    public void fieldsNotAskingForItKeepTheTypedWord() {
+        SoftKeyboard keyboard = start(false);
+        TestKeyboards.type(keyboard, "thsi");
+        correct(keyboard, "thsi", "this");
+        keyDown(keyboard, KeyEvent.KEYCODE_SPACE);
+        assertEquals("thsi ", getText());
+    }
+}
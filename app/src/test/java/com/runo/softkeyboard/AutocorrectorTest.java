@@ -0,0 +1,117 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class AutocorrectorTest {
+
+    private static final long NO_LIMIT = 1_000_000_000L;
+
+    private final Autocorrector mCorrector = new Autocorrector(new TrieDictionary(TestDictionaries.build(
+            "the", 255, "they", 150, "then", 120, "this", 160, "test", 90, "text", 80, "rest", 70, "shirt", 20)));
+
+    @Test
+    public void neighbouringKeyCostsLess() {
+        // e is next to r but not to t, so the rarer word wins
+        assertEquals("rest", mCorrector.correct("eest", NO_LIMIT));
+        assertEquals(KeyProximity.NEAR, mCorrector.getCost());
+        assertEquals("test", mCorrector.correct("tesy", NO_LIMIT));
+    }
+
+    @Test
+    public void fixesSwapsDoublesAndMissedKeys() {
+        assertEquals("the", mCorrector.correct("teh", NO_LIMIT));
+        assertEquals("this", mCorrector.correct("thiss", NO_LIMIT));
+        assertEquals("test", mCorrector.correct("tst", NO_LIMIT));
+    }
+
+    @Test
+    public void staysWithinCostLimit() {
+        assertNull(mCorrector.correct("qqq", NO_LIMIT));
+        assertNull(mCorrector.correct("th", NO_LIMIT)); //too short to correct
+        assertFalse(mCorrector.isAborted());
+    }
+
+    @Test
+    public void givesUpWhenOverBudget() {
+        assertNull(mCorrector.correct("teh", 0));
+        assertTrue(mCorrector.isAborted());
+    }
+
+    /** The first {@code limit} words of the shipped word list. */
+    private static TrieDictionary wordList(int limit) throws IOException {
+        StringBuilder words = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(new FileReader("src/main/dictionaries/en.txt"))) {
+            int count = 0;
+            for (String line = in.readLine(); line != null && count < limit; line = in.readLine()) {
+                words.append(line).append('\n');
+                if (!line.startsWith("#")) {
+                    count++;
+                }
+            }
+        }
+        return new TrieDictionary(TestDictionaries.fromWordList(new StringReader(words.toString())));
+    }
+
+    @Test
+    public void shippedListIsBigEnoughToReplaceWords() throws IOException {
+        TrieDictionary dictionary = wordList(Integer.MAX_VALUE);
+        assertTrue(dictionary.getWordCount() + " words", dictionary.getWordCount() >= Autocorrector.MIN_DICTIONARY_WORDS);
+        Autocorrector corrector = new Autocorrector(dictionary);
+        assertEquals("this", corrector.correct("thsi", NO_LIMIT));
+        assertTrue(corrector.isConfident());
+        assertEquals("they", corrector.correct("theu", NO_LIMIT));
+        assertTrue(corrector.isConfident());
+        assertEquals("because", corrector.correct("becuase", NO_LIMIT));
+        assertTrue(corrector.isConfident());
+    }
+
+    @Test
+    public void commonWordsAreInTheList() throws IOException {
+        TrieDictionary dictionary = wordList(Integer.MAX_VALUE);
+        //the Predictor only corrects words the dictionary doesn't know
+        for (String word : new String[]{"dog", "cat", "coffee", "lunch", "nope", "bus", "dinner", "tomorrow's", "happily"}) {
+            assertTrue(word, dictionary.getFrequency(word) > 0);
+        }
+    }
+
+    @Test
+    public void smallListOnlySuggests() throws IOException {
+        Autocorrector corrector = new Autocorrector(wordList(1000));
+        assertEquals("this", corrector.correct("thsi", NO_LIMIT));
+        assertFalse(corrector.isConfident());
+        assertEquals("the", mCorrector.correct("teh", NO_LIMIT));
+        assertFalse(mCorrector.isConfident());
+    }
+
+    @Test
+    public void correctsMostOfTypoCorpus() throws IOException {
+        Autocorrector corrector = new Autocorrector(wordList(Integer.MAX_VALUE));
+        int right = 0;
+        int total = 0;
+        for (String[] typo : AutocorrectBenchmark.readTypos()) {
+            if (typo[1].equals(corrector.correct(typo[0], NO_LIMIT))) {
+                right++;
+            }
+            total++;
+        }
+        assertTrue(right + " of " + total, right >= total * 9 / 10);
+    }
+
+    @Test
+    public void neighboursFollowTitanRows() {
+        assertTrue(KeyProximity.isNear('g', 'b')); //b sits under h and g, past the space bar
+        assertTrue(KeyProximity.isNear('q', 'a'));
+        assertFalse(KeyProximity.isNear('v', 'b'));
+        assertFalse(KeyProximity.isNear('a', 'l'));
+    }
+}
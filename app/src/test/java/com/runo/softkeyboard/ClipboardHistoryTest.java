@@ -0,0 +1,106 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+
+public class ClipboardHistoryTest {
+
+    private static String longText(char c, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) (c + i % 7));
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void mostRecentFirstWithoutDuplicates() {
+        ClipboardHistory history = new ClipboardHistory(CharBuffer.allocate(0));
+        assertTrue(history.add("one"));
+        assertTrue(history.add("two"));
+        assertTrue(history.add("one"));
+        assertEquals(2, history.size());
+        assertEquals("one", history.getText(0));
+        history.use(1);
+        assertEquals("two", history.getText(0));
+        assertFalse(history.add(""));
+    }
+
+    @Test
+    public void longClipsGoToStoreWithPreviewOnHeap() {
+        ClipboardHistory history = new ClipboardHistory(CharBuffer.allocate(4096));
+        String text = "first line\n" + longText('a', 1000);
+        assertTrue(history.add(text));
+        assertEquals(text, history.getText(0));
+        assertEquals("first line\u2026", history.getPreview(0));
+        assertEquals(1011, history.getStoredChars());
+        assertEquals(history.getPreview(0).length(), history.getHeapChars());
+        assertTrue(history.add(new StringBuilder(text))); //same text again, from the store
+        assertEquals(1, history.size());
+    }
+
+    @Test
+    public void tooLongForStoreIsRefused() {
+        ClipboardHistory history = new ClipboardHistory(CharBuffer.allocate(100));
+        assertTrue(history.add(longText('a', ClipboardHistory.INLINE_CHARS)));
+        assertFalse(history.add(longText('a', ClipboardHistory.INLINE_CHARS + 1)));
+        assertEquals(1, history.size());
+    }
+
+    @Test
+    public void storeIsCompactedBeforeClipsAreDropped() {
+        ClipboardHistory history = new ClipboardHistory(CharBuffer.allocate(3000));
+        String a = longText('a', 1000);
+        String b = longText('k', 1000);
+        String c = longText('u', 1000);
+        history.add(a);
+        history.add(b);
+        history.add(c);
+        history.remove(2); //a, leaving a hole at the start
+        String d = longText('A', 1000);
+        history.add(d);
+        assertEquals(3, history.size());
+        assertEquals(d, history.getText(0));
+        assertEquals(c, history.getText(1));
+        assertEquals(b, history.getText(2));
+        String e = longText('K', 2000);
+        history.add(e); //only room once b and c, the oldest, are gone
+        assertEquals(2, history.size());
+        assertEquals(e, history.getText(0));
+        assertEquals(d, history.getText(1));
+        assertEquals(3000, history.getStoredChars());
+    }
+
+    @Test
+    public void heapBudgetDropsLeastRecentlyUsed() {
+        ClipboardHistory history = new ClipboardHistory(CharBuffer.allocate(0));
+        int clips = ClipboardHistory.MAX_HEAP_CHARS / ClipboardHistory.INLINE_CHARS;
+        String[] texts = new String[clips];
+        for (int i = 0; i < clips; i++) {
+            texts[i] = longText((char) ('A' + i), ClipboardHistory.INLINE_CHARS);
+            history.add(texts[i]);
+        }
+        assertEquals(clips, history.size());
+        assertEquals(ClipboardHistory.MAX_HEAP_CHARS, history.getHeapChars());
+        history.use(clips - 1); //the oldest, pasted again
+        history.add("one more");
+        assertEquals(clips, history.size());
+        assertEquals(texts[0], history.getText(1));
+        assertEquals(texts[2], history.getText(clips - 1)); //texts[1] went
+    }
+
+    @Test
+    public void clipCountIsBounded() {
+        ClipboardHistory history = new ClipboardHistory(CharBuffer.allocate(0));
+        for (int i = 0; i < 2 * ClipboardHistory.MAX_CLIPS; i++) {
+            history.add("clip " + i);
+        }
+        assertEquals(ClipboardHistory.MAX_CLIPS, history.size());
+        assertEquals("clip " + ClipboardHistory.MAX_CLIPS, history.getText(ClipboardHistory.MAX_CLIPS - 1));
+    }
+}
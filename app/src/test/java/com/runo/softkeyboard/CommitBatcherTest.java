@@ -0,0 +1,184 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class CommitBatcherTest {
+
+    /** Every call made on the connections, with its arguments. */
+    private final List<String> mCalls = new ArrayList<>();
+    private final InputConnection mConnection = new RecordingConnection("a", mCalls).get();
+    private final InputConnection mOther = new RecordingConnection("b", mCalls).get();
+    private int mScheduled;
+
+    private final LatencyStats mStats = new LatencyStats();
+    private final CommitBatcher mOutput = new CommitBatcher(() -> mScheduled++,
+            mStats, new EditorShadow(), new Macro());
+
+    /** The calls made so far without their arguments. */
+    private List<String> methods() {
+        List<String> methods = new ArrayList<>();
+        for (String call : mCalls) {
+            int args = call.indexOf('[');
+            methods.add(args < 0 ? call : call.substring(0, args));
+        }
+        return methods;
+    }
+
+    private int indexOfFirst(String prefix) {
+        for (int i = 0; i < mCalls.size(); i++) {
+            if (mCalls.get(i).startsWith(prefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void lastSelectionInAFrameWins() {
+        mOutput.setSelection(mConnection, 3, 3);
+        mOutput.setSelection(mConnection, 4, 4);
+        mOutput.setSelection(mConnection, 2, 5);
+        assertEquals(0, mCalls.size());
+        assertEquals(1, mScheduled);
+        mOutput.onFrame();
+        assertEquals(Arrays.asList("a.setSelection[2, 5]"), mCalls);
+    }
+
+    @Test
+    public void textAfterASelectionGoesInTheSameFlush() {
+        mOutput.setSelection(mConnection, 3, 3);
+        mOutput.commit(mConnection, 'h');
+        mOutput.commit(mConnection, "i!");
+        assertEquals(0, mCalls.size());
+        mOutput.onFrame();
+        assertEquals(Arrays.asList("a.setSelection[3, 3]", "a.commitText[hi!, 1]"), mCalls);
+    }
+
+    @Test
+    public void selectionAfterTextSendsTheText() {
+        mOutput.commit(mConnection, 'h');
+        mOutput.setSelection(mConnection, 0, 0);
+        assertEquals(Arrays.asList("a.commitText[h, 1]"), mCalls);
+        mOutput.onFrame();
+        assertEquals(Arrays.asList("a.commitText[h, 1]", "a.setSelection[0, 0]"), mCalls);
+    }
+
+    @Test
+    public void anotherConnectionFlushes() {
+        mOutput.setSelection(mConnection, 3, 3);
+        mOutput.setSelection(mOther, 1, 1);
+        assertEquals(Arrays.asList("a.setSelection[3, 3]"), mCalls);
+        mOutput.onFrame();
+        assertEquals(Arrays.asList("a.setSelection[3, 3]", "b.setSelection[1, 1]"), mCalls);
+    }
+
+    @Test
+    public void keyEventsAfterTextGoInOneBatchEdit() {
+        mOutput.commit(mConnection, 'h');
+        mOutput.commit(mConnection, 'i');
+        mOutput.sendKeyEvents(mConnection, new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_LEFT),
+                new KeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DPAD_LEFT));
+        assertEquals(Arrays.asList("a.beginBatchEdit", "a.commitText", "a.sendKeyEvent", "a.sendKeyEvent",
+                "a.endBatchEdit"), methods());
+        assertEquals("a.commitText[hi, 1]", mCalls.get(1));
+        mOutput.onFrame();
+        assertEquals(5, mCalls.size());
+    }
+
+    @Test
+    public void keyEventsWithNothingQueuedAreNotBatched() {
+        mOutput.sendKeyEvents(mConnection, new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_LEFT),
+                new KeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DPAD_LEFT));
+        assertEquals(Arrays.asList("a.sendKeyEvent", "a.sendKeyEvent"), methods());
+    }
+
+    @Test
+    public void textForAnotherConnectionFlushes() {
+        mOutput.commit(mConnection, "x");
+        mOutput.commit(mOther, "y");
+        assertEquals(Arrays.asList("a.commitText[x, 1]"), mCalls);
+        mOutput.onFrame();
+        assertEquals(Arrays.asList("a.commitText[x, 1]", "b.commitText[y, 1]"), mCalls);
+    }
+
+    @Test
+    public void countsTheCommitTextCallsSaved() {
+        for (char c : "hello".toCharArray()) {
+            mOutput.commit(mConnection, c);
+        }
+        mOutput.onFrame();
+        mOutput.commit(mConnection, ' ');
+        mOutput.commit(mConnection, "world");
+        mOutput.onFrame();
+        mOutput.onFrame(); //nothing queued, no call
+        assertEquals(Arrays.asList("a.commitText[hello, 1]", "a.commitText[ world, 1]"), mCalls);
+        StringBuilder dump = new StringBuilder();
+        mStats.dump(dump);
+        assertTrue(dump.toString(), dump.toString().startsWith("commits=7 commitText calls=2 saved=5\n"));
+    }
+
+    @Test
+    public void keyLatencyIsRecordedWhenTheTextIsSent() {
+        long keyTime = System.nanoTime() / 1000000L - 20;
+        mOutput.setKeyTime(LatencyStats.PATH_COMMIT, keyTime);
+        mOutput.commit(mConnection, 'h');
+        mOutput.setKeyTime(LatencyStats.PATH_COMMIT, keyTime + 10); //the older key is the one timed
+        mOutput.commit(mConnection, 'i');
+        mOutput.setKeyTime(0, CommitQueue.NO_KEY_TIME);
+        LatencyHistogram commits = mStats.getAll(LatencyStats.PATH_COMMIT);
+        assertEquals(0, commits.count());
+        mOutput.onFrame();
+        assertEquals(1, commits.count());
+        assertTrue(commits.max() >= 20000);
+        mOutput.commit(mConnection, "!"); //not from a key
+        mOutput.onFrame();
+        assertEquals(1, commits.count());
+    }
+
+    @Test
+    public void editorActionSendsTheTypedTextFirst() {
+        RecordingConnection editor = new RecordingConnection("a", mCalls);
+        EditorInfo info = TestKeyboards.textField();
+        info.imeOptions = EditorInfo.IME_ACTION_GO;
+        SoftKeyboard keyboard = TestKeyboards.start(editor.get(), info);
+        mCalls.clear();
+        TestKeyboards.type(keyboard, "hi");
+        keyboard.onKey(LatinKeyboardView.KEYCODE_EDITOR_ACTION, new int[]{LatinKeyboardView.KEYCODE_EDITOR_ACTION});
+        int action = indexOfFirst("a.performEditorAction");
+        assertTrue(mCalls.toString(), action >= 0);
+        assertTrue(mCalls.toString(), indexOfFirst("a.commitText") >= 0 && indexOfFirst("a.commitText") < action);
+        assertEquals("hi", editor.getCommitted());
+    }
+
+    @Test
+    public void anotherEditorGetsTheTypedTextAfterTheFirst() {
+        RecordingConnection first = new RecordingConnection("a", mCalls);
+        RecordingConnection second = new RecordingConnection("b", mCalls);
+        SoftKeyboard keyboard = TestKeyboards.start(first.get());
+        mCalls.clear();
+        TestKeyboards.type(keyboard, "hi");
+        TestKeyboards.startInput(keyboard, second.get(), TestKeyboards.textField());
+        TestKeyboards.type(keyboard, "yo");
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS); //a frame
+        int firstCommit = indexOfFirst("a.commitText");
+        assertTrue(mCalls.toString(), firstCommit >= 0 && firstCommit < indexOfFirst("b."));
+        assertEquals("hi", first.getCommitted());
+        assertEquals("yo", second.getCommitted());
+    }
+}
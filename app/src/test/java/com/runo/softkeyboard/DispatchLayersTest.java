@@ -0,0 +1,42 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DispatchLayersTest {
+
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void mirrorsTheKeyboardLayers() {
+        assertEquals(KeyboardLayers.QWERTY, DispatchLayers.QWERTY);
+        assertEquals(KeyboardLayers.SYMBOLS, DispatchLayers.SYMBOLS);
+        assertEquals(KeyboardLayers.SYMBOLS_SHIFT, DispatchLayers.SYMBOLS_SHIFT);
+        assertEquals(KeyboardLayers.NUMERIC, DispatchLayers.NUMERIC);
+    }
+
+    @Test
+    public void locksPickTheQwertyLayer() {
+        ModifierStateMachine modifiers = new ModifierStateMachine();
+        assertEquals(KeyDispatchTable.LAYER_QWERTY, DispatchLayers.getLayer(DispatchLayers.QWERTY, modifiers));
+        modifiers.onShiftUp(START);
+        modifiers.onShiftUp(START + 200);
+        assertEquals(KeyDispatchTable.LAYER_QWERTY_SHIFT_LOCK, DispatchLayers.getLayer(DispatchLayers.QWERTY, modifiers));
+        modifiers.onAltUp(START + 1000); //unlocks shift
+        modifiers.onAltUp(START + 2000);
+        modifiers.onAltUp(START + 2200);
+        assertEquals(KeyDispatchTable.LAYER_QWERTY_ALT_LOCK, DispatchLayers.getLayer(DispatchLayers.QWERTY, modifiers));
+        //the other keyboards don't go by the locks
+        assertEquals(KeyDispatchTable.LAYER_SYMBOLS, DispatchLayers.getLayer(DispatchLayers.SYMBOLS_SHIFT, modifiers));
+        assertEquals(KeyDispatchTable.LAYER_NUMERIC, DispatchLayers.getLayer(DispatchLayers.NUMERIC, modifiers));
+        assertEquals(KeyDispatchTable.LAYER_NONE, DispatchLayers.getLayer(DispatchLayers.NO_KEYBOARD, modifiers));
+    }
+
+    @Test
+    public void modifiersAreTheTablesBits() {
+        assertEquals(0, DispatchLayers.getModifiers(false, false, false));
+        assertEquals(KeyDispatchTable.MOD_ALT | KeyDispatchTable.MOD_CTRL, DispatchLayers.getModifiers(true, false, true));
+        assertEquals(KeyDispatchTable.MOD_SHIFT, DispatchLayers.getModifiers(false, true, false));
+    }
+}
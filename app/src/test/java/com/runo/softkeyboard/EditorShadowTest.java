@@ -0,0 +1,178 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EditorShadowTest {
+
+    private final EditorShadow mShadow = new EditorShadow();
+
+    @Test
+    public void findsWordBoundariesAroundCursor() {
+        mShadow.seed("foo bar", null, " baz", 7, 7, 100);
+        assertEquals(4, mShadow.findWordBoundary(-1));
+        assertEquals(11, mShadow.findWordBoundary(1));
+    }
+
+    @Test
+    public void followsCommitsAndDeletes() {
+        mShadow.seed("foo", null, "", 3, 3, 100);
+        mShadow.commitText(" bar");
+        assertEquals(7, mShadow.getFocus());
+        assertEquals(4, mShadow.findWordBoundary(-1));
+        mShadow.deleteSurroundingText(3, 0);
+        assertEquals(4, mShadow.getFocus());
+        assertEquals(0, mShadow.findWordBoundary(-1));
+        assertEquals(4, mShadow.findWordBoundary(1));
+    }
+
+    @Test
+    public void selectionKeepsAnchor() {
+        mShadow.seed("one ", "two", " three", 4, 7, 100);
+        assertEquals(4, mShadow.getAnchor());
+        mShadow.setSelection(4, 13);
+        assertEquals(4, mShadow.getSelectionStart());
+        assertEquals(13, mShadow.getSelectionEnd());
+        mShadow.commitText("x");
+        assertEquals(5, mShadow.getFocus());
+        assertEquals(5, mShadow.getAnchor());
+    }
+
+    @Test
+    public void ownSelectionUpdatesKeepCopy() {
+        mShadow.seed("abc", null, "", 3, 3, 100);
+        mShadow.commitText("d");
+        mShadow.commitText("e");
+        assertTrue(mShadow.onUpdateSelection(4, 4));
+        assertTrue(mShadow.onUpdateSelection(5, 5));
+        assertTrue(mShadow.isValid());
+    }
+
+    @Test
+    public void foreignSelectionUpdateDropsCopy() {
+        mShadow.seed("abc", null, "", 3, 3, 100);
+        assertFalse(mShadow.onUpdateSelection(1, 1));
+        assertFalse(mShadow.isValid());
+        assertEquals(EditorShadow.UNKNOWN, mShadow.findWordBoundary(-1));
+        assertEquals(1, mShadow.getReportedStart());
+        mShadow.setSelection(0, 0);
+        assertFalse(mShadow.isValid());
+    }
+
+    @Test
+    public void wordBeforeCursor() {
+        mShadow.seed("I don't kn", null, "ow", 10, 10, 100);
+        assertEquals("kn", mShadow.getWordBeforeCursor());
+        mShadow.commitText(" ");
+        assertEquals("", mShadow.getWordBeforeCursor());
+        mShadow.seed("abc", null, "", 10, 10, 3);
+        assertEquals(null, mShadow.getWordBeforeCursor()); //may start before the window
+        mShadow.seed("a ", "b", "", 2, 3, 100);
+        assertEquals(null, mShadow.getWordBeforeCursor());
+    }
+
+    @Test
+    public void previousWordNeedsSingleSpace() {
+        mShadow.seed("good morn", null, "", 9, 9, 100);
+        assertEquals("good", mShadow.getPreviousWord());
+        mShadow.seed("good, morn", null, "", 10, 10, 100);
+        assertEquals(null, mShadow.getPreviousWord());
+        mShadow.seed("morn", null, "", 4, 4, 100);
+        assertEquals(null, mShadow.getPreviousWord());
+    }
+
+    @Test
+    public void textBeforeCursor() {
+        mShadow.seed("teh", null, "", 3, 3, 100);
+        mShadow.deleteSurroundingText(3, 0);
+        mShadow.commitText("the ");
+        assertTrue(mShadow.isBeforeCursor("the "));
+        assertFalse(mShadow.isBeforeCursor("teh "));
+        assertFalse(mShadow.isBeforeCursor("x the "));
+    }
+
+    @Test
+    public void boundaryPastWindowIsUnknown() {
+        // a full window before the cursor means the document may go on
+        mShadow.seed("aaaa", null, "", 10, 10, 4);
+        assertEquals(EditorShadow.UNKNOWN, mShadow.findWordBoundary(-1));
+        mShadow.seed("aaaa", null, "", 4, 4, 4);
+        assertEquals(0, mShadow.findWordBoundary(-1));
+    }
+
+    @Test
+    public void surroundingTextHasItsOwnOffsets() {
+        //the editor reported 2, then the app moved the cursor to 11 before the sync
+        mShadow.reset(2, 2);
+        mShadow.seedSurrounding("one two three", 0, 11, 11, EditorShadow.WINDOW);
+        assertEquals(11, mShadow.getFocus());
+        assertEquals("thr", mShadow.getWordBeforeCursor());
+        assertEquals(13, mShadow.findWordBoundary(1));
+        assertEquals(11, mShadow.getReportedStart());
+        //text starting further into the document
+        mShadow.seedSurrounding("two three", 100, 4, 3, EditorShadow.WINDOW);
+        assertEquals(104, mShadow.getAnchor());
+        assertEquals(103, mShadow.getFocus());
+        assertEquals(EditorShadow.UNKNOWN, mShadow.findWordBoundary(-1));
+        //as much text after as asked for, the document may go on
+        mShadow.seedSurrounding("one two", 0, 3, 3, 4);
+        assertEquals(EditorShadow.UNKNOWN, mShadow.findWordBoundary(1));
+    }
+
+    @Test
+    public void surroundingTextIsCutToTheWindow() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < EditorShadow.WINDOW; i++) {
+            text.append("ab ");
+        }
+        int cursor = text.length() / 2;
+        mShadow.seedSurrounding(text, 0, cursor, cursor, EditorShadow.WINDOW);
+        assertEquals(cursor, mShadow.getFocus());
+        mShadow.setSelection(0, text.length());
+        assertEquals(cursor - EditorShadow.WINDOW, mShadow.getSelectionStart()); //clamped to the copy
+        assertEquals(cursor + EditorShadow.WINDOW, mShadow.getSelectionEnd());
+        mShadow.seedSurrounding("ab", 0, 2, 2, EditorShadow.WINDOW);
+        assertEquals(0, mShadow.findWordBoundary(-1));
+        assertEquals(2, mShadow.findWordBoundary(1));
+    }
+
+    @Test
+    public void followsTypingPassedThrough() {
+        mShadow.seed("good morn", null, "", 9, 9, 100);
+        mShadow.typeChar('i');
+        mShadow.typeChar('n');
+        assertEquals("mornin", mShadow.getWordBeforeCursor());
+        assertTrue(mShadow.onUpdateSelection(10, 10));
+        assertTrue(mShadow.onUpdateSelection(11, 11));
+        mShadow.backspace();
+        assertEquals("morni", mShadow.getWordBeforeCursor());
+        assertTrue(mShadow.onUpdateSelection(10, 10));
+        mShadow.setSelection(5, 10);
+        mShadow.typeChar('e');
+        assertTrue(mShadow.isBeforeCursor("good e"));
+        mShadow.setSelection(0, 4);
+        mShadow.backspace();
+        assertEquals(0, mShadow.getFocus());
+        assertTrue(mShadow.isBeforeCursor(""));
+    }
+
+    @Test
+    public void backspaceOverMoreThanACharDropsCopy() {
+        mShadow.seed("hi \ud83d\ude42", null, "", 5, 5, 100);
+        mShadow.backspace();
+        assertFalse(mShadow.isValid());
+        mShadow.seed("cafe\u0301", null, "", 5, 5, 100);
+        mShadow.backspace();
+        assertFalse(mShadow.isValid());
+        mShadow.seed("abc", null, "", 10, 10, 3); //the copy starts at the cursor
+        mShadow.setSelection(7, 7);
+        mShadow.backspace();
+        assertFalse(mShadow.isValid());
+        mShadow.seed("", null, "abc", 0, 0, 100);
+        mShadow.backspace();
+        assertTrue(mShadow.isValid());
+    }
+}
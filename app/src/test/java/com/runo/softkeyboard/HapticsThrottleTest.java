@@ -0,0 +1,48 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HapticsThrottleTest {
+
+    private static final long REPEAT_INTERVAL_MS = 50; //KeyboardView's auto-repeat
+
+    private final HapticsThrottle mThrottle = new HapticsThrottle();
+
+    @Test
+    public void typingAtNormalSpeedIsNotThrottled() {
+        for (long time = 0; time < 10_000; time += 120) {
+            assertTrue(mThrottle.offer(HapticsThrottle.EFFECT_KEY, time, false));
+        }
+        assertEquals(0, mThrottle.getDropped());
+    }
+
+    @Test
+    public void autoRepeatIsThinnedOut() {
+        int sent = 0;
+        for (long time = 1000; time < 2000; time += REPEAT_INTERVAL_MS) {
+            if (mThrottle.offer(HapticsThrottle.EFFECT_KEY, time, false)) {
+                sent++;
+            }
+        }
+        assertEquals(10, sent);
+        assertEquals(10, mThrottle.getDropped());
+    }
+
+    @Test
+    public void queuedEffectIsNotSentAgain() {
+        assertFalse(mThrottle.offer(HapticsThrottle.EFFECT_DOUBLE, 0, true));
+        assertTrue(mThrottle.offer(HapticsThrottle.EFFECT_DOUBLE, 1, false));
+        assertEquals(1, mThrottle.getDropped());
+    }
+
+    @Test
+    public void notificationsIgnoreKeyInterval() {
+        assertTrue(mThrottle.offer(HapticsThrottle.EFFECT_KEY, 0, false));
+        assertTrue(mThrottle.offer(HapticsThrottle.EFFECT_SINGLE, 1, false));
+        assertTrue(mThrottle.offer(HapticsThrottle.EFFECT_SINGLE, 2, false));
+    }
+}
@@ -0,0 +1,138 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import android.view.KeyEvent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class KeyEventCacheTest {
+
+    private static final int KEYCODE_DPAD_UP = 19;
+    private static final int KEYCODE_DPAD_LEFT = 21;
+    private static final int KEYCODE_DPAD_RIGHT = 22;
+    private static final int KEYCODE_DPAD_CENTER = 23;
+    private static final int META_CTRL_ON = 0x1000;
+
+    private static final class FakeEvent {
+        final int action;
+        final int keyCode;
+        final int metaState;
+
+        FakeEvent(int action, int keyCode, int metaState) {
+            this.action = action;
+            this.keyCode = keyCode;
+            this.metaState = metaState;
+        }
+    }
+
+    private int mCreated;
+    private long mSink;
+
+    private final KeyEventCache<FakeEvent> mCache = new KeyEventCache<>((action, keyCode, metaState) -> {
+        mCreated++;
+        return new FakeEvent(action, keyCode, metaState);
+    });
+
+    @Test
+    public void reusesPairForSameCombination() {
+        int first = mCache.obtain(KEYCODE_DPAD_LEFT, META_CTRL_ON);
+        FakeEvent down = mCache.down(first);
+        FakeEvent up = mCache.up(first);
+        assertEquals(KeyEventCache.ACTION_DOWN, down.action);
+        assertEquals(KeyEventCache.ACTION_UP, up.action);
+        assertEquals(META_CTRL_ON, up.metaState);
+
+        int second = mCache.obtain(KEYCODE_DPAD_LEFT, META_CTRL_ON);
+        assertSame(down, mCache.down(second));
+        assertSame(up, mCache.up(second));
+        assertEquals(2, mCreated);
+    }
+
+    @Test
+    public void refusesWhatItCannotCache() {
+        assertEquals(-1, mCache.obtain(KEYCODE_DPAD_UP - 1, META_CTRL_ON));
+        assertEquals(-1, mCache.obtain(KEYCODE_DPAD_CENTER, META_CTRL_ON));
+        for (int meta = 0; meta < KeyEventCache.META_SLOTS; meta++) {
+            mCache.obtain(KEYCODE_DPAD_LEFT, meta);
+        }
+        assertEquals(-1, mCache.obtain(KEYCODE_DPAD_LEFT, 0x8000));
+    }
+
+    @Test
+    public void repeatedObtainsDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+
+        obtainArrows(10_000); //warm up, creates the pairs and lets the JIT settle
+        int created = mCreated;
+        long before = threads.getThreadAllocatedBytes(thread);
+        obtainArrows(100_000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(created, mCreated);
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void repeatedArrowPressesDoNotAllocate() {
+        //an editor that doesn't report its text, so ctrl+arrows go to it as keys
+        RecordingConnection editor = new RecordingConnection();
+        SoftKeyboard keyboard = TestKeyboards.start(editor.get());
+        keyboard.onKeyDown(KeyEvent.KEYCODE_CTRL_LEFT, new KeyEvent(0, 0, KeyEvent.ACTION_DOWN,
+                KeyEvent.KEYCODE_CTRL_LEFT, 0, KeyEvent.META_CTRL_ON));
+        int[] left = {LatinKeyboardView.KEYCODE_LEFT};
+        int[] right = {LatinKeyboardView.KEYCODE_RIGHT};
+        for (int i = 0; i < 50; i++) {
+            keyboard.onKey(left[0], left);
+            keyboard.onKey(right[0], right);
+        }
+        List<KeyEvent> sent = editor.getKeyEvents();
+        assertEquals(200, sent.size());
+        assertEquals(KeyEvent.KEYCODE_DPAD_LEFT, sent.get(0).getKeyCode());
+        assertEquals(KeyEvent.META_CTRL_ON, sent.get(0).getMetaState() & KeyEvent.META_CTRL_ON);
+        assertEquals(KeyEvent.KEYCODE_DPAD_RIGHT, sent.get(2).getKeyCode());
+        for (int i = 4; i < sent.size(); i++) {
+            assertSame(sent.get(i - 4), sent.get(i)); //the same four events each time round
+        }
+    }
+
+    @Test
+    public void plainArrowsAreNotShared() {
+        RecordingConnection editor = new RecordingConnection();
+        SoftKeyboard keyboard = TestKeyboards.start(editor.get());
+        int[] left = {LatinKeyboardView.KEYCODE_LEFT};
+        keyboard.onKey(left[0], left);
+        keyboard.onKey(left[0], left);
+        List<KeyEvent> sent = editor.getKeyEvents();
+        assertEquals(4, sent.size());
+        assertEquals(0, sent.get(0).getMetaState() & KeyEvent.META_CTRL_ON);
+        assertNotEquals(0, sent.get(0).getDownTime());
+        assertNotSame(sent.get(0), sent.get(2));
+    }
+
+    private void obtainArrows(int count) {
+        for (int i = 0; i < count; i++) {
+            int keyCode = (i & 1) == 0 ? KEYCODE_DPAD_LEFT : KEYCODE_DPAD_RIGHT;
+            int meta = (i & 2) == 0 ? META_CTRL_ON : META_CTRL_ON | 1;
+            int index = mCache.obtain(keyCode, meta);
+            mSink += mCache.down(index).keyCode + mCache.up(index).metaState;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threads : null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KeyEventLogTest {
+
+    @Test
+    public void keepsNewestRecordsWhenFull() {
+        KeyEventLog log = new KeyEventLog(4);
+        for (int i = 0; i < 10; i++) {
+            log.record(100 + i, KeyEventLog.KIND_KEY_DOWN, i, 0);
+        }
+        assertEquals(4, log.size());
+
+        StringBuilder out = new StringBuilder();
+        log.dump(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("-3ms down code=6"));
+        assertTrue(lines[3], lines[3].startsWith("0ms down code=9"));
+    }
+
+    @Test
+    public void clearEmptiesLog() {
+        KeyEventLog log = new KeyEventLog(4);
+        log.record(1, KeyEventLog.KIND_RESET, 0, 0);
+        log.clear();
+        StringBuilder out = new StringBuilder();
+        log.dump(out);
+        assertEquals(0, log.size());
+        assertEquals("", out.toString());
+    }
+}
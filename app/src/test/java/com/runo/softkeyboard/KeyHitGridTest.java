@@ -0,0 +1,136 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class KeyHitGridTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 138;
+    private static final int CANCEL_KEY = 2;
+
+    /** The qwerty.xml row at 1080px: left, tab, SYM, CTRL, right; SYM plays the shifted cancel key. */
+    private static final class Row implements KeyHitGrid.Keys {
+        final int[] mLeft = {0, 270, 432, 648, 810};
+        final int[] mWidth = {270, 162, 216, 162, 270};
+
+        @Override
+        public int count() {
+            return mLeft.length;
+        }
+
+        @Override
+        public int left(int key) {
+            return mLeft[key];
+        }
+
+        @Override
+        public int top(int key) {
+            return 0;
+        }
+
+        @Override
+        public int width(int key) {
+            return mWidth[key];
+        }
+
+        @Override
+        public int height(int key) {
+            return HEIGHT;
+        }
+
+        @Override
+        public boolean isInside(int key, int x, int y) {
+            if (key == CANCEL_KEY) {
+                y -= 10; //like LatinKey's cancel key
+            }
+            return x >= mLeft[key] && x < mLeft[key] + mWidth[key] && y >= 0 && y < HEIGHT;
+        }
+
+        int bruteForce(int x, int y) {
+            int found = KeyHitGrid.NO_KEY;
+            for (int key = 0; key < count(); key++) {
+                if (isInside(key, x, y)) {
+                    found = key;
+                }
+            }
+            return found;
+        }
+    }
+
+    private final Row mRow = new Row();
+    private final KeyHitGrid mGrid = new KeyHitGrid(mRow, WIDTH, HEIGHT);
+
+    @Test
+    public void agreesWithIsInsideAtEveryPixel() {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("at " + x + "," + y, mRow.bruteForce(x, y), mGrid.getKey(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void resolvesKeyEdgesExactly() {
+        //the left key ends at 270 in the middle of a cell, the tab key starts there
+        for (int x = 266; x < 270; x++) {
+            assertEquals("at " + x, 0, mGrid.getKey(x, HEIGHT / 2));
+        }
+        for (int x = 270; x < 274; x++) {
+            assertEquals("at " + x, 1, mGrid.getKey(x, HEIGHT / 2));
+        }
+        assertEquals(1, mGrid.getKey(431, 0));
+        assertEquals(KeyHitGrid.NO_KEY, mGrid.getKey(433, 0)); //above the shifted cancel key
+        assertEquals(4, mGrid.getKey(810, HEIGHT - 1));
+        assertEquals(3, mGrid.getKey(809, HEIGHT - 1));
+    }
+
+    @Test
+    public void cellsOnAnEdgeHoldBothKeys() {
+        assertArrayEquals(new int[]{0, 1}, mGrid.getCandidates(268, 70));
+        assertArrayEquals(new int[]{0, 1}, mGrid.getCandidates(269, 70));
+        assertArrayEquals(new int[]{1}, mGrid.getCandidates(300, 70));
+        assertSame(mGrid.getCandidates(300, 70), mGrid.getCandidates(420, 10));
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int[] candidates = mGrid.getCandidates(x, y);
+                assertTrue("at " + x + "," + y, candidates.length <= 4);
+                int key = mRow.bruteForce(x, y);
+                if (key != KeyHitGrid.NO_KEY) {
+                    assertTrue("at " + x + "," + y, Arrays.binarySearch(candidates, key) >= 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void resolvesKeyInteriorsExactly() {
+        for (int key = 0; key < mRow.count(); key++) {
+            for (int x = mRow.left(key) + KeyHitGrid.CELL_SIZE; x < mRow.left(key) + mRow.width(key) - KeyHitGrid.CELL_SIZE; x++) {
+                assertEquals(key, mGrid.getKey(x, HEIGHT / 2));
+            }
+        }
+    }
+
+    @Test
+    public void honoursShiftedTargetArea() {
+        int x = mRow.left(CANCEL_KEY) + mRow.width(CANCEL_KEY) / 2;
+        assertEquals(KeyHitGrid.NO_KEY, mGrid.getKey(x, 2));
+        assertEquals(CANCEL_KEY, mGrid.getKey(x, HEIGHT - 2));
+    }
+
+    @Test
+    public void leavesOutsideToCaller() {
+        assertTrue(mGrid.contains(0, 0));
+        assertFalse(mGrid.contains(-1, 10));
+        assertFalse(mGrid.contains(10, HEIGHT));
+        assertFalse(mGrid.contains(WIDTH, 10));
+    }
+}
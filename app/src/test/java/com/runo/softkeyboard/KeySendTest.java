@@ -0,0 +1,81 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
+import android.view.inputmethod.InputConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key events SoftKeyboard sends for hardware keys, as the editor gets them.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class KeySendTest {
+
+    private final List<KeyEvent> mSent = new ArrayList<>();
+    private SoftKeyboard mKeyboard;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        InputConnection editor = new BaseInputConnection(new View(context), true) {
+            @Override
+            public boolean sendKeyEvent(KeyEvent event) {
+                mSent.add(event);
+                return true;
+            }
+        };
+        mKeyboard = TestKeyboards.start(editor);
+    }
+
+    private void keyDown(long downTime, long eventTime, int keyCode, int repeatCount, int metaState) {
+        mKeyboard.onKeyDown(keyCode, new KeyEvent(downTime, eventTime, KeyEvent.ACTION_DOWN, keyCode,
+                repeatCount, metaState, 3, 46));
+    }
+
+    @Test
+    public void ctrlResendKeepsTheKeysTimes() {
+        keyDown(5000, 5000, KeyEvent.KEYCODE_CTRL_LEFT, 0, KeyEvent.META_CTRL_ON);
+        keyDown(5100, 5100, KeyEvent.KEYCODE_C, 0, 0);
+        keyDown(5100, 5650, KeyEvent.KEYCODE_C, 2, 0); //held
+        assertEquals(4, mSent.size());
+        KeyEvent down = mSent.get(2);
+        KeyEvent up = mSent.get(3);
+        assertEquals(KeyEvent.ACTION_DOWN, down.getAction());
+        assertEquals(KeyEvent.KEYCODE_C, down.getKeyCode());
+        assertEquals(KeyEvent.META_CTRL_ON, down.getMetaState());
+        assertEquals(5100, down.getDownTime());
+        assertEquals(5650, down.getEventTime());
+        assertEquals(2, down.getRepeatCount());
+        assertEquals(3, down.getDeviceId());
+        assertEquals(46, down.getScanCode());
+        assertEquals(KeyEvent.ACTION_UP, up.getAction());
+        assertEquals(5100, up.getDownTime());
+        assertEquals(0, mSent.get(0).getRepeatCount());
+    }
+
+    @Test
+    public void forwardDeleteIsTimedNow() {
+        long now = SystemClock.uptimeMillis();
+        keyDown(now, now, KeyEvent.KEYCODE_DEL, 0, KeyEvent.META_SHIFT_ON);
+        assertEquals(2, mSent.size());
+        for (KeyEvent event : mSent) {
+            assertEquals(KeyEvent.KEYCODE_FORWARD_DEL, event.getKeyCode());
+            assertEquals(now, event.getDownTime());
+            assertEquals(now, event.getEventTime());
+        }
+        assertEquals(KeyEvent.ACTION_UP, mSent.get(1).getAction());
+    }
+}
@@ -0,0 +1,40 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long value = 0; value < 1_000_000; value += 7) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value + " above bucket " + bucket, value <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value + " below bucket " + bucket, value > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesStayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 10L);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(10_000, histogram.max());
+        long p50 = histogram.percentile(50);
+        assertTrue(String.valueOf(p50), p50 >= 5000 && p50 <= 5000 * 1.25);
+        long p99 = histogram.percentile(99);
+        assertTrue(String.valueOf(p99), p99 >= 9900 && p99 <= 10_000);
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        assertEquals(0, new LatencyHistogram().percentile(99));
+    }
+}
@@ -0,0 +1,100 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+import android.inputmethodservice.Keyboard.Key;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class LatinKeyboardTest {
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+    }
+
+    /**
+     * Every key of a symbol layer that types something has its text in the
+     * table, the same instance on each read and the same as the XML loader's.
+     */
+    private void assertOutputs(CompiledLayout layout, int xml, int layer) {
+        LatinKeyboard compiled = new LatinKeyboard(mContext, layout, layer);
+        LatinKeyboard parsed = new LatinKeyboard(mContext, xml, layer);
+        List<Key> keys = compiled.getKeys();
+        assertEquals(parsed.getKeys().size(), keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            int code = keys.get(i).codes[0];
+            assertEquals(code, parsed.getKeys().get(i).codes[0]);
+            CharSequence output = compiled.getOutput(code);
+            if (code <= 0) {
+                assertNull("key " + i, output);
+                continue;
+            }
+            assertNotNull("key " + i, output);
+            assertSame("key " + i, output, compiled.getOutput(code));
+            assertSame("key " + i, output, parsed.getOutput(code));
+            String declared = ((LatinKeyboard.LatinKey) keys.get(i)).output;
+            assertEquals("key " + i, declared != null ? declared : new String(Character.toChars(code)), output.toString());
+        }
+    }
+
+    @Test
+    public void symbolsTypeTheirTable() {
+        assertOutputs(CompiledLayouts.SYMBOLS, R.xml.symbols, KeyboardLayers.SYMBOLS);
+    }
+
+    @Test
+    public void shiftedSymbolsTypeTheirTable() {
+        assertOutputs(CompiledLayouts.SYMBOLS_SHIFT, R.xml.symbols_shift, KeyboardLayers.SYMBOLS_SHIFT);
+    }
+
+    /**
+     * One row of keys 100px wide: a key typing "->" through app:output, a
+     * key with a code point above U+FFFF and an empty one.
+     */
+    private static CompiledLayout outputFixture() {
+        int[] header = {100, 50, 0, 0}; //px
+        int[] rows = {0, 3};
+        int[] keys = {
+                0xE000, 100, 0, 0, -1, 0, 32, 0, //KeyEvent.KEYCODE_D
+                0x1F642, 100, 0, 0, -1, 1, 52, -1, //KeyEvent.KEYCODE_X
+                -1, 100, 0, 0, -1, 2, -1, -1,
+        };
+        String[] labels = {"->", "\ud83d\ude42", " "};
+        return new CompiledLayout(header, rows, keys, labels, new int[0]);
+    }
+
+    @Test
+    public void outputsBeyondOneChar() {
+        LatinKeyboard keyboard = new LatinKeyboard(mContext, outputFixture(), KeyboardLayers.SYMBOLS);
+        assertEquals(3, keyboard.getKeys().size());
+        CharSequence smile = keyboard.getOutput(keyboard.getPhysicalKeyCode(52)); //KeyEvent.KEYCODE_X
+        assertEquals("\ud83d\ude42", smile.toString());
+        assertEquals(0x1F642, Character.codePointAt(smile, 0));
+        CharSequence arrow = keyboard.getOutput(keyboard.getPhysicalKeyCode(32)); //KeyEvent.KEYCODE_D
+        assertEquals("->", arrow.toString());
+        assertSame(arrow, keyboard.getOutput(0xE000));
+        assertNull(keyboard.getOutput(-1));
+        assertNull(keyboard.getOutput('a'));
+    }
+
+    @Test
+    public void layersShareTheirText() {
+        LatinKeyboard symbols = new LatinKeyboard(mContext, CompiledLayouts.SYMBOLS, KeyboardLayers.SYMBOLS);
+        LatinKeyboard shifted = new LatinKeyboard(mContext, CompiledLayouts.SYMBOLS_SHIFT, KeyboardLayers.SYMBOLS_SHIFT);
+        assertSame(symbols.getOutput('{'), shifted.getOutput('{'));
+    }
+}
@@ -0,0 +1,127 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.inputmethodservice.Keyboard.Key;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class LatinKeyboardViewTest {
+
+    private static final int WIDTH = 1080;
+
+    private Context mContext;
+    private LatinKeyboardView mView;
+    private LatinKeyboard mKeyboard;
+    private Canvas mCanvas;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        mView = (LatinKeyboardView) LayoutInflater.from(mContext).inflate(R.layout.input, null);
+        mKeyboard = new LatinKeyboard(mContext, CompiledLayouts.SYMBOLS, KeyboardLayers.SYMBOLS);
+        mView.setKeyboard(mKeyboard);
+        mView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        mView.layout(0, 0, WIDTH, mView.getMeasuredHeight());
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, mView.getMeasuredHeight(), Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void firstFrameDrawsEveryKey() {
+        assertEquals(mKeyboard.getKeys().size(), draw());
+        assertEquals(0, draw());
+    }
+
+    @Test
+    public void pressAndReleaseDrawOnlyThatKey() {
+        draw();
+        Key key = mKeyboard.getKeys().get(0);
+        key.onPressed();
+        mView.invalidateKey(0);
+        assertEquals(1, draw());
+        key.onReleased(true);
+        mView.invalidateKey(0);
+        assertEquals(1, draw());
+    }
+
+    @Test
+    public void ctrlStateChangeRepaintsCtrlKey() {
+        draw();
+        mKeyboard.setCtrlState(true);
+        mView.invalidateChangedKeys();
+        assertEquals(1, draw());
+        assertTrue(mKeyboard.isCtrlOn());
+        mKeyboard.setCtrlState(false);
+        mView.invalidateChangedKeys();
+        assertEquals(1, draw());
+    }
+
+    @Test
+    public void labelChangeRepaintsKey() {
+        draw();
+        List<Key> keys = mKeyboard.getKeys();
+        keys.get(3).label = "x";
+        keys.get(5).label = "y";
+        assertEquals(2, draw());
+    }
+
+    @Test
+    public void switchingKeyboardDrawsEveryKey() {
+        draw();
+        LatinKeyboard other = new LatinKeyboard(mContext, CompiledLayouts.QWERTY, KeyboardLayers.QWERTY);
+        mView.setKeyboard(other);
+        assertEquals(other.getKeys().size(), draw());
+    }
+
+    @Test
+    public void switchingBackSwapsInSnapshot() {
+        draw();
+        LatinKeyboard other = new LatinKeyboard(mContext, CompiledLayouts.QWERTY, KeyboardLayers.QWERTY);
+        mView.setKeyboard(other);
+        draw();
+        mView.setKeyboard(mKeyboard);
+        assertEquals(0, draw());
+        mView.setKeyboard(other);
+        mKeyboard.getKeys().get(0).onPressed(); //changed while the other keyboard showed
+        mView.setKeyboard(mKeyboard);
+        assertEquals(1, draw());
+    }
+
+    @Test
+    public void releasedSnapshotsAreDrawnAgain() {
+        draw();
+        LatinKeyboard other = new LatinKeyboard(mContext, CompiledLayouts.QWERTY, KeyboardLayers.QWERTY);
+        mView.setKeyboard(other);
+        draw();
+        long both = LatinKeyboardView.getSnapshotBytes();
+        mView.releaseSnapshots(true);
+        long one = LatinKeyboardView.getSnapshotBytes();
+        assertTrue(one < both);
+        assertEquals(0, draw());
+        mView.releaseSnapshots(false);
+        assertTrue(LatinKeyboardView.getSnapshotBytes() < one);
+        assertEquals(other.getKeys().size(), draw());
+        mView.setKeyboard(mKeyboard);
+        assertEquals(mKeyboard.getKeys().size(), draw());
+    }
+
+    private int draw() {
+        long before = mView.getKeysDrawn();
+        mView.draw(mCanvas);
+        return (int) (mView.getKeysDrawn() - before);
+    }
+}
@@ -0,0 +1,113 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.view.KeyEvent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class MacroTest {
+
+    private final RecordingConnection mConnection = new RecordingConnection();
+
+    private final Macro mMacro = new Macro();
+
+    private static KeyEvent[] key(int keyCode, int metaState) {
+        return new KeyEvent[]{
+                new KeyEvent(0, 0, KeyEvent.ACTION_DOWN, keyCode, 0, metaState),
+                new KeyEvent(0, 0, KeyEvent.ACTION_UP, keyCode, 0, metaState)};
+    }
+
+    private void recordKey(int keyCode, int metaState) {
+        KeyEvent[] events = key(keyCode, metaState);
+        mMacro.recordKeyEvents(events[0], events[1]);
+    }
+
+    @Test
+    public void thousandActionsInFewIpcs() {
+        mMacro.start();
+        StringBuilder typed = new StringBuilder();
+        int keys = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 99) {
+                recordKey(KeyEvent.KEYCODE_S, KeyEvent.META_CTRL_ON);
+                keys++;
+            } else {
+                mMacro.recordCodePoint('a' + i % 26);
+                typed.append((char) ('a' + i % 26));
+            }
+        }
+        mMacro.stop();
+        mMacro.play(mConnection.get());
+        List<String> calls = mConnection.getCalls();
+        assertEquals("beginBatchEdit", calls.get(0));
+        assertEquals("endBatchEdit", calls.get(calls.size() - 1));
+        assertEquals(keys, mConnection.count("commitText"));
+        assertEquals(2 * keys, mConnection.count("sendKeyEvent"));
+        assertEquals(2 + 3 * keys, calls.size());
+        assertEquals(typed.toString(), mConnection.getCommitted());
+    }
+
+    @Test
+    public void backspaceAfterTextTakesItBack() {
+        mMacro.start();
+        mMacro.recordText("helo");
+        recordKey(KeyEvent.KEYCODE_DEL, 0);
+        mMacro.recordText("lo");
+        mMacro.recordCodePoint(0x1F600);
+        recordKey(KeyEvent.KEYCODE_DEL, 0);
+        assertEquals(1, mMacro.getStepCount());
+        mMacro.recordText("!");
+        mMacro.play(mConnection.get());
+        assertEquals("hello!", mConnection.getCommitted());
+    }
+
+    @Test
+    public void backspaceWithoutTextBeforeIsAKey() {
+        mMacro.start();
+        mMacro.recordText("a");
+        recordKey(KeyEvent.KEYCODE_DEL, 0);
+        recordKey(KeyEvent.KEYCODE_DEL, 0); //the step of "a" went, this one reaches the editor
+        mMacro.recordDelete(2, 0);
+        mMacro.recordEditorAction(3);
+        mMacro.play(mConnection.get());
+        assertEquals(1, mConnection.count("sendKeyEvent") / 2);
+        assertEquals(1, mConnection.count("deleteSurroundingText"));
+        assertEquals(1, mConnection.count("performEditorAction"));
+        assertEquals(0, mConnection.count("commitText"));
+    }
+
+    @Test
+    public void recordsOnlyWhileRecording() {
+        mMacro.recordText("before");
+        mMacro.start();
+        mMacro.recordText("during");
+        mMacro.stop();
+        assertFalse(mMacro.isRecording());
+        mMacro.recordText("after");
+        mMacro.play(mConnection.get());
+        assertEquals("during", mConnection.getCommitted());
+        mMacro.start(); //a new macro replaces the old one
+        assertTrue(mMacro.isRecording());
+        assertEquals(0, mMacro.getStepCount());
+    }
+
+    @Test
+    public void fullMacroStopsRecording() {
+        mMacro.start();
+        for (int i = 0; i < Macro.MAX_STEPS; i++) {
+            mMacro.recordDelete(1, 0);
+        }
+        assertTrue(mMacro.isRecording());
+        mMacro.recordDelete(1, 0);
+        assertFalse(mMacro.isRecording());
+        assertEquals(Macro.MAX_STEPS, mMacro.getStepCount());
+    }
+}
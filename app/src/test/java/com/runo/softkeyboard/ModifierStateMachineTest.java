@@ -0,0 +1,138 @@
+package com.runo.softkeyboard;
+
+import static com.runo.softkeyboard.ModifierStateMachine.CMD_CLEAR_ALT_META;
+import static com.runo.softkeyboard.ModifierStateMachine.CMD_CONSUMED;
+import static com.runo.softkeyboard.ModifierStateMachine.CMD_HIDE_ICON;
+import static com.runo.softkeyboard.ModifierStateMachine.CMD_SHOW_ALT_ICON;
+import static com.runo.softkeyboard.ModifierStateMachine.CMD_SHOW_SHIFT_ICON;
+import static com.runo.softkeyboard.ModifierStateMachine.CMD_VIBRATE_DOUBLE;
+import static com.runo.softkeyboard.ModifierStateMachine.CMD_VIBRATE_SINGLE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ModifierStateMachineTest {
+
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void doubleTapAltLocks() {
+        ModifierStateMachine modifiers = new ModifierStateMachine();
+        assertEquals(0, modifiers.onAltUp(START) & CMD_CONSUMED);
+        int commands = modifiers.onAltUp(START + 200);
+        assertTrue(modifiers.isAltLocked());
+        assertEquals(CMD_SHOW_ALT_ICON | CMD_VIBRATE_DOUBLE | CMD_CONSUMED,
+                commands & (CMD_SHOW_ALT_ICON | CMD_VIBRATE_DOUBLE | CMD_CONSUMED));
+    }
+
+    @Test
+    public void slowTapsDoNotLock() {
+        ModifierStateMachine modifiers = new ModifierStateMachine();
+        modifiers.onShiftUp(START);
+        modifiers.onShiftUp(START + ModifierStateMachine.DOUBLE_TAP_WINDOW_MS);
+        assertFalse(modifiers.isShiftLocked());
+    }
+
+    @Test
+    public void tapInsideGuardKeepsLock() {
+        ModifierStateMachine modifiers = new ModifierStateMachine();
+        modifiers.onShiftUp(START);
+        modifiers.onShiftUp(START + 100);
+        int commands = modifiers.onShiftUp(START + 250);
+        assertTrue(modifiers.isShiftLocked());
+        assertEquals(CMD_CONSUMED, commands & (CMD_CONSUMED | CMD_HIDE_ICON));
+
+        commands = modifiers.onShiftUp(START + 1000);
+        assertFalse(modifiers.isShiftLocked());
+        assertEquals(CMD_HIDE_ICON | CMD_VIBRATE_SINGLE | CMD_CONSUMED,
+                commands & (CMD_HIDE_ICON | CMD_VIBRATE_SINGLE | CMD_CONSUMED));
+    }
+
+    @Test
+    public void otherModifierDropsLock() {
+        ModifierStateMachine modifiers = new ModifierStateMachine();
+        modifiers.onAltUp(START);
+        modifiers.onAltUp(START + 100);
+        int commands = modifiers.onShiftUp(START + 150);
+        assertFalse(modifiers.isAltLocked());
+        assertFalse(modifiers.isShiftLocked());
+        assertEquals(CMD_CLEAR_ALT_META | CMD_HIDE_ICON | CMD_VIBRATE_SINGLE, commands);
+        assertEquals(0, commands & CMD_SHOW_SHIFT_ICON);
+    }
+
+    @Test
+    public void resetDropsLocks() {
+        ModifierStateMachine modifiers = new ModifierStateMachine();
+        modifiers.onAltUp(START);
+        modifiers.onAltUp(START + 100);
+        modifiers.reset();
+        assertFalse(modifiers.isAltLocked());
+    }
+
+    /**
+     * Runs a long random burst through the machine and checks it against a
+     * straight port of the old onKeyUp logic.
+     */
+    @Test
+    public void matchesReferenceOverRandomBursts() {
+        Random random = new Random(42);
+        ModifierStateMachine modifiers = new ModifierStateMachine();
+        Reference reference = new Reference();
+        long time = START;
+        for (int i = 0; i < 2_000_000; i++) {
+            time += random.nextInt(1200);
+            boolean alt = random.nextBoolean();
+            int commands = alt ? modifiers.onAltUp(time) : modifiers.onShiftUp(time);
+            boolean consumed = alt ? reference.altUp(time) : reference.shiftUp(time);
+            assertEquals("event " + i, consumed, (commands & CMD_CONSUMED) != 0);
+            assertEquals("event " + i, reference.altLock, modifiers.isAltLocked());
+            assertEquals("event " + i, reference.shiftLock, modifiers.isShiftLocked());
+            assertFalse(modifiers.isAltLocked() && modifiers.isShiftLocked());
+        }
+    }
+
+    private static final class Reference {
+        long lastAltTime = Long.MIN_VALUE / 2;
+        long lastShiftTime = Long.MIN_VALUE / 2;
+        boolean altLock;
+        boolean shiftLock;
+
+        boolean altUp(long now) {
+            if (shiftLock) {
+                shiftLock = false;
+            } else if (altLock) {
+                if (now - lastAltTime > 300L) {
+                    altLock = false;
+                }
+                return true;
+            } else if (now - lastAltTime < 800L) {
+                altLock = true;
+                return true;
+            } else {
+                lastAltTime = now;
+            }
+            return false;
+        }
+
+        boolean shiftUp(long now) {
+            if (altLock) {
+                altLock = false;
+            } else if (shiftLock) {
+                if (now - lastShiftTime > 300L) {
+                    shiftLock = false;
+                }
+                return true;
+            } else if (now - lastShiftTime < 800L) {
+                shiftLock = true;
+                return true;
+            } else {
+                lastShiftTime = now;
+            }
+            return false;
+        }
+    }
+}
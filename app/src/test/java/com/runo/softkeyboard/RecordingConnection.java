@@ -0,0 +1,90 @@
+package com.runo.softkeyboard;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An {@link InputConnection} for tests that records every call made on it,
+ * with its arguments, the text committed and the key events sent.  Calls that return a boolean
+ * succeed, ones returning an int return 0 and everything else returns null.
+ */
+final class RecordingConnection {
+
+    private final String mName;
+    private final List<String> mCalls;
+    private final List<String> mMethods = new ArrayList<>();
+    private final StringBuilder mCommitted = new StringBuilder();
+    private final List<KeyEvent> mKeyEvents = new ArrayList<>();
+    private final InputConnection mConnection;
+
+    RecordingConnection() {
+        this(null, new ArrayList<>());
+    }
+
+    /**
+     * Records into {@code calls} as "name.method[args]", so that connections
+     * sharing the list show the order calls went to each.
+     */
+    RecordingConnection(String name, List<String> calls) {
+        mName = name;
+        mCalls = calls;
+        mConnection = (InputConnection) Proxy.newProxyInstance(InputConnection.class.getClassLoader(),
+                new Class<?>[]{InputConnection.class}, (proxy, method, args) -> {
+                    record(method.getName(), args);
+                    if (method.getReturnType() == boolean.class) {
+                        return Boolean.TRUE;
+                    }
+                    return method.getReturnType() == int.class ? Integer.valueOf(0) : null;
+                });
+    }
+
+    private void record(String method, Object[] args) {
+        StringBuilder call = new StringBuilder();
+        if (mName != null) {
+            call.append(mName).append('.');
+        }
+        call.append(method);
+        if (args != null) {
+            call.append(Arrays.toString(args));
+        }
+        mCalls.add(call.toString());
+        mMethods.add(method);
+        if (method.equals("commitText")) {
+            mCommitted.append((CharSequence) args[0]);
+        } else if (method.equals("sendKeyEvent")) {
+            mKeyEvents.add((KeyEvent) args[0]);
+        }
+    }
+
+    InputConnection get() {
+        return mConnection;
+    }
+
+    List<String> getCalls() {
+        return mCalls;
+    }
+
+    String getCommitted() {
+        return mCommitted.toString();
+    }
+
+    List<KeyEvent> getKeyEvents() {
+        return mKeyEvents;
+    }
+
+    /** Returns how many times this connection's {@code method} was called. */
+    int count(String method) {
+        int count = 0;
+        for (String made : mMethods) {
+            if (made.equals(method)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
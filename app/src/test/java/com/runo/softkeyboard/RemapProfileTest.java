@@ -0,0 +1,114 @@
+package com.runo.softkeyboard;
+
+import static com.runo.softkeyboard.KeyDispatchTable.LAYER_NONE;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYER_QWERTY;
+import static com.runo.softkeyboard.KeyDispatchTable.LAYER_SYMBOLS;
+import static com.runo.softkeyboard.KeyDispatchTable.MOD_ALT;
+import static com.runo.softkeyboard.KeyDispatchTable.MOD_SHIFT;
+import static com.runo.softkeyboard.KeyDispatchTable.action;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RemapProfileTest {
+
+    // same codes as KeyEvent
+    private static final int SPACE = 62;
+    private static final int DEL = 67;
+    private static final int FORWARD_DEL = 112;
+    private static final int SYM = 63;
+
+    private static final Map<String, Integer> NAMES = new HashMap<>();
+
+    static {
+        NAMES.put("SPACE", SPACE);
+        NAMES.put("DEL", DEL);
+        NAMES.put("FORWARD_DEL", FORWARD_DEL);
+        NAMES.put("SYM", SYM);
+    }
+
+    private static KeyDispatchTable build(String text) throws IOException {
+        RemapProfile profile = RemapProfile.read(new StringReader(text), name -> NAMES.getOrDefault(name, -1));
+        KeyDispatchTable.Builder builder = new KeyDispatchTable.Builder();
+        profile.applyTo(builder);
+        return builder.build();
+    }
+
+    private static void assertRejected(String text, String message) {
+        try {
+            build(text);
+            fail("accepted " + text);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    @Test
+    public void rulesMatchLayersAndModifiers() throws IOException {
+        KeyDispatchTable table = build("# alt+space is a tab\n"
+                + "all alt SPACE char \\t\n"
+                + "\n"
+                + "  qwerty shift,!alt DEL key FORWARD_DEL\n");
+        int tab = action(KeyDispatchTable.OP_COMMIT_CHAR, '\t');
+        assertEquals(tab, table.lookupDown(LAYER_NONE, MOD_ALT, SPACE));
+        assertEquals(tab, table.lookupDown(LAYER_SYMBOLS, MOD_ALT | MOD_SHIFT, SPACE));
+        assertEquals(KeyDispatchTable.OP_PASSTHROUGH, table.lookupDown(LAYER_QWERTY, 0, SPACE));
+        int forwardDelete = action(KeyDispatchTable.OP_SEND_KEY, FORWARD_DEL);
+        assertEquals(forwardDelete, table.lookupDown(LAYER_QWERTY, MOD_SHIFT, DEL));
+        assertEquals(KeyDispatchTable.OP_PASSTHROUGH, table.lookupDown(LAYER_QWERTY, MOD_SHIFT | MOD_ALT, DEL));
+        assertEquals(KeyDispatchTable.OP_PASSTHROUGH, table.lookupDown(LAYER_SYMBOLS, MOD_SHIFT, DEL));
+        assertEquals(KeyDispatchTable.OP_PASSTHROUGH, table.lookupUp(LAYER_QWERTY, MOD_SHIFT, DEL));
+    }
+
+    @Test
+    public void laterLineWins() throws IOException {
+        KeyDispatchTable table = build("all - SYM consume\n"
+                + "symbols - SYM restore_layer\n"
+                + "all - 200 char U+1F600\n");
+        assertEquals(action(KeyDispatchTable.OP_CONSUME, 0), table.lookupDown(LAYER_QWERTY, 0, SYM));
+        assertEquals(action(KeyDispatchTable.OP_RESTORE_LAYER, 0), table.lookupDown(LAYER_SYMBOLS, 0, SYM));
+        assertEquals(action(KeyDispatchTable.OP_COMMIT_CHAR, 0x1F600), table.lookupDown(LAYER_QWERTY, 0, 200));
+    }
+
+    @Test
+    public void argumentsAreParsed() throws IOException {
+        KeyDispatchTable table = build("all ctrl DEL word delete_left\n"
+                + "all alt,shift SPACE meta ctrl,shift\n"
+                + "all !ctrl,!alt,!shift DEL backspace\n");
+        assertEquals(action(KeyDispatchTable.OP_WORD_EDIT, KeyDispatchTable.WORD_DELETE_LEFT),
+                table.lookupDown(LAYER_QWERTY, KeyDispatchTable.MOD_CTRL, DEL));
+        assertEquals(action(KeyDispatchTable.OP_SEND_WITH_META, RemapProfile.META_CTRL_ON | RemapProfile.META_SHIFT_ON),
+                table.lookupDown(LAYER_QWERTY, MOD_ALT | MOD_SHIFT, SPACE));
+        assertEquals(KeyDispatchTable.OP_BACKSPACE, KeyDispatchTable.opcode(table.lookupDown(LAYER_QWERTY, 0, DEL)));
+    }
+
+    @Test
+    public void badLinesAreRejectedWithTheirNumber() {
+        assertRejected("all alt SPACE\n", "line 1: expected");
+        assertRejected("# ok\nall - SPACE consume\neverywhere - SPACE consume\n", "line 3: unknown layer");
+        assertRejected("all meta SPACE consume\n", "line 1: unknown modifier");
+        assertRejected("all - SPACEBAR consume\n", "line 1: unknown key");
+        assertRejected("all - 320 consume\n", "line 1: unknown key");
+        assertRejected("all - SPACE type x\n", "line 1: unknown action");
+        assertRejected("all - SPACE char\n", "line 1: char needs an argument");
+        assertRejected("all - SPACE consume now\n", "line 1: consume takes no argument");
+        assertRejected("all - SPACE char ab\n", "line 1: bad char");
+        assertRejected("all - SPACE char U+110000\n", "line 1: bad char");
+        assertRejected("all - SPACE word up\n", "line 1: unknown word edit");
+    }
+
+    @Test
+    public void emptyProfileAddsNothing() throws IOException {
+        assertEquals(0, RemapProfile.read(new StringReader("# nothing\n\n"), name -> -1).getRuleCount());
+        KeyDispatchTable.Builder builder = new KeyDispatchTable.Builder();
+        RemapProfile.EMPTY.applyTo(builder);
+        assertEquals(KeyDispatchTable.OP_PASSTHROUGH, builder.build().lookupDown(LAYER_QWERTY, 0, SPACE));
+    }
+}
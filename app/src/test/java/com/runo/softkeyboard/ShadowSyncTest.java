@@ -0,0 +1,42 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.text.InputType;
+import android.view.inputmethod.EditorInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * What SoftKeyboard asks an editor for to fill its EditorShadow.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ShadowSyncTest {
+
+    @Test
+    public void asksForAWindowAroundTheSelection() {
+        RecordingConnection editor = new RecordingConnection();
+        TestKeyboards.start(editor.get());
+        int window = EditorShadow.WINDOW;
+        assertTrue(editor.getCalls().toString(),
+                editor.getCalls().contains("getSurroundingText[" + window + ", " + window + ", 0]"));
+        //this editor gave no offsets, so the text around the reported cursor is asked for
+        assertTrue(editor.getCalls().contains("getTextBeforeCursor[" + window + ", 0]"));
+        assertEquals(0, editor.count("getExtractedText"));
+    }
+
+    @Test
+    public void copiesNothingFromAPasswordField() {
+        RecordingConnection editor = new RecordingConnection();
+        EditorInfo info = TestKeyboards.textField();
+        info.inputType = InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD;
+        TestKeyboards.start(editor.get(), info);
+        assertEquals(0, editor.count("getSurroundingText"));
+        assertEquals(0, editor.count("getTextBeforeCursor"));
+        assertEquals(0, editor.count("getTextAfterCursor"));
+        assertEquals(0, editor.count("getExtractedText"));
+    }
+}
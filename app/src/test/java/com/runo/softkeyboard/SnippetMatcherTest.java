@@ -0,0 +1,81 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class SnippetMatcherTest {
+
+    @Test
+    public void findsEveryAbbreviationEndingAtEachChar() {
+        SnippetMatcher matcher = new SnippetMatcher(Arrays.asList("he", "she", "his", "hers"),
+                Arrays.asList("1", "2", "3", "4"));
+        // "ushers": she and he end at the e, hers at the s
+        String text = "ushers";
+        List<String> found = new ArrayList<>();
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = matcher.step(state, text.charAt(i));
+            for (int s = matcher.getSnippet(state) != SnippetMatcher.NO_SNIPPET ? state : matcher.getOutputLink(state);
+                    s != SnippetMatcher.NO_STATE; s = matcher.getOutputLink(s)) {
+                found.add(i + ":" + matcher.getAbbreviation(matcher.getSnippet(s)));
+            }
+        }
+        assertEquals(Arrays.asList("3:she", "3:he", "5:hers"), found);
+    }
+
+    @Test
+    public void matchesLikeNaiveSearchWithThousandsOfSnippets() {
+        Random random = new Random(7);
+        List<String> abbreviations = new ArrayList<>();
+        List<String> expansions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            abbreviations.add(randomWord(random, 2 + random.nextInt(6)));
+            expansions.add("x" + i);
+        }
+        SnippetMatcher matcher = new SnippetMatcher(abbreviations, expansions);
+        String text = randomWord(random, 2000);
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = matcher.step(state, text.charAt(i));
+            int longest = 0;
+            for (String abbreviation : abbreviations) {
+                if (text.startsWith(abbreviation, i + 1 - abbreviation.length())) {
+                    longest = Math.max(longest, abbreviation.length());
+                }
+            }
+            int s = matcher.getSnippet(state) != SnippetMatcher.NO_SNIPPET ? state : matcher.getOutputLink(state);
+            int found = s == SnippetMatcher.NO_STATE ? 0 : matcher.getAbbreviation(matcher.getSnippet(s)).length();
+            assertEquals("at " + i, longest, found);
+        }
+    }
+
+    @Test
+    public void readsTabSeparatedFile() throws IOException {
+        SnippetMatcher matcher = SnippetMatcher.read(new StringReader(
+                "# mine\n;addr\t1 Main St\\nSpringfield\nbrb\tbe right back\n\n"));
+        assertEquals(2, matcher.getSnippetCount());
+        assertEquals("1 Main St\nSpringfield", matcher.getExpansion(0));
+        assertEquals("brb", matcher.getAbbreviation(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsLineWithoutTab() throws IOException {
+        SnippetMatcher.read(new StringReader("brb be right back\n"));
+    }
+
+    private static String randomWord(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(4)); //a small alphabet so patterns overlap a lot
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,83 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class SnippetStreamTest {
+
+    private final SnippetStream mStream = new SnippetStream();
+
+    @Before
+    public void setUp() {
+        mStream.setMatcher(new SnippetMatcher(Arrays.asList(";addr", "brb", "rb"),
+                Arrays.asList("1 Main St", "be right back", "rugby")));
+        mStream.reset(0);
+    }
+
+    @Test
+    public void matchesWholeWordBeforeCursor() {
+        type("see ;addr");
+        assertEquals(";addr", match());
+        type(" xbrb");
+        assertEquals(null, match()); //brb and rb are inside a word
+        type(" rb");
+        assertEquals("rb", match());
+        assertEquals(17, mStream.getCursor());
+    }
+
+    @Test
+    public void backspaceStepsBack() {
+        type("brbx");
+        assertEquals(null, match());
+        mStream.backspace();
+        assertEquals("brb", match());
+    }
+
+    @Test
+    public void trailingSelectionUpdatesKeepState() {
+        type("brb");
+        mStream.onSelection(1, 1);
+        mStream.onSelection(2, 2);
+        assertEquals("brb", match());
+        mStream.backspace();
+        mStream.onSelection(3, 3); //still on its way from before the backspace
+        assertEquals(null, match());
+        type("b");
+        assertEquals("brb", match());
+    }
+
+    @Test
+    public void cursorMoveStartsOver() {
+        type("br");
+        mStream.onSelection(40, 40);
+        type("b");
+        assertEquals(null, match());
+        assertEquals(41, mStream.getCursor());
+        mStream.onSelection(40, 42);
+        assertEquals(SnippetStream.UNKNOWN, mStream.getCursor());
+    }
+
+    @Test
+    public void longTypingKeepsMatching() {
+        for (int i = 0; i < 100; i++) {
+            type("word ");
+        }
+        type("brb");
+        assertEquals("brb", match());
+    }
+
+    private void type(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            mStream.feed(text.charAt(i));
+        }
+    }
+
+    private String match() {
+        int snippet = mStream.getMatch();
+        return snippet == SnippetMatcher.NO_SNIPPET ? null : mStream.getMatcher().getAbbreviation(snippet);
+    }
+}
@@ -0,0 +1,100 @@
+package com.runo.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds {@link TrieDictionary} buffers in tests, in the layout the build's
+ * DictionaryCompiler writes but without sharing subtrees.
+ */
+final class TestDictionaries {
+
+    private TestDictionaries() {
+    }
+
+    /** From word, frequency pairs. */
+    static ByteBuffer build(Object... wordsAndFrequencies) {
+        Node root = new Node();
+        for (int i = 0; i < wordsAndFrequencies.length; i += 2) {
+            root.add((String) wordsAndFrequencies[i], 0, (Integer) wordsAndFrequencies[i + 1]);
+        }
+        return write(root);
+    }
+
+    /**
+     * From a word list like src/main/dictionaries/en.txt, most frequent
+     * first, with the frequencies DictionaryCompiler gives the ranks.
+     */
+    static ByteBuffer fromWordList(Reader wordList) throws IOException {
+        Node root = new Node();
+        int rank = 0;
+        BufferedReader in = new BufferedReader(wordList);
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            String word = line.trim();
+            if (!word.isEmpty() && !word.startsWith("#")) {
+                root.add(word, 0, Math.max(1, 255 - (int) Math.round(30 * Math.log(++rank))));
+            }
+        }
+        return write(root);
+    }
+
+    private static ByteBuffer write(Node root) {
+        List<Node> order = new ArrayList<>(Arrays.asList(root));
+        for (int i = 0; i < order.size(); i++) {
+            order.addAll(order.get(i).mChildren.values());
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(TrieDictionary.MAGIC);
+            out.writeInt(TrieDictionary.VERSION);
+            out.writeInt(order.size());
+            out.writeInt(order.size() - 1);
+            for (int i = 0; i < order.size(); i++) {
+                order.get(i).mIndex = i;
+            }
+            int firstEdge = 0;
+            for (Node node : order) {
+                out.writeInt(firstEdge);
+                out.writeShort(node.mChildren.size());
+                out.writeByte(node.mFrequency);
+                out.writeByte(node.mBest);
+                firstEdge += node.mChildren.size();
+            }
+            for (Node node : order) {
+                for (Map.Entry<Character, Node> edge : node.mChildren.entrySet()) {
+                    out.writeChar(edge.getKey());
+                    out.writeInt(edge.getValue().mIndex);
+                }
+            }
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class Node {
+        final TreeMap<Character, Node> mChildren = new TreeMap<>();
+        int mFrequency;
+        int mBest;
+        int mIndex;
+
+        void add(String word, int index, int frequency) {
+            mBest = Math.max(mBest, frequency);
+            if (index == word.length()) {
+                mFrequency = frequency;
+            } else {
+                mChildren.computeIfAbsent(word.charAt(index), c -> new Node()).add(word, index + 1, frequency);
+            }
+        }
+    }
+}
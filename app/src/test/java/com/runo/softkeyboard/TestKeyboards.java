@@ -0,0 +1,62 @@
+package com.runo.softkeyboard;
+
+import android.inputmethodservice.InputMethodService;
+import android.text.InputType;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+/**
+ * Starts {@link SoftKeyboard}s in Robolectric tests the way the framework
+ * does when an editor gets focus.
+ */
+final class TestKeyboards {
+
+    private TestKeyboards() {
+    }
+
+    /** A plain text field with the cursor at the start. */
+    static EditorInfo textField() {
+        EditorInfo info = new EditorInfo();
+        info.inputType = InputType.TYPE_CLASS_TEXT;
+        info.packageName = "test";
+        info.initialSelStart = 0;
+        info.initialSelEnd = 0;
+        return info;
+    }
+
+    /** A keyboard as the framework leaves it for a text field with the input view shown. */
+    static SoftKeyboard start(InputConnection editor) {
+        return start(editor, textField());
+    }
+
+    /** A keyboard as the framework leaves it for {@code info} with the input view shown. */
+    static SoftKeyboard start(InputConnection editor, EditorInfo info) {
+        SoftKeyboard keyboard = Robolectric.buildService(SoftKeyboard.class).create().get();
+        keyboard.onInitializeInterface();
+        keyboard.onCreateInputView();
+        startInput(keyboard, editor, info);
+        return keyboard;
+    }
+
+    /** Moves a started keyboard on to another editor, as when focus changes. */
+    static void startInput(SoftKeyboard keyboard, InputConnection editor, EditorInfo info) {
+        ReflectionHelpers.callInstanceMethod(InputMethodService.class, keyboard, "doStartInput",
+                ClassParameter.from(InputConnection.class, editor),
+                ClassParameter.from(EditorInfo.class, info),
+                ClassParameter.from(boolean.class, false));
+        keyboard.onStartInputView(info, false);
+        ShadowLooper.idleMainLooper();
+    }
+
+    /** Types {@code text} on the on-screen keys. */
+    static void type(SoftKeyboard keyboard, String text) {
+        for (char c : text.toCharArray()) {
+            keyboard.onKey(c, new int[]{c});
+        }
+    }
+}
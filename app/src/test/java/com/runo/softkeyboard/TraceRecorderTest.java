@@ -0,0 +1,56 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class TraceRecorderTest {
+
+    private TraceRecorder mRecorder;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        context.getSharedPreferences(TraceRecorder.PREFS, Context.MODE_PRIVATE).edit()
+                .putBoolean(TraceRecorder.PREF_RECORD, true)
+                .putBoolean(TraceRecorder.PREF_KEEP_TEXT, true)
+                .commit();
+        mRecorder = new TraceRecorder(context);
+    }
+
+    @After
+    public void tearDown() {
+        mRecorder.close();
+    }
+
+    @Test
+    public void passwordFieldsAreNotRecorded() {
+        mRecorder.onStartInput(true);
+        assertTrue(mRecorder.isRecording());
+        mRecorder.flush();
+        mRecorder.onStartInput(false);
+        assertFalse(mRecorder.isRecording());
+        mRecorder.record(TypingTrace.KIND_KEY, 0, 'p', 0, 0, KeyDispatchTable.LAYER_QWERTY); //dropped
+        mRecorder.onStartInput(true);
+        assertTrue(mRecorder.isRecording());
+    }
+
+    @Test
+    public void offUnlessOptedIn() {
+        Context context = RuntimeEnvironment.getApplication();
+        context.getSharedPreferences(TraceRecorder.PREFS, Context.MODE_PRIVATE).edit()
+                .putBoolean(TraceRecorder.PREF_RECORD, false)
+                .commit();
+        mRecorder.onStartInput(true);
+        assertFalse(mRecorder.isRecording());
+    }
+}
@@ -0,0 +1,49 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class TrieDictionaryTest {
+
+    private final TrieDictionary mDictionary = new TrieDictionary(TestDictionaries.build(
+            "the", 255, "they", 150, "there", 140, "then", 120, "this", 160, "to", 220, "team", 40, "tea", 30));
+
+    @Test
+    public void completesMostFrequentFirst() {
+        String[] words = new String[3];
+        int[] frequencies = new int[3];
+        assertEquals(3, mDictionary.complete("t", words, frequencies));
+        assertArrayEquals(new String[]{"the", "to", "this"}, words);
+        assertArrayEquals(new int[]{255, 220, 160}, frequencies);
+
+        assertEquals(3, mDictionary.complete("the", words, frequencies));
+        assertArrayEquals(new String[]{"the", "they", "there"}, words);
+    }
+
+    @Test
+    public void returnsFewerWhenFewerMatch() {
+        String[] words = new String[5];
+        int[] frequencies = new int[5];
+        assertEquals(2, mDictionary.complete("tea", words, frequencies));
+        assertEquals("team", words[0]);
+        assertEquals("tea", words[1]);
+        assertEquals(0, mDictionary.complete("x", words, frequencies));
+        assertEquals(0, mDictionary.complete("thex", words, frequencies));
+    }
+
+    @Test
+    public void looksUpFrequencies() {
+        assertEquals(120, mDictionary.getFrequency("then"));
+        assertEquals(0, mDictionary.getFrequency("th"));
+        assertEquals(0, mDictionary.getFrequency("zebra"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherData() {
+        new TrieDictionary(ByteBuffer.wrap(new byte[64]));
+    }
+}
@@ -0,0 +1,153 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a SoftKeyboard with a {@link TypingTrace} and prints how long it
+ * took over each event.  Replays a short built in session, or a trace
+ * pulled from a device with
+ * {@code ./gradlew :app:testDebugUnitTest --tests '*TypingTraceReplayTest' -Ptrace=<file>}.
+ * Time between events is replayed on the main looper, capped at MAX_GAP_MS,
+ * so frame flushes and posted work run in between and aren't counted.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TypingTraceReplayTest {
+
+    private static final String TRACE_PROPERTY = "trace";
+    private static final long MAX_GAP_MS = 1000;
+    private static final int SLOWEST = 10;
+    private static final String[] KIND_NAMES = {"down", "up", "key"};
+
+    private final Context mContext = RuntimeEnvironment.getApplication();
+
+    @Test
+    public void replaysTrace() throws IOException {
+        String file = System.getProperty(TRACE_PROPERTY);
+        TypingTrace trace;
+        if (file != null) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                trace = TypingTrace.read(in);
+            }
+        } else {
+            trace = builtInSession();
+        }
+        BaseInputConnection editor = new BaseInputConnection(new View(mContext), true);
+        SoftKeyboard keyboard = TestKeyboards.start(editor);
+        long[] nanos = replay(keyboard, trace);
+        keyboard.onFinishInput();
+        System.out.print(report(file != null ? file : "built in session", trace, nanos));
+        if (file == null) {
+            assertEquals("hi there{", editor.getEditable().toString());
+        }
+    }
+
+    /** Typing on screen with shift locked and unlocked in between, and a symbol key. */
+    private static TypingTrace builtInSession() {
+        TypingTrace trace = new TypingTrace(64);
+        trace.setKeepText(true);
+        long time = 1000;
+        int qwerty = KeyDispatchTable.LAYER_QWERTY;
+        for (char c : "hi there".toCharArray()) {
+            trace.record(TypingTrace.KIND_KEY, time += 140, c, 0, 0, qwerty);
+        }
+        //shift double tap locks, a key, a tap unlocks
+        trace.record(TypingTrace.KIND_KEY_DOWN, time += 300, KeyEvent.KEYCODE_SHIFT_LEFT, KeyEvent.META_SHIFT_ON, 0, qwerty);
+        trace.record(TypingTrace.KIND_KEY_UP, time += 60, KeyEvent.KEYCODE_SHIFT_LEFT, 0, 0, qwerty);
+        trace.record(TypingTrace.KIND_KEY_DOWN, time += 100, KeyEvent.KEYCODE_SHIFT_LEFT, KeyEvent.META_SHIFT_ON, 0, qwerty);
+        trace.record(TypingTrace.KIND_KEY_UP, time += 60, KeyEvent.KEYCODE_SHIFT_LEFT, 0, 0, qwerty);
+        int locked = KeyDispatchTable.LAYER_QWERTY_SHIFT_LOCK;
+        trace.record(TypingTrace.KIND_KEY_DOWN, time += 400, KeyEvent.KEYCODE_DPAD_LEFT, 0, 0, locked);
+        trace.record(TypingTrace.KIND_KEY_UP, time += 80, KeyEvent.KEYCODE_DPAD_LEFT, 0, 0, locked);
+        trace.record(TypingTrace.KIND_KEY_DOWN, time += 900, KeyEvent.KEYCODE_SHIFT_LEFT, KeyEvent.META_SHIFT_ON, 0, locked);
+        trace.record(TypingTrace.KIND_KEY_UP, time += 60, KeyEvent.KEYCODE_SHIFT_LEFT, 0, 0, locked);
+        trace.record(TypingTrace.KIND_KEY, time + 200, '{', 0, 0, qwerty);
+        return trace;
+    }
+
+    private static long[] replay(SoftKeyboard keyboard, TypingTrace trace) {
+        long[] nanos = new long[trace.size()];
+        int[] codes = new int[1];
+        for (int i = 0; i < trace.size(); i++) {
+            long time = trace.getTime(i);
+            if (i > 0) {
+                ShadowLooper.idleMainLooper(Math.max(0, Math.min(MAX_GAP_MS, time - trace.getTime(i - 1))), TimeUnit.MILLISECONDS);
+            }
+            int kind = trace.getKind(i);
+            int code = trace.getKeyCode(i);
+            KeyEvent event = kind == TypingTrace.KIND_KEY ? null : new KeyEvent(time, time,
+                    kind == TypingTrace.KIND_KEY_DOWN ? KeyEvent.ACTION_DOWN : KeyEvent.ACTION_UP,
+                    code, trace.getRepeatCount(i), trace.getMetaState(i));
+            codes[0] = code;
+            long start = System.nanoTime();
+            switch (kind) {
+                case TypingTrace.KIND_KEY_DOWN:
+                    keyboard.onKeyDown(code, event);
+                    break;
+                case TypingTrace.KIND_KEY_UP:
+                    keyboard.onKeyUp(code, event);
+                    break;
+                default:
+                    keyboard.onKey(code, codes);
+                    break;
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        ShadowLooper.idleMainLooper(MAX_GAP_MS, TimeUnit.MILLISECONDS);
+        return nanos;
+    }
+
+    /** Percentiles per kind of event, then the slowest events. */
+    private static String report(String name, TypingTrace trace, long[] nanos) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%s: %d events%s%n", name, trace.size(),
+                trace.isKeepText() ? "" : ", letters and digits redacted"));
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            long[] times = new long[nanos.length];
+            int count = 0;
+            for (int i = 0; i < nanos.length; i++) {
+                if (trace.getKind(i) == kind) {
+                    times[count++] = nanos[i];
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            Arrays.sort(times, 0, count);
+            out.append(String.format(Locale.US, "  %-4s %6d  p50 %8.1fus  p90 %8.1fus  p99 %8.1fus  max %8.1fus%n",
+                    KIND_NAMES[kind], count, times[count / 2] / 1e3, times[count * 9 / 10] / 1e3,
+                    times[count * 99 / 100] / 1e3, times[count - 1] / 1e3));
+        }
+        Integer[] order = new Integer[nanos.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(nanos[b], nanos[a]));
+        out.append("  slowest:\n");
+        for (int n = 0; n < Math.min(SLOWEST, order.length); n++) {
+            int i = order[n];
+            out.append(String.format(Locale.US, "    #%d %s code=%d meta=0x%x repeat=%d layer=%d  %.1fus%n",
+                    i, KIND_NAMES[trace.getKind(i)], trace.getKeyCode(i), trace.getMetaState(i),
+                    trace.getRepeatCount(i), trace.getLayer(i), nanos[i] / 1e3));
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class TypingTraceTest {
+
+    // same codes as KeyEvent
+    private static final int KEYCODE_7 = 14;
+    private static final int KEYCODE_A = 29;
+    private static final int KEYCODE_Q = 45;
+    private static final int KEYCODE_SHIFT_LEFT = 59;
+    private static final int KEYCODE_DEL = 67;
+    private static final int META_SHIFT_ON = 0x1;
+
+    private static TypingTrace roundTrip(TypingTrace trace) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeTo(out);
+        assertEquals(16 + trace.size() * TypingTrace.RECORD_BYTES, out.size());
+        return TypingTrace.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void recordsSurviveTheFile() throws IOException {
+        TypingTrace trace = new TypingTrace(4);
+        trace.setKeepText(true);
+        trace.record(TypingTrace.KIND_KEY_DOWN, 1_000_000_000_123L, KEYCODE_Q, META_SHIFT_ON, 70_000, KeyDispatchTable.LAYER_QWERTY);
+        trace.record(TypingTrace.KIND_KEY_UP, 1_000_000_000_200L, KEYCODE_Q, 0, 0, -1);
+        trace.record(TypingTrace.KIND_KEY, 1_000_000_000_300L, 0x1F642, 0, 0, KeyDispatchTable.LAYER_SYMBOLS);
+        TypingTrace read = roundTrip(trace);
+        assertEquals(3, read.size());
+        assertTrue(read.isKeepText());
+        assertEquals(1_000_000_000_123L, read.getTime(0));
+        assertEquals(TypingTrace.KIND_KEY_DOWN, read.getKind(0));
+        assertEquals(KEYCODE_Q, read.getKeyCode(0));
+        assertEquals(META_SHIFT_ON, read.getMetaState(0));
+        assertEquals(Short.MAX_VALUE, read.getRepeatCount(0));
+        assertEquals(KeyDispatchTable.LAYER_QWERTY, read.getLayer(0));
+        assertEquals(-1, read.getLayer(1));
+        assertEquals(TypingTrace.KIND_KEY, read.getKind(2));
+        assertEquals(0x1F642, read.getKeyCode(2));
+    }
+
+    @Test
+    public void textIsRedactedUnlessKept() throws IOException {
+        TypingTrace trace = new TypingTrace(8);
+        trace.record(TypingTrace.KIND_KEY_DOWN, 0, KEYCODE_Q, 0, 0, 0);
+        trace.record(TypingTrace.KIND_KEY_DOWN, 0, KEYCODE_7, 0, 0, 0);
+        trace.record(TypingTrace.KIND_KEY_UP, 0, KEYCODE_SHIFT_LEFT, 0, 0, 0);
+        trace.record(TypingTrace.KIND_KEY_DOWN, 0, KEYCODE_DEL, 0, 0, 0);
+        trace.record(TypingTrace.KIND_KEY, 0, 'Q', 0, 0, 0);
+        trace.record(TypingTrace.KIND_KEY, 0, '5', 0, 0, 0);
+        trace.record(TypingTrace.KIND_KEY, 0, '{', 0, 0, 0);
+        TypingTrace read = roundTrip(trace);
+        assertFalse(read.isKeepText());
+        assertEquals(KEYCODE_A, read.getKeyCode(0));
+        assertEquals(7, read.getKeyCode(1)); //KeyEvent.KEYCODE_0
+        assertEquals(KEYCODE_SHIFT_LEFT, read.getKeyCode(2));
+        assertEquals(KEYCODE_DEL, read.getKeyCode(3));
+        assertEquals('a', read.getKeyCode(4));
+        assertEquals('0', read.getKeyCode(5));
+        assertEquals('{', read.getKeyCode(6));
+    }
+
+    @Test
+    public void fullTraceDropsAndCounts() {
+        TypingTrace trace = new TypingTrace(2);
+        for (int i = 0; i < 5; i++) {
+            trace.record(TypingTrace.KIND_KEY_DOWN, i, KEYCODE_DEL, 0, 0, 0);
+        }
+        assertEquals(2, trace.size());
+        assertEquals(3, trace.getDropped());
+        assertEquals(1, trace.getTime(1));
+        trace.clear();
+        assertEquals(0, trace.size());
+        assertEquals(0, trace.getDropped());
+    }
+
+    @Test
+    public void otherFilesAreRejected() {
+        try {
+            TypingTrace.read(new ByteArrayInputStream(new byte[]{'P', 'K', 3, 4, 0, 0, 0, 0}));
+            fail("read a zip as a trace");
+        } catch (IOException e) {
+            assertEquals("not a typing trace", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class UserVocabularyTest {
+
+    private final UserVocabulary mVocabulary = new UserVocabulary();
+
+    @Test
+    public void countsWordsAndPairs() {
+        mVocabulary.learn(null, "hello");
+        mVocabulary.learn("say", "hello");
+        mVocabulary.learn("say", "hello");
+        assertEquals(3, mVocabulary.getCount("hello"));
+        assertEquals(2, mVocabulary.getBigramCount("say", "hello"));
+        assertEquals(0, mVocabulary.getBigramCount("hello", "say"));
+        assertEquals(0, mVocabulary.getCount("say"));
+    }
+
+    @Test
+    public void completesMostTypedFirst() {
+        learn("runo", 1);
+        learn("rust", 3);
+        learn("run", 2);
+        learn("walk", 5);
+        String[] words = new String[2];
+        int[] counts = new int[2];
+        assertEquals(2, mVocabulary.complete("ru", words, counts));
+        assertArrayEquals(new String[]{"rust", "run"}, words);
+        assertArrayEquals(new int[]{3, 2}, counts);
+        assertEquals(0, mVocabulary.complete("x", words, counts));
+    }
+
+    @Test
+    public void frequentWordReplacesRareOneWhenFull() {
+        for (int i = 0; i < UserVocabulary.MAX_WORDS; i++) {
+            learn("w" + i, 2);
+        }
+        learn("once", 1);
+        assertEquals(UserVocabulary.MAX_WORDS, mVocabulary.getWordCount());
+        String[] words = new String[1];
+        int[] counts = new int[1];
+        assertEquals(0, mVocabulary.complete("once", words, counts));
+
+        learn("often", 3);
+        assertEquals(UserVocabulary.MAX_WORDS, mVocabulary.getWordCount());
+        assertEquals(1, mVocabulary.complete("often", words, counts));
+        assertTrue(counts[0] >= 3);
+    }
+
+    @Test
+    public void snapshotRoundTrips() throws IOException {
+        learn("alpha", 4);
+        mVocabulary.learn("alpha", "beta");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mVocabulary.writeTo(new DataOutputStream(bytes));
+
+        UserVocabulary copy = new UserVocabulary();
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(4, copy.getCount("alpha"));
+        assertEquals(1, copy.getBigramCount("alpha", "beta"));
+        assertEquals(2, copy.getWordCount());
+    }
+
+    private void learn(String word, int times) {
+        for (int i = 0; i < times; i++) {
+            mVocabulary.learn(null, word);
+        }
+    }
+}
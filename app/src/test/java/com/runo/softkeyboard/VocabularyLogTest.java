@@ -0,0 +1,87 @@
+package com.runo.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class VocabularyLogTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysFlushedWords() throws IOException {
+        File file = mFolder.newFile("vocabulary.log");
+        UserVocabulary vocabulary = new UserVocabulary();
+        VocabularyLog log = new VocabularyLog(file);
+        learn(log, vocabulary, null, "good");
+        learn(log, vocabulary, "good", "morning");
+        assertEquals(2, log.getPendingWords());
+        log.flush(vocabulary);
+        assertEquals(0, log.getPendingWords());
+
+        UserVocabulary replayed = new UserVocabulary();
+        new VocabularyLog(file).replay(replayed);
+        assertEquals(1, replayed.getCount("good"));
+        assertEquals(1, replayed.getBigramCount("good", "morning"));
+    }
+
+    @Test
+    public void dropsUnfinishedBatch() throws IOException {
+        File file = mFolder.newFile("vocabulary.log");
+        UserVocabulary vocabulary = new UserVocabulary();
+        VocabularyLog log = new VocabularyLog(file);
+        learn(log, vocabulary, null, "kept");
+        log.flush(vocabulary);
+        long good = file.length();
+        // a batch header promising more than was written, as a crash mid write leaves
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 1, 0});
+        }
+
+        UserVocabulary replayed = new UserVocabulary();
+        VocabularyLog reopened = new VocabularyLog(file);
+        reopened.replay(replayed);
+        assertEquals(1, replayed.getCount("kept"));
+        assertEquals(good, file.length());
+
+        learn(reopened, replayed, null, "after");
+        reopened.flush(replayed);
+        UserVocabulary again = new UserVocabulary();
+        new VocabularyLog(file).replay(again);
+        assertEquals(1, again.getCount("after"));
+    }
+
+    @Test
+    public void compactionKeepsCounts() throws IOException {
+        File file = mFolder.newFile("vocabulary.log");
+        UserVocabulary vocabulary = new UserVocabulary();
+        VocabularyLog log = new VocabularyLog(file);
+        for (int i = 0; i < 5; i++) {
+            learn(log, vocabulary, "very", "well");
+        }
+        log.flush(vocabulary);
+        log.compact(vocabulary);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        learn(log, vocabulary, null, "well");
+        log.flush(vocabulary);
+
+        UserVocabulary replayed = new UserVocabulary();
+        new VocabularyLog(file).replay(replayed);
+        assertEquals(6, replayed.getCount("well"));
+        assertEquals(5, replayed.getBigramCount("very", "well"));
+    }
+
+    private static void learn(VocabularyLog log, UserVocabulary vocabulary, String previous, String word)
+            throws IOException {
+        vocabulary.learn(previous, word);
+        log.add(previous, word);
+    }
+}
@@ -0,0 +1,83 @@
+package com.runo.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Committing a key the way handleCharacter and CommitBatcher do: the text
+ * read from the layer's {@link KeyOutputs}, queued in the {@link CommitQueue},
+ * and once per frame handed over and mirrored into the {@link EditorShadow}.
+ * The connection itself is left out, that is an IPC, the queue's sink only
+ * keeps the text.
+ */
+@State(Scope.Thread)
+public class CommitPathBenchmark {
+
+    private static final int STREAM_LENGTH = 1024; //a power of two
+    private static final int FRAME_KEYS = 4; //keys between two flushes when typing fast
+    private static final int FLUSH_KEYS = 16; //commitKey flushes now and then to keep the queue short
+
+    private KeyOutputs mOutputs;
+    private final int[] mCodes = new int[STREAM_LENGTH];
+    private final EditorShadow mShadow = new EditorShadow();
+    private String mSent; //what the connection got last
+    private final CommitQueue mQueue = new CommitQueue(new CommitQueue.Sink() {
+        @Override
+        public void setSelection(int anchor, int focus) {
+        }
+
+        @Override
+        public void commitText(String text) {
+            mSent = text;
+        }
+    }, new LatencyStats(), mShadow);
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        //like the symbol layers: ASCII symbols, a few signs, an emoji and two multi char keys
+        int[] codes = {'!', '"', '#', '$', '%', '&', '(', ')', '*', '+', ',', '-', '.', '/', ':', ';', '<', '=', '>',
+                '?', '@', '[', '\\', ']', '^', '_', '`', '{', '|', '}', '~', 0xa3, 0xb0, 0x20ac, 0x1f642, 0xe000, 0xe001};
+        KeyOutputs.Builder builder = new KeyOutputs.Builder(codes.length);
+        for (int code : codes) {
+            builder.add(code, code == 0xe000 ? "->" : code == 0xe001 ? "=>" : null);
+        }
+        mOutputs = builder.build();
+        Random random = new Random(42);
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            mCodes[i] = codes[random.nextInt(codes.length)];
+        }
+        mShadow.seed("", null, "", 0, 0, EditorShadow.WINDOW);
+    }
+
+    /**
+     * One key looked up and queued.  Only the flush every FLUSH_KEYS keys
+     * allocates, the String the connection gets.
+     */
+    @Benchmark
+    public boolean commitKey() {
+        mNext = (mNext + 1) & (STREAM_LENGTH - 1);
+        mQueue.append(mOutputs.get(mCodes[mNext]));
+        if ((mNext & (FLUSH_KEYS - 1)) == 0) {
+            mQueue.flush();
+        }
+        return mQueue.hasText();
+    }
+
+    /** A frame of keys and its flush, the one String per frame is the text the connection gets. */
+    @Benchmark
+    @OperationsPerInvocation(FRAME_KEYS)
+    public int commitFrame() {
+        for (int i = 0; i < FRAME_KEYS; i++) {
+            mNext = (mNext + 1) & (STREAM_LENGTH - 1);
+            mQueue.append(mOutputs.get(mCodes[mNext]));
+        }
+        mQueue.flush();
+        return mSent.length() + mShadow.getSelectionStart();
+    }
+}
@@ -0,0 +1,126 @@
+package com.runo.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Physical keys through the default {@link KeyDispatchTable}, the work
+ * onKeyDown and onKeyUp do before anything reaches the editor: one key
+ * translated, and a typing session with modifiers, lock taps and layer
+ * switches dispatched through {@link DispatchLayers} as SoftKeyboard does it.
+ */
+@State(Scope.Thread)
+public class KeyDispatchBenchmark {
+
+    private static final int STREAM_LENGTH = 1024; //a power of two
+
+    // KeyEvent codes
+    private static final int KEYCODE_A = 29; //KeyEvent.KEYCODE_A
+    private static final int KEYCODE_DPAD_LEFT = 21; //KeyEvent.KEYCODE_DPAD_LEFT
+    private static final int KEYCODE_ALT_RIGHT = 58; //KeyEvent.KEYCODE_ALT_RIGHT
+    private static final int KEYCODE_SHIFT_LEFT = 59; //KeyEvent.KEYCODE_SHIFT_LEFT
+    private static final int KEYCODE_SPACE = 62; //KeyEvent.KEYCODE_SPACE
+    private static final int KEYCODE_SYM = 63; //KeyEvent.KEYCODE_SYM
+    private static final int KEYCODE_ENTER = 66; //KeyEvent.KEYCODE_ENTER
+    private static final int KEYCODE_DEL = 67; //KeyEvent.KEYCODE_DEL
+
+    private KeyDispatchTable mTable;
+    private final ModifierStateMachine mModifiers = new ModifierStateMachine();
+    // the session, one event per index
+    private final int[] mKeyCodes = new int[STREAM_LENGTH];
+    private final boolean[] mAlt = new boolean[STREAM_LENGTH];
+    private final boolean[] mCtrl = new boolean[STREAM_LENGTH];
+    private final boolean[] mDown = new boolean[STREAM_LENGTH];
+    private final long[] mTimes = new long[STREAM_LENGTH];
+    private long mTimeBase; //moved on each pass so the lock timing sees time go forward
+    private int mKeyboard = DispatchLayers.QWERTY;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mTable = DefaultKeyMap.build();
+        Random random = new Random(42);
+        long time = 0;
+        for (int i = 0; i < STREAM_LENGTH; i += 2) {
+            int keyCode;
+            boolean alt = false;
+            boolean ctrl = false;
+            int kind = random.nextInt(100);
+            if (kind < 70) {
+                keyCode = KEYCODE_A + random.nextInt(26);
+            } else if (kind < 80) {
+                keyCode = KEYCODE_SPACE;
+            } else if (kind < 85) {
+                keyCode = KEYCODE_DEL;
+            } else if (kind < 87) {
+                keyCode = KEYCODE_ENTER;
+            } else if (kind < 91) {
+                keyCode = KEYCODE_A + random.nextInt(26);
+                alt = true;
+            } else if (kind < 94) {
+                keyCode = random.nextBoolean() ? KEYCODE_DEL : KEYCODE_DPAD_LEFT;
+                ctrl = true;
+            } else if (kind < 97) {
+                keyCode = KEYCODE_SHIFT_LEFT;
+            } else if (kind < 99) {
+                keyCode = KEYCODE_ALT_RIGHT;
+            } else {
+                keyCode = KEYCODE_SYM;
+            }
+            //a down/up pair, modifier taps close enough now and then to lock
+            time += keyCode == KEYCODE_SHIFT_LEFT || keyCode == KEYCODE_ALT_RIGHT ? 150 + random.nextInt(900) : 120;
+            for (int j = i; j < i + 2; j++) {
+                mKeyCodes[j] = keyCode;
+                mAlt[j] = alt;
+                mCtrl[j] = ctrl;
+                mDown[j] = j == i;
+                mTimes[j] = time;
+            }
+        }
+    }
+
+    /** One key down looked up, what translating a key to its action costs. */
+    @Benchmark
+    public int translateKey() {
+        int i = mNext = (mNext + 1) & (STREAM_LENGTH - 1);
+        return mTable.lookupDown(KeyDispatchTable.LAYER_QWERTY, DispatchLayers.getModifiers(mAlt[i], false, mCtrl[i]),
+                mKeyCodes[i]);
+    }
+
+    /** The session dispatched, with the lock and layer state it drives. */
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public int mixedStream() {
+        int result = 0;
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            int layer = DispatchLayers.getLayer(mKeyboard, mModifiers);
+            int modifiers = DispatchLayers.getModifiers(mAlt[i], false, mCtrl[i]);
+            int action = mDown[i]
+                    ? mTable.lookupDown(layer, modifiers, mKeyCodes[i])
+                    : mTable.lookupUp(layer, modifiers, mKeyCodes[i]);
+            switch (KeyDispatchTable.opcode(action)) {
+                case KeyDispatchTable.OP_CYCLE_LAYER:
+                    mKeyboard = mKeyboard == DispatchLayers.QWERTY ? DispatchLayers.SYMBOLS : DispatchLayers.QWERTY;
+                    break;
+                case KeyDispatchTable.OP_RESTORE_LAYER:
+                    mKeyboard = DispatchLayers.QWERTY;
+                    break;
+                case KeyDispatchTable.OP_LOCK_TOGGLE:
+                    long time = mTimeBase + mTimes[i];
+                    result += KeyDispatchTable.arg(action) == KeyDispatchTable.LOCK_ALT
+                            ? mModifiers.onAltUp(time) : mModifiers.onShiftUp(time);
+                    break;
+                default:
+                    result += action;
+                    break;
+            }
+        }
+        mTimeBase += mTimes[STREAM_LENGTH - 1] + ModifierStateMachine.DOUBLE_TAP_WINDOW_MS;
+        return result;
+    }
+}
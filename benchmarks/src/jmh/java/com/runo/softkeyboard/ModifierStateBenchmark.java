@@ -0,0 +1,60 @@
+package com.runo.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Alt and shift taps through the {@link ModifierStateMachine}: single taps,
+ * double taps that lock, taps inside the unlock guard and taps of the other
+ * modifier that drop a lock.
+ */
+@State(Scope.Thread)
+public class ModifierStateBenchmark {
+
+    // one round of taps, ms after the previous one, and whether it is alt
+    private static final long[] GAPS = {
+            1000, 200, //shift locks
+            100, 500, //guarded, then unlocks
+            1000, 200, 1000, //alt locks, shift drops it
+            1000, 1000, //two single alt taps
+            1000, 300, 400, //shift locks, alt drops it
+    };
+    private static final boolean[] ALT = {
+            false, false,
+            false, false,
+            true, true, false,
+            true, true,
+            false, false, true,
+    };
+    private static final int TAPS = 64 * 12; //64 rounds of the 12 above
+
+    private final ModifierStateMachine mModifiers = new ModifierStateMachine();
+    private final long[] mTimes = new long[TAPS];
+    private final boolean[] mAlt = new boolean[TAPS];
+    private long mTimeBase;
+
+    @Setup
+    public void setUp() {
+        long time = 0;
+        for (int i = 0; i < TAPS; i++) {
+            time += GAPS[i % GAPS.length];
+            mTimes[i] = time;
+            mAlt[i] = ALT[i % GAPS.length];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TAPS)
+    public int taps() {
+        int commands = 0;
+        for (int i = 0; i < TAPS; i++) {
+            long time = mTimeBase + mTimes[i];
+            commands += mAlt[i] ? mModifiers.onAltUp(time) : mModifiers.onShiftUp(time);
+        }
+        mTimeBase += mTimes[TAPS - 1] + ModifierStateMachine.DOUBLE_TAP_WINDOW_MS;
+        return commands;
+    }
+}
@@ -0,0 +1,44 @@
+package com.runo.softkeyboard.build;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Compiles each word list into a .dict asset of the same name, failing the
+ * build if one of them doesn't validate.
+ */
+public abstract class CompileDictionaryTask extends DefaultTask {
+
+    /** Word lists, one word per line, most frequent first. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getWordLists();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDir();
+
+    @TaskAction
+    public void compile() throws Exception {
+        File dir = getOutputDir().get().getAsFile();
+        Files.createDirectories(dir.toPath());
+        for (File wordList : getWordLists().getFiles()) {
+            DictionaryCompiler compiler = new DictionaryCompiler();
+            byte[] dictionary = compiler.compile(wordList);
+            if (dictionary == null) {
+                throw new GradleException("Invalid word list:\n  " + String.join("\n  ", compiler.getErrors()));
+            }
+            String name = wordList.getName().replaceFirst("\\.[^.]*$", "");
+            Files.write(new File(dir, name + ".dict").toPath(), dictionary);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.runo.softkeyboard.build;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates CompiledLayouts.java from the keyboard layouts, failing the
+ * build if one of them doesn't validate.
+ */
+public abstract class CompileKeyboardLayoutsTask extends DefaultTask {
+
+    /** Keyboard layouts, in res/xml. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getLayouts();
+
+    /** The res directory the layouts' resource references resolve against. */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getResDir();
+
+    @Input
+    public abstract Property<String> getPackageName();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDir();
+
+    @TaskAction
+    public void compile() throws Exception {
+        KeyboardLayoutCompiler compiler = new KeyboardLayoutCompiler(getResDir().get().getAsFile());
+        List<File> layouts = new ArrayList<>(getLayouts().getFiles());
+        String source = compiler.compile(layouts, getPackageName().get());
+        if (source == null) {
+            throw new GradleException("Invalid keyboard layouts:\n  " + String.join("\n  ", compiler.getErrors()));
+        }
+        File dir = new File(getOutputDir().get().getAsFile(), getPackageName().get().replace('.', '/'));
+        Files.createDirectories(dir.toPath());
+        Files.write(new File(dir, "CompiledLayouts.java").toPath(), source.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,165 @@
+package com.runo.softkeyboard.build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compiles a word list into the binary trie TrieDictionary memory maps.
+ * The list has one word per line, most frequent first; blank lines and
+ * lines starting with '#' are skipped.  Frequencies are worked out from the
+ * rank on a log scale and stored in a byte.
+ *
+ * Nodes with the same frequency and the same children are shared, so
+ * common endings like "-ing" or "-tion" are only stored once.
+ *
+ * The format written here has to match TrieDictionary in the app.
+ */
+public final class DictionaryCompiler {
+
+    private static final int MAGIC = 0x54444943; //"TDIC"
+    private static final int VERSION = 1;
+    private static final int MAX_WORD_LENGTH = 48;
+    private static final int MAX_CHILDREN = 0xffff;
+
+    private final List<String> mErrors = new ArrayList<>();
+
+    public List<String> getErrors() {
+        return mErrors;
+    }
+
+    /**
+     * Compiles the word list, or returns null and fills {@link #getErrors}
+     * if it is invalid.
+     */
+    public byte[] compile(File wordList) throws IOException {
+        List<String> lines = Files.readAllLines(wordList.toPath(), StandardCharsets.UTF_8);
+        Node root = new Node();
+        Set<String> seen = new HashSet<>();
+        int rank = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String word = lines.get(i).trim();
+            if (word.isEmpty() || word.startsWith("#")) {
+                continue;
+            }
+            String where = wordList.getName() + ":" + (i + 1) + ": ";
+            if (word.length() > MAX_WORD_LENGTH) {
+                mErrors.add(where + "longer than " + MAX_WORD_LENGTH + " chars");
+            } else if (!word.equals(word.toLowerCase(Locale.ROOT))) {
+                mErrors.add(where + "'" + word + "' has to be lower case, capitals are applied while typing");
+            } else if (!word.codePoints().allMatch(c -> Character.isLetterOrDigit(c) || c == '\'')) {
+                mErrors.add(where + "'" + word + "' has chars that aren't letters, digits or '");
+            } else if (!seen.add(word)) {
+                mErrors.add(where + "'" + word + "' is listed twice");
+            } else {
+                rank++;
+                root.add(word, 0, frequency(rank));
+            }
+        }
+        if (rank == 0) {
+            mErrors.add(wordList.getName() + ": no words");
+        }
+        if (!mErrors.isEmpty()) {
+            return null;
+        }
+        return write(root);
+    }
+
+    /** Rank 1 is 255, falling off logarithmically to 1. */
+    static int frequency(int rank) {
+        return Math.max(1, 255 - (int) Math.round(30 * Math.log(rank)));
+    }
+
+    private byte[] write(Node root) throws IOException {
+        // share identical subtrees, then number the nodes breadth first so the root is 0
+        Node canonicalRoot = root.minimize(new HashMap<>());
+        List<Node> order = new ArrayList<>();
+        Map<Node, Integer> ids = new HashMap<>();
+        order.add(canonicalRoot);
+        ids.put(canonicalRoot, 0);
+        int edgeCount = 0;
+        for (int i = 0; i < order.size(); i++) {
+            Node node = order.get(i);
+            if (node.mChildren.size() > MAX_CHILDREN) {
+                throw new IOException("node with more than " + MAX_CHILDREN + " children");
+            }
+            edgeCount += node.mChildren.size();
+            for (Node child : node.mChildren.values()) {
+                if (!ids.containsKey(child)) {
+                    ids.put(child, order.size());
+                    order.add(child);
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(order.size());
+        out.writeInt(edgeCount);
+        int firstEdge = 0;
+        for (Node node : order) {
+            out.writeInt(firstEdge);
+            out.writeShort(node.mChildren.size());
+            out.writeByte(node.mFrequency);
+            out.writeByte(node.mBest);
+            firstEdge += node.mChildren.size();
+        }
+        for (Node node : order) {
+            for (Map.Entry<Character, Node> edge : node.mChildren.entrySet()) {
+                out.writeChar(edge.getKey());
+                out.writeInt(ids.get(edge.getValue()));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static final class Node {
+        final TreeMap<Character, Node> mChildren = new TreeMap<>(); //sorted for binary search
+        int mFrequency; //0 if no word ends here
+        int mBest; //highest frequency in this subtree
+        private int mId; //among the shared nodes
+
+        void add(String word, int index, int frequency) {
+            mBest = Math.max(mBest, frequency);
+            if (index == word.length()) {
+                mFrequency = frequency;
+                return;
+            }
+            mChildren.computeIfAbsent(word.charAt(index), c -> new Node()).add(word, index + 1, frequency);
+        }
+
+        /**
+         * Replaces the children by the shared copies, returning the shared
+         * copy of this node.
+         */
+        Node minimize(Map<String, Node> shared) {
+            StringBuilder key = new StringBuilder().append(mFrequency);
+            for (Map.Entry<Character, Node> edge : mChildren.entrySet()) {
+                Node child = edge.getValue().minimize(shared);
+                edge.setValue(child);
+                key.append(',').append((int) edge.getKey()).append(':').append(child.mId);
+            }
+            Node existing = shared.get(key.toString());
+            if (existing != null) {
+                return existing;
+            }
+            mId = shared.size();
+            shared.put(key.toString(), this);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.runo.softkeyboard.build;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Compiles res/xml keyboard layouts into CompiledLayouts.java, a class of
+ * flat arrays that LatinKeyboard builds its keys from without parsing XML.
+ * Layouts are validated on the way, anything the loader would not reproduce
+ * exactly is rejected instead of silently dropped.
+ *
+ * The encoding written here has to match CompiledLayout in the app.
+ */
+public final class KeyboardLayoutCompiler {
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final String APP_NS = "http://schemas.android.com/apk/res-auto";
+
+    // CompiledLayout dimension encoding, type in the top bits
+    private static final int DIM_TYPE_SHIFT = 28;
+    private static final int DIM_PX = 0;
+    private static final int DIM_PERCENT_P = 1; //hundredths of a percent of the display width
+    private static final int DIM_DP = 2; //hundredths of a dp
+    private static final int DIM_RESOURCE = 3; //index into the resources array
+
+    // CompiledLayout key flags
+    private static final int FLAG_STICKY = 1;
+    private static final int FLAG_MODIFIER = 1 << 1;
+    private static final int FLAG_REPEATABLE = 1 << 2;
+
+    // keyboard codes the validation knows about, see LatinKeyboardView
+    private static final int CODE_MODE_CHANGE = -2;
+    private static final int CODE_CTRL = -103;
+    private static final int CODE_ENTER = 10;
+    private static final int CODE_EDITOR_ACTION = -106;
+
+    private static final Set<String> KEYBOARD_ATTRIBUTES = set("keyWidth", "keyHeight", "horizontalGap", "verticalGap");
+    private static final Set<String> ROW_ATTRIBUTES = set("rowEdgeFlags");
+    private static final Set<String> KEY_ATTRIBUTES = set("codes", "keyLabel", "keyIcon", "keyWidth", "keyEdgeFlags",
+            "isModifier", "isSticky", "isRepeatable");
+    private static final Set<String> KEY_APP_ATTRIBUTES = set("physicalKey", "output");
+
+    private final File mResDir;
+    private final Map<String, Integer> mPhysicalKeys;
+    private final List<String> mErrors = new ArrayList<>();
+
+    /**
+     * @param resDir the module's res directory, used to resolve resource references
+     */
+    public KeyboardLayoutCompiler(File resDir) throws Exception {
+        mResDir = resDir;
+        mPhysicalKeys = readPhysicalKeyEnum(new File(resDir, "values/attrs.xml"));
+    }
+
+    public List<String> getErrors() {
+        return mErrors;
+    }
+
+    /**
+     * Compiles the layouts into the source of CompiledLayouts, or returns null
+     * and fills {@link #getErrors} if any of them is invalid.
+     */
+    public String compile(List<File> layouts, String packageName) throws Exception {
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by KeyboardLayoutCompiler from res/xml, do not edit.\n")
+                .append("package ").append(packageName).append(";\n\n")
+                .append("final class CompiledLayouts {\n\n")
+                .append("    private CompiledLayouts() {\n    }\n");
+        for (File layout : layouts) {
+            compileLayout(layout, out);
+        }
+        out.append("}\n");
+        return mErrors.isEmpty() ? out.toString() : null;
+    }
+
+    private void compileLayout(File file, StringBuilder out) throws Exception {
+        String name = file.getName().replaceFirst("\\.xml$", "");
+        Element keyboard = parse(file).getDocumentElement();
+        if (!"Keyboard".equals(keyboard.getTagName())) {
+            error(file, "root element is <" + keyboard.getTagName() + ">, expected <Keyboard>");
+            return;
+        }
+        checkAttributes(file, keyboard, KEYBOARD_ATTRIBUTES, set());
+
+        List<String> resources = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        int keyWidth = dimension(file, keyboard, "keyWidth", "10%p", resources);
+        int[] header = {
+                keyWidth,
+                dimension(file, keyboard, "keyHeight", null, resources),
+                dimension(file, keyboard, "horizontalGap", "0px", resources),
+                dimension(file, keyboard, "verticalGap", "0px", resources),
+        };
+
+        List<Integer> rows = new ArrayList<>();
+        List<Integer> keys = new ArrayList<>();
+        Map<Integer, String> printableCodes = new HashMap<>();
+        Map<Integer, String> physicalKeys = new HashMap<>();
+        Set<Integer> codes = new HashSet<>();
+        int rowIndex = 0;
+        for (Element row : children(keyboard, "Row")) {
+            checkAttributes(file, row, ROW_ATTRIBUTES, set());
+            List<Element> rowKeys = children(row, "Key");
+            rows.add(flags(file, row, "rowEdgeFlags"));
+            rows.add(rowKeys.size());
+            int rowWidth = 0;
+            int keyIndex = 0;
+            for (Element key : rowKeys) {
+                String where = "row " + rowIndex + " key " + keyIndex;
+                checkAttributes(file, key, KEY_ATTRIBUTES, KEY_APP_ATTRIBUTES);
+                int code = code(file, key, where);
+                int width = key.hasAttributeNS(ANDROID_NS, "keyWidth")
+                        ? dimension(file, key, "keyWidth", null, resources) : keyWidth;
+                if (width >>> DIM_TYPE_SHIFT == DIM_PERCENT_P) {
+                    rowWidth += width & ((1 << DIM_TYPE_SHIFT) - 1);
+                }
+                int keyFlags = (bool(key, "isSticky") ? FLAG_STICKY : 0)
+                        | (bool(key, "isModifier") ? FLAG_MODIFIER : 0)
+                        | (bool(key, "isRepeatable") ? FLAG_REPEATABLE : 0);
+                int icon = -1;
+                if (key.hasAttributeNS(ANDROID_NS, "keyIcon")) {
+                    icon = resource(file, attr(key, "keyIcon"), resources);
+                }
+                int label = -1;
+                if (key.hasAttributeNS(ANDROID_NS, "keyLabel")) {
+                    label = labels.size();
+                    labels.add(unescape(attr(key, "keyLabel")));
+                }
+                int output = -1;
+                if (key.hasAttributeNS(APP_NS, "output")) {
+                    String text = unescape(key.getAttributeNS(APP_NS, "output"));
+                    if (text.isEmpty()) {
+                        error(file, where + ": empty output");
+                    } else if (code <= 0) {
+                        error(file, where + ": a key with an output needs a code of its own, not " + code);
+                    } else {
+                        output = labels.indexOf(text);
+                        if (output < 0) {
+                            output = labels.size();
+                            labels.add(text);
+                        }
+                    }
+                }
+                int physicalKey = -1;
+                if (key.hasAttributeNS(APP_NS, "physicalKey")) {
+                    String physicalName = key.getAttributeNS(APP_NS, "physicalKey");
+                    Integer physical = mPhysicalKeys.get(physicalName);
+                    if (physical == null) {
+                        error(file, where + ": unknown physicalKey \"" + physicalName + "\"");
+                    } else if (physicalKeys.containsKey(physical)) {
+                        error(file, where + ": physical key \"" + physicalName + "\" already mapped at " + physicalKeys.get(physical));
+                    } else {
+                        physicalKey = physical;
+                        physicalKeys.put(physical, where);
+                    }
+                }
+                if (code > 0) {
+                    String previous = printableCodes.put(code, where);
+                    if (previous != null) {
+                        error(file, where + ": code " + code + " duplicates " + previous);
+                    }
+                }
+                codes.add(code);
+
+                keys.add(code);
+                keys.add(width);
+                keys.add(keyFlags);
+                keys.add(flags(file, key, "keyEdgeFlags"));
+                keys.add(icon);
+                keys.add(label);
+                keys.add(physicalKey);
+                keys.add(output);
+                keyIndex++;
+            }
+            if (rowWidth > 100_00) {
+                error(file, "row " + rowIndex + " is " + (rowWidth / 100f) + "%p wide");
+            }
+            rowIndex++;
+        }
+
+        if (codes.contains(CODE_MODE_CHANGE) && !codes.contains(CODE_CTRL)) {
+            error(file, "has a layer switch key but no ctrl key (" + CODE_CTRL + ")");
+        }
+        if (!physicalKeys.isEmpty()) {
+            if (!codes.contains(CODE_ENTER) && !codes.contains(CODE_EDITOR_ACTION)) {
+                error(file, "maps physical keys but has no enter key (" + CODE_ENTER + " or " + CODE_EDITOR_ACTION + ")");
+            }
+            for (Map.Entry<String, Integer> entry : mPhysicalKeys.entrySet()) {
+                if (entry.getKey().length() == 1 && !physicalKeys.containsKey(entry.getValue())) {
+                    error(file, "maps physical keys but leaves \"" + entry.getKey() + "\" unmapped");
+                }
+            }
+        }
+
+        out.append('\n')
+                .append("    static final CompiledLayout ").append(name.toUpperCase(Locale.ROOT)).append(" = new CompiledLayout(\n")
+                .append("            ").append(intArray(toList(header))).append(",\n")
+                .append("            ").append(intArray(rows)).append(",\n")
+                .append("            ").append(intArray(keys)).append(",\n")
+                .append("            ").append(stringArray(labels)).append(",\n")
+                .append("            new int[]{").append(String.join(", ", resources)).append("});\n");
+    }
+
+    private int code(File file, Element key, String where) {
+        String codes = attr(key, "codes");
+        if (codes == null) {
+            error(file, where + ": missing android:codes");
+            return 0;
+        }
+        if (codes.contains(",")) {
+            error(file, where + ": multiple codes are not supported");
+            return 0;
+        }
+        try {
+            return Integer.parseInt(codes.trim());
+        } catch (NumberFormatException e) {
+            error(file, where + ": bad code \"" + codes + "\"");
+            return 0;
+        }
+    }
+
+    private int dimension(File file, Element element, String name, String fallback, List<String> resources) {
+        String value = attr(element, name);
+        if (value == null) {
+            value = fallback;
+        }
+        if (value == null) {
+            error(file, "<" + element.getTagName() + "> is missing android:" + name);
+            return 0;
+        }
+        if (value.startsWith("@dimen/")) {
+            return DIM_RESOURCE << DIM_TYPE_SHIFT | resource(file, value, resources);
+        }
+        try {
+            if (value.endsWith("%p")) {
+                return DIM_PERCENT_P << DIM_TYPE_SHIFT | Math.round(Float.parseFloat(value.substring(0, value.length() - 2)) * 100);
+            } else if (value.endsWith("px")) {
+                return DIM_PX << DIM_TYPE_SHIFT | Integer.parseInt(value.substring(0, value.length() - 2));
+            } else if (value.endsWith("dip")) {
+                return DIM_DP << DIM_TYPE_SHIFT | Math.round(Float.parseFloat(value.substring(0, value.length() - 3)) * 100);
+            } else if (value.endsWith("dp")) {
+                return DIM_DP << DIM_TYPE_SHIFT | Math.round(Float.parseFloat(value.substring(0, value.length() - 2)) * 100);
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        error(file, "unsupported dimension \"" + value + "\" for android:" + name);
+        return 0;
+    }
+
+    /**
+     * Returns the index of the R field for a @type/name reference in
+     * {@code resources}, adding it if needed.
+     */
+    private int resource(File file, String reference, List<String> resources) {
+        String[] parts = reference.substring(1).split("/");
+        if (!reference.startsWith("@") || parts.length != 2 || !resourceExists(parts[0], parts[1])) {
+            error(file, "unresolved resource " + reference);
+            return 0;
+        }
+        String field = "R." + parts[0] + "." + parts[1];
+        int index = resources.indexOf(field);
+        if (index < 0) {
+            index = resources.size();
+            resources.add(field);
+        }
+        return index;
+    }
+
+    private boolean resourceExists(String type, String name) {
+        File[] dirs = mResDir.listFiles();
+        if (dirs == null) {
+            return false;
+        }
+        for (File dir : dirs) {
+            if ("drawable".equals(type) && dir.getName().matches("(drawable|mipmap)(-.*)?")) {
+                File[] files = dir.listFiles((d, fileName) -> fileName.startsWith(name + "."));
+                if (files != null && files.length > 0) {
+                    return true;
+                }
+            } else if ("dimen".equals(type) && dir.getName().matches("values(-.*)?")) {
+                File dimens = new File(dir, "dimens.xml");
+                try {
+                    if (dimens.isFile()) {
+                        for (Element dimen : children(parse(dimens).getDocumentElement(), "dimen")) {
+                            if (name.equals(dimen.getAttribute("name"))) {
+                                return true;
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int flags(File file, Element element, String name) {
+        String value = attr(element, name);
+        int flags = 0;
+        if (value == null) {
+            return flags;
+        }
+        for (String flag : value.split("\\|")) {
+            switch (flag.trim()) {
+                case "left":
+                    flags |= 1;
+                    break;
+                case "right":
+                    flags |= 2;
+                    break;
+                case "top":
+                    flags |= 4;
+                    break;
+                case "bottom":
+                    flags |= 8;
+                    break;
+                default:
+                    error(file, "unknown edge flag \"" + flag + "\"");
+            }
+        }
+        return flags;
+    }
+
+    private void checkAttributes(File file, Element element, Set<String> android, Set<String> app) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            String ns = attribute.getNamespaceURI();
+            String name = attribute.getLocalName();
+            if ("http://www.w3.org/2000/xmlns/".equals(ns)
+                    || (ANDROID_NS.equals(ns) && android.contains(name))
+                    || (APP_NS.equals(ns) && app.contains(name))) {
+                continue;
+            }
+            error(file, "<" + element.getTagName() + "> attribute " + attribute.getNodeName() + " is not supported by the compiled loader");
+        }
+    }
+
+    private void error(File file, String message) {
+        mErrors.add(file.getName() + ": " + message);
+    }
+
+    private static Map<String, Integer> readPhysicalKeyEnum(File attrs) throws Exception {
+        Map<String, Integer> values = new LinkedHashMap<>();
+        for (Element styleable : children(parse(attrs).getDocumentElement(), "declare-styleable")) {
+            for (Element attr : children(styleable, "attr")) {
+                if ("physicalKey".equals(attr.getAttribute("name"))) {
+                    for (Element value : children(attr, "enum")) {
+                        values.put(value.getAttribute("name"), Integer.decode(value.getAttribute("value")));
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static Document parse(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        return builder.parse(file);
+    }
+
+    private static List<Element> children(Element parent, String tag) {
+        List<Element> elements = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node instanceof Element && tag.equals(((Element) node).getTagName())) {
+                elements.add((Element) node);
+            }
+        }
+        return elements;
+    }
+
+    private static String attr(Element element, String name) {
+        return element.hasAttributeNS(ANDROID_NS, name) ? element.getAttributeNS(ANDROID_NS, name) : null;
+    }
+
+    private static boolean bool(Element element, String name) {
+        return "true".equals(attr(element, name));
+    }
+
+    /**
+     * Resolves the backslash escapes aapt applies to string attributes.
+     */
+    static String unescape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                out.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    out.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    out.append(next);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String intArray(List<Integer> values) {
+        StringBuilder out = new StringBuilder("new int[]{");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(values.get(i));
+        }
+        return out.append('}').toString();
+    }
+
+    private static String stringArray(List<String> values) {
+        StringBuilder out = new StringBuilder("new String[]{");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append('"');
+            for (char c : values.get(i).toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c < 0x20 || c > 0x7e) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(java.util.Arrays.asList(values));
+    }
+}